@@ -1,38 +1,103 @@
 package com.familynest.config;
 
+import org.ehcache.config.CacheConfiguration;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheEventListenerConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.event.EventType;
+import org.ehcache.jsr107.Eh107Configuration;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.cache.jcache.JCacheCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.cache.Caching;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
 /**
  * Configuration for application caching
- * Uses in-memory caching for all environments for consistency
- * Redis can be added later as an additional layer
+ * Ehcache 3 through JCache, with a size limit and TTL per cache so memory stays bounded on
+ * long-running nodes and entries can't go stale forever. Every cache is counted by CacheMetrics.
+ *
+ * Per-cache overrides: cache.<name>.max-entries, cache.<name>.ttl-seconds and cache.<name>.offheap-mb.
+ * The off-heap tier is off by default; only enable it for caches whose values are Serializable.
  */
 @Configuration
 @EnableCaching
 public class CacheConfig {
 
+    private static final Logger logger = LoggerFactory.getLogger(CacheConfig.class);
+
+    // Define all cache names used across the application with their default {max entries, TTL seconds}
+    // Add new caches here as they're introduced to avoid deployment issues
+    private static final Map<String, long[]> CACHE_DEFAULTS = new LinkedHashMap<>();
+    static {
+        CACHE_DEFAULTS.put("userMessages", new long[] {2000, 60});
+        CACHE_DEFAULTS.put("familyMessages", new long[] {2000, 60});
+        CACHE_DEFAULTS.put("messageEngagement", new long[] {5000, 30});
+        CACHE_DEFAULTS.put("userFamilies", new long[] {5000, 300});
+        CACHE_DEFAULTS.put("userProfile", new long[] {5000, 300});
+        CACHE_DEFAULTS.put("messagePreferences", new long[] {5000, 300});
+        CACHE_DEFAULTS.put("invitations", new long[] {2000, 60});
+        CACHE_DEFAULTS.put("notifications", new long[] {2000, 60});
+        CACHE_DEFAULTS.put("userSettings", new long[] {5000, 300});
+        CACHE_DEFAULTS.put("familySettings", new long[] {2000, 300});
+    }
+
+    @Bean(destroyMethod = "close")
+    public javax.cache.CacheManager jCacheManager(Environment env, CacheMetrics cacheMetrics) {
+        javax.cache.CacheManager jCacheManager = Caching
+            .getCachingProvider(EhcacheCachingProvider.class.getName())
+            .getCacheManager();
+
+        CACHE_DEFAULTS.forEach((name, defaults) -> {
+            long maxEntries = env.getProperty("cache." + name + ".max-entries", Long.class, defaults[0]);
+            long ttlSeconds = env.getProperty("cache." + name + ".ttl-seconds", Long.class, defaults[1]);
+            long offheapMb = env.getProperty("cache." + name + ".offheap-mb", Long.class, 0L);
+
+            ResourcePoolsBuilder pools = ResourcePoolsBuilder.heap(maxEntries);
+            if (offheapMb > 0) {
+                pools = pools.offheap(offheapMb, MemoryUnit.MB);
+            }
+
+            CacheConfiguration<Object, Object> config = CacheConfigurationBuilder
+                .newCacheConfigurationBuilder(Object.class, Object.class, pools)
+                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofSeconds(ttlSeconds)))
+                .withService(CacheEventListenerConfigurationBuilder
+                    .newEventListenerConfiguration(cacheMetrics.listenerFor(name), EventType.EVICTED, EventType.EXPIRED)
+                    .unordered()
+                    .asynchronous())
+                .build();
+
+            jCacheManager.createCache(name, Eh107Configuration.fromEhcacheCacheConfiguration(config));
+            logger.info("Cache {}: max {} entries, TTL {}s{}", name, maxEntries, ttlSeconds,
+                offheapMb > 0 ? ", " + offheapMb + "MB off-heap" : "");
+        });
+        return jCacheManager;
+    }
+
     @Bean
-    public CacheManager cacheManager() {
-        ConcurrentMapCacheManager cacheManager = new ConcurrentMapCacheManager();
-        // Define all cache names used across the application
-        // Add new caches here as they're introduced to avoid deployment issues
-        cacheManager.setCacheNames(java.util.Arrays.asList(
-            "userMessages",
-            "familyMessages", 
-            "messageEngagement",
-            "userFamilies",
-            "userProfile",
-            "messagePreferences",
-            "invitations",
-            "notifications",
-            "userSettings",
-            "familySettings"
-        ));
+    public CacheManager cacheManager(javax.cache.CacheManager jCacheManager, CacheMetrics cacheMetrics) {
+        JCacheCacheManager cacheManager = new JCacheCacheManager(jCacheManager) {
+            @Override
+            protected Cache decorateCache(Cache cache) {
+                return cacheMetrics.instrument(super.decorateCache(cache));
+            }
+        };
+        // Evictions issued inside a transaction (see CacheEvictionService) are applied after commit,
+        // so a concurrent read can't re-cache the pre-commit state
+        cacheManager.setTransactionAware(true);
         return cacheManager;
     }
-} 
+}
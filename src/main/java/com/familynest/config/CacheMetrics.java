@@ -0,0 +1,103 @@
+package com.familynest.config;
+
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hit/miss/put/eviction counters for every cache registered in CacheConfig.
+ * Explicit operations are counted by InstrumentedCache; capacity evictions and TTL expirations
+ * come from the Ehcache event listener returned by listenerFor().
+ */
+@Component
+public class CacheMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheMetrics.class);
+
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    static final class Counters {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong puts = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+        final AtomicLong capacityEvictions = new AtomicLong();
+        final AtomicLong expirations = new AtomicLong();
+
+        double hitRatio() {
+            long total = hits.get() + misses.get();
+            return total == 0 ? 0.0 : (double) hits.get() / total;
+        }
+    }
+
+    Counters countersFor(String cacheName) {
+        return counters.computeIfAbsent(cacheName, name -> new Counters());
+    }
+
+    /**
+     * Wrap a Spring cache so reads and writes through it are counted
+     */
+    public Cache instrument(Cache cache) {
+        return new InstrumentedCache(cache, countersFor(cache.getName()));
+    }
+
+    /**
+     * Ehcache listener that counts entries dropped by the size limit or the TTL
+     */
+    public CacheEventListener<Object, Object> listenerFor(String cacheName) {
+        Counters c = countersFor(cacheName);
+        return (CacheEvent<?, ?> event) -> {
+            switch (event.getType()) {
+                case EVICTED -> c.capacityEvictions.incrementAndGet();
+                case EXPIRED -> c.expirations.incrementAndGet();
+                default -> { }
+            }
+        };
+    }
+
+    /**
+     * Current counters per cache
+     */
+    public Map<String, Map<String, Object>> getStats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        counters.entrySet().stream()
+            .sorted(Map.Entry.comparingByKey())
+            .forEach(entry -> {
+                Counters c = entry.getValue();
+                Map<String, Object> values = new LinkedHashMap<>();
+                values.put("hits", c.hits.get());
+                values.put("misses", c.misses.get());
+                values.put("hitRatio", Math.round(c.hitRatio() * 1000) / 1000.0);
+                values.put("puts", c.puts.get());
+                values.put("evictions", c.evictions.get());
+                values.put("capacityEvictions", c.capacityEvictions.get());
+                values.put("expirations", c.expirations.get());
+                stats.put(entry.getKey(), values);
+            });
+        return stats;
+    }
+
+    /**
+     * Log a one-line summary per active cache (every 5 minutes by default)
+     */
+    @Scheduled(fixedRateString = "${cache.metrics.log-interval:300000}", initialDelayString = "${cache.metrics.log-interval:300000}")
+    public void logStats() {
+        counters.forEach((name, c) -> {
+            if (c.hits.get() + c.misses.get() + c.puts.get() == 0) {
+                return;
+            }
+            logger.info("📊 Cache {}: {} hits, {} misses ({}% hit), {} puts, {} evicted, {} capacity-evicted, {} expired",
+                name, c.hits.get(), c.misses.get(), Math.round(c.hitRatio() * 100), c.puts.get(),
+                c.evictions.get(), c.capacityEvictions.get(), c.expirations.get());
+        });
+    }
+}
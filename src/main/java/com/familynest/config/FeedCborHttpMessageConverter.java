@@ -0,0 +1,68 @@
+package com.familynest.config;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+
+/**
+ * CBOR (application/cbor) responses for the heavy feed endpoints only.
+ *
+ * A client opts in with "Accept: application/cbor"; everyone else keeps getting JSON, since JSON
+ * is registered first. The payload is the same object graph as the JSON response, serialized with
+ * the same settings as JacksonConfig, so keys and nulls match. Paths are Ant patterns from
+ * rest.cbor.paths; other endpoints don't offer CBOR at all. Responses on those paths carry
+ * "Vary: Accept" (WebMvcConfig), since both formats share one ETag.
+ */
+public class FeedCborHttpMessageConverter extends MappingJackson2CborHttpMessageConverter {
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final List<String> pathPatterns;
+
+    public FeedCborHttpMessageConverter(List<String> pathPatterns) {
+        super(cborMapper());
+        this.pathPatterns = pathPatterns;
+    }
+
+    private static CBORMapper cborMapper() {
+        CBORMapper mapper = new CBORMapper();
+        mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        mapper.setSerializationInclusion(JsonInclude.Include.ALWAYS);
+        return mapper;
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        // Responses only; request bodies stay JSON / multipart
+        return false;
+    }
+
+    @Override
+    protected boolean canWrite(MediaType mediaType) {
+        // Every canWrite variant (including generic List<...> return types) checks this first
+        return isCborPath() && super.canWrite(mediaType);
+    }
+
+    private boolean isCborPath() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes servletAttributes)) {
+            return false;
+        }
+        HttpServletRequest request = servletAttributes.getRequest();
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (String pattern : pathPatterns) {
+            if (pathMatcher.match(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -9,7 +9,8 @@ import java.net.SocketException;
 
 /**
  * WebSocket handler decorator that gracefully handles mobile network connection resets
- * without flooding logs with expected exceptions
+ * without flooding logs with expected exceptions, and reports transport opens and closes to
+ * WebSocketEventListener
  */
 public class GracefulWebSocketHandlerDecorator extends WebSocketHandlerDecorator {
 
@@ -21,6 +22,12 @@ public class GracefulWebSocketHandlerDecorator extends WebSocketHandlerDecorator
         this.eventListener = eventListener;
     }
 
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        eventListener.handleTransportOpened(session.getId());
+        super.afterConnectionEstablished(session);
+    }
+
     @Override
     public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
         String sessionId = session.getId();
@@ -42,6 +49,10 @@ public class GracefulWebSocketHandlerDecorator extends WebSocketHandlerDecorator
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
         logger.debug("🔌 WebSocket connection closed: sessionId={}, status={}", session.getId(), closeStatus);
-        super.afterConnectionClosed(session, closeStatus);
+        try {
+            super.afterConnectionClosed(session, closeStatus);
+        } finally {
+            eventListener.handleTransportClosed(session.getId());
+        }
     }
 }
@@ -0,0 +1,95 @@
+package com.familynest.config;
+
+import org.springframework.cache.Cache;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Spring cache decorator that counts hits, misses, puts and explicit evictions.
+ */
+class InstrumentedCache implements Cache {
+
+    private final Cache delegate;
+    private final CacheMetrics.Counters counters;
+
+    InstrumentedCache(Cache delegate, CacheMetrics.Counters counters) {
+        this.delegate = delegate;
+        this.counters = counters;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return delegate.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        ValueWrapper value = delegate.get(key);
+        (value != null ? counters.hits : counters.misses).incrementAndGet();
+        return value;
+    }
+
+    @Override
+    public <T> T get(Object key, Class<T> type) {
+        T value = delegate.get(key, type);
+        (value != null ? counters.hits : counters.misses).incrementAndGet();
+        return value;
+    }
+
+    @Override
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        boolean[] loaded = {false};
+        T value = delegate.get(key, () -> {
+            loaded[0] = true;
+            return valueLoader.call();
+        });
+        if (loaded[0]) {
+            counters.misses.incrementAndGet();
+            counters.puts.incrementAndGet();
+        } else {
+            counters.hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        counters.puts.incrementAndGet();
+        delegate.put(key, value);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = delegate.putIfAbsent(key, value);
+        if (existing == null) {
+            counters.puts.incrementAndGet();
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        counters.evictions.incrementAndGet();
+        delegate.evict(key);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean evicted = delegate.evictIfPresent(key);
+        if (evicted) {
+            counters.evictions.incrementAndGet();
+        }
+        return evicted;
+    }
+
+    @Override
+    public void clear() {
+        counters.evictions.incrementAndGet();
+        delegate.clear();
+    }
+}
@@ -86,7 +86,7 @@ public class SecurityConfig {
         configuration.setAllowedHeaders(Arrays.asList("Authorization", "Content-Type", "Accept", "Origin"));
         configuration.setAllowCredentials(false);  // Must be false when allowedOrigins contains "*"
         configuration.setMaxAge(3600L);
-        configuration.setExposedHeaders(Arrays.asList("Content-Type", "Content-Length"));
+        configuration.setExposedHeaders(Arrays.asList("Content-Type", "Content-Length", "X-Next-Cursor", "ETag"));
 
         UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
         source.registerCorsConfiguration("/**", configuration);
@@ -0,0 +1,135 @@
+package com.familynest.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbound-channel interceptor that keeps one slow client from backing up delivery for everyone.
+ *
+ * A session's write backlog is the bytes its ConcurrentWebSocketSessionDecorator has buffered
+ * because an earlier write to the socket hasn't finished (WebSocketBrokerConfig registers each
+ * decorator here). Once a session has websocket.slow-consumer.max-buffered-bytes or more waiting,
+ * state-snapshot frames (reaction and comment counts) for it are dropped; they are superseded by
+ * the next update and the client refreshes counts when it catches up. Messages, comments and DMs
+ * are never dropped.
+ *
+ * Sessions that still can't keep up hit the transport send-time / buffer limits configured in
+ * WebSocketConfig and are closed by Spring with SESSION_NOT_RELIABLE; those closes are counted
+ * here as forced disconnects.
+ */
+@Component
+public class SlowConsumerGuard implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlowConsumerGuard.class);
+
+    @Value("${websocket.slow-consumer.max-buffered-bytes:65536}")
+    private int maxBufferedBytes;
+
+    private final Map<String, ConcurrentWebSocketSessionDecorator> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong forcedDisconnects = new AtomicLong();
+    private final AtomicInteger maxObservedBacklog = new AtomicInteger();
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId == null || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        int backlog = backlogOf(sessionId);
+        maxObservedBacklog.accumulateAndGet(backlog, Math::max);
+        if (backlog >= maxBufferedBytes && isDroppable(SimpMessageHeaderAccessor.getDestination(message.getHeaders()))) {
+            droppedFrames.incrementAndGet();
+            logger.debug("🐢 Session {} has {} bytes waiting to be written, dropping stale frame", sessionId, backlog);
+            return null;
+        }
+        return message;
+    }
+
+    /**
+     * Bytes buffered for the session behind a write still in progress
+     */
+    private int backlogOf(String sessionId) {
+        ConcurrentWebSocketSessionDecorator session = sessions.get(sessionId);
+        return session != null ? session.getBufferSize() : 0;
+    }
+
+    /**
+     * Frames that only carry a snapshot of counts and are safe to skip for a lagging client
+     */
+    private static boolean isDroppable(String destination) {
+        return destination != null && (destination.endsWith("/reactions") || destination.endsWith("/comment-counts"));
+    }
+
+    /**
+     * Track a new session's send buffer
+     */
+    public void onSessionStarted(ConcurrentWebSocketSessionDecorator session) {
+        sessions.put(session.getId(), session);
+    }
+
+    /**
+     * Forget a closed session; closes caused by the send limits count as forced disconnects
+     */
+    public void onSessionClosed(String sessionId, CloseStatus closeStatus) {
+        sessions.remove(sessionId);
+        if (CloseStatus.SESSION_NOT_RELIABLE.equalsCode(closeStatus)) {
+            forcedDisconnects.incrementAndGet();
+            logger.info("🐢 Closed slow WebSocket session {} (send limits exceeded)", sessionId);
+        }
+    }
+
+    /**
+     * Slow-consumer counters, plus the largest per-session write backlogs (bytes) right now
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Integer> backlogs = new LinkedHashMap<>();
+        sessions.forEach((sessionId, session) -> {
+            int backlog = session.getBufferSize();
+            if (backlog > 0) {
+                backlogs.put(sessionId, backlog);
+            }
+        });
+        Map<String, Object> deepest = new LinkedHashMap<>();
+        backlogs.entrySet().stream()
+            .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+            .limit(5)
+            .forEach(entry -> deepest.put(entry.getKey(), entry.getValue()));
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("laggingSessions", backlogs.values().stream().filter(backlog -> backlog >= maxBufferedBytes).count());
+        stats.put("maxObservedBacklogBytes", maxObservedBacklog.get());
+        stats.put("droppedFrames", droppedFrames.get());
+        stats.put("forcedDisconnects", forcedDisconnects.get());
+        stats.put("deepestSessions", deepest);
+        return stats;
+    }
+
+    /**
+     * Log slow-consumer counters when there is something to report (every 5 minutes by default)
+     */
+    @Scheduled(fixedRateString = "${websocket.slow-consumer.log-interval:300000}", initialDelayString = "${websocket.slow-consumer.log-interval:300000}")
+    public void logStats() {
+        if (droppedFrames.get() + forcedDisconnects.get() == 0) {
+            return;
+        }
+        logger.info("🐢 WebSocket slow consumers: {}", getStats());
+    }
+}
@@ -0,0 +1,183 @@
+package com.familynest.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-session binary payloads on the STOMP channel.
+ *
+ * A client opts in by sending "payload-format: cbor" on its CONNECT frame. Frames to that session
+ * are then sent as binary WebSocket messages carrying CBOR instead of JSON text, marked with a
+ * "payload-format: cbor" header (content-type is application/octet-stream, which is what makes
+ * Spring write a binary frame). Sessions that don't ask keep getting JSON.
+ *
+ * Broadcasts are encoded to JSON once per fan-out and every recipient's frame shares that payload
+ * array, so the CBOR form is cached by payload identity and converted once per fan-out as well.
+ * SockJS sessions can't carry binary frames and are left on JSON.
+ */
+@Component
+public class StompPayloadCodec implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(StompPayloadCodec.class);
+
+    public static final String FORMAT_HEADER = "payload-format";
+    public static final String CBOR = "cbor";
+
+    private static final String SOCKJS_ATTRIBUTE = "familynest.sockjs";
+
+    @Value("${websocket.binary.enabled:true}")
+    private boolean enabled;
+
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final CBORMapper cborMapper = new CBORMapper();
+
+    private final Set<String> cborSessions = ConcurrentHashMap.newKeySet();
+
+    // JSON payload array -> CBOR bytes; keys are compared by identity and released with the message
+    private final Map<byte[], byte[]> encoded = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final AtomicLong framesEncoded = new AtomicLong();
+    private final AtomicLong payloadsConverted = new AtomicLong();
+    private final AtomicLong conversionFailures = new AtomicLong();
+    private final AtomicLong jsonBytes = new AtomicLong();
+    private final AtomicLong cborBytes = new AtomicLong();
+
+    /**
+     * Intercepts the client inbound channel (CONNECT / DISCONNECT) and the client outbound channel
+     * (MESSAGE frames)
+     */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (type == null || sessionId == null) {
+            return message;
+        }
+        switch (type) {
+            case CONNECT -> onConnect(sessionId, message);
+            case DISCONNECT -> cborSessions.remove(sessionId);
+            case MESSAGE -> {
+                if (cborSessions.contains(sessionId)) {
+                    return toCbor(message);
+                }
+            }
+            default -> { }
+        }
+        return message;
+    }
+
+    private void onConnect(String sessionId, Message<?> message) {
+        if (!enabled) {
+            return;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        if (CBOR.equalsIgnoreCase(accessor.getFirstNativeHeader(FORMAT_HEADER)) && !isSockJs(accessor)) {
+            cborSessions.add(sessionId);
+            logger.debug("Session {} negotiated CBOR payloads", sessionId);
+        }
+    }
+
+    private static boolean isSockJs(SimpMessageHeaderAccessor accessor) {
+        Map<String, Object> attributes = accessor.getSessionAttributes();
+        return attributes != null && Boolean.TRUE.equals(attributes.get(SOCKJS_ATTRIBUTE));
+    }
+
+    /**
+     * Handshake interceptor for the SockJS endpoint: SockJS transports are text-only, so sessions
+     * opened through it are marked and stay on JSON
+     */
+    public static HandshakeInterceptor sockJsMarker() {
+        return new HandshakeInterceptor() {
+            @Override
+            public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                           WebSocketHandler wsHandler, Map<String, Object> attributes) {
+                attributes.put(SOCKJS_ATTRIBUTE, Boolean.TRUE);
+                return true;
+            }
+
+            @Override
+            public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                       WebSocketHandler wsHandler, Exception exception) {
+            }
+        };
+    }
+
+    private Message<?> toCbor(Message<?> message) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        MimeType contentType = accessor.getContentType();
+        if (!(message.getPayload() instanceof byte[] json) || json.length == 0
+                || contentType == null || !MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(contentType)) {
+            return message;
+        }
+        byte[] cbor = encoded.get(json);
+        if (cbor == null) {
+            try {
+                cbor = cborMapper.writeValueAsBytes(jsonMapper.readTree(json));
+            } catch (Exception e) {
+                // Deliver the JSON frame rather than nothing
+                conversionFailures.incrementAndGet();
+                logger.warn("CBOR conversion failed, sending JSON: {}", e.getMessage());
+                return message;
+            }
+            encoded.put(json, cbor);
+            payloadsConverted.incrementAndGet();
+            jsonBytes.addAndGet(json.length);
+            cborBytes.addAndGet(cbor.length);
+        }
+        framesEncoded.incrementAndGet();
+
+        accessor.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        accessor.setNativeHeader(FORMAT_HEADER, CBOR);
+        return MessageBuilder.createMessage(cbor, accessor.getMessageHeaders());
+    }
+
+    /**
+     * Codec counters: CBOR sessions, frames sent as CBOR and the size of converted payloads
+     */
+    public Map<String, Object> getStats() {
+        long json = jsonBytes.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cborSessions", cborSessions.size());
+        stats.put("framesEncoded", framesEncoded.get());
+        stats.put("payloadsConverted", payloadsConverted.get());
+        stats.put("conversionFailures", conversionFailures.get());
+        stats.put("cborToJsonRatio", json == 0 ? 0.0 : Math.round(cborBytes.get() * 1000.0 / json) / 1000.0);
+        return stats;
+    }
+
+    /**
+     * Log codec counters (every 5 minutes by default)
+     */
+    @Scheduled(fixedRateString = "${websocket.binary.log-interval:300000}", initialDelayString = "${websocket.binary.log-interval:300000}")
+    public void logStats() {
+        if (framesEncoded.get() == 0) {
+            return;
+        }
+        logger.info("📦 STOMP binary payloads: {}", getStats());
+    }
+}
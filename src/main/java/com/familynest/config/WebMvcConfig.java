@@ -5,11 +5,21 @@ import com.familynest.service.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
 import java.nio.file.Path;
+import java.util.List;
 
 @Configuration
 public class WebMvcConfig implements WebMvcConfigurer {
@@ -19,6 +29,9 @@ public class WebMvcConfig implements WebMvcConfigurer {
     @Autowired
     private StorageService storageService;
 
+    @Value("${rest.cbor.paths:/api/users/*/messages,/api/dm/conversations/*/messages}")
+    private List<String> cborPaths;
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         // Only configure local file serving if we're using LocalStorageService
@@ -40,4 +53,30 @@ public class WebMvcConfig implements WebMvcConfigurer {
             logger.info("Using remote storage service, skipping local file serving configuration");
         }
     }
-} 
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (cborPaths.isEmpty()) {
+            return;
+        }
+        // JSON and CBOR responses on these paths share the URL and the ETag, so caches (and 304s)
+        // must be keyed on Accept too; set before the handler runs so 304 responses carry it as well
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+                return true;
+            }
+        }).addPathPatterns(cborPaths);
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        // The default CBOR converter would offer application/cbor on every endpoint; limit it to the feeds
+        converters.removeIf(converter -> converter instanceof MappingJackson2CborHttpMessageConverter);
+        if (!cborPaths.isEmpty()) {
+            converters.add(new FeedCborHttpMessageConverter(cborPaths));
+            logger.info("CBOR responses available on {}", cborPaths);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.familynest.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+/**
+ * STOMP broker setup; takes the place of @EnableWebSocketMessageBroker and still applies every
+ * WebSocketMessageBrokerConfigurer (see WebSocketConfig).
+ *
+ * The only change to the defaults is the session handler: each session's send-buffering decorator
+ * is handed to SlowConsumerGuard, which reads a session's write backlog from it.
+ */
+@Configuration
+public class WebSocketBrokerConfig extends DelegatingWebSocketMessageBrokerConfiguration {
+
+    @Autowired
+    private SlowConsumerGuard slowConsumerGuard;
+
+    @Bean
+    @Override
+    public WebSocketHandler subProtocolWebSocketHandler(
+            @Qualifier("clientInboundChannel") AbstractSubscribableChannel clientInboundChannel,
+            @Qualifier("clientOutboundChannel") AbstractSubscribableChannel clientOutboundChannel) {
+        SubProtocolWebSocketHandler handler = new SubProtocolWebSocketHandler(clientInboundChannel, clientOutboundChannel) {
+            @Override
+            protected WebSocketSession decorateSession(WebSocketSession session) {
+                WebSocketSession decorated = super.decorateSession(session);
+                if (decorated instanceof ConcurrentWebSocketSessionDecorator concurrentSession) {
+                    slowConsumerGuard.onSessionStarted(concurrentSession);
+                }
+                return decorated;
+            }
+        };
+        handler.setPhase(getPhase());
+        return handler;
+    }
+}
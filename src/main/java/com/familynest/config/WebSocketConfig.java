@@ -1,25 +1,102 @@
 package com.familynest.config;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
+import java.util.concurrent.ThreadPoolExecutor;
+
+// The broker itself is enabled by WebSocketBrokerConfig
 @Configuration
-@EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    @Autowired
+    private SlowConsumerGuard slowConsumerGuard;
+
+    @Autowired
+    private StompPayloadCodec stompPayloadCodec;
+
+    @Autowired
+    private WebSocketEventListener webSocketEventListener;
+
+    // Per-session send limits: a session whose current write exceeds the time limit, or whose
+    // pending frames exceed the buffer limit, is closed (SESSION_NOT_RELIABLE) instead of holding
+    // up an outbound thread
+    @Value("${websocket.send-time-limit-ms:5000}")
+    private int sendTimeLimitMs;
+
+    @Value("${websocket.send-buffer-size-limit:262144}")
+    private int sendBufferSizeLimit;
+
+    @Value("${websocket.message-size-limit:65536}")
+    private int messageSizeLimit;
+
+    @Value("${websocket.inbound.pool-size:4}")
+    private int inboundPoolSize;
+
+    @Value("${websocket.outbound.pool-size:8}")
+    private int outboundPoolSize;
+
+    @Value("${websocket.broker.pool-size:4}")
+    private int brokerPoolSize;
+
+    // Channel executors are bounded; when a queue is full the sending thread runs the task itself
+    // (the WebSocket I/O thread for inbound frames, the broker for outbound writes, the publisher
+    // for broker fan-out), which slows the producer down instead of discarding the frame
+    @Value("${websocket.channel.queue-capacity:10000}")
+    private int channelQueueCapacity;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         // Enable simple broker for broadcasting messages to family channels
         config.enableSimpleBroker("/family", "/user", "/topic");
-        
+
         // Set application destination prefix for client-to-server messages
         config.setApplicationDestinationPrefixes("/app");
-        
+
         // Set user destination prefix for user-specific messages
         config.setUserDestinationPrefix("/user");
+
+        config.configureBrokerChannel().taskExecutor(channelExecutor("brokerChannel-", brokerPoolSize));
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit(sendTimeLimitMs)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setMessageSizeLimit(messageSizeLimit);
+        // Quiet connection-reset handling, and transport open/close tracking for the presence sweep
+        registration.addDecoratorFactory(handler -> new GracefulWebSocketHandlerDecorator(handler, webSocketEventListener));
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(channelExecutor("clientInboundChannel-", inboundPoolSize));
+        // Sees CONNECT frames that ask for binary payloads
+        registration.interceptors(stompPayloadCodec);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Writes to sessions; the guard drops stale count frames for sessions that fall behind
+        registration.taskExecutor(channelExecutor("clientOutboundChannel-", outboundPoolSize));
+        registration.interceptors(slowConsumerGuard, stompPayloadCodec);
+    }
+
+    private ThreadPoolTaskExecutor channelExecutor(String threadNamePrefix, int poolSize) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(channelQueueCapacity);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
     }
 
     @Override
@@ -27,10 +104,11 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         // Register STOMP endpoints with SockJS fallback
         registry.addEndpoint("/ws")
                 .setAllowedOriginPatterns("*") // Configure CORS for WebSocket
+                .addInterceptors(StompPayloadCodec.sockJsMarker()) // SockJS sessions stay on JSON
                 .withSockJS(); // Enable SockJS fallback for browsers that don't support WebSocket
-        
+
         // Also register a pure WebSocket endpoint
         registry.addEndpoint("/ws")
                 .setAllowedOriginPatterns("*");
     }
-} 
+}
@@ -1,7 +1,10 @@
 package com.familynest.config;
 
+import com.familynest.auth.JwtUtil;
+import com.familynest.service.PresenceRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.stereotype.Component;
@@ -15,6 +18,15 @@ import java.util.concurrent.atomic.AtomicLong;
 public class WebSocketEventListener {
 
     private static final Logger logger = LoggerFactory.getLogger(WebSocketEventListener.class);
+
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Autowired
+    private SlowConsumerGuard slowConsumerGuard;
+
+    @Autowired
+    private JwtUtil jwtUtil;
     
     // Track connection metrics instead of logging every exception
     private final AtomicLong normalDisconnects = new AtomicLong(0);
@@ -25,7 +37,20 @@ public class WebSocketEventListener {
     public void handleWebSocketConnectListener(SessionConnectEvent event) {
         StompHeaderAccessor headerAccessor = StompHeaderAccessor.wrap(event.getMessage());
         String sessionId = headerAccessor.getSessionId();
-        logger.info("🔌 WebSocket CONNECT: sessionId={}", sessionId);
+        Long userId = authenticatedUserId(headerAccessor);
+        logger.info("🔌 WebSocket CONNECT: sessionId={}, userId={}", sessionId, userId);
+        presenceRegistry.onConnect(sessionId, userId);
+    }
+
+    /**
+     * User from a "Authorization: Bearer ..." header on the CONNECT frame; null when absent or invalid
+     */
+    private Long authenticatedUserId(StompHeaderAccessor headerAccessor) {
+        String authHeader = headerAccessor.getFirstNativeHeader("Authorization");
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return null;
+        }
+        return jwtUtil.extractUserId(authHeader.substring(7));
     }
 
     @EventListener
@@ -40,6 +65,8 @@ public class WebSocketEventListener {
         StompHeaderAccessor headerAccessor = StompHeaderAccessor.wrap(event.getMessage());
         String sessionId = headerAccessor.getSessionId();
         CloseStatus closeStatus = event.getCloseStatus();
+        presenceRegistry.onDisconnect(sessionId);
+        slowConsumerGuard.onSessionClosed(sessionId, closeStatus);
         
         // Gracefully handle different types of disconnections
         if (closeStatus != null) {
@@ -66,8 +93,8 @@ public class WebSocketEventListener {
         // Log summary stats occasionally instead of every disconnect
         long totalDisconnects = normalDisconnects.get() + abnormalDisconnects.get();
         if (totalDisconnects % 50 == 0) {
-            logger.info("📊 WebSocket Stats: {} normal, {} abnormal, {} connection_resets", 
-                normalDisconnects.get(), abnormalDisconnects.get(), connectionResets.get());
+            logger.info("📊 WebSocket Stats: {} normal, {} abnormal, {} connection_resets, {} users online", 
+                normalDisconnects.get(), abnormalDisconnects.get(), connectionResets.get(), presenceRegistry.getOnlineUserCount());
         }
     }
 
@@ -77,6 +104,7 @@ public class WebSocketEventListener {
         String sessionId = headerAccessor.getSessionId();
         String destination = headerAccessor.getDestination();
         logger.info("📡 WebSocket SUBSCRIBE: sessionId={}, destination={}", sessionId, destination);
+        presenceRegistry.onSubscribe(sessionId, headerAccessor.getSubscriptionId(), destination);
     }
 
     @EventListener
@@ -85,8 +113,20 @@ public class WebSocketEventListener {
         String sessionId = headerAccessor.getSessionId();
         String subscriptionId = headerAccessor.getSubscriptionId();
         logger.info("📡 WebSocket UNSUBSCRIBE: sessionId={}, subscriptionId={}", sessionId, subscriptionId);
+        presenceRegistry.onUnsubscribe(sessionId, subscriptionId);
     }
     
+    /**
+     * The underlying WebSocket (or SockJS) session opened or closed; presence sweeps against these
+     */
+    public void handleTransportOpened(String sessionId) {
+        presenceRegistry.onTransportOpened(sessionId);
+    }
+
+    public void handleTransportClosed(String sessionId) {
+        presenceRegistry.onTransportClosed(sessionId);
+    }
+
     /**
      * Gracefully handle transport errors without flooding logs
      */
@@ -108,7 +148,8 @@ public class WebSocketEventListener {
      * Get current connection statistics
      */
     public String getConnectionStats() {
-        return String.format("WebSocket Stats: %d normal, %d abnormal, %d connection_resets", 
-            normalDisconnects.get(), abnormalDisconnects.get(), connectionResets.get());
+        return String.format("WebSocket Stats: %d normal, %d abnormal, %d connection_resets, %d users online in %d sessions", 
+            normalDisconnects.get(), abnormalDisconnects.get(), connectionResets.get(),
+            presenceRegistry.getOnlineUserCount(), presenceRegistry.getSessionCount());
     }
 } 
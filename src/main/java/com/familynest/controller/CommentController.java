@@ -1,15 +1,17 @@
 package com.familynest.controller;
 
+import com.familynest.dto.CommentDTO;
 import com.familynest.model.MessageComment;
 import com.familynest.model.User;
 import com.familynest.service.EngagementService;
+import com.familynest.service.ETagService;
 import com.familynest.repository.UserRepository;
 import com.familynest.auth.JwtUtil;
 import com.familynest.service.ThumbnailService;
 import com.familynest.service.MediaService;
 import com.familynest.service.MessageService;
 import com.familynest.service.WebSocketBroadcastService;
-import com.familynest.service.PushNotificationService;
+import com.familynest.service.NotificationOutbox;
 import com.familynest.service.storage.StorageService;
 import com.familynest.model.Message;
 import java.sql.Timestamp;
@@ -69,6 +71,9 @@ public class CommentController {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ETagService eTagService;
+
     @Autowired
     private ThumbnailService thumbnailService;
 
@@ -85,7 +90,7 @@ public class CommentController {
     private WebSocketBroadcastService webSocketBroadcastService;
 
     @Autowired
-    private PushNotificationService pushNotificationService;
+    private NotificationOutbox notificationOutbox;
 
     @Autowired
     private StorageService storageService;
@@ -97,9 +102,10 @@ public class CommentController {
      */
     @GetMapping("/{messageId}/comments")
     @Transactional(readOnly = true)
-    public ResponseEntity<List<Map<String, Object>>> getComments(
+    public ResponseEntity<List<CommentDTO>> getComments(
             @PathVariable Long messageId,
             @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
             HttpServletRequest request) {
 
         logger.debug("Getting comments for message: {}", messageId);
@@ -112,6 +118,12 @@ public class CommentController {
                 throw new RuntimeException("Unauthorized");
             }
 
+            String etag = eTagService.commentsETag(userId, messageId);
+            if (ETagService.matches(ifNoneMatch, etag)) {
+                logger.debug("Comments for message {} not modified for user {}", messageId, userId);
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+
             // Use a single optimized query to get comments with user data and metrics
             String sql = "WITH user_check AS (" +
             "  SELECT id FROM app_user WHERE id = ?" +
@@ -148,7 +160,7 @@ public class CommentController {
             "  m.parent_message_id as parent_message_id, " +
 
             "  m.like_count, m.love_count, " +
-            "  COALESCE(cc.count, 0) as comment_count, " +
+            "  m.reply_count as comment_count, " +
             "  CASE WHEN mr.id IS NOT NULL THEN true ELSE false END as is_liked, " +
             "  CASE WHEN mr2.id IS NOT NULL THEN true ELSE false END as is_loved " +
             "FROM message_comment m " +
@@ -156,61 +168,25 @@ public class CommentController {
             "LEFT JOIN message_comment_family_link mcfl ON m.id = mcfl.message_comment_id " +
             "LEFT JOIN family f ON mcfl.family_id = f.id " +
             "LEFT JOIN app_user s ON m.sender_id = s.id " +
-            "LEFT JOIN (SELECT parent_message_id, COUNT(*) as count FROM message_comment GROUP BY parent_message_id) cc " +
-            "  ON m.id = cc.parent_message_id " +
             "LEFT JOIN message_reaction mr ON m.id = mr.target_comment_id AND mr.user_id = ? AND mr.reaction_type = 'LIKE' AND mr.target_type = 'COMMENT' " +
             "LEFT JOIN message_reaction mr2 ON m.id = mr2.target_comment_id AND mr2.user_id = ? AND mr2.reaction_type = 'LOVE' AND mr2.target_type = 'COMMENT' " +
             "ORDER BY m.id ASC";
-            // Execute query
-            List<Map<String, Object>> results = jdbcTemplate.queryForList(sql, userId, userId, userId, messageId, userId, userId);
-            // Debug output only for development - just log count, not each individual message
-            if (logger.isDebugEnabled() && !results.isEmpty()) {
-                logger.debug("Number of messages retrieved: {}", results.size());
-
-                // Only log details of first message as sample
-                if (results.size() > 0) {
-                    Map<String, Object> firstResult = results.get(0);
-                    logger.debug("Sample message data - ID: {}, timestamp: {}, has thumbnail: {}",
-                        firstResult.get("id"),
-                        firstResult.get("timestamp"),
-                        firstResult.get("thumbnail_url") != null);
-                }
+            // Execute query, mapping rows straight into the response records
+            List<CommentDTO> response = jdbcTemplate.query(sql, CommentDTO.ROW_MAPPER, userId, userId, userId, messageId, userId, userId);
+            // Debug output only for development - just log count and the first comment as a sample
+            if (logger.isDebugEnabled() && !response.isEmpty()) {
+                CommentDTO first = response.get(0);
+                logger.debug("Number of messages retrieved: {}", response.size());
+                logger.debug("Sample message data - ID: {}, timestamp: {}, has thumbnail: {}",
+                    first.id(), first.timestamp(), first.thumbnailUrl() != null);
             }
 
-            // Transform results to the response format
-            List<Map<String, Object>> response = results.stream().map(message -> {
-                Map<String, Object> messageMap = new HashMap<>();
-                messageMap.put("id", message.get("id"));
-                messageMap.put("content", message.get("content"));
-                messageMap.put("senderUsername", message.get("sender_username"));
-                messageMap.put("senderId", message.get("sender_id"));
-                messageMap.put("senderPhoto", message.get("sender_photo"));
-                messageMap.put("sender_first_name", message.get("sender_first_name"));
-                messageMap.put("sender_last_name", message.get("sender_last_name"));
-
-                // DEBUG: Log the actual SQL result values
-                messageMap.put("timestamp", message.get("timestamp").toString());
-                messageMap.put("mediaType", message.get("media_type"));
-                messageMap.put("mediaUrl", message.get("media_url"));
-                messageMap.put("thumbnailUrl", message.get("thumbnail_url"));
-
-                messageMap.put("likeCount", message.get("like_count"));
-                messageMap.put("loveCount", message.get("love_count"));
-                messageMap.put("commentCount", message.get("comment_count"));
-                messageMap.put("parentMessageId", message.get("parent_message_id"));
-                messageMap.put("isLiked", message.get("is_liked"));
-                messageMap.put("isLoved", message.get("is_loved"));
-
-                // Add video message thumbnail URL warning only once
-                if ("video".equals(message.get("media_type")) && message.get("thumbnail_url") == null) {
-                    logger.debug("Video message ID {} has no thumbnail_url", message.get("id"));
-                }
-
-                return messageMap;
-            }).collect(Collectors.toList());
-
             logger.debug("Returning {} messages for user {} using a single optimized query", response.size(), userId);
-            return ResponseEntity.ok(response);
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+            if (etag != null) {
+                ok.eTag(etag);
+            }
+            return ok.body(response);
         } catch (Exception e) {
             logger.error("Error retrieving messages: {}", e.getMessage(), e);
             return ResponseEntity.badRequest().body(null);
@@ -228,11 +204,9 @@ public class CommentController {
             // Get replies with a single optimized query
             String sql = "SELECT mc.*, u.username, u.first_name, u.last_name, u.photo, " +
                         "mc.like_count, mc.love_count, " +
-                        "COALESCE(cc.count, 0) as reply_count " +
+                        "mc.reply_count " +
                         "FROM message_comment mc " +
                         "JOIN app_user u ON mc.sender_id = u.id " +
-                        "LEFT JOIN (SELECT parent_comment_id, COUNT(*) as count FROM message_comment GROUP BY parent_comment_id) cc " +
-                        "  ON mc.id = cc.parent_comment_id " +
                         "WHERE mc.parent_message_id = ? " +
                         "ORDER BY mc.timestamp ASC";
 
@@ -430,6 +404,10 @@ public class CommentController {
                 parentMessageId
             );
 
+            // Maintain the denormalized comment counter (same transaction as the insert)
+            jdbcTemplate.update("UPDATE message SET comment_count = comment_count + 1 WHERE id = ?", parentMessageId);
+            eTagService.bumpForMessage(parentMessageId);
+
             // Find all families where the parent message is visible
             String findFamiliesSql = "SELECT family_id FROM message_family_link WHERE message_id = ?";
             List<Map<String, Object>> parentMessageFamilies = jdbcTemplate.queryForList(findFamiliesSql, parentMessageId);
@@ -494,24 +472,19 @@ public class CommentController {
             // Fetch the full comment with all joins for the response
             Map<String, Object> commentData = messageService.getCommentById(newCommentId);
 
-            // Send push notification for comment (background notification)
+            // Queue push notification for comment (sent by the outbox workers after commit)
             // Note: Notify all thread participants (message author + all commenters), not just message author
-            try {
-                String commenterName = (String) userData.get("username");
-                Long firstFamilyId = !parentMessageFamilies.isEmpty() ?
-                    ((Number) parentMessageFamilies.get(0).get("family_id")).longValue() : null;
-                if (firstFamilyId != null) {
-                    pushNotificationService.sendThreadParticipantNotifications(newCommentId, parentMessageId, firstFamilyId, commenterName, content, userId);
-                }
-            } catch (Exception pushError) {
-                logger.error("Error sending comment push notification for comment {}: {}", newCommentId, pushError.getMessage());
-                // Don't let push notification errors break the comment posting flow
+            String commenterName = (String) userData.get("username");
+            Long firstFamilyId = !parentMessageFamilies.isEmpty() ?
+                ((Number) parentMessageFamilies.get(0).get("family_id")).longValue() : null;
+            if (firstFamilyId != null) {
+                notificationOutbox.enqueueThreadPush(newCommentId, parentMessageId, firstFamilyId, commenterName, content, userId);
             }
 
             // Broadcast updated comment count for parent message (exclude comment poster)
             try {
-                // Calculate current comment count dynamically from message_comment table
-                String getCommentCountSql = "SELECT COUNT(*) FROM message_comment WHERE parent_message_id = ?";
+                // Read the maintained counter instead of counting message_comment rows
+                String getCommentCountSql = "SELECT comment_count FROM message WHERE id = ?";
                 Integer commentCount = jdbcTemplate.queryForObject(getCommentCountSql, Integer.class, parentMessageId);
 
                 // Broadcast comment count update to each family (excluding the comment poster)
@@ -584,6 +557,7 @@ public ResponseEntity<Map<String, Object>> updateComment(
                              "RETURNING id, parent_message_id, sender_id, content, timestamp, updated_at";
 
             Map<String, Object> updatedComment = jdbcTemplate.queryForMap(updateSql, content, commentId, userId);
+            eTagService.bumpForComment(commentId);
 
             Map<String, Object> response = new HashMap<>();
             response.put("id", updatedComment.get("id"));
@@ -631,23 +605,37 @@ public ResponseEntity<Map<String, Object>> updateComment(
             }
 
             // Verify comment exists and belongs to user
-            String checkSql = "SELECT id FROM message_comment WHERE id = ? AND sender_id = ?";
+            String checkSql = "SELECT id, parent_message_id, parent_comment_id FROM message_comment WHERE id = ? AND sender_id = ?";
+            Map<String, Object> existing;
             try {
-                jdbcTemplate.queryForObject(checkSql, Long.class, commentId, userId);
+                existing = jdbcTemplate.queryForMap(checkSql, commentId, userId);
             } catch (Exception e) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN)
                     .body(Map.of("error", "Comment not found or you don't have permission to delete it"));
             }
 
-            // Delete the comment
-            String deleteSql = "DELETE FROM message_comment WHERE id = ? AND sender_id = ?";
-            int rowsAffected = jdbcTemplate.update(deleteSql, commentId, userId);
+            // Delete the comment and its replies
+            int rowsAffected = engagementService.deleteCommentWithReplies(commentId);
 
             if (rowsAffected == 0) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body(Map.of("error", "Comment not found"));
             }
 
+            // Maintain the denormalized counters for the parent message / parent comment
+            if (existing.get("parent_message_id") != null) {
+                Long parentMessageId = ((Number) existing.get("parent_message_id")).longValue();
+                jdbcTemplate.update("UPDATE message SET comment_count = GREATEST(comment_count - ?, 0) WHERE id = ?",
+                    rowsAffected, parentMessageId);
+                eTagService.bumpForMessage(parentMessageId);
+            }
+            if (existing.get("parent_comment_id") != null) {
+                Long parentCommentId = ((Number) existing.get("parent_comment_id")).longValue();
+                jdbcTemplate.update("UPDATE message_comment SET reply_count = GREATEST(reply_count - 1, 0) WHERE id = ?",
+                    parentCommentId);
+                eTagService.bumpForComment(parentCommentId);
+            }
+
             return ResponseEntity.ok(Map.of("message", "Comment deleted successfully"));
         } catch (IllegalArgumentException e) {
             logger.error("Error deleting comment: {}", e.getMessage());
@@ -3,6 +3,7 @@ package com.familynest.controller;
 import com.familynest.model.MessageReaction;
 import com.familynest.model.User;
 import com.familynest.service.EngagementService;
+import com.familynest.service.ETagService;
 import com.familynest.repository.UserRepository;
 import com.familynest.auth.JwtUtil;
 import com.familynest.auth.AuthUtil;
@@ -37,6 +38,9 @@ public class CommentReactionController {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ETagService eTagService;
+
     @Autowired
     private AuthUtil authUtil;
 
@@ -63,12 +67,14 @@ public class CommentReactionController {
                 jdbcTemplate.update("DELETE FROM message_reaction WHERE target_comment_id = ? AND user_id = ? AND reaction_type = 'LIKE' AND target_type = 'COMMENT'", 
                     commentId, userId);
                 jdbcTemplate.update("UPDATE message_comment SET like_count = like_count - 1 WHERE id = ?", commentId);
+                eTagService.bumpForComment(commentId);
                 return ResponseEntity.ok(Map.of("action", "removed", "type", "like"));
             } else {
                 // Add like
                 jdbcTemplate.update("INSERT INTO message_reaction (message_id, target_comment_id, user_id, reaction_type, target_type) VALUES (?, ?, ?, 'LIKE', 'COMMENT')",
                     commentId, commentId, userId);
                 jdbcTemplate.update("UPDATE message_comment SET like_count = like_count + 1 WHERE id = ?", commentId);
+                eTagService.bumpForComment(commentId);
                 return ResponseEntity.ok(Map.of("action", "added", "type", "like"));
             }
         } catch (Exception e) {
@@ -101,12 +107,14 @@ public class CommentReactionController {
                 jdbcTemplate.update("DELETE FROM message_reaction WHERE target_comment_id = ? AND user_id = ? AND reaction_type = 'LOVE' AND target_type = 'COMMENT'", 
                     commentId, userId);
                 jdbcTemplate.update("UPDATE message_comment SET love_count = love_count - 1 WHERE id = ?", commentId);
+                eTagService.bumpForComment(commentId);
                 return ResponseEntity.ok(Map.of("action", "removed", "type", "love"));
             } else {
                 // Add love
                 jdbcTemplate.update("INSERT INTO message_reaction (message_id, target_comment_id, user_id, reaction_type, target_type) VALUES (?, ?, ?, 'LOVE', 'COMMENT')",
                     commentId, commentId, userId);
                 jdbcTemplate.update("UPDATE message_comment SET love_count = love_count + 1 WHERE id = ?", commentId);
+                eTagService.bumpForComment(commentId);
                 return ResponseEntity.ok(Map.of("action", "added", "type", "love"));
             }
         } catch (Exception e) {
@@ -2,10 +2,13 @@ package com.familynest.controller;
 
 import com.familynest.auth.AuthUtil;
 import com.familynest.auth.JwtUtil;
+import com.familynest.dto.DMConversationMessageDTO;
 import com.familynest.dto.DMMessagePayload;
 import com.familynest.service.MediaService;
 import com.familynest.service.WebSocketBroadcastService;
-import com.familynest.service.PushNotificationService;
+import com.familynest.service.NotificationOutbox;
+import com.familynest.service.ETagService;
+import com.familynest.service.SocialGraphIndex;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,24 +46,17 @@ public class DMController {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ETagService eTagService;
+
+    @Autowired
+    private SocialGraphIndex socialGraphIndex;
+
     /**
      * Check if a recipient has muted the sender
      */
     private boolean isRecipientMutedBySender(Long recipientId, Long senderId) {
-        try {
-            String muteSql = """
-                SELECT COUNT(*) > 0
-                FROM user_member_message_settings umms
-                WHERE umms.user_id = ?
-                AND umms.member_user_id = ?
-                AND umms.receive_messages = false
-                """;
-            Boolean isMuted = jdbcTemplate.queryForObject(muteSql, Boolean.class, recipientId, senderId);
-            return isMuted != null && isMuted;
-        } catch (Exception e) {
-            logger.error("Error checking mute status for recipient {} and sender {}: {}", recipientId, senderId, e.getMessage());
-            return false; // Default to not muted on error
-        }
+        return socialGraphIndex.hasMuted(recipientId, senderId);
     }
 
     @Autowired
@@ -76,7 +72,7 @@ public class DMController {
     private WebSocketBroadcastService webSocketBroadcastService;
 
     @Autowired
-    private PushNotificationService pushNotificationService;
+    private NotificationOutbox notificationOutbox;
 
     // Group Chat Configuration
     @Value("${app.groupchat.max-participants:5}")
@@ -192,7 +188,8 @@ public class DMController {
     @GetMapping("/conversations")
     @Transactional(readOnly = true)
     public ResponseEntity<Map<String, Object>> getUserConversations(
-            @RequestHeader("Authorization") String authHeader) {
+            @RequestHeader("Authorization") String authHeader,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         logger.debug("Getting conversations for user");
 
         try {
@@ -203,6 +200,12 @@ public class DMController {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Unauthorized"));
             }
 
+            String etag = eTagService.dmConversationsETag(currentUserId);
+            if (ETagService.matches(ifNoneMatch, etag)) {
+                logger.debug("Conversation list for user {} not modified", currentUserId);
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+
             // Get all conversations (1:1 and groups) with last message info
             String sql = """
                 SELECT
@@ -328,10 +331,13 @@ public class DMController {
                 formattedConversations.add(formatted);
             }
 
-            return ResponseEntity.ok()
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok()
                     .contentType(MediaType.APPLICATION_JSON)
-                    .header("Content-Type", "application/json; charset=UTF-8")
-                    .body(Map.of("conversations", formattedConversations));
+                    .header("Content-Type", "application/json; charset=UTF-8");
+            if (etag != null) {
+                ok.eTag(etag);
+            }
+            return ok.body(Map.of("conversations", formattedConversations));
 
         } catch (DataAccessException e) {
             logger.error("Database error getting conversations: {}", e.getMessage());
@@ -610,22 +616,17 @@ public class DMController {
                 });
             }
 
-            // Send push notification to all recipients (background notification)
-            try {
-                String senderName = (String) userData.get("username");
-                for (Long recipientId : recipientIds) {
-                    // Check if recipient has muted the sender
-                    boolean isMuted = isRecipientMutedBySender(recipientId, senderId);
-                    if (!isMuted) {
-                        pushNotificationService.sendDMNotification(newMessageId, recipientId, senderName, content);
-                        logger.debug("Sent push notification to recipient {}", recipientId);
-                    } else {
-                        logger.debug("Skipped push notification to muted recipient {}", recipientId);
-                    }
+            // Queue push notification for each recipient (sent by the outbox workers after commit)
+            String senderName = (String) userData.get("username");
+            for (Long recipientId : recipientIds) {
+                // Check if recipient has muted the sender
+                boolean isMuted = isRecipientMutedBySender(recipientId, senderId);
+                if (!isMuted) {
+                    notificationOutbox.enqueueDMPush(newMessageId, recipientId, senderName, content);
+                    logger.debug("Queued push notification to recipient {}", recipientId);
+                } else {
+                    logger.debug("Skipped push notification to muted recipient {}", recipientId);
                 }
-            } catch (Exception pushError) {
-                logger.error("Error sending DM push notification for message {}: {}", newMessageId, pushError.getMessage());
-                // Don't let push notification errors break the DM posting flow
             }
 
       // Return the fully-formed message as the response
@@ -725,29 +726,9 @@ public class DMController {
                 LIMIT ? OFFSET ?
                 """;
 
-            List<Map<String, Object>> messages = jdbcTemplate.queryForList(messagesSql, conversationId, currentUserId, size, offset);
-
-            // Process messages to add camelCase versions of fields (like main MessageController does)
-            for (Map<String, Object> message : messages) {
-                // Convert local_media_path to localMediaPath for Flutter compatibility
-                if (message.containsKey("local_media_path")) {
-                    Object localMediaPath = message.get("local_media_path");
-                    message.put("localMediaPath", localMediaPath);
-                 }
-
-                // Convert other fields for consistency
-                if (message.containsKey("media_url")) {
-                    message.put("mediaUrl", message.get("media_url"));
-                }
-                if (message.containsKey("media_type")) {
-                    message.put("mediaType", message.get("media_type"));
-                }
-                if (message.containsKey("media_thumbnail")) {
-                    message.put("mediaThumbnail", message.get("media_thumbnail"));
-                }
-
-                logger.debug("DM Message data: {}", message);
-            }
+            // Rows map straight into the response records; the camelCase media keys Flutter reads are derived accessors
+            List<DMConversationMessageDTO> messages = jdbcTemplate.query(messagesSql, DMConversationMessageDTO.ROW_MAPPER,
+                    conversationId, currentUserId, size, offset);
 
             // Get total count
             String countSql = "SELECT COUNT(*) FROM dm_message WHERE conversation_id = ?";
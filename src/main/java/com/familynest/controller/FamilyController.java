@@ -9,7 +9,9 @@ import com.familynest.repository.UserFamilyMembershipRepository;
 import com.familynest.repository.UserFamilyMessageSettingsRepository;
 import com.familynest.auth.AuthUtil;
 import com.familynest.auth.JwtUtil;
-import com.familynest.service.PushNotificationService;
+import com.familynest.service.NotificationOutbox;
+import com.familynest.service.TimelineService;
+import com.familynest.service.SocialGraphIndex;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,7 +52,13 @@ public class FamilyController {
     private JdbcTemplate jdbcTemplate;
 
     @Autowired
-    private PushNotificationService pushNotificationService;
+    private NotificationOutbox notificationOutbox;
+
+    @Autowired
+    private TimelineService timelineService;
+
+    @Autowired
+    private SocialGraphIndex socialGraphIndex;
 
     /**
      * Create a new family
@@ -100,6 +108,8 @@ public class FamilyController {
             // Create UserFamilyMembership for the creator using direct SQL
             String insertMembershipSql = "INSERT INTO user_family_membership (user_id, family_id, role, joined_at, is_active) VALUES (?, ?, 'ADMIN', NOW(), true)";
             jdbcTemplate.update(insertMembershipSql, userId, familyId);
+            jdbcTemplate.update("UPDATE family SET member_count = member_count + 1 WHERE id = ?", familyId);
+            socialGraphIndex.onMembershipChanged(userId);
             logger.debug("Created UserFamilyMembership for user ID: {} and family ID: {}", userId, familyId);
 
             // Return the created family details
@@ -145,7 +155,7 @@ public class FamilyController {
 
             // Get family details with lightweight query (no password, no unnecessary fields)
             String familySql = "SELECT f.id, f.name, f.created_by, " +
-                              "(SELECT COUNT(*) FROM user_family_membership ufm WHERE ufm.family_id = f.id) as member_count " +
+                              "f.member_count " +
                               "FROM family f WHERE f.id = ?";
             
             List<Map<String, Object>> results = jdbcTemplate.queryForList(familySql, familyId);
@@ -226,7 +236,7 @@ public class FamilyController {
             
             // Get updated family details with member count
             String resultSql = "SELECT f.id, f.name, " +
-                              "(SELECT COUNT(*) FROM user_family_membership ufm WHERE ufm.family_id = f.id) as member_count " +
+                              "f.member_count " +
                               "FROM family f WHERE f.id = ?";
             List<Map<String, Object>> results = jdbcTemplate.queryForList(resultSql, familyId);
             
@@ -365,6 +375,9 @@ public class FamilyController {
             
             // Save the new membership as active
             userFamilyMembershipRepository.save(membership);
+            jdbcTemplate.update("UPDATE family SET member_count = member_count + 1 WHERE id = ?", familyId);
+            timelineService.backfillMember(userId, familyId);
+            socialGraphIndex.onMembershipChanged(userId);
             logger.debug("Created and activated new membership for user ID: {} in family ID: {}", userId, familyId);
             
             // Create message settings (default: receive messages = true)
@@ -393,8 +406,8 @@ public class FamilyController {
                 );
                 String familyName = (String) familyData.get("name");
                 
-                pushNotificationService.sendNewMemberNotification(familyId, newMemberName, familyName);
-                logger.debug("Sent new member notification for {} joining {}", newMemberName, familyName);
+                notificationOutbox.enqueueNewMemberPush(familyId, userId, newMemberName, familyName);
+                logger.debug("Queued new member notification for {} joining {}", newMemberName, familyName);
             } catch (Exception e) {
                 logger.error("Error sending new member notification: {}", e.getMessage());
                 // Don't fail the join operation if notification fails
@@ -444,6 +457,7 @@ public class FamilyController {
             UserFamilyMembership userMembership = membership.get();
             userMembership.setActive(false);
             userFamilyMembershipRepository.save(userMembership);
+            socialGraphIndex.onMembershipChanged(userId);
             
             logger.debug("User ID: {} left family ID: {}", userId, familyId);
             return ResponseEntity.ok(Map.of("message", "Successfully left family"));
@@ -488,7 +502,7 @@ public class FamilyController {
             // Simplified SQL query to get all family data
             String sql = "SELECT " +
                         "  f.id as family_id, f.name as family_name, f.created_by as owner_id, " +
-                        "  (SELECT COUNT(*) FROM user_family_membership ufm WHERE ufm.family_id = f.id) as member_count, " +
+                        "  f.member_count, " +
                         "  ufm.role, ufm.is_active, " +
                         "  CASE WHEN f.created_by = ? THEN true ELSE false END as is_owner " +
                         "FROM family f " +
@@ -625,7 +639,7 @@ public class FamilyController {
 
             // Check if user has created a family (owns one)
             String ownedFamilySql = "SELECT f.id, f.name, " +
-                                   "(SELECT COUNT(*) FROM user_family_membership ufm WHERE ufm.family_id = f.id) as member_count " +
+                                   "f.member_count " +
                                    "FROM family f WHERE f.created_by = ?";
             
             List<Map<String, Object>> results = jdbcTemplate.queryForList(ownedFamilySql, userId);
@@ -671,7 +685,7 @@ public class FamilyController {
             // Query 1: Get all families for the user
             String familiesSql = "SELECT " +
                     "f.id as family_id, f.name as family_name, f.created_by as owner_id, " +
-                    "(SELECT COUNT(*) FROM user_family_membership ufm WHERE ufm.family_id = f.id) as member_count, " +
+                    "f.member_count, " +
                     "ufm.role, ufm.is_active, " +
                     "CASE WHEN f.created_by = ? THEN true ELSE false END as is_owner " +
                     "FROM family f " +
@@ -10,8 +10,9 @@ import com.familynest.repository.UserFamilyMembershipRepository;
 import com.familynest.repository.InvitationRepository;
 import com.familynest.auth.AuthUtil;
 import com.familynest.service.WebSocketBroadcastService;
-import com.familynest.service.PushNotificationService;
-import com.familynest.service.EmailProviderService;
+import com.familynest.service.NotificationOutbox;
+import com.familynest.service.TimelineService;
+import com.familynest.service.SocialGraphIndex;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,10 +57,13 @@ public class InvitationController {
     private WebSocketBroadcastService webSocketBroadcastService;
 
     @Autowired
-    private PushNotificationService pushNotificationService;
+    private NotificationOutbox notificationOutbox;
 
     @Autowired
-    private EmailProviderService emailProviderService;
+    private TimelineService timelineService;
+
+    @Autowired
+    private SocialGraphIndex socialGraphIndex;
 
     /**
      * Get invitations for the current user
@@ -293,18 +297,12 @@ public class InvitationController {
             logger.debug("Invitation created successfully: ID={}, familyId={}, email={}, userExists={}", 
                 savedInvitation.getId(), familyId, inviteeEmail, userExists);
 
-            // Send invitation email
-            try {
-                Family family = familyRepository.findById(familyId).orElse(null);
-                String familyName = family != null ? family.getName() : "Unknown Family";
-                String inviterName = inviter.getFirstName() + " " + inviter.getLastName();
-                
-                emailProviderService.sendFamilyInvitationEmail(inviteeEmail, familyName, inviterName, savedInvitation.getId().toString());
-                logger.info("Invitation email sent successfully to: {}", inviteeEmail);
-            } catch (Exception e) {
-                logger.error("Failed to send invitation email to {}: {}", inviteeEmail, e.getMessage(), e);
-                // Don't fail the invitation creation if email fails
-            }
+            // Queue invitation email (sent by the outbox workers after commit)
+            Family invitingFamily = familyRepository.findById(familyId).orElse(null);
+            String invitingFamilyName = invitingFamily != null ? invitingFamily.getName() : "Unknown Family";
+            String inviterName = inviter.getFirstName() + " " + inviter.getLastName();
+            notificationOutbox.enqueueInvitationEmail(savedInvitation.getId(), inviteeEmail, invitingFamilyName, inviterName);
+            logger.debug("Invitation email queued for: {}", inviteeEmail);
 
             // Broadcast new invitation to recipient via WebSocket (only if user exists)
             if (userExists) {
@@ -335,14 +333,12 @@ public class InvitationController {
                         public void afterCommit() {
                             webSocketBroadcastService.broadcastInvitation(finalInvitationData, finalRecipientId);
                             logger.debug("Broadcasted new invitation to user: {} (AFTER COMMIT)", finalRecipientId);
-                            
-                            // Send push notification for the invitation
-                            String familyName = (String) finalInvitationData.get("familyName");
-                            String inviterName = (String) finalInvitationData.get("inviterName");
-                            pushNotificationService.sendInvitationNotification(inviteeEmail, familyName, inviterName);
-                            logger.debug("Sent push notification for invitation to user: {} (AFTER COMMIT)", finalRecipientId);
                         }
                     });
+
+                    // Push notification for the invitation commits with it
+                    notificationOutbox.enqueueInvitationPush(savedInvitation.getId(), inviteeEmail,
+                        (String) invitationData.get("familyName"), (String) invitationData.get("inviterName"));
                 } catch (Exception e) {
                     logger.error("Error broadcasting new invitation: {}", e.getMessage(), e);
                     // Don't fail the request if WebSocket broadcast fails
@@ -435,6 +431,9 @@ public class InvitationController {
                     membership.setRole("MEMBER");
                     membership.setActive(true);  // Keep all family memberships active
                     userFamilyMembershipRepository.save(membership);
+                    jdbcTemplate.update("UPDATE family SET member_count = member_count + 1 WHERE id = ?", invitation.getFamilyId());
+                    timelineService.backfillMember(userId, invitation.getFamilyId());
+                    socialGraphIndex.onMembershipChanged(userId);
                     
                     logger.debug("User {} accepted invitation to family {} (multi-family: added to new family)", 
                                  userId, invitation.getFamilyId());
@@ -444,12 +443,8 @@ public class InvitationController {
                         String newMemberName = user.getFirstName() + " " + user.getLastName();
                         Family family = familyRepository.findById(invitation.getFamilyId()).orElse(null);
                         if (family != null) {
-                            pushNotificationService.sendNewMemberNotification(
-                                invitation.getFamilyId(), 
-                                newMemberName, 
-                                family.getName()
-                            );
-                            logger.debug("Sent new member notification for {} joining {}", newMemberName, family.getName());
+                            notificationOutbox.enqueueNewMemberPush(invitation.getFamilyId(), userId, newMemberName, family.getName());
+                            logger.debug("Queued new member notification for {} joining {}", newMemberName, family.getName());
                         }
                     } catch (Exception e) {
                         logger.error("Error sending new member notification: {}", e.getMessage());
@@ -460,6 +455,7 @@ public class InvitationController {
                     UserFamilyMembership existingMember = existingMembership.get();
                     existingMember.setActive(true);
                     userFamilyMembershipRepository.save(existingMember);
+                    socialGraphIndex.onMembershipChanged(userId);
                     
                     logger.debug("User {} reactivated membership in family {}", userId, invitation.getFamilyId());
                 }
@@ -522,7 +518,7 @@ public class InvitationController {
             // Simplified SQL query to get all family data
             String sql = "SELECT " +
                         "  f.id as family_id, f.name as family_name, f.created_by as owner_id, " +
-                        "  (SELECT COUNT(*) FROM user_family_membership ufm WHERE ufm.family_id = f.id) as member_count, " +
+                        "  f.member_count, " +
                         "  ufm.role, ufm.is_active, " +
                         "  CASE WHEN f.created_by = ? THEN true ELSE false END as is_owner " +
                         "FROM family f " +
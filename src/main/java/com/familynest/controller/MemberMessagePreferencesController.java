@@ -9,6 +9,7 @@ import com.familynest.repository.UserMemberMessageSettingsRepository;
 import com.familynest.repository.UserFamilyMembershipRepository;
 import com.familynest.repository.UserRepository;
 import com.familynest.repository.FamilyRepository;
+import com.familynest.service.SocialGraphIndex;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,6 +55,9 @@ public class MemberMessagePreferencesController {
     @Autowired
     private AuthUtil authUtil;
 
+    @Autowired
+    private SocialGraphIndex socialGraphIndex;
+
     /**
      * Get member-level message preferences for a user
      */
@@ -245,6 +249,7 @@ public class MemberMessagePreferencesController {
             
             // Save settings
             memberMessageSettingsRepository.save(settings);
+            socialGraphIndex.onMutesChanged(userId);
             
             // Get member details for response
             Optional<User> memberOpt = userRepository.findById(memberUserId);
@@ -1,5 +1,7 @@
 package com.familynest.controller;
 
+import com.familynest.dto.ResultSetValues;
+import com.familynest.dto.UserMessageDTO;
 import com.familynest.model.Message;
 import com.familynest.model.User;
 import com.familynest.model.UserFamilyMembership;
@@ -17,6 +19,7 @@ import org.springframework.data.domain.Sort;
 import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.cache.annotation.Cacheable;
 
@@ -31,6 +34,36 @@ public class MessageController {
     private static final Logger logger = LoggerFactory.getLogger(MessageController.class);
     private static final int DEFAULT_PAGE_SIZE = 20;
 
+    // The user's messages: linked to any of their families, once each however many families they were posted to.
+    // Both listing modes page over these ids and count them for the total.
+    private static final String USER_MESSAGE_IDS_SQL =
+        "SELECT DISTINCT mfl.message_id AS id " +
+        "FROM message_family_link mfl " +
+        "JOIN user_family_membership ufm ON mfl.family_id = ufm.family_id " +
+        "WHERE ufm.user_id = ? ";
+
+    private static final String USER_MESSAGE_TOTAL_SQL = "SELECT COUNT(*) FROM (" + USER_MESSAGE_IDS_SQL + ") ids";
+
+    // Selects the messages in page_ids, oldest first. Reactions are counted per page row (LAUGH etc.
+    // have no counter column); comment totals come from the counter maintained on write.
+    private static final String USER_MESSAGE_PAGE_SQL =
+        "SELECT " +
+        "  m.id, m.content, m.sender_username, m.sender_id, m.family_id, " +
+        "  m.timestamp, m.media_type, m.media_url, " +
+        "  m.thumbnail_url, " +
+        "  u.username, u.first_name, u.last_name, u.photo, " +
+        "  r.reaction_count, " +
+        "  m.comment_count " +
+        "FROM message m " +
+        "JOIN page_ids p ON m.id = p.id " +
+        "LEFT JOIN app_user u ON m.sender_id = u.id " +
+        "CROSS JOIN LATERAL ( " +
+        "  SELECT COUNT(*) as reaction_count " +
+        "  FROM message_reaction mr " +
+        "  WHERE mr.target_message_id = m.id AND mr.target_type = 'MESSAGE' " +
+        ") r " +
+        "ORDER BY m.id ASC";
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
@@ -46,9 +79,6 @@ public class MessageController {
     @Autowired
     private UserFamilyMessageSettingsRepository userFamilyMessageSettingsRepository;
     
-    @Autowired
-    private VideoController videoController;
-    
     @Value("${server.servlet.context-path:}")
     private String contextPath;
     
@@ -61,9 +91,6 @@ public class MessageController {
     @Value("${app.base-url}")
     private String baseUrl;
 
-    @Value("${app.default.thumbnail:/uploads/thumbnails/default_thumbnail.jpg}")
-    private String defaultThumbnail;
-
     /**
      * Get messages for a user with pagination - super optimized version using a single efficient SQL query
      * This endpoint is much faster than the previous version because:
@@ -77,14 +104,23 @@ public class MessageController {
      * 8. It excludes sensitive data like passwords
      */
     @GetMapping("/user/{userId}")
-    @Cacheable(value = "userMessages", key = "#userId + '-' + #page + '-' + #size")
+    @Cacheable(value = "userMessages", key = "#userId + '-' + @cacheEvictionService.userMessagesGeneration(#userId) + '-' + #page + '-' + #size + '-' + #mode + '-' + #cursor + '-' + #includeTotal",
+               unless = "#result.statusCode.value() != 200")
     public ResponseEntity<?> getMessagesForUser(
             @PathVariable Long userId,
             @RequestParam(required = false, defaultValue = "0") int page,
-            @RequestParam(required = false, defaultValue = "20") int size) {
+            @RequestParam(required = false, defaultValue = "20") int size,
+            @RequestParam(required = false, defaultValue = "page") String mode,
+            @RequestParam(required = false) Long cursor,
+            @RequestParam(required = false, defaultValue = "false") boolean includeTotal) {
         
         logger.info("🔍 MESSAGE CONTROLLER HIT: Getting messages for user: {}, page: {}, size: {}", userId, page, size);
         
+        // Keyset mode: no OFFSET scan and no COUNT(*) per page
+        if ("cursor".equalsIgnoreCase(mode) || cursor != null) {
+            return getMessagesForUserByCursor(userId, cursor, size, includeTotal);
+        }
+        
         try {
             // Validate page size to prevent loading too much data
             int pageSize = Math.min(size, 50);
@@ -96,41 +132,8 @@ public class MessageController {
                 return ResponseEntity.notFound().build();
             }
             
-            // Get messages with a single optimized SQL query
-            // This query:
-            // 1. Uses JOINs instead of IN clauses (which can be problematic in some SQL engines)
-            // 2. Uses efficient joins with explicit join conditions
-            // 3. Selects only the fields we need
-            // 4. Uses derived tables for count metrics
-            // 5. Uses pagination directly in the database
-            // 6. Explicitly excludes sensitive data like passwords
-            String sql = "SELECT " +
-                         "  m.id, m.content, m.sender_username, m.sender_id, m.family_id, " +
-                         "  m.timestamp, m.media_type, m.media_url, " +
-                         "  m.thumbnail_url, " +
-                         "  m.thumbnail_url AS \"thumbnailUrl\", " +
-                         "  u.username, u.first_name, u.last_name, u.photo, " +
-
-                         "  COALESCE(reaction_count, 0) as reaction_count, " +
-                         "  COALESCE(comment_count, 0) as comment_count " +
-                         "FROM message m " +
-                         "JOIN user_family_membership ufm ON m.family_id = ufm.family_id " +
-                         "LEFT JOIN app_user u ON m.sender_id = u.id " +
-                         "-- Removed message_view table references " +
-                         "LEFT JOIN ( " +
-                         "  SELECT target_message_id, COUNT(*) as reaction_count " +
-                         "  FROM message_reaction " +
-                         "  WHERE target_type = 'MESSAGE' " +
-                         "  GROUP BY target_message_id " +
-                         ") r ON m.id = r.target_message_id " +
-                         "LEFT JOIN ( " +
-                         "  SELECT message_id, COUNT(*) as comment_count " +
-                         "  FROM message_comment " +
-                         "  GROUP BY message_id " +
-                         ") c ON m.id = c.message_id " +
-                         "WHERE ufm.user_id = ? " +
-                         "ORDER BY m.timestamp ASC " +
-                         "LIMIT ? OFFSET ?";
+            // Same rows and order as cursor mode (see getMessagesForUserByCursor), addressed by offset
+            String sql = "WITH page_ids AS ( " + USER_MESSAGE_IDS_SQL + "ORDER BY id ASC LIMIT ? OFFSET ? ) " + USER_MESSAGE_PAGE_SQL;
             
             // Run EXPLAIN ANALYZE to help with query optimization (in dev mode only)
             if (logger.isDebugEnabled()) {
@@ -144,104 +147,16 @@ public class MessageController {
                 }
             }
             
-            // Execute the optimized query
-            List<Map<String, Object>> messages = jdbcTemplate.queryForList(
+            // Execute the optimized query, mapping rows straight into the response records
+            List<UserMessageDTO> messages = jdbcTemplate.query(
                 sql, 
+                userMessageRowMapper(),
                 userId,
                 pageSize, 
                 offset
             );
             
-            // Determine the base URL for media files
-             if (!serverAddress.equals("localhost")) {
-                baseUrl = "http://" + serverAddress + ":" + serverPort;
-            }
-            if (!contextPath.isEmpty()) {
-                baseUrl = baseUrl + contextPath;
-            }
-            logger.debug("Using base URL for media: {}", baseUrl);
-            
-            // Process messages to add full URLs for media
-            for (Map<String, Object> message : messages) {
-                // Handle media URLs
-                if (message.containsKey("media_url") && message.get("media_url") != null) {
-                    String mediaUrl = (String) message.get("media_url");
-                    if (mediaUrl.startsWith("/")) {
-                        // Convert relative URLs to absolute URLs
-                        mediaUrl = baseUrl + mediaUrl;
-                        message.put("media_url", mediaUrl);
-                    }
-                    // Add camelCase version
-                    message.put("mediaUrl", mediaUrl);
-                }
-                
-                // Handle thumbnail URLs - CRITICAL FIX for Flutter compatibility
-                if (message.containsKey("thumbnail_url")) {
-                    Object thumbnailValue = message.get("thumbnail_url");
-                    if (thumbnailValue != null) {
-                        String thumbnailUrl = thumbnailValue.toString();
-                        // Make absolute URL if it's relative
-                        if (thumbnailUrl.startsWith("/")) {
-                            thumbnailUrl = baseUrl + thumbnailUrl;
-                            // Update snake_case version too
-                            message.put("thumbnail_url", thumbnailUrl);
-                        }
-                        // Add camelCase version
-                        message.put("thumbnailUrl", thumbnailUrl);
-                        logger.debug("Added thumbnailUrl: {}", thumbnailUrl);
-                    } else {
-                        // Null thumbnail but explicitly add the field with null
-                        message.put("thumbnailUrl", null);
-                    }
-                } 
-                // Handle videos without thumbnail_url set
-                else if ("video".equals(message.get("media_type"))) {
-                    logger.debug("Video without thumbnail_url, getting from VideoController");
-                    
-                    // Use VideoController to get the thumbnail URL instead of generating it here
-                    String mediaUrl = message.get("media_url") != null ? message.get("media_url").toString() : null;
-                    if (mediaUrl != null) {
-                        // Centralized handling via VideoController
-                        String thumbnailUrl = videoController.getThumbnailForVideo(mediaUrl);
-                        
-                        // Make absolute URL if it's relative
-                        if (thumbnailUrl != null && thumbnailUrl.startsWith("/")) {
-                            thumbnailUrl = baseUrl + thumbnailUrl;
-                        }
-                        
-                        // Add both versions of the thumbnail URL
-                        message.put("thumbnail_url", thumbnailUrl);
-                        message.put("thumbnailUrl", thumbnailUrl);
-                        logger.debug("Got thumbnailUrl from VideoController: {}", thumbnailUrl);
-                    } else {
-                        // No media URL, use default thumbnail
-                        String defThumbnail = baseUrl + defaultThumbnail;
-                        message.put("thumbnail_url", defThumbnail);
-                        message.put("thumbnailUrl", defThumbnail);
-                        logger.debug("Using default thumbnailUrl (no media_url)");
-                    }
-                }
-                
-                // Ensure mediaType is present in camelCase
-                if (message.containsKey("media_type")) {
-                    message.put("mediaType", message.get("media_type"));
-                }
-                
-                // Handle user photo URLs
-                if (message.containsKey("photo") && message.get("photo") != null) {
-                    String photoUrl = (String) message.get("photo");
-                    if (photoUrl.startsWith("/")) {
-                        // Convert relative URLs to absolute URLs for user photos
-                        message.put("photo", baseUrl + photoUrl);
-                    }
-                }
-            }
-            
-            // Get the total count with an efficient count query
-            String countSql = "SELECT COUNT(*) FROM message m " +
-                             "WHERE m.family_id IN (SELECT family_id FROM user_family_membership WHERE user_id = ?)";
-            
-            Integer totalCount = jdbcTemplate.queryForObject(countSql, Integer.class, userId);
+            Long totalCount = jdbcTemplate.queryForObject(USER_MESSAGE_TOTAL_SQL, Long.class, userId);
             boolean hasMore = totalCount != null && (offset + messages.size() < totalCount);
             
             // Create pagination metadata
@@ -255,27 +170,12 @@ public class MessageController {
             
             logger.debug("Returning {} messages for user {} (total {})", messages.size(), userId, totalCount);
             
-            // Debug: Log all field names and check for thumbnail_url and thumbnailUrl fields
+            // Debug: check thumbnail URLs on the first few video messages
             if (logger.isDebugEnabled() && !messages.isEmpty()) {
-                logger.debug("First message columns: {}", messages.get(0).keySet());
-                logger.debug("First message has thumbnail_url? {}", messages.get(0).containsKey("thumbnail_url"));
-                logger.debug("First message has thumbnailUrl? {}", messages.get(0).containsKey("thumbnailUrl"));
-                
-                // Check case sensitivity variations
-                for (String key : messages.get(0).keySet()) {
-                    if (key.toLowerCase().contains("thumbnail")) {
-                        logger.debug("Found thumbnail-related field: {} with value: {}", key, messages.get(0).get(key));
-                    }
-                }
-                
-                // Check first few video messages
                 int checkedCount = 0;
-                for (Map<String, Object> message : messages) {
-                    if ("video".equals(message.get("media_type")) && checkedCount < 3) {
-                        logger.debug("Video message ID {}: has thumbnailUrl? {}, value: {}", 
-                                    message.get("id"),
-                                    message.containsKey("thumbnailUrl"),
-                                    message.get("thumbnailUrl"));
+                for (UserMessageDTO message : messages) {
+                    if ("video".equals(message.mediaType()) && checkedCount < 3) {
+                        logger.debug("Video message ID {}: thumbnailUrl: {}", message.id(), message.thumbnailUrl());
                         checkedCount++;
                     }
                 }
@@ -300,4 +200,103 @@ public class MessageController {
             return ResponseEntity.badRequest().body(Map.of("error", "Error getting messages: " + e.getMessage()));
         }
     }
+
+    /**
+     * Get messages for a user using keyset pagination.
+     * Pages walk message ids upward from the cursor, so page N costs the same as page 1. Rows,
+     * order and totals are the page mode's: the user's messages through message_family_link,
+     * oldest id first, each counted once. Totals are only computed when asked for.
+     */
+    private ResponseEntity<?> getMessagesForUserByCursor(Long userId, Long cursor, int size, boolean includeTotal) {
+        try {
+            int pageSize = Math.max(1, Math.min(size, 50));
+            
+            // Verify user exists (lightweight check)
+            if (!userRepository.existsById(userId)) {
+                logger.debug("User not found: {}", userId);
+                return ResponseEntity.notFound().build();
+            }
+            
+            String sql = "WITH page_ids AS ( " + USER_MESSAGE_IDS_SQL + "AND mfl.message_id > ? ORDER BY id ASC LIMIT ? ) " + USER_MESSAGE_PAGE_SQL;
+            
+            // One extra row tells us whether another page exists without counting
+            List<UserMessageDTO> messages = jdbcTemplate.query(
+                sql,
+                userMessageRowMapper(),
+                userId,
+                cursor != null ? cursor : 0L,
+                pageSize + 1
+            );
+            
+            boolean hasMore = messages.size() > pageSize;
+            if (hasMore) {
+                messages = new ArrayList<>(messages.subList(0, pageSize));
+            }
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("messages", messages);
+            result.put("pageSize", pageSize);
+            result.put("hasMore", hasMore);
+            result.put("nextCursor", hasMore ? messages.get(messages.size() - 1).id() : null);
+            
+            if (includeTotal) {
+                Long totalCount = jdbcTemplate.queryForObject(USER_MESSAGE_TOTAL_SQL, Long.class, userId);
+                result.put("totalElements", totalCount);
+            }
+            
+            logger.debug("Returning {} messages for user {} after cursor {} (hasMore {})", messages.size(), userId, cursor, hasMore);
+            
+            return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(30, TimeUnit.SECONDS))
+                .body(result);
+        } catch (Exception e) {
+            logger.error("Error getting messages for user {} by cursor: {}", userId, e.getMessage(), e);
+            return ResponseEntity.badRequest().body(Map.of("error", "Error getting messages: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Row mapper for the user message listing. Relative media, thumbnail and photo URLs are made
+     * absolute while mapping, so rows go straight from the ResultSet into the response records;
+     * the camelCase copies Flutter expects are derived by UserMessageDTO.
+     */
+    private RowMapper<UserMessageDTO> userMessageRowMapper() {
+        String mediaBaseUrl = resolveMediaBaseUrl();
+        return (rs, rowNum) -> new UserMessageDTO(
+            rs.getLong("id"),
+            rs.getString("content"),
+            rs.getString("sender_username"),
+            ResultSetValues.getLong(rs, "sender_id"),
+            ResultSetValues.getLong(rs, "family_id"),
+            rs.getTimestamp("timestamp"),
+            rs.getString("media_type"),
+            toAbsoluteUrl(rs.getString("media_url"), mediaBaseUrl),
+            toAbsoluteUrl(rs.getString("thumbnail_url"), mediaBaseUrl),
+            rs.getString("username"),
+            rs.getString("first_name"),
+            rs.getString("last_name"),
+            toAbsoluteUrl(rs.getString("photo"), mediaBaseUrl),
+            rs.getLong("reaction_count"),
+            rs.getLong("comment_count")
+        );
+    }
+    
+    /**
+     * Determine the base URL for media files
+     */
+    private String resolveMediaBaseUrl() {
+        String mediaBaseUrl = baseUrl;
+        if (!serverAddress.equals("localhost")) {
+            mediaBaseUrl = "http://" + serverAddress + ":" + serverPort;
+        }
+        if (!contextPath.isEmpty()) {
+            mediaBaseUrl = mediaBaseUrl + contextPath;
+        }
+        logger.debug("Using base URL for media: {}", mediaBaseUrl);
+        return mediaBaseUrl;
+    }
+    
+    private static String toAbsoluteUrl(String url, String mediaBaseUrl) {
+        return url != null && url.startsWith("/") ? mediaBaseUrl + url : url;
+    }
 } 
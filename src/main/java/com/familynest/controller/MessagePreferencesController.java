@@ -9,6 +9,8 @@ import com.familynest.repository.UserFamilyMessageSettingsRepository;
 import com.familynest.repository.UserFamilyMembershipRepository;
 import com.familynest.repository.UserRepository;
 import com.familynest.repository.FamilyRepository;
+import com.familynest.service.CacheEvictionService;
+import com.familynest.service.NotificationPreferenceIndex;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +19,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -46,9 +49,15 @@ public class MessagePreferencesController {
     @Autowired
     private UserFamilyMessageSettingsRepository messageSettingsRepository;
 
+    @Autowired
+    private NotificationPreferenceIndex notificationPreferenceIndex;
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private CacheEvictionService cacheEvictionService;
+
     @Autowired
     private JwtUtil jwtUtil;
 
@@ -160,6 +169,7 @@ public class MessagePreferencesController {
      */
     @PostMapping("/{userId}/update")
     @Transactional
+    @CacheEvict(value = "messagePreferences", key = "#userId")
     public ResponseEntity<Map<String, Object>> updateMessagePreferences(
             @PathVariable Long userId,
             @RequestHeader(value = "Authorization", required = false) String authHeader,
@@ -272,6 +282,7 @@ public class MessagePreferencesController {
                 int deletedRows = jdbcTemplate.update(deleteSql, userId, familyId);
                 logger.debug("Removed {} family-specific override rows for family {} user {}", deletedRows, familyId, userId);
             }
+            notificationPreferenceIndex.onPreferencesChanged(userId);
             
             // Get updated family name for response - use simple query
             String familyNameQuery = "SELECT name FROM family WHERE id = ?";
@@ -328,6 +339,7 @@ public class MessagePreferencesController {
             // Create new settings with default (receive = true)
             UserFamilyMessageSettings settings = new UserFamilyMessageSettings(userId, familyId, true);
             messageSettingsRepository.save(settings);
+            cacheEvictionService.evictMessagePreferences(userId);
             
             logger.debug("Created message settings for user {} and family {}", userId, familyId);
             return ResponseEntity.status(HttpStatus.CREATED).body(Map.of(
@@ -5,6 +5,7 @@ import com.familynest.auth.JwtUtil;
 import com.familynest.model.User;
 import com.familynest.model.UserNotificationSettings;
 import com.familynest.repository.UserRepository;
+import com.familynest.service.NotificationPreferenceIndex;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +38,9 @@ public class NotificationPreferencesController {
     @Autowired
     private AuthUtil authUtil;
 
+    @Autowired
+    private NotificationPreferenceIndex notificationPreferenceIndex;
+
     /**
      * Get notification preferences for a user
      */
@@ -148,6 +152,7 @@ public class NotificationPreferencesController {
                 jdbcTemplate.update(insertSql, userId, pushEnabled);
                 logger.debug("Created new matrix row for user {}", userId);
             }
+            notificationPreferenceIndex.onPreferencesChanged(userId);
             
             // Also update the legacy table for backward compatibility (temporary)
             String legacySql = """
@@ -290,6 +295,7 @@ public class NotificationPreferencesController {
                 jdbcTemplate.update(insertMatrixSql, userId);
                 logger.debug("Created new matrix row for user {} with device permission granted", userId);
             }
+            notificationPreferenceIndex.onPreferencesChanged(userId);
 
             Map<String, Object> response = new HashMap<>();
             response.put("message", "Device permission status synced successfully");
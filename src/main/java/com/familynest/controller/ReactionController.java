@@ -3,6 +3,7 @@ package com.familynest.controller;
 import com.familynest.model.MessageReaction;
 import com.familynest.model.User;
 import com.familynest.service.EngagementService;
+import com.familynest.service.ETagService;
 import com.familynest.service.WebSocketBroadcastService;
 import com.familynest.repository.UserRepository;
 import com.familynest.auth.JwtUtil;
@@ -43,6 +44,9 @@ public class ReactionController {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ETagService eTagService;
+
     @Autowired
     private AuthUtil authUtil;
 
@@ -160,6 +164,44 @@ public class ReactionController {
         }
     }
 
+    /**
+     * Comment, share and reaction counts for one message (the thread header)
+     */
+    @GetMapping("/{messageId}/engagement")
+    public ResponseEntity<Map<String, Object>> getEngagement(@PathVariable Long messageId) {
+        try {
+            return ResponseEntity.ok(engagementService.getMessageEngagementData(messageId));
+        } catch (Exception e) {
+            logger.error("Error getting engagement for message {}: {}", messageId, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to get engagement: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Engagement for a screen of messages in one round trip, keyed by message id
+     */
+    @PostMapping("/engagement")
+    public ResponseEntity<Map<String, Object>> getBatchEngagement(@RequestBody Map<String, List<Long>> body) {
+        List<Long> messageIds = body.get("messageIds");
+        if (messageIds == null || messageIds.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "messageIds is required"));
+        }
+        if (messageIds.size() > 200) {
+            return ResponseEntity.badRequest().body(Map.of("error", "At most 200 messageIds per request"));
+        }
+        try {
+            Map<String, Object> response = new HashMap<>();
+            engagementService.getBatchMessageEngagementData(messageIds)
+                .forEach((messageId, engagement) -> response.put(messageId.toString(), engagement));
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Error getting engagement for {} messages: {}", messageIds.size(), e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to get engagement: " + e.getMessage()));
+        }
+    }
+
     @DeleteMapping("/{messageId}/reactions/{reactionType}")
     @Transactional
     public ResponseEntity<Map<String, Object>> removeReaction(
@@ -219,6 +261,7 @@ public class ReactionController {
                     messageId, userId);
                     
                 jdbcTemplate.update("UPDATE message SET like_count = like_count - 1 WHERE id = ?", messageId);
+                eTagService.bumpForMessage(messageId);
                 action = "removed";
             } else {
                 // Add like
@@ -226,6 +269,7 @@ public class ReactionController {
                     messageId, messageId, userId);
 
                 jdbcTemplate.update("UPDATE message SET like_count = like_count + 1 WHERE id = ?", messageId);
+                eTagService.bumpForMessage(messageId);
                 action = "added";
             }
 
@@ -300,12 +344,14 @@ public class ReactionController {
                 jdbcTemplate.update("DELETE FROM message_reaction WHERE target_message_id = ? AND user_id = ? AND reaction_type = 'LOVE' AND target_type = 'MESSAGE'", 
                     messageId, userId);
                 jdbcTemplate.update("UPDATE message SET love_count = love_count - 1 WHERE id = ?", messageId);
+                eTagService.bumpForMessage(messageId);
                 action = "removed";
             } else {
                 // Add love
                 jdbcTemplate.update("INSERT INTO message_reaction (message_id, target_message_id, user_id, reaction_type, target_type) VALUES (?, ?, ?, 'LOVE', 'MESSAGE')", 
                     messageId, messageId, userId);
                 jdbcTemplate.update("UPDATE message SET love_count = love_count + 1 WHERE id = ?", messageId);
+                eTagService.bumpForMessage(messageId);
                 action = "added";
             }
 
@@ -394,6 +440,7 @@ public class ReactionController {
                 logger.info("Removed like reaction for comment {}", commentId);
                     
                 jdbcTemplate.update("UPDATE message_comment SET like_count = like_count - 1 WHERE id = ?", commentId);
+                eTagService.bumpForComment(commentId);
                 action = "removed";
             } else {
                 // Add like
@@ -402,6 +449,7 @@ public class ReactionController {
                 logger.info("Added like reaction for comment {}", commentId);
 
                 jdbcTemplate.update("UPDATE message_comment SET like_count = like_count + 1 WHERE id = ?", commentId);
+                eTagService.bumpForComment(commentId);
                 action = "added";
             }
 
@@ -489,6 +537,7 @@ public class ReactionController {
                     commentId, userId);
                 
                 jdbcTemplate.update("UPDATE message_comment SET love_count = love_count - 1 WHERE id = ?", commentId);
+                eTagService.bumpForComment(commentId);
                 action = "removed";
             } else {
                 // Add love
@@ -496,6 +545,7 @@ public class ReactionController {
                     commentId, commentId, userId);
 
                 jdbcTemplate.update("UPDATE message_comment SET love_count = love_count + 1 WHERE id = ?", commentId);
+                eTagService.bumpForComment(commentId);
                 action = "added";
             }
 
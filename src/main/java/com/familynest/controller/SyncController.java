@@ -0,0 +1,47 @@
+package com.familynest.controller;
+
+import com.familynest.dto.SyncRequest;
+import com.familynest.service.SyncService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/sync")
+public class SyncController {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncController.class);
+
+    @Autowired
+    private SyncService syncService;
+
+    /**
+     * Return everything that changed since the client's watermarks (new messages, comments, DMs and
+     * reaction/count changes) so a reconnecting client doesn't reload the feed and every conversation.
+     * POST /api/sync
+     */
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> sync(
+            @RequestBody SyncRequest syncRequest,
+            HttpServletRequest request) {
+
+        Long userId = (Long) request.getAttribute("userId");
+        if (userId == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Unauthorized"));
+        }
+
+        try {
+            return ResponseEntity.ok(syncService.sync(userId, syncRequest));
+        } catch (Exception e) {
+            logger.error("Error syncing user {}: {}", userId, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Sync failed: " + e.getMessage()));
+        }
+    }
+}
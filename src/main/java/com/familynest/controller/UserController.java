@@ -8,10 +8,16 @@ import com.familynest.repository.FamilyRepository;
 import com.familynest.auth.AuthUtil; // Add this import
 import com.familynest.auth.TokenPair;
 
+import com.familynest.dto.FeedMessageDTO;
 import com.familynest.service.MediaService;
 import com.familynest.service.MessageService;
 import com.familynest.service.WebSocketBroadcastService;
-import com.familynest.service.PushNotificationService;
+import com.familynest.service.NotificationOutbox;
+import com.familynest.service.TimelineService;
+import com.familynest.service.ETagService;
+import com.familynest.service.CacheEvictionService;
+import com.familynest.service.SocialGraphIndex;
+import com.familynest.service.NotificationPreferenceIndex;
 import com.familynest.service.RefreshTokenService;
 import com.familynest.util.ErrorCodes; // Add ErrorCodes import
 import com.familynest.service.EmailService;
@@ -78,6 +84,11 @@ public class UserController {
 
     private static final Logger logger = LoggerFactory.getLogger(UserController.class);
 
+    // Feed paging: keep 100 as the default so older clients see the same first page
+    private static final int DEFAULT_FEED_PAGE_SIZE = 100;
+    private static final int MAX_FEED_PAGE_SIZE = 100;
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     @Autowired
     private MessageService messageService;
 
@@ -111,6 +122,18 @@ public class UserController {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ETagService eTagService;
+
+    @Autowired
+    private CacheEvictionService cacheEvictionService;
+
+    @Autowired
+    private SocialGraphIndex socialGraphIndex;
+
+    @Autowired
+    private NotificationPreferenceIndex notificationPreferenceIndex;
+
     /**
      * Check if a recipient has muted the sender for family messages
      */
@@ -140,7 +163,10 @@ public class UserController {
     private WebSocketBroadcastService webSocketBroadcastService;
 
     @Autowired
-    private PushNotificationService pushNotificationService;
+    private NotificationOutbox notificationOutbox;
+
+    @Autowired
+    private TimelineService timelineService;
 
     @Autowired
     private EmailService emailService;
@@ -231,7 +257,7 @@ public class UserController {
                         "), " +
                         "family_data AS (" +
                         "  SELECT f.id, f.name, f.created_by, " +
-                        "         (SELECT COUNT(*) FROM user_family_membership ufm WHERE ufm.family_id = f.id) as member_count " +
+                        "         f.member_count " +
                         "  FROM family f " +
                         "  JOIN primary_family pf ON f.id = pf.family_id " +
                         ") " +
@@ -606,6 +632,8 @@ public class UserController {
             membership.setActive(true);
             membership.setRole("ADMIN");
             userFamilyMembershipRepository.save(membership);
+            jdbcTemplate.update("UPDATE family SET member_count = member_count + 1 WHERE id = ?", savedFamily.getId());
+            socialGraphIndex.onMembershipChanged(id);
 
             logger.debug("Family creation completed successfully");
             Map<String, Object> response = new HashMap<>();
@@ -655,6 +683,9 @@ public class UserController {
 
             // Save the new membership as active
             userFamilyMembershipRepository.save(membership);
+            jdbcTemplate.update("UPDATE family SET member_count = member_count + 1 WHERE id = ?", familyId);
+            timelineService.backfillMember(id, familyId);
+            socialGraphIndex.onMembershipChanged(id);
             logger.debug("Created and activated new membership for user ID: {} in family ID: {}", id, familyId);
 
             // Create message settings (default receive_messages = true)
@@ -683,8 +714,8 @@ public class UserController {
                 );
                 String familyName = (String) familyData.get("name");
 
-                pushNotificationService.sendNewMemberNotification(familyId, newMemberName, familyName);
-                logger.debug("Sent new member notification for {} joining {}", newMemberName, familyName);
+                notificationOutbox.enqueueNewMemberPush(familyId, id, newMemberName, familyName);
+                logger.debug("Queued new member notification for {} joining {}", newMemberName, familyName);
             } catch (Exception e) {
                 logger.error("Error sending new member notification: {}", e.getMessage());
                 // Don't fail the join operation if notification fails
@@ -816,37 +847,41 @@ public class UserController {
 
             // Insert into message_family_link table for each target family
             String linkSql = "INSERT INTO message_family_link (message_id, family_id) VALUES (?, ?)";
+            // feed_version is bumped by the timeline fan-out once the members' rows exist (TimelineService)
+            String familyCountSql = "UPDATE family SET message_count = message_count + 1 WHERE id = ?";
             for (Long targetFamilyId : targetFamilyIds) {
                 jdbcTemplate.update(linkSql, newMessageId, targetFamilyId);
+                jdbcTemplate.update(familyCountSql, targetFamilyId);
                 logger.debug("Linked message {} to family {}", newMessageId, targetFamilyId);
             }
+            // Members' cached message pages are stale once this commits
+            cacheEvictionService.evictForMessage(newMessageId);
 
             // Fetch the full message with all joins BEFORE committing (to avoid JDBC issues in afterCommit)
             Map<String, Object> messageDataForBroadcast = messageService.getMessageById(newMessageId);
 
+            // Push notifications commit with the message and are sent by the outbox workers
+            for (Long targetFamilyId : targetFamilyIds) {
+                notificationOutbox.enqueueFamilyMessagePush(newMessageId, targetFamilyId, (String) userData.get("username"), content);
+            }
+
             // Schedule WebSocket broadcast and notifications to happen AFTER transaction commits
             final Long finalMessageId = newMessageId;
             final List<Long> finalTargetFamilyIds = new ArrayList<>(targetFamilyIds);
-            final String finalContent = content;
-            final String finalSenderName = (String) userData.get("username");
             final Map<String, Object> finalMessageData = new HashMap<>(messageDataForBroadcast);
 
             TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
                 @Override
                 public void afterCommit() {
+                    // Queue the timeline fan-out ahead of the broadcast on each family's lane, so a feed
+                    // refresh triggered by the broadcast sees the message; it also bumps the feed versions
+                    timelineService.scheduleFanOut(finalMessageId, userId, finalTargetFamilyIds);
+
                     try {
 
                         // Broadcast the NEW MESSAGE to all target families via WebSocket
                         for (Long targetFamilyId : finalTargetFamilyIds) {
                             webSocketBroadcastService.broadcastNewMessage(finalMessageData, targetFamilyId);
-
-                            // Send push notifications to family members (background notifications)
-                            try {
-                                pushNotificationService.sendFamilyMessageNotification(finalMessageId, targetFamilyId, finalSenderName, finalContent);
-                            } catch (Exception pushError) {
-                                logger.error("Error sending push notification for message {} (AFTER COMMIT): {}", finalMessageId, pushError.getMessage());
-                                // Don't let push notification errors break the message posting flow
-                            }
                         }
                     } catch (Exception e) {
                         logger.error("Error broadcasting WebSocket message for messageId {} (AFTER COMMIT): {}", finalMessageId, e.getMessage());
@@ -874,23 +909,37 @@ public class UserController {
     }
 
     @GetMapping("/{id}/messages")
-    public ResponseEntity<List<Map<String, Object>>> getMessages(
+    public ResponseEntity<List<FeedMessageDTO>> getMessages(
         @PathVariable Long id,
-        @RequestHeader("Authorization") String authHeader) {
+        @RequestParam(value = "before", required = false) Long before,
+        @RequestParam(value = "limit", required = false) Integer limit,
+        @RequestHeader("Authorization") String authHeader,
+        @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
 
             String token = authHeader.startsWith("Bearer ") ? authHeader.substring(7) : authHeader;
             Long currentUserId = authUtil.extractUserId(token);
             if (currentUserId == null) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body(null);
             }
+
+            // Most app resumes find nothing new; answer those from the version token without running the feed query
+            String etag = eTagService.feedETag(id, before, limit);
+            if (ETagService.matches(ifNoneMatch, etag)) {
+                logger.debug("Feed for user {} not modified", id);
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
          try {
+            // Clamp the page size; clients that don't send a limit keep the old 100-message page
+            int pageSize = limit == null ? DEFAULT_FEED_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_FEED_PAGE_SIZE));
+
             // Use a single optimized SQL query that:
             // 1. Checks if user exists
             // 2. Gets all families user belongs to
-            // 3. Filters out muted families
-            // 4. Gets messages from all remaining families
-            // 5. Joins with sender data for display
-            // 6. Uses subqueries for aggregates to avoid CTE reference issues
+            // 3. Filters out muted senders at read time (timeline rows are written without mutes)
+            // 4. Range-scans the user's fan-out-on-write timeline below the cursor
+            // 5. Walks message_family_link only for large fanout_on_read families
+            // 6. Joins with sender data for display
+            // Each branch and the merged subset fetch one extra row so we know whether an older page exists
             String sql = "WITH user_check AS (" +
                         "  SELECT id FROM app_user WHERE id = ?" +
                         "), " +
@@ -905,33 +954,47 @@ public class UserController {
                         "  JOIN user_families uf ON umms.family_id = uf.family_id " +
                         "  WHERE umms.user_id = ? AND umms.receive_messages = false" +
                         "), " +
-                        "message_subset AS (" +
-                        "  SELECT DISTINCT m.id " +
-                        "  FROM message m " +
-                        "  JOIN message_family_link mfl ON m.id = mfl.message_id " +
+                        "timeline_page AS (" +
+                        "  SELECT ut.message_id AS id " +
+                        "  FROM user_timeline ut " +
+                        "  LEFT JOIN muted_users mu ON ut.sender_id = mu.member_user_id " +
+                        "  WHERE ut.user_id = ? AND mu.member_user_id IS NULL " +
+                        (before != null ? "  AND ut.message_id < ? " : "") +
+                        "  ORDER BY ut.message_id DESC " +
+                        "  LIMIT ?" +
+                        "), " +
+                        "large_family_page AS (" +
+                        "  SELECT DISTINCT mfl.message_id AS id " +
+                        "  FROM message_family_link mfl " +
                         "  JOIN user_families uf ON mfl.family_id = uf.family_id " +
+                        "  JOIN family f ON f.id = mfl.family_id AND f.fanout_on_read = true " +
+                        "  JOIN message m ON m.id = mfl.message_id " +
                         "  LEFT JOIN muted_users mu ON m.sender_id = mu.member_user_id " +
                         "  WHERE mu.member_user_id IS NULL " +
-                        "  ORDER BY m.id DESC " +
-                        "  LIMIT 100" +
+                        (before != null ? "  AND mfl.message_id < ? " : "") +
+                        "  ORDER BY mfl.message_id DESC " +
+                        "  LIMIT ?" +
+                        "), " +
+                        "message_subset AS (" +
+                        "  SELECT id FROM timeline_page " +
+                        "  UNION " +
+                        "  SELECT id FROM large_family_page " +
+                        "  ORDER BY id DESC " +
+                        "  LIMIT ?" +
                         ") " +
-                        "SELECT DISTINCT " +
+                        "SELECT " +
                         "  m.id, m.content, m.sender_username, m.sender_id, " +
                         "  m.timestamp, m.media_type, m.media_url, m.thumbnail_url, m.local_media_path, " +
                         "  s.photo as sender_photo, s.first_name as sender_first_name, s.last_name as sender_last_name, " +
                         "  m.like_count, m.love_count, " +
-                        "  COALESCE(cc.count, 0) as comment_count, " +
+                        "  m.comment_count, " +
                         "  COALESCE(umr.has_unread_comments, " +
-                        "    CASE WHEN cc.count > 0 THEN true ELSE false END) as has_unread_comments, " +
+                        "    CASE WHEN m.comment_count > 0 THEN true ELSE false END) as has_unread_comments, " +
                         "  CASE WHEN mr.id IS NOT NULL THEN true ELSE false END as is_liked, " +
                         "  CASE WHEN mr2.id IS NOT NULL THEN true ELSE false END as is_loved " +
                         "FROM message m " +
                         "JOIN message_subset ms ON m.id = ms.id " +
-                        "JOIN message_family_link mfl ON m.id = mfl.message_id " +
-                        "JOIN user_families uf2 ON mfl.family_id = uf2.family_id " +
                         "LEFT JOIN app_user s ON m.sender_id = s.id " +
-                        "LEFT JOIN (SELECT parent_message_id, COUNT(*) as count FROM message_comment GROUP BY parent_message_id) cc " +
-                        "  ON m.id = cc.parent_message_id " +
                         "LEFT JOIN user_message_read umr ON m.id = umr.message_id AND umr.user_id = ? " +
                         "LEFT JOIN message_reaction mr ON m.id = mr.target_message_id AND mr.user_id = ? AND mr.reaction_type = 'LIKE' AND mr.target_type = 'MESSAGE' " +
                         "LEFT JOIN message_reaction mr2 ON m.id = mr2.target_message_id AND mr2.user_id = ? AND mr2.reaction_type = 'LOVE' AND mr2.target_type = 'MESSAGE' " +
@@ -943,73 +1006,46 @@ public class UserController {
                 return ResponseEntity.badRequest().body(null);
             }
 
-            List<Map<String, Object>> results = jdbcTemplate.queryForList(sql, id, id, id, currentUserId, currentUserId, currentUserId);
-
-            // DEBUG: Check if local_media_path is in the SQL results
-            if (!results.isEmpty() && "video".equals(results.get(0).get("media_type"))) {
-                logger.info("🔍 SQL Result - local_media_path: {}", results.get(0).get("local_media_path"));
+            List<Object> params = new ArrayList<>(List.of(id, id, id, id));
+            if (before != null) {
+                params.add(before);
+            }
+            params.add(pageSize + 1);
+            if (before != null) {
+                params.add(before);
             }
+            params.add(pageSize + 1);
+            params.add(pageSize + 1);
+            params.add(currentUserId);
+            params.add(currentUserId);
+            params.add(currentUserId);
 
-            // Debug output only for development - just log count, not each individual message
-            if (logger.isDebugEnabled() && !results.isEmpty()) {
-                logger.debug("Number of messages retrieved: {}", results.size());
+            // Rows map straight into the response records (no intermediate column maps)
+            List<FeedMessageDTO> response = jdbcTemplate.query(sql, FeedMessageDTO.ROW_MAPPER, params.toArray());
 
-                // Only log details of first message as sample
-                if (results.size() > 0) {
-                    Map<String, Object> firstResult = results.get(0);
-                    logger.debug("Sample message data - ID: {}, timestamp: {}, has thumbnail: {}",
-                        firstResult.get("id"),
-                        firstResult.get("timestamp"),
-                        firstResult.get("thumbnail_url") != null);
-                }
+            // The extra row only tells us there is more history; don't return it
+            boolean hasMore = response.size() > pageSize;
+            if (hasMore) {
+                response = response.subList(0, pageSize);
             }
-             // Transform results to the response format
-            List<Map<String, Object>> response = results.stream().map(message -> {
-                Map<String, Object> messageMap = new HashMap<>();
-                messageMap.put("id", message.get("id"));
-                messageMap.put("content", message.get("content"));
-                messageMap.put("senderUsername", message.get("sender_username"));
-                messageMap.put("senderId", message.get("sender_id"));
-                messageMap.put("senderPhoto", message.get("sender_photo"));
-                messageMap.put("senderFirstName", message.get("sender_first_name"));
-                messageMap.put("senderLastName", message.get("sender_last_name"));
-                messageMap.put("familyId", message.get("family_id"));
-                messageMap.put("familyName", message.get("family_name"));
-                messageMap.put("timestamp", message.get("timestamp").toString());
-                messageMap.put("mediaType", message.get("media_type"));
-                messageMap.put("mediaUrl", message.get("media_url"));
-                messageMap.put("localMediaPath", message.get("local_media_path"));
-
-                // Removed unnecessary debug logging for video paths
-
-                messageMap.put("likeCount", message.get("like_count"));
-                messageMap.put("loveCount", message.get("love_count"));
-                messageMap.put("commentCount", message.get("comment_count"));
-                messageMap.put("has_unread_comments", message.get("has_unread_comments"));
-
-                messageMap.put("isLiked", message.get("is_liked"));
-                messageMap.put("isLoved", message.get("is_loved"));
-
-                // Add thumbnail URL without excessive logging
-                messageMap.put("thumbnailUrl", message.get("thumbnail_url"));
-
-                // Add video message thumbnail URL warning only once
-                if ("video".equals(message.get("media_type")) && message.get("thumbnail_url") == null) {
-                    logger.debug("Video message ID {} has no thumbnail_url", message.get("id"));
-                }
 
-                return messageMap;
-            }).collect(Collectors.toList());
+            if (logger.isDebugEnabled() && !response.isEmpty()) {
+                FeedMessageDTO first = response.get(0);
+                logger.debug("Sample message data - ID: {}, timestamp: {}, has thumbnail: {}",
+                    first.id(), first.timestamp(), first.thumbnailUrl() != null);
+            }
 
             logger.debug("Returning {} messages for user {} using a single optimized query", response.size(), id);
 
-            // 🔥 DEBUG: Check final response
-            if (!response.isEmpty() && "video".equals(response.get(0).get("mediaType"))) {
-                logger.info("🔥 FINAL RESPONSE - First video message localMediaPath: {}", response.get(0).get("localMediaPath"));
-                logger.info("🔥 FINAL RESPONSE - All keys: {}", response.get(0).keySet());
+            // Cursor for the next (older) page goes in a header so the body stays a plain list
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+            if (etag != null) {
+                ok.eTag(etag);
             }
-
-            return ResponseEntity.ok(response);
+            if (hasMore && !response.isEmpty()) {
+                ok.header(NEXT_CURSOR_HEADER, String.valueOf(response.get(response.size() - 1).id()));
+            }
+            return ok.body(response);
         } catch (Exception e) {
             logger.error("Error retrieving messages: {}", e.getMessage(), e);
             return ResponseEntity.badRequest().body(null);
@@ -1180,6 +1216,7 @@ public class UserController {
                 if (membership.getFamilyId().equals(familyId)) {
                     membership.setActive(false);
                     userFamilyMembershipRepository.save(membership);
+                    socialGraphIndex.onMembershipChanged(id);
                     break;
                 }
             }
@@ -1321,6 +1358,7 @@ public class UserController {
                     jdbcTemplate.update(insertMatrixSql, userId, invitationNotifications);
                     logger.debug("Created new matrix row for user {} with invitation notifications: {}", userId, invitationNotifications);
                 }
+                notificationPreferenceIndex.onPreferencesChanged(userId);
             }
 
             // Build response with updated preferences
@@ -1423,7 +1461,7 @@ public class UserController {
                         ") " +
                         "SELECT " +
                         "  f.id as family_id, f.name as family_name, f.created_by as owner_id, " +
-                        "  (SELECT COUNT(*) FROM user_family_membership ufm WHERE ufm.family_id = f.id) as member_count, " +
+                        "  f.member_count, " +
                         "  um.role, um.is_active, " +
                         "  CASE WHEN f.created_by = ? THEN true ELSE false END as is_owner " +
                         "FROM family f " +
@@ -1474,6 +1512,7 @@ public class UserController {
                 if (memberships.isEmpty()) {
                     continue;
                 }
+                int fixedBefore = fixedCount;
 
                 // Count active memberships
                 long activeCount = memberships.stream()
@@ -1506,6 +1545,9 @@ public class UserController {
                         }
                     }
                 }
+                if (fixedCount > fixedBefore) {
+                    socialGraphIndex.onMembershipChanged(user.getId());
+                }
             }
 
             return ResponseEntity.ok(Map.of(
@@ -1803,6 +1845,7 @@ logger.info("🔍 DEBUG: User {} email: {}", userId, userEmails.isEmpty() ? "NOT
                 """;
                 int matrixRows = jdbcTemplate.update(createMatrixSql, userId);
                 logger.info("🔔 FCM_REGISTER: Created notification matrix for user {}, rows: {}", userId, matrixRows);
+                notificationPreferenceIndex.onPreferencesChanged(userId);
             }
 
             return ResponseEntity.ok(Map.of(
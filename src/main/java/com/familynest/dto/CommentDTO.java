@@ -0,0 +1,49 @@
+package com.familynest.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.jdbc.core.RowMapper;
+
+import static com.familynest.dto.ResultSetValues.*;
+
+/**
+ * One comment in GET /api/messages/{messageId}/comments.
+ * The sender name fields have always been sent in snake_case on this endpoint.
+ */
+public record CommentDTO(
+        Long id,
+        String content,
+        String senderUsername,
+        Long senderId,
+        String senderPhoto,
+        @JsonProperty("sender_first_name") String senderFirstName,
+        @JsonProperty("sender_last_name") String senderLastName,
+        String timestamp,
+        String mediaType,
+        String mediaUrl,
+        String thumbnailUrl,
+        Integer likeCount,
+        Integer loveCount,
+        Integer commentCount,
+        Long parentMessageId,
+        Boolean isLiked,
+        Boolean isLoved) {
+
+    public static final RowMapper<CommentDTO> ROW_MAPPER = (rs, rowNum) -> new CommentDTO(
+            getLong(rs, "id"),
+            rs.getString("content"),
+            rs.getString("sender_username"),
+            getLong(rs, "sender_id"),
+            rs.getString("sender_photo"),
+            rs.getString("sender_first_name"),
+            rs.getString("sender_last_name"),
+            getTimestampString(rs, "timestamp"),
+            rs.getString("media_type"),
+            rs.getString("media_url"),
+            rs.getString("thumbnail_url"),
+            getInt(rs, "like_count"),
+            getInt(rs, "love_count"),
+            getInt(rs, "comment_count"),
+            getLong(rs, "parent_message_id"),
+            getBoolean(rs, "is_liked"),
+            getBoolean(rs, "is_loved"));
+}
@@ -0,0 +1,72 @@
+package com.familynest.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.Timestamp;
+
+import static com.familynest.dto.ResultSetValues.*;
+
+/**
+ * One message in GET /api/dm/conversations/{conversationId}/messages.
+ * The endpoint sends database column names plus camelCase copies of the media fields
+ * for Flutter; the copies are derived accessors so each value is stored once.
+ */
+public record DMConversationMessageDTO(
+        Long id,
+        @JsonProperty("conversation_id") Long conversationId,
+        @JsonProperty("sender_id") Long senderId,
+        String content,
+        @JsonProperty("media_url") String mediaUrl,
+        @JsonProperty("media_type") String mediaType,
+        @JsonProperty("media_thumbnail") String mediaThumbnail,
+        @JsonProperty("media_filename") String mediaFilename,
+        @JsonProperty("media_size") Long mediaSize,
+        @JsonProperty("media_duration") Integer mediaDuration,
+        @JsonProperty("local_media_path") String localMediaPath,
+        @JsonProperty("is_read") Boolean isRead,
+        @JsonProperty("created_at") Timestamp createdAt,
+        @JsonProperty("sender_username") String senderUsername,
+        @JsonProperty("sender_first_name") String senderFirstName,
+        @JsonProperty("sender_last_name") String senderLastName,
+        @JsonProperty("sender_photo") String senderPhoto) {
+
+    public static final RowMapper<DMConversationMessageDTO> ROW_MAPPER = (rs, rowNum) -> new DMConversationMessageDTO(
+            getLong(rs, "id"),
+            getLong(rs, "conversation_id"),
+            getLong(rs, "sender_id"),
+            rs.getString("content"),
+            rs.getString("media_url"),
+            rs.getString("media_type"),
+            rs.getString("media_thumbnail"),
+            rs.getString("media_filename"),
+            getLong(rs, "media_size"),
+            getInt(rs, "media_duration"),
+            rs.getString("local_media_path"),
+            getBoolean(rs, "is_read"),
+            rs.getTimestamp("created_at"),
+            rs.getString("sender_username"),
+            rs.getString("sender_first_name"),
+            rs.getString("sender_last_name"),
+            rs.getString("sender_photo"));
+
+    @JsonProperty("mediaUrl")
+    public String mediaUrlCamelCase() {
+        return mediaUrl;
+    }
+
+    @JsonProperty("mediaType")
+    public String mediaTypeCamelCase() {
+        return mediaType;
+    }
+
+    @JsonProperty("mediaThumbnail")
+    public String mediaThumbnailCamelCase() {
+        return mediaThumbnail;
+    }
+
+    @JsonProperty("localMediaPath")
+    public String localMediaPathCamelCase() {
+        return localMediaPath;
+    }
+}
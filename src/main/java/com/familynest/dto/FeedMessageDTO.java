@@ -0,0 +1,57 @@
+package com.familynest.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.jdbc.core.RowMapper;
+
+import static com.familynest.dto.ResultSetValues.*;
+
+/**
+ * One message in the family feed (GET /api/users/{id}/messages).
+ * Mapped straight from the feed query so rows are not copied through intermediate maps.
+ * familyId and familyName are not selected by the feed query and are always null; they stay
+ * in the payload because the client model reads them.
+ */
+public record FeedMessageDTO(
+        Long id,
+        String content,
+        String senderUsername,
+        Long senderId,
+        String senderPhoto,
+        String senderFirstName,
+        String senderLastName,
+        Long familyId,
+        String familyName,
+        String timestamp,
+        String mediaType,
+        String mediaUrl,
+        String localMediaPath,
+        Integer likeCount,
+        Integer loveCount,
+        Integer commentCount,
+        @JsonProperty("has_unread_comments") Boolean hasUnreadComments,
+        Boolean isLiked,
+        Boolean isLoved,
+        String thumbnailUrl) {
+
+    public static final RowMapper<FeedMessageDTO> ROW_MAPPER = (rs, rowNum) -> new FeedMessageDTO(
+            getLong(rs, "id"),
+            rs.getString("content"),
+            rs.getString("sender_username"),
+            getLong(rs, "sender_id"),
+            rs.getString("sender_photo"),
+            rs.getString("sender_first_name"),
+            rs.getString("sender_last_name"),
+            null,
+            null,
+            getTimestampString(rs, "timestamp"),
+            rs.getString("media_type"),
+            rs.getString("media_url"),
+            rs.getString("local_media_path"),
+            getInt(rs, "like_count"),
+            getInt(rs, "love_count"),
+            getInt(rs, "comment_count"),
+            getBoolean(rs, "has_unread_comments"),
+            getBoolean(rs, "is_liked"),
+            getBoolean(rs, "is_loved"),
+            rs.getString("thumbnail_url"));
+}
@@ -0,0 +1,37 @@
+package com.familynest.dto;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Null-preserving column readers for JDBC row mappers.
+ * ResultSet.getLong/getInt return 0 for SQL NULL, but the JSON payloads have always carried null.
+ */
+public final class ResultSetValues {
+
+    private ResultSetValues() {}
+
+    public static Long getLong(ResultSet rs, String column) throws SQLException {
+        long value = rs.getLong(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    public static Integer getInt(ResultSet rs, String column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    public static Boolean getBoolean(ResultSet rs, String column) throws SQLException {
+        boolean value = rs.getBoolean(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    /**
+     * Timestamp rendered with Timestamp.toString(), the format the feed and comment endpoints have always sent
+     */
+    public static String getTimestampString(ResultSet rs, String column) throws SQLException {
+        Timestamp value = rs.getTimestamp(column);
+        return value != null ? value.toString() : null;
+    }
+}
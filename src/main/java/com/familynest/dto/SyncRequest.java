@@ -0,0 +1,20 @@
+package com.familynest.dto;
+
+import java.util.Map;
+
+/**
+ * Client watermarks for POST /api/sync.
+ * Any watermark may be null; that section is skipped and the current high watermark is returned
+ * so the client can start syncing from there.
+ *
+ * @param messageVersion feed position (sync_version) up to which the client has every family message
+ * @param lastCommentId highest comment id the client has
+ * @param changeVersion highest message/comment change_version the client has seen (reactions, counts)
+ * @param dmWatermarks  conversation id -> highest dm_message id the client has for that conversation
+ */
+public record SyncRequest(
+        Long messageVersion,
+        Long lastCommentId,
+        Long changeVersion,
+        Map<Long, Long> dmWatermarks) {
+}
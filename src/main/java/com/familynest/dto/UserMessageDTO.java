@@ -0,0 +1,49 @@
+package com.familynest.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.sql.Timestamp;
+
+/**
+ * One message in GET /api/messages/user/{userId} (page and cursor modes).
+ * The endpoint sends database column names plus camelCase copies of the media fields;
+ * the copies are derived accessors so each value is stored once.
+ * Media and photo URLs are already absolute when the record is built (see MessageController).
+ */
+public record UserMessageDTO(
+        Long id,
+        String content,
+        @JsonProperty("sender_username") String senderUsername,
+        @JsonProperty("sender_id") Long senderId,
+        @JsonProperty("family_id") Long familyId,
+        Timestamp timestamp,
+        @JsonProperty("media_type") String mediaType,
+        @JsonProperty("media_url") String mediaUrl,
+        @JsonProperty("thumbnail_url") String thumbnailUrl,
+        String username,
+        @JsonProperty("first_name") String firstName,
+        @JsonProperty("last_name") String lastName,
+        String photo,
+        @JsonProperty("reaction_count") Long reactionCount,
+        @JsonProperty("comment_count") Long commentCount) {
+
+    /**
+     * Only sent when the message has media, as before
+     */
+    @JsonProperty("mediaUrl")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String mediaUrlCamelCase() {
+        return mediaUrl;
+    }
+
+    @JsonProperty("mediaType")
+    public String mediaTypeCamelCase() {
+        return mediaType;
+    }
+
+    @JsonProperty("thumbnailUrl")
+    public String thumbnailUrlCamelCase() {
+        return thumbnailUrl;
+    }
+}
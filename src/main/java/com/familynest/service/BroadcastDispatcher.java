@@ -0,0 +1,329 @@
+package com.familynest.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs WebSocket fan-out off the request thread.
+ *
+ * Work is spread over websocket.dispatch.workers single-threaded lanes, each with a bounded queue.
+ * The lane is picked from an ordering key (family or recipient id), so events for the same family
+ * are still delivered in the order they were committed. TimelineService also queues a new
+ * message's timeline writes on its family's lane, ahead of the NEW_MESSAGE broadcast.
+ *
+ * - submit(): critical events (new messages, comments, DMs, invitations). Never dropped and never
+ *   run on the caller's thread: if the lane is full the caller waits up to
+ *   websocket.dispatch.submit-timeout-ms for room, and past that the event is handed to the lane
+ *   again after a short delay. Only a deferred event can be overtaken by later ones for its lane.
+ * - submitMergeable(): state snapshots (reaction and comment counts). The first event for a merge
+ *   key opens a coalescing window (websocket.coalesce.window-ms); newer events for the key replace
+ *   it until the window closes, so a burst becomes one fan-out of the latest state. An event that
+ *   arrives once the fan-out has started opens a new window, so the final state is always sent.
+ *   If the lane is full when the window closes, the event is deferred by another window rather
+ *   than dropped.
+ */
+@Service
+public class BroadcastDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(BroadcastDispatcher.class);
+
+    @Value("${websocket.dispatch.workers:4}")
+    private int workers;
+
+    @Value("${websocket.dispatch.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${websocket.dispatch.shutdown-timeout-seconds:10}")
+    private long shutdownTimeoutSeconds;
+
+    @Value("${websocket.dispatch.submit-timeout-ms:100}")
+    private long submitTimeoutMs;
+
+    @Value("${websocket.coalesce.window-ms:250}")
+    private long coalesceWindowMs;
+
+    private ThreadPoolExecutor[] lanes;
+    private ScheduledThreadPoolExecutor windowTimer;
+    private volatile boolean stopping = false;
+
+    // Mergeable events waiting for their window or in a lane, by merge key
+    private final Map<String, Task> pendingMergeable = new ConcurrentHashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong ranInline = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalQueueMicros = new AtomicLong();
+    private final AtomicLong maxQueueMicros = new AtomicLong();
+
+    private final class Task implements Runnable {
+        private final String mergeKey;
+        private final long orderingKey;
+        private volatile long enqueuedAt = System.nanoTime();
+        private volatile Runnable work;
+
+        Task(String mergeKey, long orderingKey, Runnable work) {
+            this.mergeKey = mergeKey;
+            this.orderingKey = orderingKey;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            if (mergeKey != null) {
+                // Once removed, newer events for the key start a new task instead of replacing this one
+                pendingMergeable.remove(mergeKey, this);
+            }
+            long waitedMicros = (System.nanoTime() - enqueuedAt) / 1000;
+            totalQueueMicros.addAndGet(waitedMicros);
+            maxQueueMicros.accumulateAndGet(waitedMicros, Math::max);
+            try {
+                work.run();
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                logger.error("WebSocket broadcast failed: {}", e.getMessage(), e);
+            } finally {
+                executed.incrementAndGet();
+            }
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        int laneCount = Math.max(1, workers);
+        int laneCapacity = Math.max(1, queueCapacity / laneCount);
+        lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String name = "ws-dispatch-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(laneCapacity),
+                r -> {
+                    Thread thread = new Thread(r, name);
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+            // submit() can offer straight to the queue, which needs the worker to be running already
+            lanes[i].prestartAllCoreThreads();
+        }
+        windowTimer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "ws-coalesce");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("📡 WebSocket dispatcher started: {} lanes, {} queued events per lane, {}ms coalescing window",
+            laneCount, laneCapacity, coalesceWindowMs);
+    }
+
+    /**
+     * Queue a broadcast that must be delivered
+     */
+    public void submit(long orderingKey, Runnable work) {
+        submitted.incrementAndGet();
+        Task task = new Task(null, orderingKey, work);
+        ThreadPoolExecutor lane = laneFor(orderingKey);
+        try {
+            lane.execute(task);
+            return;
+        } catch (RejectedExecutionException e) {
+            if (lane.isShutdown()) {
+                // Shutting down: nothing will run it any more, so deliver on the caller's thread
+                ranInline.incrementAndGet();
+                task.run();
+                return;
+            }
+        }
+        // Lane full: wait briefly for room, then keep retrying from the timer instead of running here
+        blocked.incrementAndGet();
+        try {
+            if (lane.getQueue().offer(task, submitTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        defer(task);
+    }
+
+    private void defer(Task task) {
+        deferred.incrementAndGet();
+        try {
+            windowTimer.schedule(() -> enqueueDeferred(task), Math.max(coalesceWindowMs, 10), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Timer already stopped (shutdown): the lanes are still draining, so wait for room
+            ThreadPoolExecutor lane = laneFor(task.orderingKey);
+            try {
+                if (!lane.isShutdown()) {
+                    lane.getQueue().put(task);
+                    return;
+                }
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            ranInline.incrementAndGet();
+            task.run();
+        }
+    }
+
+    private void enqueueDeferred(Task task) {
+        ThreadPoolExecutor lane = laneFor(task.orderingKey);
+        try {
+            lane.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (lane.isShutdown()) {
+                ranInline.incrementAndGet();
+                task.run();
+            } else {
+                defer(task);
+            }
+        }
+    }
+
+    /**
+     * Queue a state-snapshot broadcast; newer events with the same merge key within the coalescing
+     * window supersede it
+     */
+    public void submitMergeable(long orderingKey, String mergeKey, Runnable work) {
+        submitted.incrementAndGet();
+        Task[] created = new Task[1];
+        pendingMergeable.compute(mergeKey, (key, existing) -> {
+            if (existing != null) {
+                existing.work = work;
+                coalesced.incrementAndGet();
+                return existing;
+            }
+            created[0] = new Task(key, orderingKey, work);
+            return created[0];
+        });
+        if (created[0] == null) {
+            return;
+        }
+        if (coalesceWindowMs > 0 && !stopping) {
+            schedule(created[0]);
+        } else {
+            enqueueMergeable(created[0]);
+        }
+    }
+
+    private void schedule(Task task) {
+        try {
+            windowTimer.schedule(() -> enqueueMergeable(task), coalesceWindowMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Timer already stopped (shutdown): hand it to the lane directly
+            enqueueMergeable(task);
+        }
+    }
+
+    private void enqueueMergeable(Task task) {
+        task.enqueuedAt = System.nanoTime();
+        try {
+            laneFor(task.orderingKey).execute(task);
+        } catch (RejectedExecutionException e) {
+            if (stopping) {
+                pendingMergeable.remove(task.mergeKey, task);
+                dropped.incrementAndGet();
+                return;
+            }
+            // Lane full: keep the latest state pending and try again after another window
+            deferred.incrementAndGet();
+            windowTimer.schedule(() -> enqueueMergeable(task), Math.max(coalesceWindowMs, 10), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private ThreadPoolExecutor laneFor(long orderingKey) {
+        return lanes[(int) Math.floorMod(orderingKey, (long) lanes.length)];
+    }
+
+    /**
+     * Events currently waiting in all lanes
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            depth += lane.getQueue().size();
+        }
+        return depth;
+    }
+
+    /**
+     * Dispatcher counters
+     */
+    public Map<String, Object> getStats() {
+        long count = executed.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", getQueueDepth());
+        stats.put("submitted", submitted.get());
+        stats.put("executed", count);
+        stats.put("coalesced", coalesced.get());
+        stats.put("blocked", blocked.get());
+        stats.put("deferred", deferred.get());
+        stats.put("dropped", dropped.get());
+        stats.put("ranInline", ranInline.get());
+        stats.put("failed", failed.get());
+        stats.put("avgQueueMs", count == 0 ? 0.0 : Math.round(totalQueueMicros.get() / (double) count) / 1000.0);
+        stats.put("maxQueueMs", maxQueueMicros.get() / 1000.0);
+        return stats;
+    }
+
+    /**
+     * Log dispatcher counters (every 5 minutes by default)
+     */
+    @Scheduled(fixedRateString = "${websocket.dispatch.log-interval:300000}", initialDelayString = "${websocket.dispatch.log-interval:300000}")
+    public void logStats() {
+        if (submitted.get() == 0) {
+            return;
+        }
+        logger.info("📡 WebSocket dispatcher: {}", getStats());
+    }
+
+    /**
+     * Stop accepting work and drain what is queued, up to the shutdown timeout
+     */
+    @PreDestroy
+    public void shutdown() {
+        // Let open coalescing windows close so their final state is still delivered
+        stopping = true;
+        windowTimer.shutdown();
+        try {
+            windowTimer.awaitTermination(coalesceWindowMs + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        int abandoned = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            try {
+                long remaining = deadline - System.nanoTime();
+                if (!lane.awaitTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                    abandoned += lane.shutdownNow().size();
+                }
+            } catch (InterruptedException e) {
+                abandoned += lane.shutdownNow().size();
+                Thread.currentThread().interrupt();
+            }
+        }
+        logger.info("📡 WebSocket dispatcher stopped ({} queued events abandoned)", abandoned);
+    }
+}
@@ -0,0 +1,37 @@
+package com.familynest.service;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Carries WebSocket broadcasts to every node so users connected anywhere receive them, along with
+ * invalidations of per-node caches (PREFERENCES_CHANGED for NotificationPreferenceIndex,
+ * MEMBERSHIP_CHANGED and MUTES_CHANGED for SocialGraphIndex, USER_MESSAGES_CHANGED for the
+ * userMessages pages evicted by CacheEvictionService).
+ *
+ * publish() delivers the event to the local listeners (on the publishing node, immediately) and to
+ * the listeners of all other nodes. Every listener sees every event and ignores kinds it doesn't handle. The implementation is chosen with websocket.relay.mode:
+ * "local" (default, single node / tests) or "redis" (pub/sub over the configured Redis).
+ */
+public interface BroadcastRelay {
+
+    /**
+     * Register a handler for the events arriving on this node
+     */
+    void addListener(Consumer<RelayedBroadcast> listener);
+
+    /**
+     * Deliver an event on this node and every other node
+     */
+    void publish(RelayedBroadcast event);
+
+    /**
+     * Id of this node, stamped on published events
+     */
+    String getNodeId();
+
+    /**
+     * Relay counters (published, received, lag)
+     */
+    Map<String, Object> getStats();
+}
@@ -0,0 +1,147 @@
+package com.familynest.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Explicit eviction for cached reads that message, comment and reaction writes make stale.
+ *
+ * userMessages keys start with "userId-generation-", where the generation is a counter kept here:
+ * evicting a user's pages bumps the counter, so the next read misses without scanning the cache,
+ * and the orphaned pages age out through the cache's size bound and TTL. Counters are striped by
+ * user id over a fixed array, so memory stays bounded; a bump also invalidates the other users of
+ * its stripe, which only costs them a cache miss.
+ *
+ * The caches are per node. Generation bumps are published on the BroadcastRelay
+ * (USER_MESSAGES_CHANGED) and applied on every node; other evictions are local, so other nodes
+ * see those changes when their entries expire.
+ * messageEngagement is keyed by message id and dropped through EngagementLoader. Evictions go
+ * through the transaction-aware caches, and generation bumps wait for the commit the same way.
+ */
+@Service
+public class CacheEvictionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheEvictionService.class);
+
+    private static final int GENERATION_STRIPES = 4096;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EngagementLoader engagementLoader;
+
+    @Autowired
+    private BroadcastRelay broadcastRelay;
+
+    // userMessages key generations, one per stripe of user ids
+    private final AtomicLongArray userMessagesGenerations = new AtomicLongArray(GENERATION_STRIPES);
+
+    @PostConstruct
+    public void subscribe() {
+        broadcastRelay.addListener(this::onRelayedEvent);
+    }
+
+    /**
+     * A message was posted, or its reactions/comments changed: drop the cached message pages of
+     * every member of its families and its cached engagement data
+     */
+    public void evictForMessage(Long messageId) {
+        try {
+            List<Long> memberIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT ufm.user_id FROM user_family_membership ufm " +
+                "JOIN message_family_link mfl ON mfl.family_id = ufm.family_id " +
+                "WHERE mfl.message_id = ?", Long.class, messageId);
+            evictUserMessages(memberIds);
+            engagementLoader.invalidate(messageId);
+        } catch (Exception e) {
+            // The TTL bounds staleness if an eviction is missed
+            logger.warn("Cache eviction failed for message {}: {}", messageId, e.getMessage());
+        }
+    }
+
+    /**
+     * A comment changed: evict everything cached for its parent message
+     */
+    public void evictForComment(Long commentId) {
+        List<Long> parentIds = jdbcTemplate.queryForList(
+            "SELECT parent_message_id FROM message_comment WHERE id = ? AND parent_message_id IS NOT NULL",
+            Long.class, commentId);
+        parentIds.forEach(this::evictForMessage);
+    }
+
+    /**
+     * Drop the cached message preferences of a user
+     */
+    public void evictMessagePreferences(Long userId) {
+        Cache cache = cacheManager.getCache("messagePreferences");
+        if (cache != null) {
+            cache.evict(userId);
+        }
+    }
+
+    /**
+     * Current userMessages key generation for a user (referenced from the @Cacheable key)
+     */
+    public long userMessagesGeneration(Long userId) {
+        return userMessagesGenerations.get(stripe(userId));
+    }
+
+    /**
+     * Make every cached userMessages page of the given users unreachable, once the transaction commits
+     */
+    public void evictUserMessages(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        List<Long> users = List.copyOf(userIds);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bumpUserMessagesGenerations(users);
+                }
+            });
+        } else {
+            bumpUserMessagesGenerations(users);
+        }
+    }
+
+    // Applied on this node as the relay delivers it locally, and on the others as it arrives
+    private void bumpUserMessagesGenerations(List<Long> userIds) {
+        broadcastRelay.publish(new RelayedBroadcast(RelayedBroadcast.Kind.USER_MESSAGES_CHANGED, Map.of("userIds", userIds), null,
+            null, null, null, broadcastRelay.getNodeId(), System.currentTimeMillis()));
+    }
+
+    private void onRelayedEvent(RelayedBroadcast event) {
+        if (event.kind() != RelayedBroadcast.Kind.USER_MESSAGES_CHANGED || event.payload() == null) {
+            return;
+        }
+        // Ids arrive as JSON numbers from other nodes
+        List<?> userIds = (List<?>) event.payload().get("userIds");
+        for (Object userId : userIds) {
+            userMessagesGenerations.incrementAndGet(stripe(((Number) userId).longValue()));
+        }
+        logger.debug("Invalidated cached message pages for {} users", userIds.size());
+    }
+
+    private static int stripe(Long userId) {
+        return (int) Math.floorMod(userId, (long) GENERATION_STRIPES);
+    }
+}
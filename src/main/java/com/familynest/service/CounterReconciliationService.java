@@ -0,0 +1,122 @@
+package com.familynest.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Repairs drift in the denormalized counters that are maintained on write:
+ * message.comment_count, message_comment.reply_count, family.member_count and family.message_count.
+ *
+ * Writes keep these columns up to date in the same transaction, but rows touched outside the
+ * application (manual SQL, cascaded deletes, test data loaders) can leave them stale. This job
+ * recomputes the true values off-peak and only rewrites rows that actually differ.
+ */
+@Service
+public class CounterReconciliationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CounterReconciliationService.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private static final String RECONCILE_COMMENT_COUNTS = """
+        UPDATE message m
+        SET comment_count = COALESCE(cc.count, 0)
+        FROM message m2
+        LEFT JOIN (
+            SELECT parent_message_id, COUNT(*) AS count
+            FROM message_comment
+            WHERE parent_message_id IS NOT NULL
+            GROUP BY parent_message_id
+        ) cc ON m2.id = cc.parent_message_id
+        WHERE m.id = m2.id
+        AND m.comment_count IS DISTINCT FROM COALESCE(cc.count, 0)
+    """;
+
+    private static final String RECONCILE_REPLY_COUNTS = """
+        UPDATE message_comment mc
+        SET reply_count = COALESCE(rc.count, 0)
+        FROM message_comment mc2
+        LEFT JOIN (
+            SELECT parent_comment_id, COUNT(*) AS count
+            FROM message_comment
+            WHERE parent_comment_id IS NOT NULL
+            GROUP BY parent_comment_id
+        ) rc ON mc2.id = rc.parent_comment_id
+        WHERE mc.id = mc2.id
+        AND mc.reply_count IS DISTINCT FROM COALESCE(rc.count, 0)
+    """;
+
+    private static final String RECONCILE_MEMBER_COUNTS = """
+        UPDATE family f
+        SET member_count = COALESCE(mc.count, 0)
+        FROM family f2
+        LEFT JOIN (
+            SELECT family_id, COUNT(*) AS count
+            FROM user_family_membership
+            GROUP BY family_id
+        ) mc ON f2.id = mc.family_id
+        WHERE f.id = f2.id
+        AND f.member_count IS DISTINCT FROM COALESCE(mc.count, 0)
+    """;
+
+    private static final String RECONCILE_MESSAGE_COUNTS = """
+        UPDATE family f
+        SET message_count = COALESCE(lc.count, 0)
+        FROM family f2
+        LEFT JOIN (
+            SELECT family_id, COUNT(*) AS count
+            FROM message_family_link
+            GROUP BY family_id
+        ) lc ON f2.id = lc.family_id
+        WHERE f.id = f2.id
+        AND f.message_count IS DISTINCT FROM COALESCE(lc.count, 0)
+    """;
+
+    /**
+     * Reconcile all counters every night at 3:30 AM (override with counters.reconcile.cron)
+     */
+    @Scheduled(cron = "${counters.reconcile.cron:0 30 3 * * *}")
+    public void reconcileScheduled() {
+        reconcileNow();
+    }
+
+    /**
+     * Run the reconciliation immediately and return the number of repaired rows per counter
+     */
+    public Map<String, Integer> reconcileNow() {
+        logger.info("Starting counter reconciliation job");
+        long start = System.currentTimeMillis();
+
+        Map<String, Integer> repaired = new LinkedHashMap<>();
+        repaired.put("message.comment_count", reconcile("message.comment_count", RECONCILE_COMMENT_COUNTS));
+        repaired.put("message_comment.reply_count", reconcile("message_comment.reply_count", RECONCILE_REPLY_COUNTS));
+        repaired.put("family.member_count", reconcile("family.member_count", RECONCILE_MEMBER_COUNTS));
+        repaired.put("family.message_count", reconcile("family.message_count", RECONCILE_MESSAGE_COUNTS));
+
+        logger.info("Counter reconciliation completed in {}ms. Repaired rows: {}",
+                   System.currentTimeMillis() - start, repaired);
+        return repaired;
+    }
+
+    private int reconcile(String counter, String sql) {
+        try {
+            int rows = jdbcTemplate.update(sql);
+            if (rows > 0) {
+                logger.warn("⚠️ Repaired {} drifted rows for {}", rows, counter);
+            }
+            return rows;
+        } catch (Exception e) {
+            // One failing counter should not stop the others from being repaired
+            logger.error("Counter reconciliation failed for {}: {}", counter, e.getMessage(), e);
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.familynest.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Cheap version tokens for conditional GETs on the endpoints mobile clients re-poll on resume
+ * (family feed, message comments, DM conversation list).
+ *
+ * Tokens are derived from a few indexed rows (family.feed_version, the user's mute settings,
+ * read state, last DM per conversation) so a 304 can be answered without running the main query.
+ * Sender profile changes (name, photo) are not part of the tokens and show up with the next change.
+ *
+ * The bump methods are the shared "feed content changed" hook for writers, so they also evict the
+ * cached reads that change with it (see CacheEvictionService). The message or comment's own
+ * change_version is set in the writer's transaction (it is the row being written anyway), but the
+ * family rows are only bumped after commit, one short autocommit update per family in id order:
+ * holding family row locks for the rest of a reaction or comment transaction made every writer in
+ * a family queue behind the others, and multi-family updates could deadlock. If the process dies
+ * between the commit and the bump, the feed token catches up with the family's next change.
+ */
+@Service
+public class ETagService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ETagService.class);
+
+    private static final String BUMP_SQL = "UPDATE family SET feed_version = nextval('family_feed_version_seq') WHERE id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private CacheEvictionService cacheEvictionService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // ----- Version bumps (called in the writer's transaction) -----
+
+    /**
+     * Mark a message (for /api/sync) and the feeds of every family it is linked to as changed
+     */
+    public void bumpForMessage(Long messageId) {
+        jdbcTemplate.update("UPDATE message SET change_version = nextval('family_feed_version_seq') WHERE id = ?", messageId);
+        bumpFamiliesAfterCommit(jdbcTemplate.queryForList(
+            "SELECT family_id FROM message_family_link WHERE message_id = ? ORDER BY family_id", Long.class, messageId));
+        cacheEvictionService.evictForMessage(messageId);
+    }
+
+    /**
+     * Mark a comment (for /api/sync) and the feeds of every family its parent message is linked to as changed
+     */
+    public void bumpForComment(Long commentId) {
+        jdbcTemplate.update("UPDATE message_comment SET change_version = nextval('family_feed_version_seq') WHERE id = ?", commentId);
+        bumpFamiliesAfterCommit(jdbcTemplate.queryForList(
+            "SELECT mfl.family_id FROM message_family_link mfl " +
+            "JOIN message_comment mc ON mc.parent_message_id = mfl.message_id " +
+            "WHERE mc.id = ? ORDER BY mfl.family_id", Long.class, commentId));
+        cacheEvictionService.evictForComment(commentId);
+    }
+
+    /**
+     * Bump a family's feed version outside any writer's transaction. TimelineService calls this
+     * after a new message's timeline rows are written: bumping at commit, before the rows exist,
+     * would let a feed read in between pair the new version with a page missing the message.
+     */
+    public void bumpFamily(Long familyId) {
+        bumpFamilies(List.of(familyId));
+    }
+
+    /**
+     * Bump the families' feed versions once the writer's transaction commits (immediately without one)
+     */
+    private void bumpFamiliesAfterCommit(List<Long> familyIds) {
+        if (familyIds.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bumpFamilies(familyIds);
+                }
+            });
+        } else {
+            bumpFamilies(familyIds);
+        }
+    }
+
+    /**
+     * One short transaction per family. In afterCommit the committed transaction's connection is
+     * still bound, so plain updates there would never be committed; REQUIRES_NEW gets its own.
+     */
+    private void bumpFamilies(List<Long> familyIds) {
+        TransactionTemplate bumpTransaction = new TransactionTemplate(transactionManager);
+        bumpTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        for (Long familyId : familyIds) {
+            try {
+                bumpTransaction.executeWithoutResult(status -> jdbcTemplate.update(BUMP_SQL, familyId));
+            } catch (Exception e) {
+                // Clients get a stale 304 until the family's next change
+                logger.error("Could not bump feed version of family {}: {}", familyId, e.getMessage());
+            }
+        }
+    }
+
+    // ----- Tokens -----
+
+    /**
+     * Version of everything the family feed and comment lists depend on for this user:
+     * family feed versions, membership, muted members and families, and read state
+     */
+    private String userFeedToken(Long userId) {
+        String sql = "SELECT md5(" +
+                     "  COALESCE((SELECT string_agg(f.id || ':' || f.feed_version, ',' ORDER BY f.id) " +
+                     "            FROM family f JOIN user_family_membership ufm ON ufm.family_id = f.id " +
+                     "            WHERE ufm.user_id = ?), '') || '|' || " +
+                     "  COALESCE((SELECT string_agg(umms.family_id || ':' || umms.member_user_id, ',' ORDER BY umms.family_id, umms.member_user_id) " +
+                     "            FROM user_member_message_settings umms " +
+                     "            WHERE umms.user_id = ? AND umms.receive_messages = false), '') || '|' || " +
+                     "  COALESCE((SELECT string_agg(ufms.family_id::text, ',' ORDER BY ufms.family_id) " +
+                     "            FROM user_family_message_settings ufms " +
+                     "            WHERE ufms.user_id = ? AND ufms.receive_messages = false), '') || '|' || " +
+                     "  COALESCE((SELECT MAX(umr.updated_at)::text FROM user_message_read umr WHERE umr.user_id = ?), '')" +
+                     ")";
+        return jdbcTemplate.queryForObject(sql, String.class, userId, userId, userId, userId);
+    }
+
+    /**
+     * ETag for GET /api/users/{id}/messages. Returns null if the token can't be computed,
+     * in which case the caller just serves the full response.
+     */
+    public String feedETag(Long userId, Long before, Integer limit) {
+        try {
+            return "feed-" + userFeedToken(userId) + "-" + before + "-" + limit;
+        } catch (Exception e) {
+            logger.warn("Could not compute feed ETag for user {}: {}", userId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * ETag for GET /api/messages/{messageId}/comments
+     */
+    public String commentsETag(Long userId, Long messageId) {
+        try {
+            return "comments-" + messageId + "-" + userFeedToken(userId);
+        } catch (Exception e) {
+            logger.warn("Could not compute comments ETag for user {} message {}: {}", userId, messageId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * ETag for GET /api/dm/conversations: the user's conversations, the time of the last message
+     * in each (index lookup on dm_message(conversation_id, created_at)) and group sizes
+     */
+    public String dmConversationsETag(Long userId) {
+        String sql = "WITH convs AS (" +
+                     "  SELECT c.id, c.is_group FROM dm_conversation c " +
+                     "  WHERE c.is_group = FALSE AND (c.user1_id = ? OR c.user2_id = ?) " +
+                     "  UNION " +
+                     "  SELECT c.id, c.is_group FROM dm_conversation c " +
+                     "  JOIN dm_conversation_participant p ON p.conversation_id = c.id " +
+                     "  WHERE c.is_group = TRUE AND p.user_id = ? " +
+                     ") " +
+                     "SELECT md5(COALESCE(string_agg(" +
+                     "  convs.id || ':' || COALESCE(last_msg.created_at::text, '') || ':' || pc.count, " +
+                     "  ',' ORDER BY convs.id), '')) " +
+                     "FROM convs " +
+                     "LEFT JOIN LATERAL (" +
+                     "  SELECT dm.created_at FROM dm_message dm " +
+                     "  WHERE dm.conversation_id = convs.id " +
+                     "  ORDER BY dm.created_at DESC LIMIT 1" +
+                     ") last_msg ON true " +
+                     "CROSS JOIN LATERAL (" +
+                     "  SELECT COUNT(*) AS count FROM dm_conversation_participant p " +
+                     "  WHERE p.conversation_id = convs.id AND convs.is_group" +
+                     ") pc";
+        try {
+            return "dm-" + jdbcTemplate.queryForObject(sql, String.class, userId, userId, userId);
+        } catch (Exception e) {
+            logger.warn("Could not compute DM conversations ETag for user {}: {}", userId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * True if the If-None-Match header matches the ETag (weak comparison, lists and * supported)
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        String quoted = "\"" + etag + "\"";
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(quoted) || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
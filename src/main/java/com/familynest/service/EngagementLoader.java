@@ -0,0 +1,249 @@
+package com.familynest.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DataLoader-style loader for per-message engagement data (comment, share and reaction counts).
+ *
+ * Requests for single message ids arriving within engagement.loader.window-ms are coalesced into
+ * one query with a bound bigint[] parameter (one prepared statement regardless of batch size).
+ * Results are cached per message id in the messageEngagement cache and invalidated by
+ * CacheEvictionService when reactions or comments are written.
+ */
+@Service
+public class EngagementLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(EngagementLoader.class);
+
+    private static final String CACHE_NAME = "messageEngagement";
+
+    private static final String ENGAGEMENT_SQL = """
+        SELECT m.id AS message_id, m.comment_count,
+               (SELECT COUNT(*) FROM message_share s WHERE s.original_message_id = m.id) AS share_count,
+               r.reaction_type, r.count AS reaction_count
+        FROM message m
+        LEFT JOIN LATERAL (
+            SELECT mr.reaction_type, COUNT(*) AS count
+            FROM message_reaction mr
+            WHERE mr.target_message_id = m.id AND mr.target_type = 'MESSAGE'
+            GROUP BY mr.reaction_type
+        ) r ON true
+        WHERE m.id = ANY(?::bigint[])
+        """;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Value("${engagement.loader.window-ms:5}")
+    private long windowMs;
+
+    @Value("${engagement.loader.max-batch:100}")
+    private int maxBatch;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "engagement-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object lock = new Object();
+    private Map<Long, CompletableFuture<Map<String, Object>>> pending = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+
+    // Bumped on every invalidation; a batch that overlaps one doesn't cache its (possibly stale) rows
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedIds = new AtomicLong();
+
+    /**
+     * Engagement for one message. Cache hits complete immediately; misses join the current batch.
+     */
+    public CompletableFuture<Map<String, Object>> load(Long messageId) {
+        Map<String, Object> cached = cached(messageId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        Map<Long, CompletableFuture<Map<String, Object>>> fullBatch = null;
+        CompletableFuture<Map<String, Object>> future;
+        synchronized (lock) {
+            future = pending.computeIfAbsent(messageId, id -> new CompletableFuture<>());
+            if (pending.size() >= maxBatch) {
+                fullBatch = drain();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (fullBatch != null) {
+            dispatch(fullBatch);
+        }
+        return future;
+    }
+
+    /**
+     * Engagement for several messages. Misses are queued with whatever other callers have pending
+     * and flushed right away instead of waiting for the window.
+     */
+    public Map<Long, Map<String, Object>> loadMany(Collection<Long> messageIds) {
+        if (messageIds == null || messageIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Long, CompletableFuture<Map<String, Object>>> futures = new LinkedHashMap<>();
+        for (Long messageId : messageIds) {
+            futures.computeIfAbsent(messageId, this::load);
+        }
+        flush();
+
+        Map<Long, Map<String, Object>> result = new LinkedHashMap<>();
+        futures.forEach((messageId, future) -> result.put(messageId, future.join()));
+        return result;
+    }
+
+    /**
+     * Drop a message's cached engagement (called by CacheEvictionService on writes).
+     *
+     * Inside a transaction the transaction-aware cache applies the evict at commit, so the
+     * generation is bumped after it, in a synchronization registered behind the evict's own. A batch
+     * that read before the commit and finishes after it then skips caching instead of re-caching
+     * the pre-commit counts the evict just removed.
+     */
+    public void invalidate(Long messageId) {
+        Cache cache = cacheManager.getCache(CACHE_NAME);
+        if (cache != null) {
+            cache.evict(messageId);
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidations.incrementAndGet();
+                }
+            });
+        } else {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Batching statistics
+     */
+    public String getStats() {
+        long count = batches.get();
+        return String.format("Engagement loader: %d batches, %d ids, %.1f ids/batch",
+            count, batchedIds.get(), count == 0 ? 0.0 : (double) batchedIds.get() / count);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> cached(Long messageId) {
+        Cache cache = cacheManager.getCache(CACHE_NAME);
+        return cache != null ? cache.get(messageId, Map.class) : null;
+    }
+
+    private void flush() {
+        Map<Long, CompletableFuture<Map<String, Object>>> batch;
+        synchronized (lock) {
+            batch = drain();
+        }
+        if (!batch.isEmpty()) {
+            dispatch(batch);
+        }
+    }
+
+    // Caller holds the lock
+    private Map<Long, CompletableFuture<Map<String, Object>>> drain() {
+        Map<Long, CompletableFuture<Map<String, Object>>> batch = pending;
+        pending = new LinkedHashMap<>();
+        flushScheduled = false;
+        return batch;
+    }
+
+    private void dispatch(Map<Long, CompletableFuture<Map<String, Object>>> batch) {
+        long generation = invalidations.get();
+        try {
+            Map<Long, Map<String, Object>> loaded = query(batch.keySet());
+            boolean cacheable = invalidations.get() == generation;
+            Cache cache = cacheable ? cacheManager.getCache(CACHE_NAME) : null;
+
+            batch.forEach((messageId, future) -> {
+                Map<String, Object> data = loaded.getOrDefault(messageId, emptyEngagement(Map.of()));
+                if (cache != null) {
+                    cache.put(messageId, data);
+                }
+                future.complete(data);
+            });
+            batches.incrementAndGet();
+            batchedIds.addAndGet(batch.size());
+            logger.debug("Loaded engagement for {} messages in one batch", batch.size());
+        } catch (Exception e) {
+            logger.error("Error loading engagement for {} messages: {}", batch.size(), e.getMessage(), e);
+            batch.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
+
+    private Map<Long, Map<String, Object>> query(Collection<Long> messageIds) {
+        Map<Long, Long> commentCounts = new HashMap<>();
+        Map<Long, Long> shareCounts = new HashMap<>();
+        Map<Long, Map<String, Long>> reactions = new HashMap<>();
+
+        jdbcTemplate.query(ENGAGEMENT_SQL, rs -> {
+            long messageId = rs.getLong("message_id");
+            commentCounts.put(messageId, rs.getLong("comment_count"));
+            shareCounts.put(messageId, rs.getLong("share_count"));
+            Map<String, Long> counts = reactions.computeIfAbsent(messageId, id -> new HashMap<>());
+            String reactionType = rs.getString("reaction_type");
+            if (reactionType != null) {
+                counts.put(reactionType, rs.getLong("reaction_count"));
+            }
+        }, (Object) messageIds.toArray(new Long[0]));
+
+        Map<Long, Map<String, Object>> result = new HashMap<>();
+        for (Long messageId : commentCounts.keySet()) {
+            Map<String, Object> data = new HashMap<>(emptyEngagement(Collections.unmodifiableMap(reactions.get(messageId))));
+            data.put("commentCount", commentCounts.get(messageId));
+            data.put("shareCount", shareCounts.get(messageId));
+            result.put(messageId, Collections.unmodifiableMap(data));
+        }
+        return result;
+    }
+
+    private static Map<String, Object> emptyEngagement(Map<String, Long> reactions) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("reactions", reactions);
+        data.put("commentCount", 0L);
+        data.put("viewCount", 0);
+        data.put("shareCount", 0L);
+        return Collections.unmodifiableMap(data);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        scheduler.shutdown();
+    }
+}
@@ -9,22 +9,29 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import java.time.LocalDateTime;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
-import java.util.Collections;
 
 @Service
 public class EngagementService {
     
     private static final Logger logger = LoggerFactory.getLogger(EngagementService.class);
     
+    // A comment and every reply below it, at any depth
+    private static final String DELETE_COMMENT_THREAD_SQL = """
+        WITH RECURSIVE thread AS (
+            SELECT id FROM message_comment WHERE id = ?
+            UNION ALL
+            SELECT mc.id FROM message_comment mc JOIN thread t ON mc.parent_comment_id = t.id
+        )
+        DELETE FROM message_comment WHERE id IN (SELECT id FROM thread)
+        """;
+    
     @Autowired
     private MessageReactionRepository reactionRepository;
     
@@ -48,6 +55,12 @@ public class EngagementService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
+    @Autowired
+    private ETagService eTagService;
+    
+    @Autowired
+    private EngagementLoader engagementLoader;
+    
     // ----- Reaction methods -----
     
     @Transactional
@@ -68,6 +81,8 @@ public class EngagementService {
         Optional<MessageReaction> existingReaction = 
             reactionRepository.findByTargetMessageIdAndUserIdAndReactionTypeAndTargetType(messageId, userId, reactionType, "MESSAGE");
         
+        eTagService.bumpForMessage(messageId);
+        
         if (existingReaction.isPresent()) {
             reactionRepository.delete(existingReaction.get());
             logger.info("Removed existing reaction: {}", existingReaction.get().getId());
@@ -89,24 +104,19 @@ public class EngagementService {
         return reactionRepository.findByTargetMessageId(messageId);
     }
     
+    /**
+     * Reaction counts by type, from the cached engagement data
+     */
+    @SuppressWarnings("unchecked")
     public Map<String, Long> getMessageReactionCounts(Long messageId) {
-        logger.info("Getting reaction counts for message: {}", messageId);
-        List<MessageReaction> reactions = reactionRepository.findByTargetMessageId(messageId);
-        
-        // Group by reaction type and count
-        Map<String, Long> counts = new HashMap<>();
-        for (MessageReaction reaction : reactions) {
-            String type = reaction.getReactionType();
-            counts.put(type, counts.getOrDefault(type, 0L) + 1);
-        }
-        
-        return counts;
+        return (Map<String, Long>) getMessageEngagementData(messageId).get("reactions");
     }
     
     @Transactional
     public void removeReaction(Long messageId, Long userId, String reactionType) {
         logger.info("Removing reaction: {} from message: {} by user: {}", reactionType, messageId, userId);
         reactionRepository.deleteByTargetMessageIdAndUserIdAndReactionTypeAndTargetType(messageId, userId, reactionType, "MESSAGE");
+        eTagService.bumpForMessage(messageId);
     }
     
     // ----- Comment methods -----
@@ -138,7 +148,17 @@ public class EngagementService {
         comment.setCreatedAt(LocalDateTime.now());
         comment.setParentCommentId(parentCommentId);
         
-        return commentRepository.save(comment);
+        MessageComment saved = commentRepository.save(comment);
+        
+        // Keep the denormalized counters in step with the insert
+        jdbcTemplate.update("UPDATE message SET comment_count = comment_count + 1 WHERE id = ?", messageId);
+        if (parentCommentId != null) {
+            jdbcTemplate.update("UPDATE message_comment SET reply_count = reply_count + 1 WHERE id = ?", parentCommentId);
+            eTagService.bumpForComment(parentCommentId);
+        }
+        eTagService.bumpForMessage(messageId);
+        
+        return saved;
     }
     
     public Page<MessageComment> getMessageComments(Long messageId, Pageable pageable) {
@@ -174,6 +194,7 @@ public class EngagementService {
         
         comment.setContent(newContent);
         comment.setUpdatedAt(LocalDateTime.now());
+        eTagService.bumpForComment(commentId);
         
         return commentRepository.save(comment);
     }
@@ -195,7 +216,22 @@ public class EngagementService {
         }
         
         // Delete the comment and all its replies
-        commentRepository.deleteById(commentId);
+        int deleted = deleteCommentWithReplies(commentId);
+        
+        jdbcTemplate.update("UPDATE message SET comment_count = GREATEST(comment_count - ?, 0) WHERE id = ?", deleted, comment.getParentMessageId());
+        if (comment.getParentCommentId() != null) {
+            jdbcTemplate.update("UPDATE message_comment SET reply_count = GREATEST(reply_count - 1, 0) WHERE id = ?", comment.getParentCommentId());
+            eTagService.bumpForComment(comment.getParentCommentId());
+        }
+        eTagService.bumpForMessage(comment.getParentMessageId());
+    }
+    
+    /**
+     * Delete a comment with its replies; returns the number of comments deleted, which is what
+     * the parent message's comment_count drops by
+     */
+    public int deleteCommentWithReplies(Long commentId) {
+        return jdbcTemplate.update(DELETE_COMMENT_THREAD_SQL, commentId);
     }
     
     // ----- Removed View tracking methods (performance optimization) -----
@@ -229,7 +265,10 @@ public class EngagementService {
         share.setSharedToFamilyId(targetFamilyId);
         share.setSharedAt(LocalDateTime.now());
         
-        return shareRepository.save(share);
+        MessageShare saved = shareRepository.save(share);
+        // The share count is part of the cached engagement data
+        eTagService.bumpForMessage(messageId);
+        return saved;
     }
     
     public List<MessageShare> getMessageShares(Long messageId) {
@@ -238,8 +277,7 @@ public class EngagementService {
     }
     
     public long getMessageShareCount(Long messageId) {
-        logger.info("Getting share count for message: {}", messageId);
-        return shareRepository.countByOriginalMessageId(messageId);
+        return ((Number) getMessageEngagementData(messageId).get("shareCount")).longValue();
     }
     
     // ----- Engagement Settings methods -----
@@ -267,140 +305,19 @@ public class EngagementService {
     
     // ----- Combined Engagement Data methods -----
     
+    /**
+     * Combined engagement data for one message (coalesced and cached by EngagementLoader)
+     */
     public Map<String, Object> getMessageEngagementData(Long messageId) {
-        logger.info("Getting combined engagement data for message: {}", messageId);
-        
-        Map<String, Object> data = new HashMap<>();
-        
-        // Add reaction counts using the new schema
-        data.put("reactions", getMessageReactionCounts(messageId));
-        
-        // Add total comment count
-        data.put("commentCount", commentRepository.countByMessageId(messageId));
-        
-        // View count removed (performance optimization)
-        data.put("viewCount", 0);
-        
-        // Add share count
-        data.put("shareCount", shareRepository.countByOriginalMessageId(messageId));
-        
-        return data;
+        return engagementLoader.load(messageId).join();
     }
     
     /**
-     * Get engagement data for multiple messages in one efficient database query
-     * This is much more optimized than calling getMessageEngagementData() multiple times
+     * Get engagement data for multiple messages in one round trip.
+     * Cached messages are served from the per-message cache; the rest share a single
+     * bound-array query with any other pending loads (see EngagementLoader).
      */
-    @Cacheable(value = "messageEngagement", key = "#messageIds.hashCode()")
     public Map<Long, Map<String, Object>> getBatchMessageEngagementData(List<Long> messageIds) {
-        if (messageIds == null || messageIds.isEmpty()) {
-            return Collections.emptyMap();
-        }
-        
-        logger.info("Getting batch engagement data for {} messages", messageIds.size());
-        
-        // Limit to a reasonable batch size
-        List<Long> limitedIds = messageIds.size() <= 50 ? messageIds : messageIds.subList(0, 50);
-        
-        // Use the array constructor for better performance with arrays
-        StringBuilder idArray = new StringBuilder("ARRAY[");
-        for (int i = 0; i < limitedIds.size(); i++) {
-            if (i > 0) idArray.append(",");
-            idArray.append(limitedIds.get(i));
-        }
-        idArray.append("]");
-        
-        // Create optimized query using more efficient array handling
-        String sql = "WITH message_ids AS (" +
-                   "  SELECT UNNEST(" + idArray.toString() + ") AS id" +
-                   "), " +
-                   "engagement_data AS (" +
-                   "  -- Removed view tracking" +
-                   "  " +
-                   "  -- Reactions " +
-                   "  SELECT 'reaction' AS type, target_message_id AS message_id, COUNT(*) AS count " +
-                   "  FROM message_reaction " +
-                   "  WHERE target_message_id IN (SELECT id FROM message_ids) AND target_type = 'MESSAGE' " +
-                   "  GROUP BY target_message_id " +
-                   "  " +
-                   "  UNION ALL " +
-                   "  " +
-                   "  -- Comments " +
-                   "  SELECT 'comment' AS type, message_id, COUNT(*) AS count " +
-                   "  FROM message_comment " +
-                   "  WHERE message_id IN (SELECT id FROM message_ids) " +
-                   "  GROUP BY message_id " +
-                   "  " +
-                   "  UNION ALL " +
-                   "  " +
-                   "  -- Shares " +
-                   "  SELECT 'share' AS type, original_message_id AS message_id, COUNT(*) AS count " +
-                   "  FROM message_share " +
-                   "  WHERE original_message_id IN (SELECT id FROM message_ids) " +
-                   "  GROUP BY original_message_id " +
-                   "), " +
-                   "engagement_summary AS (" +
-                   "  SELECT " +
-                   "    message_id, " +
-                   "    0 AS view_count, " +
-                   "    SUM(CASE WHEN type = 'reaction' THEN count ELSE 0 END) AS reaction_count, " +
-                   "    SUM(CASE WHEN type = 'comment' THEN count ELSE 0 END) AS comment_count, " +
-                   "    SUM(CASE WHEN type = 'share' THEN count ELSE 0 END) AS share_count " +
-                   "  FROM engagement_data " +
-                   "  GROUP BY message_id" +
-                   "), " +
-                   "reactions_detail AS (" +
-                   "  SELECT target_message_id AS message_id, reaction_type, COUNT(*) AS count " +
-                   "  FROM message_reaction " +
-                   "  WHERE target_message_id IN (SELECT id FROM message_ids) AND target_type = 'MESSAGE' " +
-                   "  GROUP BY target_message_id, reaction_type" +
-                   ")" +
-                   "SELECT " +
-                   "  mi.id AS message_id, " +
-
-                   "  COALESCE(es.comment_count, 0) AS comment_count, " +
-                   "  COALESCE(es.share_count, 0) AS share_count, " +
-                   "  COALESCE(es.reaction_count, 0) AS total_reaction_count, " +
-                   "  rd.reaction_type, " +
-                   "  COALESCE(rd.count, 0) AS reaction_type_count " +
-                   "FROM message_ids mi " +
-                   "LEFT JOIN engagement_summary es ON mi.id = es.message_id " +
-                   "LEFT JOIN reactions_detail rd ON mi.id = rd.message_id";
-        
-        // Execute query directly with no parameters needed (ids are in the query itself)
-        List<Map<String, Object>> results = jdbcTemplate.queryForList(sql);
-        
-        // Process results
-        Map<Long, Map<String, Object>> messageEngagementMap = new HashMap<>();
-        Map<Long, Map<String, Integer>> reactionsMap = new HashMap<>();
-        
-        for (Map<String, Object> row : results) {
-            Long messageId = ((Number) row.get("message_id")).longValue();
-            
-            // Initialize data structures for this message if not exist
-            if (!messageEngagementMap.containsKey(messageId)) {
-                Map<String, Object> messageData = new HashMap<>();
-
-                messageData.put("commentCount", row.get("comment_count"));
-                messageData.put("shareCount", row.get("share_count"));
-                messageData.put("reactions", new HashMap<String, Integer>());
-                messageEngagementMap.put(messageId, messageData);
-                reactionsMap.put(messageId, new HashMap<>());
-            }
-            
-            // Add reaction data if present
-            if (row.get("reaction_type") != null) {
-                String reactionType = (String) row.get("reaction_type");
-                Integer count = ((Number) row.get("reaction_type_count")).intValue();
-                reactionsMap.get(messageId).put(reactionType, count);
-            }
-        }
-        
-        // Add reactions to each message
-        for (Long messageId : messageEngagementMap.keySet()) {
-            messageEngagementMap.get(messageId).put("reactions", reactionsMap.get(messageId));
-        }
-        
-        return messageEngagementMap;
+        return engagementLoader.loadMany(messageIds);
     }
 } 
@@ -0,0 +1,147 @@
+package com.familynest.service;
+
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.messaging.AndroidConfig;
+import com.google.firebase.messaging.ApnsConfig;
+import com.google.firebase.messaging.Aps;
+import com.google.firebase.messaging.BatchResponse;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.messaging.FirebaseMessagingException;
+import com.google.firebase.messaging.Message;
+import com.google.firebase.messaging.MessagingErrorCode;
+import com.google.firebase.messaging.MulticastMessage;
+import com.google.firebase.messaging.SendResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Firebase Cloud Messaging. Default transport.
+ * Messages are data-only with HIGH priority on Android and content-available on iOS, so the app
+ * decides whether to show anything.
+ */
+@Service
+@ConditionalOnProperty(name = "push.transport", havingValue = "fcm", matchIfMissing = true)
+public class FirebasePushTransport implements PushTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(FirebasePushTransport.class);
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong requestFailures = new AtomicLong();
+
+    @Override
+    public boolean isAvailable() {
+        return !FirebaseApp.getApps().isEmpty();
+    }
+
+    @Override
+    public Result send(String token, Map<String, String> data, String collapseKey) {
+        requests.incrementAndGet();
+        Message message = Message.builder()
+                .setToken(token)
+                .putAllData(data)
+                .setAndroidConfig(androidConfig(collapseKey))
+                .setApnsConfig(apnsConfig(collapseKey))
+                .build();
+        try {
+            String response = FirebaseMessaging.getInstance().send(message);
+            logger.debug("Successfully sent push notification: {}", response);
+            return Result.DELIVERED;
+        } catch (FirebaseMessagingException e) {
+            logger.error("🔥 FIREBASE ERROR DETAILS:");
+            logger.error("🔥 Error Code: {}", e.getMessagingErrorCode());
+            logger.error("🔥 Error Message: {}", e.getMessage());
+            logger.error("🔥 HTTP Response Code: {}", e.getHttpResponse() != null ? e.getHttpResponse().getStatusCode() : "unknown");
+            logger.error("🔥 FCM Token (first 20 chars): {}", token.substring(0, Math.min(20, token.length())) + "...");
+            if (isStaleToken(e)) {
+                return Result.staleToken(String.valueOf(e.getMessagingErrorCode()));
+            }
+            // A single-token request failing is the request failing
+            requestFailures.incrementAndGet();
+            logger.error("🔥 Full Stack Trace:", e);
+            throw new IllegalStateException("FCM send failed: " + e.getMessagingErrorCode(), e);
+        }
+    }
+
+    @Override
+    public List<Result> sendMulticast(List<String> tokens, Map<String, String> data, String collapseKey) {
+        requests.incrementAndGet();
+        MulticastMessage message = MulticastMessage.builder()
+                .addAllTokens(tokens)
+                .putAllData(data)
+                .setAndroidConfig(androidConfig(collapseKey))
+                .setApnsConfig(apnsConfig(collapseKey))
+                .build();
+        BatchResponse response;
+        try {
+            response = FirebaseMessaging.getInstance().sendEachForMulticast(message);
+        } catch (FirebaseMessagingException e) {
+            // The whole request failed (auth, quota, network); per-token results aren't available
+            requestFailures.incrementAndGet();
+            throw new IllegalStateException("FCM multicast failed: " + e.getMessagingErrorCode(), e);
+        }
+
+        // Responses are in the same order as the tokens in the request
+        List<Result> results = new ArrayList<>(tokens.size());
+        for (SendResponse result : response.getResponses()) {
+            FirebaseMessagingException error = result.getException();
+            if (result.isSuccessful()) {
+                results.add(Result.DELIVERED);
+            } else if (isStaleToken(error)) {
+                results.add(Result.staleToken(String.valueOf(error.getMessagingErrorCode())));
+            } else {
+                results.add(Result.failed(error != null ? String.valueOf(error.getMessagingErrorCode()) : "unknown"));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Unregistered or unauthorized tokens won't work again
+     */
+    private static boolean isStaleToken(FirebaseMessagingException e) {
+        if (e == null) {
+            return false;
+        }
+        return e.getMessagingErrorCode() == MessagingErrorCode.UNREGISTERED
+            || (e.getHttpResponse() != null && e.getHttpResponse().getStatusCode() == 401);
+    }
+
+    // Data-only message with HIGH priority on Android; on iOS wake the app without showing anything
+    private static AndroidConfig androidConfig(String collapseKey) {
+        AndroidConfig.Builder builder = AndroidConfig.builder()
+                .setPriority(AndroidConfig.Priority.HIGH)
+                .setDirectBootOk(true);
+        if (collapseKey != null) {
+            builder.setCollapseKey(collapseKey);
+        }
+        return builder.build();
+    }
+
+    private static ApnsConfig apnsConfig(String collapseKey) {
+        ApnsConfig.Builder builder = ApnsConfig.builder()
+                .setAps(Aps.builder()
+                        .setContentAvailable(true)  // Wake the app but don't show notification
+                        .build());
+        if (collapseKey != null) {
+            builder.putHeader("apns-collapse-id", collapseKey);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("transport", "fcm");
+        stats.put("requests", requests.get());
+        stats.put("requestFailures", requestFailures.get());
+        return stats;
+    }
+}
@@ -0,0 +1,49 @@
+package com.familynest.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * In-process relay: the only node is this one, so publishing is local delivery.
+ * Default mode, and the stand-in for tests.
+ */
+@Service
+@ConditionalOnProperty(name = "websocket.relay.mode", havingValue = "local", matchIfMissing = true)
+public class LocalBroadcastRelay implements BroadcastRelay {
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final AtomicLong published = new AtomicLong();
+    private final List<Consumer<RelayedBroadcast>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void addListener(Consumer<RelayedBroadcast> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void publish(RelayedBroadcast event) {
+        published.incrementAndGet();
+        listeners.forEach(listener -> listener.accept(event));
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", "local");
+        stats.put("published", published.get());
+        return stats;
+    }
+}
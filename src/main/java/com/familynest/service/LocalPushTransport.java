@@ -0,0 +1,111 @@
+package com.familynest.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory stand-in for FCM: nothing leaves the process.
+ *
+ * Each request sleeps for push.local.latency-ms (plus up to push.local.jitter-ms) to stand in for
+ * the FCM round trip, so worker and batch sizing can be load-tested offline. Tokens starting with
+ * push.local.stale-token-prefix come back as stale, and push.local.failure-rate fails that
+ * fraction of the other tokens.
+ */
+@Service
+@ConditionalOnProperty(name = "push.transport", havingValue = "local")
+public class LocalPushTransport implements PushTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalPushTransport.class);
+
+    @Value("${push.local.latency-ms:0}")
+    private long latencyMs;
+
+    @Value("${push.local.jitter-ms:0}")
+    private long jitterMs;
+
+    @Value("${push.local.failure-rate:0.0}")
+    private double failureRate;
+
+    @Value("${push.local.stale-token-prefix:stale-}")
+    private String staleTokenPrefix;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong tokensDelivered = new AtomicLong();
+    private final AtomicLong tokensStale = new AtomicLong();
+    private final AtomicLong tokensFailed = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public Result send(String token, Map<String, String> data, String collapseKey) {
+        return sendMulticast(List.of(token), data, collapseKey).get(0);
+    }
+
+    @Override
+    public List<Result> sendMulticast(List<String> tokens, Map<String, String> data, String collapseKey) {
+        requests.incrementAndGet();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            simulateRoundTrip();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+
+        List<Result> results = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            if (!staleTokenPrefix.isEmpty() && token.startsWith(staleTokenPrefix)) {
+                tokensStale.incrementAndGet();
+                results.add(Result.staleToken("UNREGISTERED"));
+            } else if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                tokensFailed.incrementAndGet();
+                results.add(Result.failed("UNAVAILABLE"));
+            } else {
+                tokensDelivered.incrementAndGet();
+                results.add(Result.DELIVERED);
+            }
+        }
+        logger.debug("Local push: {} tokens, type {}, collapse key {}", tokens.size(), data.get("type"), collapseKey);
+        return results;
+    }
+
+    private void simulateRoundTrip() {
+        long sleepMs = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+        if (sleepMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(sleepMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during simulated push request", e);
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("transport", "local");
+        stats.put("requests", requests.get());
+        stats.put("tokensDelivered", tokensDelivered.get());
+        stats.put("tokensStale", tokensStale.get());
+        stats.put("tokensFailed", tokensFailed.get());
+        stats.put("maxInFlight", maxInFlight.get());
+        return stats;
+    }
+}
@@ -25,8 +25,9 @@ public class MessageService {
             "s.photo as sender_photo, s.first_name as sender_first_name, s.last_name as sender_last_name, " +
             "m.parent_message_id as parent_message_id, " +
             "m.like_count, m.love_count, " +
-            "(SELECT COUNT(*) FROM message_comment WHERE parent_message_id = m.parent_message_id) as comment_count " +
+            "COALESCE(pm.comment_count, 0) as comment_count " +
             "FROM message_comment m " +
+            "LEFT JOIN message pm ON m.parent_message_id = pm.id " +
             "LEFT JOIN app_user s ON m.sender_id = s.id " +
             "WHERE m.id = ?";
         
@@ -44,7 +45,7 @@ public class MessageService {
                      "s.photo as sender_photo, s.first_name as sender_first_name, s.last_name as sender_last_name, " +
                      "f.name as family_name, " +
                      "m.like_count, m.love_count, " +
-                     "(SELECT COUNT(*) FROM message_comment WHERE parent_message_id = m.id) as comment_count " +
+                     "m.comment_count " +
                      "FROM message m " +
                      "LEFT JOIN message_family_link mfl ON m.id = mfl.message_id " +
                      "LEFT JOIN family f ON mfl.family_id = f.id " +
@@ -0,0 +1,473 @@
+package com.familynest.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Transactional outbox for push notifications and emails.
+ *
+ * Controllers call the enqueue methods inside their transaction; the row commits (or rolls back)
+ * with the change that caused it, so a side effect is never lost to a node dying after commit
+ * and never sent for a change that rolled back. After commit the poller is woken and the request
+ * returns without waiting for FCM or SMTP.
+ *
+ * Workers claim due rows with FOR UPDATE SKIP LOCKED (safe with several nodes) and hold them for
+ * outbox.lease-ms; a row whose worker died is picked up again once the lease runs out. Failures
+ * are retried with exponential backoff and jitter, and rows that fail outbox.max-attempts times
+ * are marked DEAD and kept for inspection.
+ *
+ * Delivery is at-least-once. A push attempt that fails records the device tokens it did reach in
+ * delivered_tokens, and the retry sends only to the others; a worker that dies mid-send records
+ * nothing and repeats the whole side effect. Every event carries its ids (messageId, commentId,
+ * invitation id) so the app can ignore a repeated notification. Enqueuing the same idempotency
+ * key twice (a retried request) is a no-op.
+ *
+ * A push held by PushCoalescer isn't done until its summary is: the row goes back to PENDING until
+ * the delivery's recheckAt (without using up an attempt), and the recheck completes the tokens the
+ * summary reached and sends the push itself to the rest.
+ */
+@Service
+public class NotificationOutbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationOutbox.class);
+
+    public static final String FAMILY_MESSAGE_PUSH = "FAMILY_MESSAGE_PUSH";
+    public static final String DM_PUSH = "DM_PUSH";
+    public static final String THREAD_PUSH = "THREAD_PUSH";
+    public static final String NEW_MEMBER_PUSH = "NEW_MEMBER_PUSH";
+    public static final String INVITATION_PUSH = "INVITATION_PUSH";
+    public static final String INVITATION_EMAIL = "INVITATION_EMAIL";
+
+    private static final String INSERT_SQL = """
+        INSERT INTO notification_outbox (event_type, idempotency_key, payload)
+        VALUES (?, ?, ?::jsonb)
+        ON CONFLICT (idempotency_key) DO NOTHING
+        """;
+
+    // Due pending rows plus rows whose lease expired (worker died), oldest first
+    private static final String CLAIM_SQL = """
+        UPDATE notification_outbox o
+        SET status = 'PROCESSING',
+            attempts = o.attempts + 1,
+            locked_until = CURRENT_TIMESTAMP + (? * INTERVAL '1 millisecond')
+        WHERE o.id IN (
+            SELECT id FROM notification_outbox
+            WHERE (status = 'PENDING' AND next_attempt_at <= CURRENT_TIMESTAMP)
+               OR (status = 'PROCESSING' AND locked_until < CURRENT_TIMESTAMP)
+            ORDER BY next_attempt_at
+            LIMIT ?
+            FOR UPDATE SKIP LOCKED
+        )
+        RETURNING o.id, o.event_type, o.idempotency_key, o.payload::text AS payload, o.attempts, o.created_at, o.delivered_tokens
+        """;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PushNotificationService pushNotificationService;
+
+    @Autowired
+    private EmailProviderService emailProviderService;
+
+    @Value("${outbox.workers:4}")
+    private int workers;
+
+    @Value("${outbox.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    @Value("${outbox.lease-ms:60000}")
+    private long leaseMs;
+
+    @Value("${outbox.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${outbox.backoff-base-ms:2000}")
+    private long backoffBaseMs;
+
+    @Value("${outbox.backoff-max-ms:600000}")
+    private long backoffMaxMs;
+
+    @Value("${outbox.retention-hours:72}")
+    private int retentionHours;
+
+    private final Map<String, BiConsumer<Map<String, Object>, PushDelivery>> handlers = new HashMap<>();
+
+    private ExecutorService workerPool;
+    private Thread poller;
+    private Semaphore inFlight;
+    private final Semaphore wakeups = new Semaphore(0);
+    private volatile boolean running;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong heldForSummary = new AtomicLong();
+    private final AtomicLong totalLagMs = new AtomicLong();
+    private final AtomicLong maxLagMs = new AtomicLong();
+
+    private record OutboxRow(long id, String eventType, String idempotencyKey, String payload, int attempts, Timestamp createdAt,
+                             List<String> deliveredTokens) { }
+
+    @PostConstruct
+    public void start() {
+        handlers.put(FAMILY_MESSAGE_PUSH, (payload, delivery) -> pushNotificationService.sendFamilyMessageNotification(
+            longValue(payload, "messageId"), longValue(payload, "familyId"),
+            (String) payload.get("senderName"), (String) payload.get("content"), delivery));
+        handlers.put(DM_PUSH, (payload, delivery) -> pushNotificationService.sendDMNotification(
+            longValue(payload, "messageId"), longValue(payload, "recipientId"),
+            (String) payload.get("senderName"), (String) payload.get("content"), delivery));
+        handlers.put(THREAD_PUSH, (payload, delivery) -> pushNotificationService.sendThreadParticipantNotifications(
+            longValue(payload, "commentId"), longValue(payload, "parentMessageId"), longValue(payload, "familyId"),
+            (String) payload.get("commenterName"), (String) payload.get("content"), longValue(payload, "commenterId"), delivery));
+        handlers.put(NEW_MEMBER_PUSH, (payload, delivery) -> pushNotificationService.sendNewMemberNotification(
+            longValue(payload, "familyId"), (String) payload.get("newMemberName"), (String) payload.get("familyName"), delivery));
+        handlers.put(INVITATION_PUSH, (payload, delivery) -> pushNotificationService.sendInvitationNotification(
+            (String) payload.get("inviteeEmail"), (String) payload.get("familyName"), (String) payload.get("inviterName"), delivery));
+        handlers.put(INVITATION_EMAIL, (payload, delivery) -> emailProviderService.sendFamilyInvitationEmail(
+            (String) payload.get("inviteeEmail"), (String) payload.get("familyName"),
+            (String) payload.get("inviterName"), (String) payload.get("invitationToken")));
+
+        int workerCount = Math.max(1, workers);
+        // Claim at most what the workers can start soon, so leases don't run out in a local queue
+        inFlight = new Semaphore(workerCount * 2);
+        AtomicInteger threadCount = new AtomicInteger();
+        workerPool = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread thread = new Thread(r, "outbox-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        poller = new Thread(this::pollLoop, "outbox-poller");
+        poller.setDaemon(true);
+        poller.start();
+        logger.info("📮 Notification outbox started: {} workers, {}ms poll interval, {} attempts max", workerCount, pollIntervalMs, maxAttempts);
+    }
+
+    /**
+     * Push to family members for a new family message
+     */
+    public void enqueueFamilyMessagePush(Long messageId, Long familyId, String senderName, String content) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("messageId", messageId);
+        payload.put("familyId", familyId);
+        payload.put("senderName", senderName);
+        payload.put("content", content);
+        enqueue(FAMILY_MESSAGE_PUSH, "push:family-message:" + messageId + ":" + familyId, payload);
+    }
+
+    /**
+     * Push to one DM recipient
+     */
+    public void enqueueDMPush(Long messageId, Long recipientId, String senderName, String content) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("messageId", messageId);
+        payload.put("recipientId", recipientId);
+        payload.put("senderName", senderName);
+        payload.put("content", content);
+        enqueue(DM_PUSH, "push:dm:" + messageId + ":" + recipientId, payload);
+    }
+
+    /**
+     * Push to the participants of a comment thread
+     */
+    public void enqueueThreadPush(Long commentId, Long parentMessageId, Long familyId, String commenterName, String content, Long commenterId) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("commentId", commentId);
+        payload.put("parentMessageId", parentMessageId);
+        payload.put("familyId", familyId);
+        payload.put("commenterName", commenterName);
+        payload.put("content", content);
+        payload.put("commenterId", commenterId);
+        enqueue(THREAD_PUSH, "push:thread:" + commentId, payload);
+    }
+
+    /**
+     * Push to existing members when someone joins a family
+     * Joins have no id of their own; the minute bucket collapses double-submitted requests
+     */
+    public void enqueueNewMemberPush(Long familyId, Long newMemberId, String newMemberName, String familyName) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("familyId", familyId);
+        payload.put("newMemberId", newMemberId);
+        payload.put("newMemberName", newMemberName);
+        payload.put("familyName", familyName);
+        long minute = System.currentTimeMillis() / 60_000;
+        enqueue(NEW_MEMBER_PUSH, "push:new-member:" + familyId + ":" + newMemberId + ":" + minute, payload);
+    }
+
+    /**
+     * Push to an existing user who was invited to a family
+     */
+    public void enqueueInvitationPush(Long invitationId, String inviteeEmail, String familyName, String inviterName) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("invitationId", invitationId);
+        payload.put("inviteeEmail", inviteeEmail);
+        payload.put("familyName", familyName);
+        payload.put("inviterName", inviterName);
+        enqueue(INVITATION_PUSH, "push:invitation:" + invitationId, payload);
+    }
+
+    /**
+     * Invitation email (sent through EmailProviderService, so SES/SMTP and the test redirect apply)
+     */
+    public void enqueueInvitationEmail(Long invitationId, String inviteeEmail, String familyName, String inviterName) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("invitationId", invitationId);
+        payload.put("inviteeEmail", inviteeEmail);
+        payload.put("familyName", familyName);
+        payload.put("inviterName", inviterName);
+        payload.put("invitationToken", invitationId.toString());
+        enqueue(INVITATION_EMAIL, "email:invitation:" + invitationId, payload);
+    }
+
+    /**
+     * Insert an outbox row in the caller's transaction (or on its own when there is none)
+     */
+    public void enqueue(String eventType, String idempotencyKey, Map<String, Object> payload) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(payload);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Outbox payload for " + idempotencyKey + " is not serializable", e);
+        }
+        int inserted = jdbcTemplate.update(INSERT_SQL, eventType, idempotencyKey, json);
+        if (inserted == 0) {
+            duplicates.incrementAndGet();
+            logger.debug("Outbox event {} already queued, skipping", idempotencyKey);
+            return;
+        }
+        enqueued.incrementAndGet();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wakeups.release();
+                }
+            });
+        } else {
+            wakeups.release();
+        }
+    }
+
+    private void pollLoop() {
+        while (running) {
+            int claimed = 0;
+            try {
+                claimed = claimAndDispatch();
+            } catch (Exception e) {
+                logger.error("Outbox poll failed: {}", e.getMessage());
+            }
+            try {
+                if (claimed == 0 || inFlight.availablePermits() == 0) {
+                    // Idle or saturated: wait for a commit, a finished worker or the poll interval
+                    wakeups.tryAcquire(pollIntervalMs, TimeUnit.MILLISECONDS);
+                    wakeups.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private int claimAndDispatch() {
+        int capacity = inFlight.availablePermits();
+        if (capacity == 0) {
+            return 0;
+        }
+        List<OutboxRow> rows = jdbcTemplate.query(CLAIM_SQL, (rs, rowNum) -> new OutboxRow(
+            rs.getLong("id"),
+            rs.getString("event_type"),
+            rs.getString("idempotency_key"),
+            rs.getString("payload"),
+            rs.getInt("attempts"),
+            rs.getTimestamp("created_at"),
+            List.of((String[]) rs.getArray("delivered_tokens").getArray())), leaseMs, capacity);
+        for (OutboxRow row : rows) {
+            inFlight.acquireUninterruptibly();
+            workerPool.execute(() -> {
+                try {
+                    process(row);
+                } finally {
+                    inFlight.release();
+                    wakeups.release();
+                }
+            });
+        }
+        return rows.size();
+    }
+
+    private void process(OutboxRow row) {
+        PushDelivery delivery = new PushDelivery(row.deliveredTokens());
+        try {
+            BiConsumer<Map<String, Object>, PushDelivery> handler = handlers.get(row.eventType());
+            if (handler == null) {
+                throw new IllegalStateException("No outbox handler for event type " + row.eventType());
+            }
+            handler.accept(objectMapper.readValue(row.payload(), new TypeReference<Map<String, Object>>() { }), delivery);
+
+            if (!delivery.heldTokens().isEmpty()) {
+                // Held pushes live in one node's memory until the summary goes out; keep the event until then
+                heldForSummary.incrementAndGet();
+                long delayMs = Math.max(0, delivery.recheckAt() - System.currentTimeMillis());
+                jdbcTemplate.update(
+                    "UPDATE notification_outbox SET status = 'PENDING', attempts = attempts - 1, locked_until = NULL, last_error = NULL, " +
+                    "delivered_tokens = ?::text[], next_attempt_at = CURRENT_TIMESTAMP + (? * INTERVAL '1 millisecond') WHERE id = ?",
+                    delivery.completedTokens().toArray(new String[0]), delayMs, row.id());
+                logger.debug("📮 Outbox event {} held for a coalesced push, rechecking in {}ms", row.idempotencyKey(), delayMs);
+                return;
+            }
+
+            jdbcTemplate.update(
+                "UPDATE notification_outbox SET status = 'DONE', processed_at = CURRENT_TIMESTAMP, locked_until = NULL, last_error = NULL WHERE id = ?",
+                row.id());
+            delivered.incrementAndGet();
+            long lag = Math.max(0, System.currentTimeMillis() - row.createdAt().getTime());
+            totalLagMs.addAndGet(lag);
+            maxLagMs.accumulateAndGet(lag, Math::max);
+        } catch (Exception e) {
+            failedAttempts.incrementAndGet();
+            String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+            // Tokens reached so far, so the retry (or whoever inspects a dead row) knows who is left
+            String[] deliveredTokens = delivery.completedTokens().toArray(new String[0]);
+            if (row.attempts() >= maxAttempts) {
+                deadLettered.incrementAndGet();
+                jdbcTemplate.update(
+                    "UPDATE notification_outbox SET status = 'DEAD', locked_until = NULL, last_error = ?, delivered_tokens = ?::text[] WHERE id = ?",
+                    error, deliveredTokens, row.id());
+                logger.error("📮 Outbox event {} dead-lettered after {} attempts: {}", row.idempotencyKey(), row.attempts(), error);
+            } else {
+                retried.incrementAndGet();
+                long delayMs = backoffMs(row.attempts());
+                jdbcTemplate.update(
+                    "UPDATE notification_outbox SET status = 'PENDING', locked_until = NULL, last_error = ?, delivered_tokens = ?::text[], " +
+                    "next_attempt_at = CURRENT_TIMESTAMP + (? * INTERVAL '1 millisecond') WHERE id = ?",
+                    error, deliveredTokens, delayMs, row.id());
+                logger.warn("📮 Outbox event {} failed (attempt {}), retrying in {}ms: {}", row.idempotencyKey(), row.attempts(), delayMs, error);
+            }
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter: random delay between base and base * 2^(attempt - 1), capped
+     */
+    private long backoffMs(int attempt) {
+        long ceiling = backoffBaseMs << Math.min(20, Math.max(0, attempt - 1));
+        ceiling = Math.min(backoffMaxMs, Math.max(backoffBaseMs, ceiling));
+        return backoffBaseMs + ThreadLocalRandom.current().nextLong(Math.max(1, ceiling - backoffBaseMs + 1));
+    }
+
+    private static Long longValue(Map<String, Object> payload, String key) {
+        Object value = payload.get(key);
+        return value == null ? null : ((Number) value).longValue();
+    }
+
+    /**
+     * Outbox counters plus the current backlog: pending rows and the age of the oldest one
+     */
+    public Map<String, Object> getStats() {
+        long count = delivered.get();
+        long attempts = count + failedAttempts.get();
+        Map<String, Object> backlog = jdbcTemplate.queryForMap("""
+            SELECT COUNT(*) FILTER (WHERE status = 'PENDING') AS pending,
+                   COUNT(*) FILTER (WHERE status = 'PROCESSING') AS processing,
+                   COUNT(*) FILTER (WHERE status = 'DEAD') AS dead,
+                   COALESCE(EXTRACT(EPOCH FROM (CURRENT_TIMESTAMP - MIN(created_at) FILTER (WHERE status = 'PENDING'))) * 1000, 0) AS oldest_pending_ms
+            FROM notification_outbox
+            WHERE status <> 'DONE'
+            """);
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enqueued", enqueued.get());
+        stats.put("duplicates", duplicates.get());
+        stats.put("delivered", count);
+        stats.put("failedAttempts", failedAttempts.get());
+        stats.put("failureRate", attempts == 0 ? 0.0 : Math.round(failedAttempts.get() * 1000.0 / attempts) / 1000.0);
+        stats.put("retried", retried.get());
+        stats.put("deadLettered", deadLettered.get());
+        stats.put("heldForSummary", heldForSummary.get());
+        stats.put("avgLagMs", count == 0 ? 0.0 : Math.round(totalLagMs.get() * 10.0 / count) / 10.0);
+        stats.put("maxLagMs", maxLagMs.get());
+        stats.put("pending", backlog.get("pending"));
+        stats.put("processing", backlog.get("processing"));
+        stats.put("dead", backlog.get("dead"));
+        stats.put("oldestPendingMs", ((Number) backlog.get("oldest_pending_ms")).longValue());
+        return stats;
+    }
+
+    /**
+     * Log outbox counters (every 5 minutes by default)
+     */
+    @Scheduled(fixedRateString = "${outbox.log-interval:300000}", initialDelayString = "${outbox.log-interval:300000}")
+    public void logStats() {
+        if (enqueued.get() + delivered.get() + failedAttempts.get() == 0) {
+            return;
+        }
+        logger.info("📮 Notification outbox: {}", getStats());
+    }
+
+    /**
+     * Delete delivered rows past the retention window (hourly); DEAD rows are kept
+     */
+    @Scheduled(fixedRateString = "${outbox.cleanup-interval:3600000}", initialDelayString = "${outbox.cleanup-interval:3600000}")
+    public void purgeDelivered() {
+        int deleted = jdbcTemplate.update(
+            "DELETE FROM notification_outbox WHERE status = 'DONE' AND processed_at < CURRENT_TIMESTAMP - (? * INTERVAL '1 hour')",
+            retentionHours);
+        if (deleted > 0) {
+            logger.debug("Purged {} delivered outbox rows", deleted);
+        }
+    }
+
+    /**
+     * Stop claiming and let in-flight events finish; anything unfinished is retried after its lease
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        wakeups.release();
+        workerPool.shutdown();
+        try {
+            poller.join(TimeUnit.SECONDS.toMillis(5));
+            if (!workerPool.awaitTermination(10, TimeUnit.SECONDS)) {
+                workerPool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workerPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.familynest.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process copy of user_notification_matrix, compiled to bitmasks, answering
+ * "should user U get event E over channel C for family F / sender S" without SQL.
+ *
+ * Each matrix row becomes one int: one bit per (event, channel) pair plus the push_enabled and
+ * device_permission_granted switches. Per user we keep the global row (family_id = 0,
+ * member_id = 0), family override rows and member override rows as sorted id arrays with their
+ * masks, so a lookup is a map get plus a binary search over the user's (few) overrides.
+ *
+ * Resolution:
+ * - A family override row replaces the global row for that family.
+ * - A member override row (family_id = 0, member_id = sender) can only take channels away.
+ * - Push also needs push_enabled and device_permission_granted on the global row.
+ * - A user with no matrix rows gets WebSocket events but no push.
+ *
+ * Entries are replaced, never mutated. Writers call onPreferencesChanged(userId), which after commit
+ * publishes a PREFERENCES_CHANGED event on the BroadcastRelay; every node (this one included) reloads
+ * that user when it arrives. The whole index is also reloaded periodically, which catches changes
+ * made outside the app and invalidations a node missed (Redis pub/sub is fire-and-forget).
+ */
+@Service
+public class NotificationPreferenceIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationPreferenceIndex.class);
+
+    public enum Event {
+        FAMILY_MESSAGES("family_messages"),
+        DM_MESSAGES("dm_messages"),
+        INVITATIONS("invitations"),
+        REACTIONS("reactions"),
+        COMMENTS("comments"),
+        NEW_MEMBER("new_member");
+
+        private final String column;
+
+        Event(String column) {
+            this.column = column;
+        }
+    }
+
+    public enum Channel {
+        PUSH("push"),
+        WEBSOCKET("websocket");
+
+        private final String suffix;
+
+        Channel(String suffix) {
+            this.suffix = suffix;
+        }
+    }
+
+    private static final int PUSH_ENABLED = 1 << 12;
+    private static final int DEVICE_PERMISSION = 1 << 13;
+    private static final int PUSH_READY = PUSH_ENABLED | DEVICE_PERMISSION;
+
+    private static final long[] NO_IDS = new long[0];
+    private static final int[] NO_MASKS = new int[0];
+
+    private static final String SELECT_ROWS = "SELECT user_id, family_id, member_id, " +
+        "family_messages_push, dm_messages_push, invitations_push, reactions_push, comments_push, new_member_push, " +
+        "family_messages_websocket, dm_messages_websocket, invitations_websocket, reactions_websocket, comments_websocket, new_member_websocket, " +
+        "push_enabled, device_permission_granted FROM user_notification_matrix";
+
+    /**
+     * One user's compiled matrix
+     */
+    private record Preferences(boolean hasGlobal, int global,
+                               long[] familyIds, int[] familyMasks,
+                               long[] memberIds, int[] memberMasks) { }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private BroadcastRelay broadcastRelay;
+
+    private volatile Map<Long, Preferences> preferences = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    // ----- Lookups -----
+
+    /**
+     * True if the user should get the event over the channel.
+     * familyId and senderId may be null (or 0) when the event has no family or sender.
+     */
+    public boolean allows(Long userId, Long familyId, Long senderId, Event event, Channel channel) {
+        return allows(preferencesOf(userId), familyId == null ? 0 : familyId, senderId == null ? 0 : senderId, bit(event, channel), channel);
+    }
+
+    /**
+     * The subset of userIds that should get the event over the channel (order preserved)
+     */
+    public long[] filter(long[] userIds, Long familyId, Long senderId, Event event, Channel channel) {
+        long family = familyId == null ? 0 : familyId;
+        long sender = senderId == null ? 0 : senderId;
+        int bit = bit(event, channel);
+        long[] allowed = new long[userIds.length];
+        int count = 0;
+        for (long userId : userIds) {
+            if (allows(preferencesOf(userId), family, sender, bit, channel)) {
+                allowed[count++] = userId;
+            }
+        }
+        return count == allowed.length ? allowed : Arrays.copyOf(allowed, count);
+    }
+
+    /**
+     * Push master switches: push_enabled and device_permission_granted on the global row
+     */
+    public boolean pushEnabled(Long userId) {
+        Preferences prefs = preferencesOf(userId);
+        return prefs != null && prefs.hasGlobal() && (prefs.global() & PUSH_READY) == PUSH_READY;
+    }
+
+    private static boolean allows(Preferences prefs, long familyId, long senderId, int bit, Channel channel) {
+        if (prefs == null) {
+            return channel == Channel.WEBSOCKET;
+        }
+        if (channel == Channel.PUSH && (!prefs.hasGlobal() || (prefs.global() & PUSH_READY) != PUSH_READY)) {
+            return false;
+        }
+        // Without a global row the column defaults apply (every event on)
+        int mask = prefs.hasGlobal() ? prefs.global() : ~0;
+        if (familyId > 0) {
+            int pos = Arrays.binarySearch(prefs.familyIds(), familyId);
+            if (pos >= 0) {
+                mask = prefs.familyMasks()[pos];
+            }
+        }
+        if (senderId > 0) {
+            int pos = Arrays.binarySearch(prefs.memberIds(), senderId);
+            if (pos >= 0) {
+                mask &= prefs.memberMasks()[pos];
+            }
+        }
+        return (mask & bit) != 0;
+    }
+
+    private Preferences preferencesOf(Long userId) {
+        if (userId == null) {
+            return null;
+        }
+        if (!loaded) {
+            return loadUser(userId);
+        }
+        return preferences.get(userId);
+    }
+
+    private static int bit(Event event, Channel channel) {
+        return 1 << (event.ordinal() * 2 + channel.ordinal());
+    }
+
+    // ----- Incremental updates -----
+
+    /**
+     * A user's matrix rows were written; every node reloads that user once the transaction commits
+     */
+    public void onPreferencesChanged(Long userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publishChange(userId);
+                }
+            });
+        } else {
+            publishChange(userId);
+        }
+    }
+
+    private void publishChange(Long userId) {
+        broadcastRelay.publish(new RelayedBroadcast(RelayedBroadcast.Kind.PREFERENCES_CHANGED, null, userId,
+            null, null, null, broadcastRelay.getNodeId(), System.currentTimeMillis()));
+    }
+
+    private void onRelayedEvent(RelayedBroadcast event) {
+        if (event.kind() == RelayedBroadcast.Kind.PREFERENCES_CHANGED && event.targetId() != null) {
+            refreshUser(event.targetId());
+        }
+    }
+
+    private synchronized void refreshUser(Long userId) {
+        try {
+            Preferences prefs = loadUser(userId);
+            if (prefs == null) {
+                preferences.remove(userId);
+            } else {
+                preferences.put(userId, prefs);
+            }
+            logger.debug("Notification preferences: reloaded user {}", userId);
+        } catch (Exception e) {
+            // The periodic reload will catch up
+            logger.error("Error refreshing notification preferences for user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    private Preferences loadUser(Long userId) {
+        Map<Long, Builder> builders = new HashMap<>();
+        jdbcTemplate.query(SELECT_ROWS + " WHERE user_id = ?", rs -> {
+            addRow(builders, rs);
+        }, userId);
+        Builder builder = builders.get(userId);
+        return builder == null ? null : builder.build();
+    }
+
+    // ----- Full load -----
+
+    @PostConstruct
+    public void load() {
+        broadcastRelay.addListener(this::onRelayedEvent);
+        reload();
+    }
+
+    /**
+     * Rebuild the whole index from the database (every 10 minutes by default)
+     */
+    @Scheduled(fixedRateString = "${notification-preferences.reload-interval:600000}", initialDelayString = "${notification-preferences.reload-interval:600000}")
+    public synchronized void reload() {
+        long start = System.currentTimeMillis();
+        try {
+            Map<Long, Builder> builders = new HashMap<>();
+            jdbcTemplate.query(SELECT_ROWS, rs -> {
+                addRow(builders, rs);
+            });
+
+            Map<Long, Preferences> index = new ConcurrentHashMap<>(Math.max(16, builders.size() * 2));
+            builders.forEach((userId, builder) -> index.put(userId, builder.build()));
+            preferences = index;
+            loaded = true;
+
+            logger.info("🔔 Notification preference index loaded: {} users, {} overrides in {}ms",
+                index.size(), getOverrideCount(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            // Keep serving the previous index (or per-user loads if it never loaded)
+            logger.error("Error loading notification preference index: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Index size: users with matrix rows and their family / member overrides
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("loaded", loaded);
+        stats.put("users", preferences.size());
+        stats.put("familyOverrides", preferences.values().stream().mapToInt(prefs -> prefs.familyIds().length).sum());
+        stats.put("memberOverrides", preferences.values().stream().mapToInt(prefs -> prefs.memberIds().length).sum());
+        return stats;
+    }
+
+    private int getOverrideCount() {
+        return preferences.values().stream().mapToInt(prefs -> prefs.familyIds().length + prefs.memberIds().length).sum();
+    }
+
+    // ----- Compilation -----
+
+    private static void addRow(Map<Long, Builder> builders, ResultSet rs) throws SQLException {
+        int mask = 0;
+        for (Event event : Event.values()) {
+            for (Channel channel : Channel.values()) {
+                if (rs.getBoolean(event.column + "_" + channel.suffix)) {
+                    mask |= bit(event, channel);
+                }
+            }
+        }
+        if (rs.getBoolean("push_enabled")) {
+            mask |= PUSH_ENABLED;
+        }
+        if (rs.getBoolean("device_permission_granted")) {
+            mask |= DEVICE_PERMISSION;
+        }
+
+        Builder builder = builders.computeIfAbsent(rs.getLong("user_id"), id -> new Builder());
+        long familyId = rs.getLong("family_id");
+        long memberId = rs.getLong("member_id");
+        if (familyId == 0 && memberId == 0) {
+            builder.hasGlobal = true;
+            builder.global = mask;
+        } else if (memberId == 0) {
+            builder.families.put(familyId, mask);
+        } else if (familyId == 0) {
+            builder.members.put(memberId, mask);
+        }
+        // Rows with both a family and a member aren't written by the app and have no defined meaning
+    }
+
+    private static final class Builder {
+        boolean hasGlobal;
+        int global;
+        final TreeMap<Long, Integer> families = new TreeMap<>();
+        final TreeMap<Long, Integer> members = new TreeMap<>();
+
+        Preferences build() {
+            return new Preferences(hasGlobal, global,
+                keys(families), values(families), keys(members), values(members));
+        }
+
+        private static long[] keys(TreeMap<Long, Integer> overrides) {
+            return overrides.isEmpty() ? NO_IDS : overrides.keySet().stream().mapToLong(Long::longValue).toArray();
+        }
+
+        private static int[] values(TreeMap<Long, Integer> overrides) {
+            return overrides.isEmpty() ? NO_MASKS : overrides.values().stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+}
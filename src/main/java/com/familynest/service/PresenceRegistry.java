@@ -0,0 +1,242 @@
+package com.familynest.service;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Who is connected to this node over STOMP, fed by WebSocketEventListener.
+ *
+ * Sessions carry no principal; a session belongs to the user whose per-user destinations it
+ * subscribes to (/user/{id}/..., /topic/dm-list/{id}, /topic/dm-thread/{id}). A user is online while
+ * at least one of their sessions holds such a subscription. WebSocketBroadcastService only fans out
+ * to online users, and PushNotificationService pushes only to users who are not.
+ *
+ * When the CONNECT frame carried a valid access token the session is bound to that user, and
+ * subscriptions to another user's destinations don't make that user look online. Sessions that
+ * connected without a token are still attributed by destination alone.
+ *
+ * Only sessions opened by onConnect are tracked, so a SUBSCRIBE processed after its session's
+ * DISCONNECT can't bring the session back. As a backstop for lost disconnect events, sessions whose
+ * transport is no longer open are swept every presence.sweep-interval.
+ *
+ * Presence is per node: a user connected to another instance looks offline here, which errs on
+ * the side of sending a push.
+ */
+@Service
+public class PresenceRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(PresenceRegistry.class);
+
+    private static final Pattern USER_DESTINATION = Pattern.compile("^/(?:user|topic/dm-list|topic/dm-thread)/(\\d+)(?:/.*)?$");
+
+    private static final class Session {
+        // User from the CONNECT frame's token, or null when the session connected without one
+        final Long authenticatedUserId;
+        // subscription id -> destination, and subscription id -> user the destination belongs to
+        final Map<String, String> destinations = new ConcurrentHashMap<>();
+        final Map<String, Long> users = new ConcurrentHashMap<>();
+
+        Session(Long authenticatedUserId) {
+            this.authenticatedUserId = authenticatedUserId;
+        }
+    }
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<Long, Set<String>> userSessions = new ConcurrentHashMap<>();
+
+    // WebSocket transports currently open on this node (STOMP sessions share their id)
+    private final Set<String> openTransports = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    private final AtomicLong skippedOffline = new AtomicLong();
+    private final AtomicLong unknownSessionSubscribes = new AtomicLong();
+    private final AtomicLong foreignSubscribes = new AtomicLong();
+    private final AtomicLong sweptSessions = new AtomicLong();
+
+    // ----- Session events -----
+
+    /**
+     * A STOMP session opened; authenticatedUserId is the user from its CONNECT token, if any
+     */
+    public void onConnect(String sessionId, Long authenticatedUserId) {
+        if (sessionId == null) {
+            return;
+        }
+        sessions.putIfAbsent(sessionId, new Session(authenticatedUserId));
+        connects.incrementAndGet();
+    }
+
+    public void onSubscribe(String sessionId, String subscriptionId, String destination) {
+        if (sessionId == null || subscriptionId == null || destination == null) {
+            return;
+        }
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            // Never connected here, or already disconnected
+            unknownSessionSubscribes.incrementAndGet();
+            return;
+        }
+        session.destinations.put(subscriptionId, destination);
+
+        Long userId = userOf(destination);
+        if (userId == null) {
+            return;
+        }
+        if (session.authenticatedUserId != null && !session.authenticatedUserId.equals(userId)) {
+            foreignSubscribes.incrementAndGet();
+            logger.warn("🟢 Session {} of user {} subscribed to {}; not counted as presence", sessionId, session.authenticatedUserId, destination);
+            return;
+        }
+        session.users.put(subscriptionId, userId);
+        userSessions.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(sessionId);
+        if (!sessions.containsKey(sessionId)) {
+            // Disconnected while we were registering: undo so the user doesn't stay online
+            removeUserSession(userId, sessionId);
+        }
+    }
+
+    public void onUnsubscribe(String sessionId, String subscriptionId) {
+        Session session = sessionId != null ? sessions.get(sessionId) : null;
+        if (session == null || subscriptionId == null) {
+            return;
+        }
+        session.destinations.remove(subscriptionId);
+        Long userId = session.users.remove(subscriptionId);
+        if (userId != null && !session.users.containsValue(userId)) {
+            removeUserSession(userId, sessionId);
+        }
+    }
+
+    public void onDisconnect(String sessionId) {
+        Session session = sessionId != null ? sessions.remove(sessionId) : null;
+        if (session == null) {
+            return;
+        }
+        disconnects.incrementAndGet();
+        for (Long userId : Set.copyOf(session.users.values())) {
+            removeUserSession(userId, sessionId);
+        }
+    }
+
+    public void onTransportOpened(String sessionId) {
+        if (sessionId != null) {
+            openTransports.add(sessionId);
+        }
+    }
+
+    public void onTransportClosed(String sessionId) {
+        if (sessionId != null) {
+            openTransports.remove(sessionId);
+        }
+    }
+
+    /**
+     * Drop sessions whose transport has closed without a DISCONNECT reaching us (every minute by default)
+     */
+    @Scheduled(fixedRateString = "${presence.sweep-interval:60000}", initialDelayString = "${presence.sweep-interval:60000}")
+    public void sweep() {
+        int swept = 0;
+        for (String sessionId : Set.copyOf(sessions.keySet())) {
+            if (!openTransports.contains(sessionId)) {
+                onDisconnect(sessionId);
+                swept++;
+            }
+        }
+        if (swept > 0) {
+            sweptSessions.addAndGet(swept);
+            logger.info("🟢 Swept {} presence sessions with no open transport", swept);
+        }
+    }
+
+    private void removeUserSession(Long userId, String sessionId) {
+        userSessions.computeIfPresent(userId, (id, sessionIds) -> {
+            sessionIds.remove(sessionId);
+            return sessionIds.isEmpty() ? null : sessionIds;
+        });
+    }
+
+    private static Long userOf(String destination) {
+        Matcher matcher = USER_DESTINATION.matcher(destination);
+        if (!matcher.matches()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(matcher.group(1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // ----- Lookups -----
+
+    public boolean isOnline(Long userId) {
+        return userId != null && userSessions.containsKey(userId);
+    }
+
+    /**
+     * The subset of users with a live session on this node (order preserved)
+     */
+    public long[] onlineOnly(long[] userIds) {
+        long[] online = Arrays.stream(userIds).filter(userSessions::containsKey).toArray();
+        skippedOffline.addAndGet(userIds.length - online.length);
+        return online;
+    }
+
+    /**
+     * Destinations a user is currently subscribed to across their sessions
+     */
+    public Set<String> destinationsOf(Long userId) {
+        Set<String> destinations = ConcurrentHashMap.newKeySet();
+        for (String sessionId : userSessions.getOrDefault(userId, Set.of())) {
+            Session session = sessions.get(sessionId);
+            if (session != null) {
+                destinations.addAll(session.destinations.values());
+            }
+        }
+        return destinations;
+    }
+
+    public int getOnlineUserCount() {
+        return userSessions.size();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Presence counters
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("onlineUsers", getOnlineUserCount());
+        stats.put("sessions", getSessionCount());
+        stats.put("connects", connects.get());
+        stats.put("disconnects", disconnects.get());
+        stats.put("skippedOfflineRecipients", skippedOffline.get());
+        stats.put("unknownSessionSubscribes", unknownSessionSubscribes.get());
+        stats.put("foreignSubscribes", foreignSubscribes.get());
+        stats.put("sweptSessions", sweptSessions.get());
+        return stats;
+    }
+
+    /**
+     * Log presence (every 5 minutes by default)
+     */
+    @Scheduled(fixedRateString = "${presence.log-interval:300000}", initialDelayString = "${presence.log-interval:300000}")
+    public void logStats() {
+        logger.info("🟢 Presence: {}", getStats());
+    }
+}
@@ -0,0 +1,332 @@
+package com.familynest.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Per-recipient coalescing of push notifications for one conversation (a family feed, a comment
+ * thread, a DM sender), identified by its collapse key.
+ *
+ * The first push a device gets for a conversation goes out immediately and opens a window
+ * (push.coalesce.window-ms) for that conversation. Later pushes to the same device within the
+ * window are held; when the window closes the device gets one summary ("N new messages in X")
+ * carrying the latest message's data, sent with the same collapse key so it replaces what is
+ * still pending on the device. A burst of N messages therefore costs each recipient at most two
+ * pushes instead of N.
+ *
+ * The sends themselves belong to PushNotificationService: offer() says which tokens to send now,
+ * and the caller reports each of them back with sent() or unsent() once the send is over. Only a
+ * confirmed send counts as the device's first push; after unsent() the next offer for the token
+ * (typically the outbox retry) is sent at once again, so a failed first push is never silently
+ * replaced by holding. Held pushes are tracked by message id, so a retried event that is offered
+ * twice counts once in the summary. The flush handler gets the held tokens when a window closes.
+ *
+ * Windows live in memory only, so holding a push must not finish the event: the caller marks held
+ * tokens on its PushDelivery and NotificationOutbox keeps the row pending until recheckAt. When
+ * the summary is delivered the coalescer remembers, per token, which message ids it covered
+ * (push.coalesce.summary-retention-ms), and the recheck's offer reports those tokens as covered.
+ * If the summary failed, or the node died before sending it, the recheck sends the push itself;
+ * so does a recheck claimed by another node, which never saw the summary (at-least-once).
+ */
+@Service
+public class PushCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(PushCoalescer.class);
+
+    /**
+     * A push as the app receives it: data-only, with title and body in the data
+     */
+    public record Notification(String title, String body, Map<String, String> data) { }
+
+    /**
+     * Sends a window's summary to the tokens that had pushes held, without waiting; reports the
+     * tokens the summary reached (delivered or stale) through onDelivered once the sends are done
+     */
+    public interface FlushHandler {
+        void flush(String collapseKey, List<String> tokens, Notification summary, Consumer<Collection<String>> onDelivered);
+    }
+
+    /**
+     * What to do with each offered token: send it now, hold it for the window's summary (recheck
+     * the event at recheckAt), or nothing, because a delivered summary already covered the message
+     */
+    public record Offer(List<String> sendNow, List<String> held, List<String> coveredBySummary, long recheckAt) { }
+
+    @Value("${push.coalesce.window-ms:10000}")
+    private long windowMs;
+
+    @Value("${push.coalesce.summary-retention-ms:300000}")
+    private long summaryRetentionMs;
+
+    private ScheduledThreadPoolExecutor windowTimer;
+    private volatile FlushHandler flushHandler = (collapseKey, tokens, summary, onDelivered) -> { };
+
+    // Open windows by collapse key
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    // Messages a delivered summary covered, per token, until the expiry time (epoch millis)
+    private final Map<Covered, Long> covered = new ConcurrentHashMap<>();
+
+    private final AtomicLong sentImmediately = new AtomicLong();
+    private final AtomicLong held = new AtomicLong();
+    private final AtomicLong summariesSent = new AtomicLong();
+    private final AtomicLong summariesFailed = new AtomicLong();
+
+    private record Covered(String collapseKey, String messageId, String token) { }
+
+    /**
+     * Devices offered a push in one conversation window, with the pushes held for each.
+     * Guarded by the map entry (only touched inside windows.compute).
+     */
+    private static final class Window {
+        final Map<String, Pending> byToken = new HashMap<>();
+        final long closesAt;
+        IntFunction<String> summaryTitle;
+
+        Window(long closesAt) {
+            this.closesAt = closesAt;
+        }
+    }
+
+    private static final class Pending {
+        // The first push is out to the device; confirmed means it was delivered
+        boolean sending = true;
+        boolean confirmed;
+        final Set<String> heldMessageIds = new LinkedHashSet<>();
+        String latestMessageId;
+        Notification latest;
+    }
+
+    @PostConstruct
+    public void start() {
+        windowTimer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "push-coalesce");
+            thread.setDaemon(true);
+            return thread;
+        });
+        windowTimer.setRemoveOnCancelPolicy(true);
+        long sweepMs = Math.max(1000, summaryRetentionMs);
+        windowTimer.scheduleAtFixedRate(this::expireCovered, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+        logger.info("🔔 Push coalescing window: {}ms", windowMs);
+    }
+
+    public void setFlushHandler(FlushHandler flushHandler) {
+        this.flushHandler = flushHandler;
+    }
+
+    /**
+     * Record a push of messageId for these tokens and sort them. Sent now: devices without a push in
+     * the window, and devices whose first push wasn't delivered; the caller reports each of them back
+     * with sent() or unsent(). Held: the rest, for the window's summary, titled summaryTitle(count)
+     * when more than one message was held. Covered: devices a delivered summary already included
+     * this message for (a recheck of a held event).
+     */
+    public Offer offer(String collapseKey, String messageId, List<String> tokens, Notification notification,
+                       IntFunction<String> summaryTitle) {
+        if (windowMs <= 0 || windowTimer.isShutdown()) {
+            sentImmediately.addAndGet(tokens.size());
+            return new Offer(tokens, List.of(), List.of(), 0);
+        }
+        List<String> sendNow = new ArrayList<>();
+        List<String> heldNow = new ArrayList<>();
+        List<String> coveredBySummary = new ArrayList<>();
+        long[] closesAt = new long[1];
+        int[] newlyHeld = new int[1];
+        windows.compute(collapseKey, (key, window) -> {
+            if (window == null) {
+                window = new Window(System.currentTimeMillis() + windowMs);
+                windowTimer.schedule(() -> close(key), windowMs, TimeUnit.MILLISECONDS);
+            }
+            window.summaryTitle = summaryTitle;
+            closesAt[0] = window.closesAt;
+            for (String token : tokens) {
+                if (covered.containsKey(new Covered(collapseKey, messageId, token))) {
+                    coveredBySummary.add(token);
+                    continue;
+                }
+                Pending pending = window.byToken.get(token);
+                if (pending == null) {
+                    window.byToken.put(token, new Pending());
+                    sendNow.add(token);
+                } else if (!pending.sending && !pending.confirmed) {
+                    // The first push failed: this one goes out in its place
+                    pending.sending = true;
+                    pending.heldMessageIds.remove(messageId);
+                    sendNow.add(token);
+                } else {
+                    if (pending.heldMessageIds.add(messageId)) {
+                        pending.latestMessageId = messageId;
+                        pending.latest = notification;
+                        newlyHeld[0]++;
+                    }
+                    heldNow.add(token);
+                }
+            }
+            return window;
+        });
+        sentImmediately.addAndGet(sendNow.size());
+        held.addAndGet(newlyHeld[0]);
+        // A window later the summary has normally gone out
+        return new Offer(sendNow, heldNow, coveredBySummary, closesAt[0] + windowMs);
+    }
+
+    /**
+     * The push offer() returned these tokens for was delivered (or the token was found stale)
+     */
+    public void sent(String collapseKey, List<String> tokens) {
+        finishSend(collapseKey, tokens, true);
+    }
+
+    /**
+     * The push offer() returned these tokens for wasn't delivered; the next offer sends at once
+     */
+    public void unsent(String collapseKey, List<String> tokens) {
+        finishSend(collapseKey, tokens, false);
+    }
+
+    private void finishSend(String collapseKey, List<String> tokens, boolean delivered) {
+        if (tokens.isEmpty()) {
+            return;
+        }
+        windows.computeIfPresent(collapseKey, (key, window) -> {
+            for (String token : tokens) {
+                Pending pending = window.byToken.get(token);
+                if (pending != null) {
+                    pending.sending = false;
+                    pending.confirmed |= delivered;
+                }
+            }
+            return window;
+        });
+    }
+
+    /**
+     * Close a window and send one summary per group of devices with the same held pushes
+     */
+    private void close(String collapseKey) {
+        Window window = windows.remove(collapseKey);
+        if (window == null) {
+            return;
+        }
+        // Devices held on the same last message with the same count get one multicast
+        Map<String, Notification> latestById = new HashMap<>();
+        Map<String, Map<Integer, List<String>>> groups = new HashMap<>();
+        for (Map.Entry<String, Pending> entry : window.byToken.entrySet()) {
+            Pending pending = entry.getValue();
+            if (!pending.heldMessageIds.isEmpty()) {
+                latestById.putIfAbsent(pending.latestMessageId, pending.latest);
+                groups.computeIfAbsent(pending.latestMessageId, latest -> new HashMap<>())
+                    .computeIfAbsent(pending.heldMessageIds.size(), count -> new ArrayList<>())
+                    .add(entry.getKey());
+            }
+        }
+        groups.forEach((latestMessageId, byCount) -> byCount.forEach((count, tokens) -> {
+            try {
+                flushHandler.flush(collapseKey, tokens, summary(latestById.get(latestMessageId), count, window.summaryTitle),
+                    delivered -> onSummaryDelivered(collapseKey, window, tokens, delivered));
+            } catch (Exception e) {
+                // The held events' outbox rows are rechecked and send the pushes themselves
+                summariesFailed.addAndGet(tokens.size());
+                logger.error("Failed to send coalesced push for {} to {} devices: {}", collapseKey, tokens.size(), e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * Remember which held messages the summary covered for each device it reached, so the outbox
+     * recheck of those events doesn't send them again
+     */
+    private void onSummaryDelivered(String collapseKey, Window window, List<String> tokens, Collection<String> delivered) {
+        long expiresAt = System.currentTimeMillis() + summaryRetentionMs;
+        int reached = 0;
+        for (String token : tokens) {
+            if (!delivered.contains(token)) {
+                continue;
+            }
+            reached++;
+            // The window is closed, so its entries no longer change
+            for (String messageId : window.byToken.get(token).heldMessageIds) {
+                covered.put(new Covered(collapseKey, messageId, token), expiresAt);
+            }
+        }
+        summariesSent.addAndGet(reached);
+        summariesFailed.addAndGet(tokens.size() - reached);
+    }
+
+    private void expireCovered() {
+        long now = System.currentTimeMillis();
+        covered.values().removeIf(expiresAt -> expiresAt <= now);
+    }
+
+    private static Notification summary(Notification latest, int count, IntFunction<String> summaryTitle) {
+        if (count == 1) {
+            return latest;
+        }
+        Map<String, String> data = new HashMap<>(latest.data());
+        String title = summaryTitle.apply(count);
+        data.put("title", title);
+        data.put("coalescedCount", String.valueOf(count));
+        return new Notification(title, latest.body(), data);
+    }
+
+    /**
+     * Close every open window now (shutdown), so held pushes are sent without waiting for the recheck
+     */
+    public void flushAll() {
+        for (String collapseKey : new ArrayList<>(windows.keySet())) {
+            close(collapseKey);
+        }
+    }
+
+    /**
+     * Coalescing counters: pushes sent at once, held, and summary pushes delivered or failed for held ones
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("windowMs", windowMs);
+        stats.put("openWindows", windows.size());
+        stats.put("sentImmediately", sentImmediately.get());
+        stats.put("held", held.get());
+        stats.put("summariesSent", summariesSent.get());
+        stats.put("summariesFailed", summariesFailed.get());
+        stats.put("coveredBySummary", covered.size());
+        return stats;
+    }
+
+    /**
+     * Log coalescing counters (every 5 minutes by default)
+     */
+    @Scheduled(fixedRateString = "${push.log-interval:300000}", initialDelayString = "${push.log-interval:300000}")
+    public void logStats() {
+        if (held.get() == 0) {
+            return;
+        }
+        logger.info("🔔 Push coalescing: {}", getStats());
+    }
+
+    @PreDestroy
+    public void stop() {
+        windowTimer.shutdownNow();
+        flushAll();
+    }
+}
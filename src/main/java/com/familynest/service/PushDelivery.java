@@ -0,0 +1,78 @@
+package com.familynest.service;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-token progress of one push event across NotificationOutbox attempts.
+ *
+ * Tokens an earlier attempt already delivered to (or found stale) are skipped; the ones this
+ * attempt finishes are collected as it goes, so a failed attempt can record them on the outbox
+ * row and the retry only sends to the tokens that are left.
+ *
+ * Tokens held by PushCoalescer are neither: the event stays pending until recheckAt, when the
+ * coalescer says whether the window's summary reached them.
+ */
+public final class PushDelivery {
+
+    private final Set<String> completedEarlier;
+    private final Set<String> completedNow = ConcurrentHashMap.newKeySet();
+    private final Set<String> held = ConcurrentHashMap.newKeySet();
+    private final AtomicLong recheckAt = new AtomicLong();
+
+    public PushDelivery(Collection<String> completedEarlier) {
+        this.completedEarlier = Set.copyOf(completedEarlier);
+    }
+
+    /**
+     * A first attempt: nothing delivered yet
+     */
+    public static PushDelivery first() {
+        return new PushDelivery(List.of());
+    }
+
+    public boolean isCompleted(String token) {
+        return completedEarlier.contains(token) || completedNow.contains(token);
+    }
+
+    /**
+     * The token got the push, or is stale and was cleared; either way it isn't sent again
+     */
+    public void complete(String token) {
+        completedNow.add(token);
+    }
+
+    /**
+     * The token's push was held for a coalescing summary; check the event again at recheckAt (epoch millis)
+     */
+    public void hold(String token, long recheckAt) {
+        held.add(token);
+        this.recheckAt.accumulateAndGet(recheckAt, Math::max);
+    }
+
+    /**
+     * Held tokens that no attempt has completed since
+     */
+    public Set<String> heldTokens() {
+        Set<String> tokens = new LinkedHashSet<>(held);
+        tokens.removeIf(this::isCompleted);
+        return tokens;
+    }
+
+    public long recheckAt() {
+        return recheckAt.get();
+    }
+
+    /**
+     * Tokens done across all attempts so far
+     */
+    public Set<String> completedTokens() {
+        Set<String> tokens = new LinkedHashSet<>(completedEarlier);
+        tokens.addAll(completedNow);
+        return tokens;
+    }
+}
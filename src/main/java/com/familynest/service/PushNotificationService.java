@@ -1,93 +1,197 @@
 package com.familynest.service;
 
-import com.google.firebase.FirebaseApp;
-import com.google.firebase.messaging.*;
+import com.familynest.service.NotificationPreferenceIndex.Channel;
+import com.familynest.service.NotificationPreferenceIndex.Event;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Push notifications, sent through the configured PushTransport (FCM unless push.transport=local).
+ * The public send methods run on NotificationOutbox workers and throw when delivery fails, so the
+ * outbox retries the event; stale tokens are cleaned up and not treated as failures. Each token
+ * that is done is recorded on the attempt's PushDelivery, so a retry skips the devices that
+ * already got the push.
+ */
 @Service
 public class PushNotificationService {
 
     private static final Logger logger = LoggerFactory.getLogger(PushNotificationService.class);
 
+    // Tokens for an audience already filtered against notification preferences
+    private static final String TOKENS_SQL =
+        "SELECT id AS user_id, fcm_token, username FROM app_user WHERE id = ANY(?::bigint[]) AND fcm_token IS NOT NULL";
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private SocialGraphIndex socialGraphIndex;
+
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Autowired
+    private NotificationPreferenceIndex notificationPreferences;
+
+    @Autowired
+    private PushTransport pushTransport;
+
+    @Autowired
+    private PushCoalescer pushCoalescer;
+
+    // Users with a live WebSocket session already get the event over STOMP
+    @Value("${presence.push-offline-only:true}")
+    private boolean pushOfflineOnly;
+
+    // FCM accepts at most 500 tokens per multicast request
+    @Value("${push.multicast.batch-size:500}")
+    private int multicastBatchSize;
+
+    @Value("${push.multicast.concurrency:4}")
+    private int multicastConcurrency;
+
+    @Value("${push.multicast.queue-capacity:1000}")
+    private int multicastQueueCapacity;
+
+    private ThreadPoolExecutor multicastExecutor;
+
+    private final AtomicLong multicastBatches = new AtomicLong();
+    private final AtomicLong multicastBatchFailures = new AtomicLong();
+    private final AtomicLong tokensAttempted = new AtomicLong();
+    private final AtomicLong tokensDelivered = new AtomicLong();
+    private final AtomicLong tokensFailed = new AtomicLong();
+    private final AtomicLong staleTokensRemoved = new AtomicLong();
+    private final AtomicLong totalBatchMs = new AtomicLong();
+    private final AtomicLong maxBatchMs = new AtomicLong();
+    private final AtomicLong recipientResolutions = new AtomicLong();
+    private final AtomicLong totalResolveMicros = new AtomicLong();
+
+    @PostConstruct
+    public void startMulticastExecutor() {
+        int threads = Math.max(1, multicastConcurrency);
+        AtomicInteger threadCount = new AtomicInteger();
+        multicastExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(Math.max(1, multicastQueueCapacity)),
+            r -> {
+                Thread thread = new Thread(r, "push-multicast-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            // Backlog full: send on the caller's thread rather than drop notifications
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        multicastExecutor.allowCoreThreadTimeOut(true);
+        pushCoalescer.setFlushHandler(this::sendCoalesced);
+    }
+
     /**
      * Send push notification for a new family message
      */
-    public void sendFamilyMessageNotification(Long messageId, Long familyId, String senderName, String messageContent) {
-        try {
-            logger.debug("Sending family message notification - messageId: {}, familyId: {}", messageId, familyId);
+    public void sendFamilyMessageNotification(Long messageId, Long familyId, String senderName, String messageContent, PushDelivery delivery) {
+        logger.debug("Sending family message notification - messageId: {}, familyId: {}", messageId, familyId);
 
-            // Get family members who should receive notifications
-            List<Map<String, Object>> recipients = getNotificationRecipients(familyId, messageId);
-
-            if (recipients.isEmpty()) {
-                logger.debug("No recipients found for family message notification");
-                return;
-            }
+        // Get family members who should receive notifications
+        long resolveStartedAt = System.nanoTime();
+        List<Map<String, Object>> recipients = getNotificationRecipients(familyId, messageId);
+        recordResolution(resolveStartedAt);
 
-            // Create notification payload
-            String title = "New message from " + senderName;
-            String body = truncateMessage(messageContent);
+        if (recipients.isEmpty()) {
+            logger.debug("No recipients found for family message notification");
+            return;
+        }
 
-            Map<String, String> data = new HashMap<>();
-            data.put("type", "FAMILY_MESSAGE");
-            data.put("messageId", messageId.toString());
-            data.put("familyId", familyId.toString());
-            data.put("senderId", getFamilyMessageSenderId(messageId).toString());
+        // Create notification payload
+        String title = "New message from " + senderName;
+        String body = truncateMessage(messageContent);
 
-            // Send to all recipients
-            sendToMultipleDevices(recipients, title, body, data);
+        Map<String, String> data = new HashMap<>();
+        data.put("type", "FAMILY_MESSAGE");
+        data.put("messageId", messageId.toString());
+        data.put("familyId", familyId.toString());
+        data.put("senderId", getFamilyMessageSenderId(messageId).toString());
 
-        } catch (Exception e) {
-            logger.error("Error sending family message notification: {}", e.getMessage(), e);
-        }
+        // Send to all recipients; a burst in the family becomes "N new messages in <family>"
+        sendToMultipleDevices(recipients, title, body, data, delivery, "family-" + familyId, messageId.toString(),
+            count -> count + " new messages in " + getFamilyName(familyId));
     }
 
     /**
      * Send push notification for a new DM message
      */
-    public void sendDMNotification(Long messageId, Long recipientId, String senderName, String messageContent) {
-        try {
-            logger.debug("Sending DM notification - messageId: {}, recipientId: {}", messageId, recipientId);
+    public void sendDMNotification(Long messageId, Long recipientId, String senderName, String messageContent, PushDelivery delivery) {
+        logger.debug("Sending DM notification - messageId: {}, recipientId: {}", messageId, recipientId);
 
-            // Check if recipient has notifications enabled
-            if (!hasNotificationsEnabled(recipientId)) {
-                logger.debug("Recipient {} has notifications disabled", recipientId);
-                return;
-            }
-
-            // Get recipient's FCM token
-            String fcmToken = getFcmToken(recipientId);
-            if (fcmToken == null) {
-                logger.debug("No FCM token found for user {}", recipientId);
-                return;
-            }
-
-            // Create notification payload
-            String title = "New message from " + senderName;
-            String body = truncateMessage(messageContent);
+        if (isReachableOverWebSocket(recipientId)) {
+            logger.debug("DM recipient {} is online, skipping push", recipientId);
+            return;
+        }
 
-            Map<String, String> data = new HashMap<>();
-            data.put("type", "DM_MESSAGE");
-            data.put("messageId", messageId.toString());
-            data.put("senderId", getSenderId(messageId).toString());
-            data.put("recipientId", recipientId.toString());
+        // Check if recipient wants DM pushes from this sender
+        Long senderId = getSenderId(messageId);
+        if (!notificationPreferences.allows(recipientId, null, senderId, Event.DM_MESSAGES, Channel.PUSH)) {
+            logger.debug("Recipient {} has DM notifications disabled", recipientId);
+            return;
+        }
 
-            // Send notification
-            sendToDevice(fcmToken, title, body, data);
+        // Get recipient's FCM token
+        String fcmToken = getFcmToken(recipientId);
+        if (fcmToken == null) {
+            logger.debug("No FCM token found for user {}", recipientId);
+            return;
+        }
+        if (delivery.isCompleted(fcmToken)) {
+            logger.debug("DM push to {} already delivered by an earlier attempt", recipientId);
+            return;
+        }
 
-        } catch (Exception e) {
-            logger.error("Error sending DM notification: {}", e.getMessage(), e);
+        // Create notification payload
+        String title = "New message from " + senderName;
+        String body = truncateMessage(messageContent);
+
+        Map<String, String> data = new HashMap<>();
+        data.put("type", "DM_MESSAGE");
+        data.put("messageId", messageId.toString());
+        data.put("senderId", senderId.toString());
+        data.put("recipientId", recipientId.toString());
+
+        // Send notification; a burst from the same sender becomes "N new messages from <sender>"
+        String collapseKey = "dm-" + senderId;
+        data.put("title", title);
+        data.put("body", body);
+        PushCoalescer.Offer offer = pushCoalescer.offer(collapseKey, messageId.toString(), List.of(fcmToken),
+            new PushCoalescer.Notification(title, body, data), count -> count + " new messages from " + senderName);
+        if (applyOffer(offer, delivery).isEmpty()) {
+            logger.debug("DM push to {} held for the coalescing window", recipientId);
+            return;
+        }
+        try {
+            sendToDevice(fcmToken, title, body, data, collapseKey, delivery);
+        } finally {
+            reportToCoalescer(collapseKey, List.of(fcmToken), delivery);
         }
     }
 
@@ -95,86 +199,85 @@ public class PushNotificationService {
      * Send push notification for a comment on a message
      */
     public void sendCommentNotification(Long commentId, Long parentMessageId, Long familyId, String commenterName, String commentContent) {
-        try {
-            logger.debug("Sending comment notification - commentId: {}, parentMessageId: {}", commentId, parentMessageId);
+        logger.debug("Sending comment notification - commentId: {}, parentMessageId: {}", commentId, parentMessageId);
 
-            // Get the original message author (they should be notified about comments)
-            Long originalAuthorId = getMessageAuthor(parentMessageId);
-            if (originalAuthorId == null) {
-                logger.debug("Could not find original message author for message {}", parentMessageId);
-                return;
-            }
+        // Get the original message author (they should be notified about comments)
+        Long originalAuthorId = getMessageAuthor(parentMessageId);
+        if (originalAuthorId == null) {
+            logger.debug("Could not find original message author for message {}", parentMessageId);
+            return;
+        }
 
-            // Check if author has notifications enabled
-            if (!hasNotificationsEnabled(originalAuthorId)) {
-                logger.debug("Original author {} has notifications disabled", originalAuthorId);
-                return;
-            }
+        if (isReachableOverWebSocket(originalAuthorId)) {
+            logger.debug("Original author {} is online, skipping push", originalAuthorId);
+            return;
+        }
 
-            // Get author's FCM token
-            String fcmToken = getFcmToken(originalAuthorId);
-            if (fcmToken == null) {
-                logger.debug("No FCM token found for user {}", originalAuthorId);
-                return;
-            }
+        // Check if author wants comment pushes for this family
+        if (!notificationPreferences.allows(originalAuthorId, familyId, null, Event.COMMENTS, Channel.PUSH)) {
+            logger.debug("Original author {} has notifications disabled", originalAuthorId);
+            return;
+        }
 
-            // Create notification payload
-            String title = commenterName + " commented on your message";
-            String body = truncateMessage(commentContent);
+        // Get author's FCM token
+        String fcmToken = getFcmToken(originalAuthorId);
+        if (fcmToken == null) {
+            logger.debug("No FCM token found for user {}", originalAuthorId);
+            return;
+        }
 
-            Map<String, String> data = new HashMap<>();
-            data.put("type", "COMMENT");
-            data.put("commentId", commentId.toString());
-            data.put("parentMessageId", parentMessageId.toString());
-            data.put("familyId", familyId.toString());
+        // Create notification payload
+        String title = commenterName + " commented on your message";
+        String body = truncateMessage(commentContent);
 
-            // Send notification
-            sendToDevice(fcmToken, title, body, data);
+        Map<String, String> data = new HashMap<>();
+        data.put("type", "COMMENT");
+        data.put("commentId", commentId.toString());
+        data.put("parentMessageId", parentMessageId.toString());
+        data.put("familyId", familyId.toString());
 
-        } catch (Exception e) {
-            logger.error("Error sending comment notification: {}", e.getMessage(), e);
-        }
+        // Send notification
+        sendToDevice(fcmToken, title, body, data, null, PushDelivery.first());
     }
 
     /**
      * Send push notification to all thread participants (message author + all commenters)
      */
-    public void sendThreadParticipantNotifications(Long commentId, Long parentMessageId, Long familyId, String commenterName, String commentContent, Long commenterId) {
-        try {
-            logger.debug("Sending thread participant notifications - commentId: {}, parentMessageId: {}", commentId, parentMessageId);
-
-            // Get all users who have participated in this thread
-            List<Map<String, Object>> participants = getThreadParticipants(parentMessageId, commenterId);
-
-            if (participants.isEmpty()) {
-                logger.debug("No thread participants found for message {}", parentMessageId);
-                return;
-            }
-
-            // Create notification payload
-            String title = commenterName + " commented on a thread you're in";
-            String body = truncateMessage(commentContent);
+    public void sendThreadParticipantNotifications(Long commentId, Long parentMessageId, Long familyId, String commenterName, String commentContent, Long commenterId,
+                                                   PushDelivery delivery) {
+        logger.debug("Sending thread participant notifications - commentId: {}, parentMessageId: {}", commentId, parentMessageId);
+
+        // Get all users who have participated in this thread
+        long resolveStartedAt = System.nanoTime();
+        List<Map<String, Object>> participants = getThreadParticipants(parentMessageId, familyId, commenterId);
+        recordResolution(resolveStartedAt);
+
+        if (participants.isEmpty()) {
+            logger.debug("No thread participants found for message {}", parentMessageId);
+            return;
+        }
 
-            Map<String, String> data = new HashMap<>();
-            data.put("type", "COMMENT");
-            data.put("commentId", commentId.toString());
-            data.put("parentMessageId", parentMessageId.toString());
-            data.put("familyId", familyId.toString());
-            data.put("senderId", commenterId.toString());
+        // Create notification payload
+        String title = commenterName + " commented on a thread you're in";
+        String body = truncateMessage(commentContent);
 
-            // Send to all participants
-            sendToMultipleDevices(participants, title, body, data);
+        Map<String, String> data = new HashMap<>();
+        data.put("type", "COMMENT");
+        data.put("commentId", commentId.toString());
+        data.put("parentMessageId", parentMessageId.toString());
+        data.put("familyId", familyId.toString());
+        data.put("senderId", commenterId.toString());
 
-        } catch (Exception e) {
-            logger.error("Error sending thread participant notifications: {}", e.getMessage(), e);
-        }
+        // Send to all participants; a burst in the thread becomes one summary per participant
+        sendToMultipleDevices(participants, title, body, data, delivery, "thread-" + parentMessageId, commentId.toString(),
+            count -> count + " new comments on a thread you're in");
     }
 
     /**
      * Get all users who have participated in a thread (message author + all commenters)
      * Excludes the current commenter and respects notification preferences
      */
-    private List<Map<String, Object>> getThreadParticipants(Long parentMessageId, Long currentCommenterId) {
+    private List<Map<String, Object>> getThreadParticipants(Long parentMessageId, Long familyId, Long currentCommenterId) {
         String sql = """
             SELECT DISTINCT u.id as user_id, u.fcm_token, u.username
             FROM (
@@ -185,18 +288,16 @@ public class PushNotificationService {
                 SELECT sender_id as user_id FROM message_comment WHERE parent_message_id = ?
             ) thread_users
             JOIN app_user u ON thread_users.user_id = u.id
-            JOIN user_notification_matrix unm ON u.id = unm.user_id
             WHERE u.id != ?  -- Exclude current commenter
             AND u.fcm_token IS NOT NULL
-            AND unm.push_enabled = TRUE
-            AND unm.device_permission_granted = TRUE
-            AND (
-                -- Check global settings (family_id=0) - comment notifications enabled
-                (unm.family_id = 0 AND unm.member_id = 0 AND unm.comments_push = TRUE)
-            )
         """;
 
         List<Map<String, Object>> participants = jdbcTemplate.queryForList(sql, parentMessageId, parentMessageId, currentCommenterId);
+        participants.removeIf(participant -> {
+            long userId = ((Number) participant.get("user_id")).longValue();
+            return isReachableOverWebSocket(userId)
+                || !notificationPreferences.allows(userId, familyId, currentCommenterId, Event.COMMENTS, Channel.PUSH);
+        });
         logger.debug("Found {} thread participants for message {} (excluding commenter {})", participants.size(), parentMessageId, currentCommenterId);
 
         for (Map<String, Object> participant : participants) {
@@ -211,137 +312,109 @@ public class PushNotificationService {
     /**
      * Send push notification for a new family member
      */
-    public void sendNewMemberNotification(Long familyId, String newMemberName, String familyName) {
-        try {
-            logger.debug("Sending new member notification for {} joining family {}", newMemberName, familyName);
-
-            // Get all family members who have new member notifications enabled
-            List<Map<String, Object>> recipients = getNewMemberNotificationRecipients(familyId);
-            logger.debug("Found {} recipients for new member notification", recipients.size());
-
-            if (recipients.isEmpty()) {
-                logger.debug("No recipients found for new member notification in family {}", familyId);
-                return;
-            }
-
-            String title = "New Family Member";
-            String body = String.format("%s joined %s", newMemberName, familyName);
+    public void sendNewMemberNotification(Long familyId, String newMemberName, String familyName, PushDelivery delivery) {
+        logger.debug("Sending new member notification for {} joining family {}", newMemberName, familyName);
+
+        // Get all family members who have new member notifications enabled
+        long resolveStartedAt = System.nanoTime();
+        List<Map<String, Object>> recipients = getNewMemberNotificationRecipients(familyId);
+        recordResolution(resolveStartedAt);
+        logger.debug("Found {} recipients for new member notification", recipients.size());
+
+        if (recipients.isEmpty()) {
+            logger.debug("No recipients found for new member notification in family {}", familyId);
+            return;
+        }
 
-            Map<String, String> data = new HashMap<>();
-            data.put("type", "NEW_MEMBER");
-            data.put("familyId", familyId.toString());
-            data.put("newMemberName", newMemberName);
+        String title = "New Family Member";
+        String body = String.format("%s joined %s", newMemberName, familyName);
 
-            // Send notification to all recipients
-            sendToMultipleDevices(recipients, title, body, data);
+        Map<String, String> data = new HashMap<>();
+        data.put("type", "NEW_MEMBER");
+        data.put("familyId", familyId.toString());
+        data.put("newMemberName", newMemberName);
 
-        } catch (Exception e) {
-            logger.error("Error sending new member notification: {}", e.getMessage(), e);
-        }
+        // Send notification to all recipients
+        sendToMultipleDevices(recipients, title, body, data, delivery);
     }
 
     /**
      * Send push notification for a family invitation
      */
-    public void sendInvitationNotification(String inviteeEmail, String familyName, String inviterName) {
-        try {
-            logger.debug("Sending invitation notification to {} for family {} from {}", inviteeEmail, familyName, inviterName);
+    public void sendInvitationNotification(String inviteeEmail, String familyName, String inviterName, PushDelivery delivery) {
+        logger.debug("Sending invitation notification to {} for family {} from {}", inviteeEmail, familyName, inviterName);
 
-            // Get user by email who should receive the invitation notification
-            // INVITATIONS ARE ALWAYS SENT - they are system notifications, not user preferences
-            String userSql = "SELECT u.id, u.fcm_token FROM app_user u " +
-                           "WHERE u.email = ? " +
-                           "AND u.fcm_token IS NOT NULL";
+        // Get user by email who should receive the invitation notification
+        // INVITATIONS ARE ALWAYS SENT - they are system notifications, not user preferences
+        String userSql = "SELECT u.id, u.fcm_token FROM app_user u " +
+                       "WHERE u.email = ? " +
+                       "AND u.fcm_token IS NOT NULL";
 
-            List<Map<String, Object>> recipients = jdbcTemplate.queryForList(userSql, inviteeEmail);
-            logger.debug("Found {} invitation notification recipients for email {} (ALWAYS SEND - system notification)", recipients.size(), inviteeEmail);
-
-            if (recipients.isEmpty()) {
-                logger.debug("No recipients found for invitation notification to {} - user may not exist or have FCM token", inviteeEmail);
-                return;
-            }
+        List<Map<String, Object>> recipients = jdbcTemplate.queryForList(userSql, inviteeEmail);
+        logger.debug("Found {} invitation notification recipients for email {} (ALWAYS SEND - system notification)", recipients.size(), inviteeEmail);
 
-            String title = "Family Invitation";
-            String body = String.format("%s invited you to join %s", inviterName, familyName);
+        if (recipients.isEmpty()) {
+            logger.debug("No recipients found for invitation notification to {} - user may not exist or have FCM token", inviteeEmail);
+            return;
+        }
 
-            Map<String, String> data = new HashMap<>();
-            data.put("type", "INVITATION");
-            data.put("familyName", familyName);
-            data.put("inviterName", inviterName);
-            data.put("inviteeEmail", inviteeEmail);
+        String title = "Family Invitation";
+        String body = String.format("%s invited you to join %s", inviterName, familyName);
 
-            // Send notification to the invitee
-            sendToMultipleDevices(recipients, title, body, data);
+        Map<String, String> data = new HashMap<>();
+        data.put("type", "INVITATION");
+        data.put("familyName", familyName);
+        data.put("inviterName", inviterName);
+        data.put("inviteeEmail", inviteeEmail);
 
-        } catch (Exception e) {
-            logger.error("Error sending invitation notification: {}", e.getMessage(), e);
-        }
+        // Send notification to the invitee
+        sendToMultipleDevices(recipients, title, body, data, delivery);
     }
 
     /**
-     * Get family members who should receive new member notifications (using matrix)
+     * Get family members who should receive new member notifications
      */
     private List<Map<String, Object>> getNewMemberNotificationRecipients(Long familyId) {
-        String sql = """
-            SELECT DISTINCT u.id as user_id, u.fcm_token, u.username
-            FROM user_family_membership ufm
-            JOIN app_user u ON ufm.user_id = u.id
-            JOIN user_notification_matrix unm ON u.id = unm.user_id
-            WHERE ufm.family_id = ?
-            AND unm.family_id = 0 AND unm.member_id = 0
-            AND unm.device_permission_granted = TRUE
-            AND unm.push_enabled = TRUE
-            AND unm.new_member_push = TRUE
-            AND u.fcm_token IS NOT NULL
-        """;
+        Long[] audience = Arrays.stream(notificationPreferences.filter(socialGraphIndex.membersOf(familyId), familyId, null, Event.NEW_MEMBER, Channel.PUSH))
+            .boxed()
+            .toArray(Long[]::new);
+        if (audience.length == 0) {
+            return List.of();
+        }
 
-        List<Map<String, Object>> recipients = jdbcTemplate.queryForList(sql, familyId);
-        logger.debug("Found {} new member notification recipients for family {} (using matrix)", recipients.size(), familyId);
+        List<Map<String, Object>> recipients = jdbcTemplate.queryForList(TOKENS_SQL, (Object) audience);
+        logger.debug("Found {} new member notification recipients for family {}", recipients.size(), familyId);
 
         return recipients;
     }
 
     /**
      * Get family members who should receive notifications (excluding sender)
-     * Uses the new unified notification matrix for fast lookup
+     * The audience (members minus sender minus users who muted the sender minus users online over
+     * WebSocket, minus users whose preferences say no) comes from the in-memory social graph index,
+     * PresenceRegistry and NotificationPreferenceIndex; SQL only fetches tokens
      */
     private List<Map<String, Object>> getNotificationRecipients(Long familyId, Long messageId) {
-        String sql = """
-            SELECT DISTINCT u.id as user_id, u.fcm_token, u.username
-            FROM user_family_membership ufm
-            JOIN app_user u ON ufm.user_id = u.id
-            JOIN user_notification_matrix unm ON u.id = unm.user_id
-            WHERE ufm.family_id = ?
-            AND u.id != (SELECT sender_id FROM message WHERE id = ?)
-            AND u.fcm_token IS NOT NULL
-            AND unm.push_enabled = TRUE
-            AND unm.device_permission_granted = TRUE
-            AND (
-                -- Check global settings (family_id=0) or family-specific override
-                (unm.family_id = 0 AND unm.member_id = 0 AND unm.family_messages_push = TRUE)
-                OR
-                (unm.family_id = ? AND unm.member_id = 0 AND unm.family_messages_push = TRUE)
-            )
-            AND u.id NOT IN (
-                -- Exclude users who have muted the sender
-                SELECT umms.user_id
-                FROM user_member_message_settings umms
-                WHERE umms.member_user_id = (SELECT sender_id FROM message WHERE id = ?)
-                AND umms.receive_messages = false
-            )
-        """;
-
-        // Debug: Log the sender ID for this message
-        String senderSql = "SELECT sender_id FROM message WHERE id = ?";
-        try {
-            Long senderId = jdbcTemplate.queryForObject(senderSql, Long.class, messageId);
-            logger.debug("Message {} sender_id: {}, family_id: {}", messageId, senderId, familyId);
-        } catch (Exception e) {
-            logger.error("Could not find sender for message {}: {}", messageId, e.getMessage());
+        Long senderId = getMessageAuthor(messageId);
+        if (senderId == null) {
+            logger.error("Could not find sender for message {}", messageId);
+            return List.of();
+        }
+        logger.debug("Message {} sender_id: {}, family_id: {}", messageId, senderId, familyId);
+
+        Long[] audience = Arrays.stream(socialGraphIndex.membersOf(familyId))
+            .filter(userId -> userId != senderId)
+            .filter(userId -> !socialGraphIndex.hasMuted(userId, senderId))
+            .filter(userId -> !isReachableOverWebSocket(userId))
+            .filter(userId -> notificationPreferences.allows(userId, familyId, senderId, Event.FAMILY_MESSAGES, Channel.PUSH))
+            .boxed()
+            .toArray(Long[]::new);
+        if (audience.length == 0) {
+            return List.of();
         }
 
-        List<Map<String, Object>> recipients = jdbcTemplate.queryForList(sql, familyId, messageId, familyId, messageId);
-        logger.debug("Found {} notification recipients for message {} in family {} (using matrix)", recipients.size(), messageId, familyId);
+        List<Map<String, Object>> recipients = jdbcTemplate.queryForList(TOKENS_SQL, (Object) audience);
+        logger.debug("Found {} notification recipients for message {} in family {}", recipients.size(), messageId, familyId);
         for (Map<String, Object> recipient : recipients) {
             String fcmToken = (String) recipient.get("fcm_token");
             String tokenPrefix = fcmToken != null && fcmToken.length() > 30 ? fcmToken.substring(0, 30) + "..." : fcmToken;
@@ -351,21 +424,16 @@ public class PushNotificationService {
         return recipients;
     }
 
+    private void recordResolution(long startedAt) {
+        recipientResolutions.incrementAndGet();
+        totalResolveMicros.addAndGet(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt));
+    }
+
     /**
-     * Check if user has push notifications enabled (using matrix table)
+     * True if the user is connected over STOMP on this node and doesn't need a push
      */
-    private boolean hasNotificationsEnabled(Long userId) {
-        String sql = """
-            SELECT COUNT(*) FROM user_notification_matrix
-            WHERE user_id = ?
-            AND family_id = 0
-            AND member_id = 0
-            AND device_permission_granted = TRUE
-            AND push_enabled = TRUE
-        """;
-
-        Integer count = jdbcTemplate.queryForObject(sql, Integer.class, userId);
-        return count != null && count > 0;
+    private boolean isReachableOverWebSocket(Long userId) {
+        return pushOfflineOnly && presenceRegistry.isOnline(userId);
     }
 
     /**
@@ -411,6 +479,19 @@ public class PushNotificationService {
         }
     }
 
+    /**
+     * Family name for coalesced push titles
+     */
+    private String getFamilyName(Long familyId) {
+        try {
+            String name = jdbcTemplate.queryForObject("SELECT name FROM family WHERE id = ?", String.class, familyId);
+            return name != null ? name : "your family";
+        } catch (Exception e) {
+            logger.debug("Could not find family name for family {}: {}", familyId, e.getMessage());
+            return "your family";
+        }
+    }
+
     /**
      * Truncate message content for notification display
      */
@@ -420,80 +501,279 @@ public class PushNotificationService {
         return content.substring(0, 97) + "...";
     }
 
+    /**
+     * Send notification to multiple devices, without coalescing
+     */
+    private void sendToMultipleDevices(List<Map<String, Object>> recipients, String title, String body, Map<String, String> data,
+                                       PushDelivery delivery) {
+        sendToMultipleDevices(recipients, title, body, data, delivery, null, null, null);
+    }
+
     /**
      * Send notification to multiple devices
+     * Tokens are de-duplicated, tokens an earlier attempt already delivered to are skipped, and the
+     * rest are sent as multicast requests of up to push.multicast.batch-size tokens; batches run
+     * concurrently on the push-multicast pool and this waits for all of them.
+     * With a collapse key, devices that already got a push for it within the coalescing window are
+     * held by PushCoalescer (under messageId) and get one summary (titled summaryTitle(count)) when
+     * the window closes; held tokens are marked on the delivery so the outbox rechecks the event.
+     * The tokens sent now are reported back to the coalescer once their batches are done.
      */
-    private void sendToMultipleDevices(List<Map<String, Object>> recipients, String title, String body, Map<String, String> data) {
-        for (Map<String, Object> recipient : recipients) {
-            String fcmToken = (String) recipient.get("fcm_token");
-            if (fcmToken != null) {
-                sendToDevice(fcmToken, title, body, data);
+    private void sendToMultipleDevices(List<Map<String, Object>> recipients, String title, String body, Map<String, String> data,
+                                       PushDelivery delivery, String collapseKey, String messageId, IntFunction<String> summaryTitle) {
+        List<String> tokens = recipients.stream()
+            .map(recipient -> (String) recipient.get("fcm_token"))
+            .filter(Objects::nonNull)
+            .distinct()
+            .filter(token -> !delivery.isCompleted(token))
+            .toList();
+        if (tokens.isEmpty()) {
+            return;
+        }
+        if (!pushTransport.isAvailable()) {
+            logger.warn("Push transport not available, skipping push notification");
+            return;
+        }
+
+        // Same data-only payload as sendToDevice; shared read-only by every batch
+        Map<String, String> payload = new HashMap<>(data);
+        payload.put("title", title);
+        payload.put("body", body);
+
+        if (collapseKey != null) {
+            tokens = applyOffer(pushCoalescer.offer(collapseKey, messageId, tokens, new PushCoalescer.Notification(title, body, payload),
+                summaryTitle), delivery);
+            if (tokens.isEmpty()) {
+                logger.debug("All pushes for {} held for the coalescing window", collapseKey);
+                return;
             }
         }
+
+        List<CompletableFuture<Void>> batches = List.of();
+        int failedBatches = 0;
+        Throwable lastFailure = null;
+        try {
+            batches = submitBatches(tokens, payload, collapseKey, delivery);
+            for (CompletableFuture<Void> batch : batches) {
+                try {
+                    batch.get();
+                } catch (ExecutionException e) {
+                    failedBatches++;
+                    lastFailure = e.getCause();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sending push batches", e);
+        } finally {
+            if (collapseKey != null) {
+                reportToCoalescer(collapseKey, tokens, delivery);
+            }
+        }
+        if (failedBatches > 0) {
+            throw new IllegalStateException(failedBatches + " of " + batches.size() + " push batches failed", lastFailure);
+        }
     }
 
     /**
-     * Send notification to a single device
+     * Record what PushCoalescer decided on the delivery and return the tokens to send now: tokens a
+     * delivered summary covered are done, held ones keep the outbox event pending until the recheck
      */
-    private void sendToDevice(String fcmToken, String title, String body, Map<String, String> data) {
+    private List<String> applyOffer(PushCoalescer.Offer offer, PushDelivery delivery) {
+        offer.coveredBySummary().forEach(delivery::complete);
+        for (String token : offer.held()) {
+            delivery.hold(token, offer.recheckAt());
+        }
+        return offer.sendNow();
+    }
+
+    /**
+     * Tell PushCoalescer which of the tokens it let through got their push; the others are sent at
+     * once on the next offer (the outbox retry) instead of being held behind a push that never arrived
+     */
+    private void reportToCoalescer(String collapseKey, List<String> tokens, PushDelivery delivery) {
+        List<String> sent = new ArrayList<>();
+        List<String> unsent = new ArrayList<>();
+        for (String token : tokens) {
+            (delivery.isCompleted(token) ? sent : unsent).add(token);
+        }
+        pushCoalescer.sent(collapseKey, sent);
+        pushCoalescer.unsent(collapseKey, unsent);
+    }
+
+    private List<CompletableFuture<Void>> submitBatches(List<String> tokens, Map<String, String> payload, String collapseKey,
+                                                        PushDelivery delivery) {
+        int batchSize = Math.max(1, Math.min(500, multicastBatchSize));
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int from = 0; from < tokens.size(); from += batchSize) {
+            List<String> batch = tokens.subList(from, Math.min(tokens.size(), from + batchSize));
+            batches.add(CompletableFuture.runAsync(() -> sendMulticastBatch(batch, payload, collapseKey, delivery), multicastExecutor));
+        }
+        return batches;
+    }
+
+    /**
+     * PushCoalescer flush handler: send a closed window's summary without waiting, and report the
+     * tokens it reached once every batch is done. The held events stay pending in the outbox, so a
+     * token the summary missed gets its push from the event's recheck.
+     */
+    private void sendCoalesced(String collapseKey, List<String> tokens, PushCoalescer.Notification summary,
+                               Consumer<Collection<String>> onDelivered) {
+        if (!pushTransport.isAvailable()) {
+            onDelivered.accept(List.of());
+            return;
+        }
+        logger.debug("Sending coalesced push for {} to {} devices", collapseKey, tokens.size());
+        PushDelivery delivery = PushDelivery.first();
+        CompletableFuture.allOf(submitBatches(tokens, summary.data(), collapseKey, delivery).toArray(new CompletableFuture<?>[0]))
+            .whenComplete((result, failure) -> onDelivered.accept(delivery.completedTokens()));
+    }
+
+    /**
+     * Send one multicast request and map the per-token results back to tokens; delivered and stale
+     * tokens are completed on the delivery. Throws if the request or any token failed, so the outbox
+     * retries the event for the tokens that are left.
+     */
+    private void sendMulticastBatch(List<String> tokens, Map<String, String> payload, String collapseKey, PushDelivery delivery) {
+        long startedAt = System.nanoTime();
+        multicastBatches.incrementAndGet();
+        tokensAttempted.addAndGet(tokens.size());
+        int failed;
         try {
-            // Check if Firebase is available
-            if (FirebaseApp.getApps().isEmpty()) {
-                logger.warn("Firebase not initialized, skipping push notification");
-                return;
+            // Results are in the same order as the tokens in the request
+            List<PushTransport.Result> results = pushTransport.sendMulticast(tokens, payload, collapseKey);
+            List<String> staleTokens = new ArrayList<>();
+            int delivered = 0;
+            for (int i = 0; i < results.size(); i++) {
+                PushTransport.Result result = results.get(i);
+                String fcmToken = tokens.get(i);
+                if (result.isDelivered()) {
+                    delivered++;
+                    delivery.complete(fcmToken);
+                    continue;
+                }
+                if (result.outcome() == PushTransport.Outcome.STALE_TOKEN) {
+                    staleTokens.add(fcmToken);
+                    delivery.complete(fcmToken);
+                } else {
+                    logger.warn("🔥 Push to token {} failed: {}", tokenPrefix(fcmToken), result.error());
+                }
             }
+            tokensDelivered.addAndGet(delivered);
+            tokensFailed.addAndGet(tokens.size() - delivered);
+            logger.debug("Multicast push: {} delivered, {} failed of {} tokens", delivered, tokens.size() - delivered, tokens.size());
 
-            // Send data-only message to let the Flutter app decide whether to show notification
-            // This prevents system-level notifications when app is in foreground
-            data.put("title", title);  // Include title in data for app to use
-            data.put("body", body);    // Include body in data for app to use
-
-            // Build the message with NO notification payload - data only
-            Message message = Message.builder()
-                    .setToken(fcmToken)
-                    .putAllData(data)
-                    // Add Android config with HIGH priority
-                    .setAndroidConfig(AndroidConfig.builder()
-                            .setPriority(AndroidConfig.Priority.HIGH)
-                            .setDirectBootOk(true)
-                            .build())
-                    // iOS configuration
-                    .setApnsConfig(ApnsConfig.builder()
-                            .setAps(Aps.builder()
-                                    .setContentAvailable(true)  // Wake the app but don't show notification
-                                    .build())
-                            .build())
-                    .build();
-
-            // Send the message
-            String response = FirebaseMessaging.getInstance().send(message);
-            logger.debug("Successfully sent push notification: {}", response);
-
-        } catch (FirebaseMessagingException e) {
-            // Add detailed Firebase error logging
-            logger.error("🔥 FIREBASE ERROR DETAILS:");
-            logger.error("🔥 Error Code: {}", e.getMessagingErrorCode());
-            logger.error("🔥 Error Message: {}", e.getMessage());
-            logger.error("🔥 HTTP Response Code: {}", e.getHttpResponse() != null ? e.getHttpResponse().getStatusCode() : "unknown");
-            logger.error("🔥 FCM Token (first 20 chars): {}", fcmToken != null ? fcmToken.substring(0, Math.min(20, fcmToken.length())) + "..." : "null");
-            logger.error("🔥 Full Stack Trace:", e);
-
-            // Handle invalid/stale tokens
-            if (e.getMessagingErrorCode() == MessagingErrorCode.UNREGISTERED) {
-                logger.warn("🗑️ FCM token is unregistered, removing from database: {}", fcmToken);
-                String cleanupSql = "UPDATE app_user SET fcm_token = NULL WHERE fcm_token = ?";
-                int rowsUpdated = jdbcTemplate.update(cleanupSql, fcmToken);
-                logger.info("🧹 Cleaned up {} user(s) with stale FCM token", rowsUpdated);
-            } else if (e.getHttpResponse() != null && e.getHttpResponse().getStatusCode() == 401) {
-                logger.warn("🗑️ FCM token unauthorized (401), likely stale. Removing from database: {}", fcmToken);
-                String cleanupSql = "UPDATE app_user SET fcm_token = NULL WHERE fcm_token = ?";
-                int rowsUpdated = jdbcTemplate.update(cleanupSql, fcmToken);
-                logger.info("🧹 Cleaned up {} user(s) with unauthorized FCM token", rowsUpdated);
-            } else {
-                logger.error("🔥 Firebase error - different issue (not token cleanup): {}", e.getMessagingErrorCode());
+            if (!staleTokens.isEmpty()) {
+                removeStaleTokens(staleTokens);
             }
+            failed = tokens.size() - delivered - staleTokens.size();
+        } catch (RuntimeException e) {
+            // The whole request failed (auth, quota, network); per-token results aren't available
+            multicastBatchFailures.incrementAndGet();
+            tokensFailed.addAndGet(tokens.size());
+            logger.error("🔥 Multicast push of {} tokens failed: {}", tokens.size(), e.getMessage());
+            throw e;
+        } finally {
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+            totalBatchMs.addAndGet(elapsedMs);
+            maxBatchMs.accumulateAndGet(elapsedMs, Math::max);
+        }
+        if (failed > 0) {
+            throw new IllegalStateException(failed + " of " + tokens.size() + " pushes in the batch failed");
+        }
+    }
+
+    /**
+     * Unregistered or unauthorized tokens won't work again and are cleared from app_user
+     */
+    private void removeStaleTokens(List<String> staleTokens) {
+        try {
+            int rowsUpdated = jdbcTemplate.update("UPDATE app_user SET fcm_token = NULL WHERE fcm_token = ANY(?::text[])",
+                (Object) staleTokens.toArray(new String[0]));
+            staleTokensRemoved.addAndGet(staleTokens.size());
+            logger.info("🧹 Cleaned up {} user(s) with {} stale FCM token(s)", rowsUpdated, staleTokens.size());
         } catch (Exception e) {
-            logger.error("Unexpected error sending push notification: {}", e.getMessage(), e);
+            logger.error("Failed to clean up {} stale FCM tokens: {}", staleTokens.size(), e.getMessage());
+        }
+    }
+
+    private static String tokenPrefix(String fcmToken) {
+        return fcmToken.substring(0, Math.min(20, fcmToken.length())) + "...";
+    }
+
+    /**
+     * Send notification to a single device
+     */
+    private void sendToDevice(String fcmToken, String title, String body, Map<String, String> data, String collapseKey, PushDelivery delivery) {
+        if (!pushTransport.isAvailable()) {
+            logger.warn("Push transport not available, skipping push notification");
+            return;
+        }
+
+        // Send data-only message to let the Flutter app decide whether to show notification
+        // This prevents system-level notifications when app is in foreground
+        data.put("title", title);  // Include title in data for app to use
+        data.put("body", body);    // Include body in data for app to use
+
+        PushTransport.Result result = pushTransport.send(fcmToken, data, collapseKey);
+        if (result.outcome() == PushTransport.Outcome.STALE_TOKEN) {
+            logger.warn("🗑️ FCM token is stale ({}), removing from database: {}", result.error(), tokenPrefix(fcmToken));
+            removeStaleTokens(List.of(fcmToken));
+        } else if (!result.isDelivered()) {
+            throw new IllegalStateException("Push send failed: " + result.error());
+        }
+        delivery.complete(fcmToken);
+    }
+
+    /**
+     * Multicast push counters
+     */
+    public Map<String, Object> getStats() {
+        long batches = multicastBatches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("multicastBatches", batches);
+        stats.put("batchFailures", multicastBatchFailures.get());
+        stats.put("tokensAttempted", tokensAttempted.get());
+        stats.put("tokensDelivered", tokensDelivered.get());
+        stats.put("tokensFailed", tokensFailed.get());
+        stats.put("staleTokensRemoved", staleTokensRemoved.get());
+        stats.put("queuedBatches", multicastExecutor.getQueue().size());
+        stats.put("avgBatchMs", batches == 0 ? 0.0 : Math.round(totalBatchMs.get() * 10.0 / batches) / 10.0);
+        stats.put("maxBatchMs", maxBatchMs.get());
+        long resolutions = recipientResolutions.get();
+        stats.put("recipientResolutions", resolutions);
+        stats.put("avgResolveMicros", resolutions == 0 ? 0 : totalResolveMicros.get() / resolutions);
+        stats.put("totalResolveMicros", totalResolveMicros.get());
+        stats.put("transport", pushTransport.getStats());
+        stats.put("coalescing", pushCoalescer.getStats());
+        return stats;
+    }
+
+    /**
+     * Log multicast counters (every 5 minutes by default)
+     */
+    @Scheduled(fixedRateString = "${push.log-interval:300000}", initialDelayString = "${push.log-interval:300000}")
+    public void logStats() {
+        if (multicastBatches.get() == 0) {
+            return;
+        }
+        logger.info("🔔 Push multicast: {}", getStats());
+    }
+
+    /**
+     * Send held pushes and let queued batches finish sending before shutdown
+     */
+    @PreDestroy
+    public void stopMulticastExecutor() {
+        pushCoalescer.flushAll();
+        multicastExecutor.shutdown();
+        try {
+            if (!multicastExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Abandoning {} queued push batches at shutdown", multicastExecutor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            multicastExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
         }
     }
 }
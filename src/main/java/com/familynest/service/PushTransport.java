@@ -0,0 +1,64 @@
+package com.familynest.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delivers data-only push messages to device tokens.
+ * A collapse key (nullable) marks pushes for the same conversation, so a newer one replaces an
+ * older one still pending on the device.
+ *
+ * PushNotificationService decides who gets what; the transport only sends. The implementation is
+ * chosen with push.transport: "fcm" (default, Firebase Cloud Messaging) or "local" (in-memory stub
+ * with simulated latency, for load tests and offline development).
+ */
+public interface PushTransport {
+
+    enum Outcome {
+        DELIVERED,
+        // The token will never work again (unregistered / unauthorized) and should be cleared
+        STALE_TOKEN,
+        FAILED
+    }
+
+    /**
+     * Result for one token; error is the provider's error code when not delivered
+     */
+    record Result(Outcome outcome, String error) {
+
+        public static final Result DELIVERED = new Result(Outcome.DELIVERED, null);
+
+        public static Result staleToken(String error) {
+            return new Result(Outcome.STALE_TOKEN, error);
+        }
+
+        public static Result failed(String error) {
+            return new Result(Outcome.FAILED, error);
+        }
+
+        public boolean isDelivered() {
+            return outcome == Outcome.DELIVERED;
+        }
+    }
+
+    /**
+     * False when the transport can't send at all (e.g. Firebase isn't configured)
+     */
+    boolean isAvailable();
+
+    /**
+     * Send to one token. Throws IllegalStateException if the request itself failed.
+     */
+    Result send(String token, Map<String, String> data, String collapseKey);
+
+    /**
+     * Send the same data to up to 500 tokens in one request; results are in token order.
+     * Throws IllegalStateException if the request itself failed (no per-token results).
+     */
+    List<Result> sendMulticast(List<String> tokens, Map<String, String> data, String collapseKey);
+
+    /**
+     * Transport counters
+     */
+    Map<String, Object> getStats();
+}
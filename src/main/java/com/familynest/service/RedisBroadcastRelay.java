@@ -0,0 +1,172 @@
+package com.familynest.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Cross-node relay over Redis pub/sub (websocket.relay.mode=redis).
+ *
+ * The publishing node delivers locally right away and publishes the event as JSON on
+ * websocket.relay.channel; every other node receives it and runs its own fan-out. Events a node
+ * published itself are ignored on the way back. Pub/sub is fire-and-forget: a node that is
+ * disconnected from Redis misses events, and clients recover through /api/sync as usual.
+ *
+ * Received events are handled on one "ws-relay" thread, in the order Redis delivered them, and
+ * handed to the BroadcastDispatcher lanes from there; the container's default executor would start
+ * a thread per message and let events for a family overtake each other.
+ *
+ * Lag is measured from publishedAt to receipt, so it includes any clock skew between nodes.
+ */
+@Service
+@ConditionalOnProperty(name = "websocket.relay.mode", havingValue = "redis")
+public class RedisBroadcastRelay implements BroadcastRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisBroadcastRelay.class);
+
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${websocket.relay.channel:familynest:ws-broadcast}")
+    private String channel;
+
+    @Value("${websocket.relay.node-id:}")
+    private String configuredNodeId;
+
+    private String nodeId;
+    private StringRedisTemplate redisTemplate;
+    private RedisMessageListenerContainer listenerContainer;
+    private ExecutorService receiveExecutor;
+    private final List<Consumer<RelayedBroadcast>> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong publishFailures = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong receiveFailures = new AtomicLong();
+    private final AtomicLong totalLagMs = new AtomicLong();
+    private final AtomicLong maxLagMs = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        nodeId = configuredNodeId.isBlank() ? UUID.randomUUID().toString() : configuredNodeId;
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+
+        receiveExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "ws-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(connectionFactory);
+        listenerContainer.setTaskExecutor(receiveExecutor);
+        // Subscribing can block (e.g. with Jedis), so it mustn't occupy the receive thread
+        listenerContainer.setSubscriptionExecutor(new SimpleAsyncTaskExecutor("ws-relay-subscribe-"));
+        listenerContainer.addMessageListener((message, pattern) -> onMessage(message.getBody()), new ChannelTopic(channel));
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+        logger.info("📡 WebSocket relay: Redis pub/sub on channel {} as node {}", channel, nodeId);
+    }
+
+    @Override
+    public void addListener(Consumer<RelayedBroadcast> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void publish(RelayedBroadcast event) {
+        deliverLocally(event);
+        try {
+            redisTemplate.convertAndSend(channel, objectMapper.writeValueAsString(event));
+            published.incrementAndGet();
+        } catch (Exception e) {
+            // Local users already have it; remote nodes miss this one
+            publishFailures.incrementAndGet();
+            logger.error("Failed to relay {} for {}: {}", event.kind(), event.targetId(), e.getMessage());
+        }
+    }
+
+    private void onMessage(byte[] body) {
+        try {
+            RelayedBroadcast event = objectMapper.readValue(new String(body, StandardCharsets.UTF_8), RelayedBroadcast.class);
+            if (nodeId.equals(event.originNode())) {
+                return;
+            }
+            long lag = Math.max(0, System.currentTimeMillis() - event.publishedAt());
+            received.incrementAndGet();
+            totalLagMs.addAndGet(lag);
+            maxLagMs.accumulateAndGet(lag, Math::max);
+            deliverLocally(event);
+        } catch (Exception e) {
+            receiveFailures.incrementAndGet();
+            logger.error("Failed to handle relayed broadcast: {}", e.getMessage());
+        }
+    }
+
+    private void deliverLocally(RelayedBroadcast event) {
+        listeners.forEach(listener -> listener.accept(event));
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        long count = received.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", "redis");
+        stats.put("nodeId", nodeId);
+        stats.put("published", published.get());
+        stats.put("publishFailures", publishFailures.get());
+        stats.put("received", count);
+        stats.put("receiveFailures", receiveFailures.get());
+        stats.put("avgLagMs", count == 0 ? 0.0 : Math.round(totalLagMs.get() * 10.0 / count) / 10.0);
+        stats.put("maxLagMs", maxLagMs.get());
+        return stats;
+    }
+
+    /**
+     * Log relay counters (every 5 minutes by default)
+     */
+    @Scheduled(fixedRateString = "${websocket.relay.log-interval:300000}", initialDelayString = "${websocket.relay.log-interval:300000}")
+    public void logStats() {
+        if (published.get() + received.get() == 0) {
+            return;
+        }
+        logger.info("📡 WebSocket relay: {}", getStats());
+    }
+
+    @PreDestroy
+    public void stop() throws Exception {
+        listenerContainer.destroy();
+        receiveExecutor.shutdown();
+    }
+}
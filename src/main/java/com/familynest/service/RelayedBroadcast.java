@@ -0,0 +1,45 @@
+package com.familynest.service;
+
+import java.util.Map;
+
+/**
+ * A WebSocket broadcast as it travels between nodes through a BroadcastRelay.
+ * Each receiving node runs the fan-out for its own connected users.
+ * PREFERENCES_CHANGED, MEMBERSHIP_CHANGED and MUTES_CHANGED are not broadcasts: they tell every node
+ * to reload one user's entry in NotificationPreferenceIndex or SocialGraphIndex. USER_MESSAGES_CHANGED
+ * tells every node to drop the cached message pages of the users listed in the payload.
+ *
+ * @param kind          which WebSocketBroadcastService entry point produced it
+ * @param payload       the frame payload (null for comment counts, which are built per node; "userIds" for USER_MESSAGES_CHANGED)
+ * @param targetId      family id, or user id for DMs, invitations and the other *_CHANGED kinds
+ * @param messageId     message (or comment) the event is about, where relevant
+ * @param count         comment count for COMMENT_COUNT events
+ * @param excludeUserId user left out of COMMENT_COUNT_EXCLUDING_USER events
+ * @param originNode    node that published the event
+ * @param publishedAt   epoch millis at publish time, for relay lag
+ */
+public record RelayedBroadcast(
+        Kind kind,
+        Map<String, Object> payload,
+        Long targetId,
+        Long messageId,
+        Integer count,
+        Long excludeUserId,
+        String originNode,
+        long publishedAt) {
+
+    public enum Kind {
+        DM_MESSAGE,
+        FAMILY_MESSAGE,
+        NEW_MESSAGE,
+        COMMENT,
+        REACTION,
+        COMMENT_COUNT,
+        COMMENT_COUNT_EXCLUDING_USER,
+        INVITATION,
+        PREFERENCES_CHANGED,
+        MEMBERSHIP_CHANGED,
+        MUTES_CHANGED,
+        USER_MESSAGES_CHANGED
+    }
+}
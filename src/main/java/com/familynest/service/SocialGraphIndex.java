@@ -0,0 +1,294 @@
+package com.familynest.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process index of the social graph used to resolve broadcast and push audiences:
+ * family -> member ids (all and active), user -> family ids, and recipient -> muted sender ids.
+ *
+ * Each entry is a sorted long[] that is replaced, never mutated, so reads are lock-free and a
+ * mute check is a binary search. Writers call onMembershipChanged / onMutesChanged, which after
+ * commit publish a MEMBERSHIP_CHANGED / MUTES_CHANGED event on the BroadcastRelay; every node (this
+ * one included) refreshes that user when it arrives, since each node filters its own fan-out with
+ * its own index. The whole index is also reloaded periodically to pick up changes made outside the
+ * app (manual SQL, dataset loaders) and invalidations a node missed.
+ */
+@Service
+public class SocialGraphIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SocialGraphIndex.class);
+
+    private static final long[] EMPTY = new long[0];
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private BroadcastRelay broadcastRelay;
+
+    private volatile Map<Long, long[]> familyMembers = new ConcurrentHashMap<>();
+    private volatile Map<Long, long[]> familyActiveMembers = new ConcurrentHashMap<>();
+    private volatile Map<Long, long[]> userFamilies = new ConcurrentHashMap<>();
+    private volatile Map<Long, long[]> mutedSenders = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    // ----- Lookups -----
+
+    /**
+     * All member ids of a family (every user_family_membership row)
+     */
+    public long[] membersOf(Long familyId) {
+        if (!loaded) {
+            return toSortedArray(jdbcTemplate.queryForList(
+                "SELECT user_id FROM user_family_membership WHERE family_id = ?", Long.class, familyId));
+        }
+        return familyMembers.getOrDefault(familyId, EMPTY);
+    }
+
+    /**
+     * Member ids of a family whose membership is active
+     */
+    public long[] activeMembersOf(Long familyId) {
+        if (!loaded) {
+            return toSortedArray(jdbcTemplate.queryForList(
+                "SELECT user_id FROM user_family_membership WHERE family_id = ? AND is_active = true", Long.class, familyId));
+        }
+        return familyActiveMembers.getOrDefault(familyId, EMPTY);
+    }
+
+    /**
+     * Family ids a user belongs to
+     */
+    public long[] familiesOf(Long userId) {
+        if (!loaded) {
+            return toSortedArray(jdbcTemplate.queryForList(
+                "SELECT family_id FROM user_family_membership WHERE user_id = ?", Long.class, userId));
+        }
+        return userFamilies.getOrDefault(userId, EMPTY);
+    }
+
+    /**
+     * Sender ids the recipient has muted (user_member_message_settings.receive_messages = false in any family)
+     */
+    public long[] mutedSendersOf(Long recipientId) {
+        if (!loaded) {
+            return toSortedArray(jdbcTemplate.queryForList(
+                "SELECT DISTINCT member_user_id FROM user_member_message_settings WHERE user_id = ? AND receive_messages = false",
+                Long.class, recipientId));
+        }
+        return mutedSenders.getOrDefault(recipientId, EMPTY);
+    }
+
+    /**
+     * True if the recipient has muted the sender
+     */
+    public boolean hasMuted(Long recipientId, Long senderId) {
+        if (recipientId == null || senderId == null) {
+            return false;
+        }
+        return Arrays.binarySearch(mutedSendersOf(recipientId), senderId) >= 0;
+    }
+
+    // ----- Incremental updates -----
+
+    /**
+     * A user joined or left a family (or a membership was (de)activated); every node refreshes the
+     * user once the transaction commits
+     */
+    public void onMembershipChanged(Long userId) {
+        afterCommit(RelayedBroadcast.Kind.MEMBERSHIP_CHANGED, userId);
+    }
+
+    /**
+     * A user's member mute settings changed; every node refreshes the user once the transaction commits
+     */
+    public void onMutesChanged(Long userId) {
+        afterCommit(RelayedBroadcast.Kind.MUTES_CHANGED, userId);
+    }
+
+    private void afterCommit(RelayedBroadcast.Kind kind, Long userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publishChange(kind, userId);
+                }
+            });
+        } else {
+            publishChange(kind, userId);
+        }
+    }
+
+    private void publishChange(RelayedBroadcast.Kind kind, Long userId) {
+        broadcastRelay.publish(new RelayedBroadcast(kind, null, userId,
+            null, null, null, broadcastRelay.getNodeId(), System.currentTimeMillis()));
+    }
+
+    private void onRelayedEvent(RelayedBroadcast event) {
+        if (event.targetId() == null) {
+            return;
+        }
+        if (event.kind() == RelayedBroadcast.Kind.MEMBERSHIP_CHANGED) {
+            refreshUserMemberships(event.targetId());
+        } else if (event.kind() == RelayedBroadcast.Kind.MUTES_CHANGED) {
+            refreshUserMutes(event.targetId());
+        }
+    }
+
+    private synchronized void refreshUserMemberships(Long userId) {
+        try {
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT family_id, is_active FROM user_family_membership WHERE user_id = ?", userId);
+
+            Set<Long> families = new HashSet<>();
+            Set<Long> activeFamilies = new HashSet<>();
+            for (Map<String, Object> row : rows) {
+                Long familyId = ((Number) row.get("family_id")).longValue();
+                families.add(familyId);
+                if (Boolean.TRUE.equals(row.get("is_active"))) {
+                    activeFamilies.add(familyId);
+                }
+            }
+
+            Set<Long> touched = new HashSet<>(families);
+            for (long familyId : userFamilies.getOrDefault(userId, EMPTY)) {
+                touched.add(familyId);
+            }
+            for (Long familyId : touched) {
+                familyMembers.put(familyId, withMember(familyMembers.get(familyId), userId, families.contains(familyId)));
+                familyActiveMembers.put(familyId, withMember(familyActiveMembers.get(familyId), userId, activeFamilies.contains(familyId)));
+            }
+            userFamilies.put(userId, toSortedArray(families));
+            logger.debug("Social graph: user {} now in {} families ({} active)", userId, families.size(), activeFamilies.size());
+        } catch (Exception e) {
+            // The periodic reload will catch up
+            logger.error("Error refreshing memberships for user {} in social graph index: {}", userId, e.getMessage());
+        }
+    }
+
+    private synchronized void refreshUserMutes(Long userId) {
+        try {
+            List<Long> muted = jdbcTemplate.queryForList(
+                "SELECT DISTINCT member_user_id FROM user_member_message_settings WHERE user_id = ? AND receive_messages = false",
+                Long.class, userId);
+            if (muted.isEmpty()) {
+                mutedSenders.remove(userId);
+            } else {
+                mutedSenders.put(userId, toSortedArray(muted));
+            }
+            logger.debug("Social graph: user {} now mutes {} senders", userId, muted.size());
+        } catch (Exception e) {
+            logger.error("Error refreshing mutes for user {} in social graph index: {}", userId, e.getMessage());
+        }
+    }
+
+    // ----- Full load -----
+
+    @PostConstruct
+    public void load() {
+        broadcastRelay.addListener(this::onRelayedEvent);
+        reload();
+    }
+
+    /**
+     * Rebuild the whole index from the database (every 10 minutes by default)
+     */
+    @Scheduled(fixedRateString = "${social-graph.reload-interval:600000}", initialDelayString = "${social-graph.reload-interval:600000}")
+    public synchronized void reload() {
+        long start = System.currentTimeMillis();
+        try {
+            Map<Long, List<Long>> members = new HashMap<>();
+            Map<Long, List<Long>> activeMembers = new HashMap<>();
+            Map<Long, List<Long>> families = new HashMap<>();
+            jdbcTemplate.query("SELECT user_id, family_id, is_active FROM user_family_membership", rs -> {
+                long userId = rs.getLong("user_id");
+                long familyId = rs.getLong("family_id");
+                members.computeIfAbsent(familyId, k -> new ArrayList<>()).add(userId);
+                families.computeIfAbsent(userId, k -> new ArrayList<>()).add(familyId);
+                if (rs.getBoolean("is_active")) {
+                    activeMembers.computeIfAbsent(familyId, k -> new ArrayList<>()).add(userId);
+                }
+            });
+
+            Map<Long, List<Long>> mutes = new HashMap<>();
+            jdbcTemplate.query(
+                "SELECT DISTINCT user_id, member_user_id FROM user_member_message_settings WHERE receive_messages = false", rs -> {
+                    mutes.computeIfAbsent(rs.getLong("user_id"), k -> new ArrayList<>()).add(rs.getLong("member_user_id"));
+                });
+
+            familyMembers = toIndex(members);
+            familyActiveMembers = toIndex(activeMembers);
+            userFamilies = toIndex(families);
+            mutedSenders = toIndex(mutes);
+            loaded = true;
+
+            logger.info("🕸️ Social graph index loaded: {} families, {} users, {} users with mutes in {}ms",
+                familyMembers.size(), userFamilies.size(), mutedSenders.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            // Keep serving the previous index (or SQL fallbacks if it never loaded)
+            logger.error("Error loading social graph index: {}", e.getMessage(), e);
+        }
+    }
+
+    // ----- Helpers -----
+
+    private static Map<Long, long[]> toIndex(Map<Long, List<Long>> source) {
+        Map<Long, long[]> index = new ConcurrentHashMap<>(Math.max(16, source.size() * 2));
+        source.forEach((key, ids) -> index.put(key, toSortedArray(ids)));
+        return index;
+    }
+
+    private static long[] toSortedArray(Iterable<Long> ids) {
+        Set<Long> unique = new HashSet<>();
+        ids.forEach(unique::add);
+        long[] array = new long[unique.size()];
+        int i = 0;
+        for (Long id : unique) {
+            array[i++] = id;
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    /**
+     * Copy of a sorted array with the id added or removed
+     */
+    private static long[] withMember(long[] current, long id, boolean present) {
+        if (current == null) {
+            current = EMPTY;
+        }
+        int pos = Arrays.binarySearch(current, id);
+        if (present == pos >= 0) {
+            return current;
+        }
+        if (present) {
+            int insertAt = -pos - 1;
+            long[] next = new long[current.length + 1];
+            System.arraycopy(current, 0, next, 0, insertAt);
+            next[insertAt] = id;
+            System.arraycopy(current, insertAt, next, insertAt + 1, current.length - insertAt);
+            return next;
+        }
+        long[] next = new long[current.length - 1];
+        System.arraycopy(current, 0, next, 0, pos);
+        System.arraycopy(current, pos + 1, next, pos, current.length - pos - 1);
+        return next;
+    }
+}
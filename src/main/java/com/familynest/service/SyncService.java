@@ -0,0 +1,432 @@
+package com.familynest.service;
+
+import com.familynest.dto.CommentDTO;
+import com.familynest.dto.DMConversationMessageDTO;
+import com.familynest.dto.FeedMessageDTO;
+import com.familynest.dto.SyncRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental sync for reconnecting clients.
+ *
+ * Instead of reloading the 100-message feed and every open conversation, the client sends the
+ * watermarks it already has and gets back only rows past them:
+ * - new family messages (sync_version > messageVersion): timeline rows, and message_family_link rows
+ *   of read-time fan-out families, are numbered from the feed sequence when they are written, so
+ *   rows added late (post-commit fan-out, member backfill, the repair job) are still past the watermark
+ * - new comments (id > lastCommentId) in the user's non-muted families
+ * - messages and comments whose reactions or counts changed (change_version > changeVersion)
+ * - new DMs per conversation (id > that conversation's watermark)
+ *
+ * Each section returns at most sync.max-rows-per-section rows in watermark order. When a section is
+ * cut off, hasMore is set and the returned watermarks stop at the last row sent, so the client just
+ * calls again. Everything is read in one REPEATABLE READ snapshot so the watermarks agree.
+ *
+ * Keys come from sequences, which hand out values before their transaction commits: a higher key
+ * can be visible while a lower one isn't yet. Returned watermarks therefore never pass the
+ * sequence values sampled sync.settle-margin-ms ago (sync_sequence_checkpoint), when every
+ * transaction holding a lower value has finished. Rows past that point are sent again on the next
+ * sync, so clients key what they receive by id.
+ *
+ * Deleted comments and messages are not reported; their parents' counts change, which is how the
+ * client notices.
+ */
+@Service
+public class SyncService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncService.class);
+
+    @Value("${sync.max-rows-per-section:200}")
+    private int maxRowsPerSection;
+
+    @Value("${sync.settle-margin-ms:30000}")
+    private long settleMarginMs;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private static final String MESSAGE_COLUMNS =
+            "m.id, m.content, m.sender_username, m.sender_id, " +
+            "m.timestamp, m.media_type, m.media_url, m.thumbnail_url, m.local_media_path, " +
+            "s.photo as sender_photo, s.first_name as sender_first_name, s.last_name as sender_last_name, " +
+            "m.like_count, m.love_count, m.comment_count, m.change_version, " +
+            "COALESCE(umr.has_unread_comments, CASE WHEN m.comment_count > 0 THEN true ELSE false END) as has_unread_comments, " +
+            "CASE WHEN mr.id IS NOT NULL THEN true ELSE false END as is_liked, " +
+            "CASE WHEN mr2.id IS NOT NULL THEN true ELSE false END as is_loved ";
+
+    private static final String MESSAGE_JOINS =
+            "LEFT JOIN app_user s ON m.sender_id = s.id " +
+            "LEFT JOIN user_message_read umr ON m.id = umr.message_id AND umr.user_id = ? " +
+            "LEFT JOIN message_reaction mr ON m.id = mr.target_message_id AND mr.user_id = ? AND mr.reaction_type = 'LIKE' AND mr.target_type = 'MESSAGE' " +
+            "LEFT JOIN message_reaction mr2 ON m.id = mr2.target_message_id AND mr2.user_id = ? AND mr2.reaction_type = 'LOVE' AND mr2.target_type = 'MESSAGE' ";
+
+    private static final String FEED_FILTERS =
+            "WITH user_families AS (" +
+            "  SELECT ufm.family_id FROM user_family_membership ufm WHERE ufm.user_id = ?" +
+            "), " +
+            "muted_users AS (" +
+            "  SELECT umms.member_user_id " +
+            "  FROM user_member_message_settings umms " +
+            "  JOIN user_families uf ON umms.family_id = uf.family_id " +
+            "  WHERE umms.user_id = ? AND umms.receive_messages = false" +
+            "), ";
+
+    // A message reachable through several rows is sent once, at its highest position
+    private static final String NEW_MESSAGES_SQL = FEED_FILTERS +
+            "timeline_new AS (" +
+            "  SELECT ut.message_id AS id, ut.sync_version FROM user_timeline ut " +
+            "  LEFT JOIN muted_users mu ON ut.sender_id = mu.member_user_id " +
+            "  WHERE ut.user_id = ? AND mu.member_user_id IS NULL AND ut.sync_version > ? " +
+            "  ORDER BY ut.sync_version ASC LIMIT ?" +
+            "), " +
+            "large_family_new AS (" +
+            "  SELECT mfl.message_id AS id, mfl.sync_version FROM message_family_link mfl " +
+            "  JOIN user_families uf ON mfl.family_id = uf.family_id " +
+            "  JOIN family f ON f.id = mfl.family_id AND f.fanout_on_read = true " +
+            "  JOIN message m ON m.id = mfl.message_id " +
+            "  LEFT JOIN muted_users mu ON m.sender_id = mu.member_user_id " +
+            "  WHERE mu.member_user_id IS NULL AND mfl.sync_version > ? " +
+            "  ORDER BY mfl.sync_version ASC LIMIT ?" +
+            "), " +
+            "message_subset AS (" +
+            "  SELECT id, MAX(sync_version) AS sync_version " +
+            "  FROM (SELECT id, sync_version FROM timeline_new UNION ALL SELECT id, sync_version FROM large_family_new) n " +
+            "  GROUP BY id ORDER BY MAX(sync_version) ASC LIMIT ?" +
+            ") " +
+            "SELECT " + MESSAGE_COLUMNS + ", ms.sync_version " +
+            "FROM message m JOIN message_subset ms ON m.id = ms.id " + MESSAGE_JOINS +
+            "ORDER BY ms.sync_version ASC";
+
+    private static final String CHANGED_MESSAGES_SQL = FEED_FILTERS +
+            "message_subset AS (" +
+            "  SELECT DISTINCT m.id, m.change_version FROM message m " +
+            "  JOIN message_family_link mfl ON mfl.message_id = m.id " +
+            "  JOIN user_families uf ON mfl.family_id = uf.family_id " +
+            "  LEFT JOIN muted_users mu ON m.sender_id = mu.member_user_id " +
+            "  WHERE m.change_version > ? AND mu.member_user_id IS NULL " +
+            "  ORDER BY m.change_version ASC LIMIT ?" +
+            ") " +
+            "SELECT " + MESSAGE_COLUMNS +
+            "FROM message m JOIN message_subset ms ON m.id = ms.id " + MESSAGE_JOINS +
+            "ORDER BY m.change_version ASC";
+
+    private static final String COMMENT_FILTERS =
+            "WITH active_families AS (" +
+            "  SELECT ufm.family_id FROM user_family_membership ufm " +
+            "  LEFT JOIN user_family_message_settings ufms " +
+            "    ON ufms.family_id = ufm.family_id AND ufms.user_id = ufm.user_id AND ufms.receive_messages = false " +
+            "  WHERE ufm.user_id = ? AND ufms.family_id IS NULL" +
+            "), ";
+
+    private static final String COMMENT_SELECT =
+            "SELECT m.id, m.content, m.sender_username, m.sender_id, " +
+            "  m.timestamp, m.media_type, m.media_url, m.thumbnail_url, " +
+            "  s.photo as sender_photo, s.first_name as sender_first_name, s.last_name as sender_last_name, " +
+            "  m.parent_message_id, m.like_count, m.love_count, m.reply_count as comment_count, m.change_version, " +
+            "  CASE WHEN mr.id IS NOT NULL THEN true ELSE false END as is_liked, " +
+            "  CASE WHEN mr2.id IS NOT NULL THEN true ELSE false END as is_loved " +
+            "FROM message_comment m " +
+            "JOIN comment_subset cs ON m.id = cs.id " +
+            "LEFT JOIN app_user s ON m.sender_id = s.id " +
+            "LEFT JOIN message_reaction mr ON m.id = mr.target_comment_id AND mr.user_id = ? AND mr.reaction_type = 'LIKE' AND mr.target_type = 'COMMENT' " +
+            "LEFT JOIN message_reaction mr2 ON m.id = mr2.target_comment_id AND mr2.user_id = ? AND mr2.reaction_type = 'LOVE' AND mr2.target_type = 'COMMENT' ";
+
+    private static final String NEW_COMMENTS_SQL = COMMENT_FILTERS +
+            "comment_subset AS (" +
+            "  SELECT DISTINCT mcfl.message_comment_id AS id FROM message_comment_family_link mcfl " +
+            "  JOIN active_families af ON mcfl.family_id = af.family_id " +
+            "  WHERE mcfl.message_comment_id > ? " +
+            "  ORDER BY mcfl.message_comment_id ASC LIMIT ?" +
+            ") " + COMMENT_SELECT +
+            "ORDER BY m.id ASC";
+
+    private static final String CHANGED_COMMENTS_SQL = COMMENT_FILTERS +
+            "comment_subset AS (" +
+            "  SELECT DISTINCT m.id, m.change_version FROM message_comment m " +
+            "  JOIN message_comment_family_link mcfl ON mcfl.message_comment_id = m.id " +
+            "  JOIN active_families af ON mcfl.family_id = af.family_id " +
+            "  WHERE m.change_version > ? " +
+            "  ORDER BY m.change_version ASC LIMIT ?" +
+            ") " + COMMENT_SELECT +
+            "ORDER BY m.change_version ASC";
+
+    private static final String USER_CONVERSATIONS =
+            "WITH convs AS (" +
+            "  SELECT c.id FROM dm_conversation c " +
+            "  WHERE c.is_group = FALSE AND (c.user1_id = ? OR c.user2_id = ?) " +
+            "  UNION " +
+            "  SELECT c.id FROM dm_conversation c " +
+            "  JOIN dm_conversation_participant p ON p.conversation_id = c.id " +
+            "  WHERE c.is_group = TRUE AND p.user_id = ?" +
+            ") ";
+
+    private static final String NEW_DMS_SQL = USER_CONVERSATIONS +
+            "SELECT " +
+            "  m.id, m.conversation_id, m.sender_id, m.content, m.media_url, m.media_type, " +
+            "  m.media_thumbnail, m.media_filename, m.media_size, m.media_duration, m.local_media_path, " +
+            "  m.is_read, m.created_at, " +
+            "  u.username as sender_username, u.first_name as sender_first_name, u.last_name as sender_last_name, " +
+            "  u.photo as sender_photo " +
+            "FROM unnest(?::bigint[], ?::bigint[]) AS w(conversation_id, last_id) " +
+            "JOIN convs ON convs.id = w.conversation_id " +
+            "JOIN dm_message m ON m.conversation_id = w.conversation_id AND m.id > w.last_id " +
+            "JOIN app_user u ON m.sender_id = u.id " +
+            "WHERE m.sender_id NOT IN (" +
+            "  SELECT umms.member_user_id FROM user_member_message_settings umms " +
+            "  WHERE umms.user_id = ? AND umms.receive_messages = false" +
+            ") " +
+            "ORDER BY m.id ASC LIMIT ?";
+
+    private static final String UNKNOWN_CONVERSATIONS_SQL = USER_CONVERSATIONS +
+            "SELECT convs.id AS conversation_id, " +
+            "  CASE WHEN last_msg.id IS NULL THEN NULL ELSE LEAST(last_msg.id, ?) END AS last_message_id " +
+            "FROM convs " +
+            "LEFT JOIN LATERAL (" +
+            "  SELECT dm.id FROM dm_message dm WHERE dm.conversation_id = convs.id " +
+            "  ORDER BY dm.id DESC LIMIT 1" +
+            ") last_msg ON true " +
+            "WHERE NOT (convs.id = ANY(?::bigint[])) " +
+            "ORDER BY convs.id";
+
+    // Latest sample old enough that every transaction holding a lower value has finished
+    private static final String SETTLED_SQL =
+            "SELECT feed_version, comment_id, dm_message_id FROM sync_sequence_checkpoint " +
+            "WHERE taken_at <= CURRENT_TIMESTAMP - (? * INTERVAL '1 millisecond') " +
+            "ORDER BY taken_at DESC LIMIT 1";
+
+    // Right after a long outage only fresh samples exist; the oldest one is the best there is
+    private static final String OLDEST_CHECKPOINT_SQL =
+            "SELECT feed_version, comment_id, dm_message_id FROM sync_sequence_checkpoint " +
+            "ORDER BY taken_at ASC LIMIT 1";
+
+    private static final String CHECKPOINT_SQL =
+            "INSERT INTO sync_sequence_checkpoint (feed_version, comment_id, dm_message_id) " +
+            "SELECT (SELECT last_value FROM family_feed_version_seq), " +
+            "       (SELECT last_value FROM message_comment_id_seq), " +
+            "       (SELECT last_value FROM dm_message_id_seq)";
+
+    // Keep an hour of samples, plus the newest older one so a settled sample always exists
+    private static final String PRUNE_CHECKPOINTS_SQL =
+            "DELETE FROM sync_sequence_checkpoint WHERE taken_at < (" +
+            "  SELECT MAX(taken_at) FROM sync_sequence_checkpoint " +
+            "  WHERE taken_at < CURRENT_TIMESTAMP - INTERVAL '1 hour')";
+
+    /**
+     * Highest feed version, comment id and DM id that no unfinished transaction can still be below
+     */
+    record Settled(long feedVersion, long commentId, long dmMessageId) {
+        static final Settled NONE = new Settled(0, 0, 0);
+
+        static final RowMapper<Settled> ROW_MAPPER = (rs, rowNum) ->
+                new Settled(rs.getLong("feed_version"), rs.getLong("comment_id"), rs.getLong("dm_message_id"));
+    }
+
+    /**
+     * Rows of one sync section plus the watermark of the last row returned
+     */
+    static final class Page<T> {
+        final List<T> rows = new ArrayList<>();
+        final List<Long> keys = new ArrayList<>();
+        boolean truncated;
+
+        Long lastKey() {
+            return keys.isEmpty() ? null : keys.get(keys.size() - 1);
+        }
+    }
+
+    /**
+     * Collect everything past the client's watermarks
+     */
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public Map<String, Object> sync(Long userId, SyncRequest request) {
+        long start = System.currentTimeMillis();
+        Map<String, Object> watermarks = new LinkedHashMap<>();
+        boolean hasMore = false;
+        Settled settled = settled();
+
+        // New family messages
+        List<FeedMessageDTO> messages = List.of();
+        if (request.messageVersion() != null) {
+            Page<FeedMessageDTO> page = queryPage(NEW_MESSAGES_SQL, FeedMessageDTO.ROW_MAPPER, "sync_version",
+                    userId, userId, userId, request.messageVersion(), maxRowsPerSection + 1,
+                    request.messageVersion(), maxRowsPerSection + 1, maxRowsPerSection + 1,
+                    userId, userId, userId);
+            messages = page.rows;
+            hasMore |= hasMore(page, settled.feedVersion());
+            watermarks.put("messageVersion", advance(request.messageVersion(), page, settled.feedVersion()));
+        } else {
+            watermarks.put("messageVersion", settled.feedVersion());
+        }
+
+        // New comments
+        List<CommentDTO> comments = List.of();
+        if (request.lastCommentId() != null) {
+            Page<CommentDTO> page = queryPage(NEW_COMMENTS_SQL, CommentDTO.ROW_MAPPER, "id",
+                    userId, request.lastCommentId(), maxRowsPerSection + 1, userId, userId);
+            comments = page.rows;
+            hasMore |= hasMore(page, settled.commentId());
+            watermarks.put("lastCommentId", advance(request.lastCommentId(), page, settled.commentId()));
+        } else {
+            watermarks.put("lastCommentId", settled.commentId());
+        }
+
+        // Reaction and count changes on messages and comments (one shared version sequence)
+        List<FeedMessageDTO> changedMessages = List.of();
+        List<CommentDTO> changedComments = List.of();
+        if (request.changeVersion() != null) {
+            Page<FeedMessageDTO> messagePage = queryPage(CHANGED_MESSAGES_SQL, FeedMessageDTO.ROW_MAPPER, "change_version",
+                    userId, userId, request.changeVersion(), maxRowsPerSection + 1, userId, userId, userId);
+            Page<CommentDTO> commentPage = queryPage(CHANGED_COMMENTS_SQL, CommentDTO.ROW_MAPPER, "change_version",
+                    userId, request.changeVersion(), maxRowsPerSection + 1, userId, userId);
+            changedMessages = messagePage.rows;
+            changedComments = commentPage.rows;
+            hasMore |= hasMore(messagePage, settled.feedVersion()) || hasMore(commentPage, settled.feedVersion());
+            watermarks.put("changeVersion", nextChangeVersion(request.changeVersion(), messagePage, commentPage, settled.feedVersion()));
+        } else {
+            watermarks.put("changeVersion", settled.feedVersion());
+        }
+
+        // New DMs per known conversation; conversations the client didn't send are listed separately
+        Map<Long, Long> dmIn = request.dmWatermarks() != null ? request.dmWatermarks() : Map.of();
+        Long[] conversationIds = dmIn.keySet().toArray(new Long[0]);
+        Long[] lastIds = new Long[conversationIds.length];
+        for (int i = 0; i < conversationIds.length; i++) {
+            Long lastId = dmIn.get(conversationIds[i]);
+            lastIds[i] = lastId != null ? lastId : 0L;
+        }
+
+        List<DMConversationMessageDTO> dmMessages = List.of();
+        Map<Long, Long> dmOut = new HashMap<>();
+        for (int i = 0; i < conversationIds.length; i++) {
+            dmOut.put(conversationIds[i], lastIds[i]);
+        }
+        if (conversationIds.length > 0) {
+            Page<DMConversationMessageDTO> page = queryPage(NEW_DMS_SQL, DMConversationMessageDTO.ROW_MAPPER, "id",
+                    userId, userId, userId, conversationIds, lastIds, userId, maxRowsPerSection + 1);
+            dmMessages = page.rows;
+            hasMore |= hasMore(page, settled.dmMessageId());
+            // Rows come in global id order, so the highest id per conversation is a safe watermark even when cut off
+            for (DMConversationMessageDTO dm : dmMessages) {
+                dmOut.merge(dm.conversationId(), Math.min(dm.id(), settled.dmMessageId()), Math::max);
+            }
+        }
+        watermarks.put("dmWatermarks", dmOut);
+
+        List<Map<String, Object>> unknownConversations = jdbcTemplate.queryForList(UNKNOWN_CONVERSATIONS_SQL,
+                userId, userId, userId, settled.dmMessageId(), conversationIds);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("messages", messages);
+        response.put("changedMessages", changedMessages);
+        response.put("comments", comments);
+        response.put("changedComments", changedComments);
+        response.put("dmMessages", dmMessages);
+        response.put("unknownConversations", unknownConversations);
+        response.put("watermarks", watermarks);
+        response.put("hasMore", hasMore);
+
+        logger.debug("Sync for user {}: {} new messages, {} changed, {} new comments, {} changed, {} DMs, hasMore={} in {}ms",
+                userId, messages.size(), changedMessages.size(), comments.size(), changedComments.size(),
+                dmMessages.size(), hasMore, System.currentTimeMillis() - start);
+        return response;
+    }
+
+    /**
+     * Where a section's watermark moves: to its last row, but not past the settled value (rows
+     * above it are sent again next time) and never backwards
+     */
+    static long advance(long current, Page<?> page, long settled) {
+        Long last = page.lastKey();
+        if (last == null) {
+            return current;
+        }
+        return Math.max(current, Math.min(last, settled));
+    }
+
+    /**
+     * A cut-off section only has more to give if its watermark reached the last row; above the
+     * settled value the client would just get the same rows again until they settle
+     */
+    static boolean hasMore(Page<?> page, long settled) {
+        return page.truncated && page.lastKey() <= settled;
+    }
+
+    /**
+     * A section that was cut off caps the shared watermark at its last row; rows past it in the
+     * other section are simply sent again next time. Otherwise advance to the highest version seen.
+     * Either way the watermark stops at the settled version.
+     */
+    static long nextChangeVersion(long current, Page<?> messagePage, Page<?> commentPage, long settled) {
+        Long capped = null;
+        Long highest = current;
+        for (Page<?> page : List.of(messagePage, commentPage)) {
+            Long last = page.lastKey();
+            if (last == null) {
+                continue;
+            }
+            if (page.truncated) {
+                capped = capped == null ? last : Math.min(capped, last);
+            }
+            highest = Math.max(highest, last);
+        }
+        return Math.max(current, Math.min(capped != null ? capped : highest, settled));
+    }
+
+    /**
+     * Sequence values sampled at least sync.settle-margin-ms ago
+     */
+    private Settled settled() {
+        List<Settled> rows = jdbcTemplate.query(SETTLED_SQL, Settled.ROW_MAPPER, settleMarginMs);
+        if (rows.isEmpty()) {
+            rows = jdbcTemplate.query(OLDEST_CHECKPOINT_SQL, Settled.ROW_MAPPER);
+        }
+        return rows.isEmpty() ? Settled.NONE : rows.get(0);
+    }
+
+    /**
+     * Sample the sync sequences (every 5 seconds by default). Every node samples; extra rows are harmless.
+     */
+    @Scheduled(fixedRateString = "${sync.checkpoint-interval:5000}")
+    public void recordCheckpoint() {
+        try {
+            jdbcTemplate.update(CHECKPOINT_SQL);
+            jdbcTemplate.update(PRUNE_CHECKPOINTS_SQL);
+        } catch (Exception e) {
+            logger.error("Could not record sync checkpoint: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Run a section query that fetches one row past the limit, recording each row's watermark column
+     */
+    private <T> Page<T> queryPage(String sql, RowMapper<T> mapper, String keyColumn, Object... params) {
+        Page<T> page = new Page<>();
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            page.keys.add(rs.getLong(keyColumn));
+            page.rows.add(mapper.mapRow(rs, page.rows.size()));
+        }, params);
+
+        if (page.rows.size() > maxRowsPerSection) {
+            page.truncated = true;
+            page.rows.subList(maxRowsPerSection, page.rows.size()).clear();
+            page.keys.subList(maxRowsPerSection, page.keys.size()).clear();
+        }
+        return page;
+    }
+}
@@ -0,0 +1,157 @@
+package com.familynest.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hybrid fan-out timeline for the family feed.
+ *
+ * Normal families are fanned out on write: once a message commits, one user_timeline row is
+ * written per member so the feed read is a single (user_id, message_id DESC) range scan.
+ * Families with more than feed.timeline.fanout-threshold members are flagged fanout_on_read
+ * (sticky, so their history never has gaps) and the feed reads them through message_family_link.
+ *
+ * Mutes are deliberately not applied here. Timeline rows carry sender_id and the feed filters
+ * muted senders at read time, so mute changes take effect immediately without rewriting rows.
+ */
+@Service
+public class TimelineService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimelineService.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private BroadcastDispatcher broadcastDispatcher;
+
+    @Autowired
+    private ETagService etagService;
+
+    @Value("${feed.timeline.fanout-threshold:500}")
+    private int fanoutThreshold;
+
+    /**
+     * Queue the timeline writes for a newly committed message. Called from postMessage after commit,
+     * before the message is broadcast: each family's rows are written on that family's dispatcher
+     * lane, which is the lane its NEW_MESSAGE broadcast runs on, so a feed refresh triggered by the
+     * broadcast still sees the message while the request thread doesn't wait for the inserts.
+     * The family's feed version is bumped in the same task, after the rows are written, so a feed
+     * ETag never covers a page that is missing the message.
+     */
+    public void scheduleFanOut(Long messageId, Long senderId, List<Long> familyIds) {
+        for (Long familyId : familyIds) {
+            broadcastDispatcher.submit(familyId, () -> {
+                fanOutMessage(messageId, senderId, List.of(familyId));
+                etagService.bumpFamily(familyId);
+            });
+        }
+    }
+
+    /**
+     * Write timeline rows for a newly committed message
+     */
+    public void fanOutMessage(Long messageId, Long senderId, List<Long> familyIds) {
+        for (Long familyId : familyIds) {
+            try {
+                if (isFanoutOnRead(familyId)) {
+                    logger.debug("Family {} is read-time fan-out, skipping timeline write for message {}", familyId, messageId);
+                    continue;
+                }
+
+                String sql = "INSERT INTO user_timeline (user_id, message_id, family_id, sender_id) " +
+                             "SELECT ufm.user_id, ?, ?, ? FROM user_family_membership ufm " +
+                             "WHERE ufm.family_id = ? " +
+                             "ON CONFLICT (user_id, message_id) DO NOTHING";
+                int rows = jdbcTemplate.update(sql, messageId, familyId, senderId, familyId);
+                logger.debug("Fanned out message {} to {} timelines in family {}", messageId, rows, familyId);
+            } catch (Exception e) {
+                // The hourly repair job will fill the gap
+                logger.error("Error fanning out message {} to family {}: {}", messageId, familyId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Seed a new member's timeline with the family's existing messages.
+     * Runs inside the caller's transaction so the membership and its timeline appear together.
+     */
+    public void backfillMember(Long userId, Long familyId) {
+        if (isFanoutOnRead(familyId)) {
+            return;
+        }
+
+        String sql = "INSERT INTO user_timeline (user_id, message_id, family_id, sender_id, created_at) " +
+                     "SELECT ?, mfl.message_id, mfl.family_id, m.sender_id, COALESCE(m.timestamp, CURRENT_TIMESTAMP) " +
+                     "FROM message_family_link mfl " +
+                     "JOIN message m ON m.id = mfl.message_id " +
+                     "WHERE mfl.family_id = ? " +
+                     "ON CONFLICT (user_id, message_id) DO NOTHING";
+        int rows = jdbcTemplate.update(sql, userId, familyId);
+        logger.debug("Backfilled {} timeline rows for user {} joining family {}", rows, userId, familyId);
+    }
+
+    /**
+     * Decide (and remember) whether a family is too large to fan out on write.
+     * Once a family crosses the threshold it stays on read-time fan-out.
+     */
+    private boolean isFanoutOnRead(Long familyId) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT member_count, fanout_on_read FROM family WHERE id = ?", familyId);
+        if (rows.isEmpty()) {
+            return false;
+        }
+
+        Map<String, Object> family = rows.get(0);
+        if (Boolean.TRUE.equals(family.get("fanout_on_read"))) {
+            return true;
+        }
+
+        Number memberCount = (Number) family.get("member_count");
+        if (memberCount != null && memberCount.intValue() > fanoutThreshold) {
+            jdbcTemplate.update("UPDATE family SET fanout_on_read = true WHERE id = ?", familyId);
+            logger.info("📣 Family {} has {} members (threshold {}), switching to read-time fan-out",
+                       familyId, memberCount, fanoutThreshold);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Repair timeline rows missed by a failed post-commit fan-out. Only looks at the last day of messages.
+     */
+    @Scheduled(fixedRateString = "${feed.timeline.repair-interval:3600000}")
+    public void repairRecentTimelines() {
+        try {
+            String sql = "WITH repaired AS ( " +
+                         "  INSERT INTO user_timeline (user_id, message_id, family_id, sender_id, created_at) " +
+                         "  SELECT ufm.user_id, mfl.message_id, mfl.family_id, m.sender_id, COALESCE(m.timestamp, CURRENT_TIMESTAMP) " +
+                         "  FROM message m " +
+                         "  JOIN message_family_link mfl ON mfl.message_id = m.id " +
+                         "  JOIN family f ON f.id = mfl.family_id AND f.fanout_on_read = false " +
+                         "  JOIN user_family_membership ufm ON ufm.family_id = mfl.family_id " +
+                         "  WHERE m.timestamp > CURRENT_TIMESTAMP - INTERVAL '1 day' " +
+                         "  ON CONFLICT (user_id, message_id) DO NOTHING " +
+                         "  RETURNING family_id " +
+                         ") " +
+                         "SELECT family_id, COUNT(*) AS row_count FROM repaired GROUP BY family_id ORDER BY family_id";
+            List<Map<String, Object>> families = jdbcTemplate.queryForList(sql);
+            if (!families.isEmpty()) {
+                long rows = families.stream().mapToLong(family -> ((Number) family.get("row_count")).longValue()).sum();
+                logger.warn("⚠️ Timeline repair inserted {} missing rows in {} families", rows, families.size());
+                // Feeds cached under the current versions are missing these rows
+                families.forEach(family -> etagService.bumpFamily(((Number) family.get("family_id")).longValue()));
+            }
+        } catch (Exception e) {
+            logger.error("Timeline repair failed: {}", e.getMessage(), e);
+        }
+    }
+}
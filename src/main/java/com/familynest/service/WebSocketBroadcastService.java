@@ -1,55 +1,164 @@
 package com.familynest.service;
 
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MessageConversionException;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
-import com.familynest.repository.UserFamilyMembershipRepository;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.List;
 
 @Service
 public class WebSocketBroadcastService {
     
     private static final Logger logger = LoggerFactory.getLogger(WebSocketBroadcastService.class);
     
+    // Per-recipient read status for personalized comment counts
+    private static final String COMMENT_COUNT_RECIPIENTS_SQL = """
+        SELECT r.user_id, umr.has_unread_comments
+        FROM unnest(?::bigint[]) AS r(user_id)
+        LEFT JOIN user_message_read umr ON umr.user_id = r.user_id AND umr.message_id = ?
+        """;
+    
     private final SimpMessagingTemplate messagingTemplate;
-    private final UserFamilyMembershipRepository userFamilyMembershipRepository;
+    private final SocialGraphIndex socialGraphIndex;
     private final JdbcTemplate jdbcTemplate;
+    private final BroadcastDispatcher broadcastDispatcher;
+    private final PresenceRegistry presenceRegistry;
+    private final BroadcastRelay broadcastRelay;
+    private final NotificationPreferenceIndex notificationPreferences;
 
     public WebSocketBroadcastService(
             SimpMessagingTemplate messagingTemplate,
-            UserFamilyMembershipRepository userFamilyMembershipRepository,
-            JdbcTemplate jdbcTemplate) {
+            SocialGraphIndex socialGraphIndex,
+            JdbcTemplate jdbcTemplate,
+            BroadcastDispatcher broadcastDispatcher,
+            PresenceRegistry presenceRegistry,
+            BroadcastRelay broadcastRelay,
+            NotificationPreferenceIndex notificationPreferences) {
         this.messagingTemplate = messagingTemplate;
-        this.userFamilyMembershipRepository = userFamilyMembershipRepository;
+        this.socialGraphIndex = socialGraphIndex;
         this.jdbcTemplate = jdbcTemplate;
+        this.broadcastDispatcher = broadcastDispatcher;
+        this.presenceRegistry = presenceRegistry;
+        this.broadcastRelay = broadcastRelay;
+        this.notificationPreferences = notificationPreferences;
+        broadcastRelay.addListener(this::dispatchLocally);
+    }
+
+    // ----- Entry points -----
+    // Callers invoke these from afterCommit() on the request thread. Each event goes through the
+    // BroadcastRelay so every node (this one included) runs the fan-out for its own connected users
+    // on its BroadcastDispatcher lanes. Payload maps are copied because callers reuse them across
+    // families. Only users with a live session on the node (PresenceRegistry) are sent to; offline
+    // users get the push notification instead.
+
+    public void broadcastDMMessage(Map<String, Object> messageData, Long recipientId) {
+        publish(RelayedBroadcast.Kind.DM_MESSAGE, messageData, recipientId, null, null, null);
+    }
+
+    public void broadcastFamilyMessage(Map<String, Object> messageData, Long familyId) {
+        publish(RelayedBroadcast.Kind.FAMILY_MESSAGE, messageData, familyId, null, null, null);
+    }
+
+    public void broadcastNewMessage(Map<String, Object> messageData, Long familyId) {
+        publish(RelayedBroadcast.Kind.NEW_MESSAGE, messageData, familyId, null, null, null);
+    }
+
+    public void broadcastComment(Map<String, Object> commentData, Long parentMessageId, Long familyId) {
+        publish(RelayedBroadcast.Kind.COMMENT, commentData, familyId, parentMessageId, null, null);
+    }
+
+    public void broadcastReaction(Map<String, Object> reactionData, Long messageId, Long familyId) {
+        publish(RelayedBroadcast.Kind.REACTION, reactionData, familyId, messageId, null, null);
+    }
+
+    public void broadcastCommentCount(Long messageId, int commentCount, Long familyId) {
+        publish(RelayedBroadcast.Kind.COMMENT_COUNT, null, familyId, messageId, commentCount, null);
+    }
+
+    public void broadcastCommentCountExcludingUser(Long messageId, int commentCount, Long familyId, Long excludeUserId) {
+        publish(RelayedBroadcast.Kind.COMMENT_COUNT_EXCLUDING_USER, null, familyId, messageId, commentCount, excludeUserId);
+    }
+
+    public void broadcastInvitation(Map<String, Object> invitationData, Long userId) {
+        publish(RelayedBroadcast.Kind.INVITATION, invitationData, userId, null, null, null);
+    }
+
+    private void publish(RelayedBroadcast.Kind kind, Map<String, Object> payload, Long targetId,
+                         Long messageId, Integer count, Long excludeUserId) {
+        broadcastRelay.publish(new RelayedBroadcast(kind, payload != null ? new HashMap<>(payload) : null,
+            targetId, messageId, count, excludeUserId, broadcastRelay.getNodeId(), System.currentTimeMillis()));
+    }
+
+    /**
+     * Queue the local fan-out of an event published on this or another node
+     */
+    private void dispatchLocally(RelayedBroadcast event) {
+        Map<String, Object> payload = event.payload();
+        Long targetId = event.targetId();
+        Long messageId = event.messageId();
+        long lane = orderingKey(targetId);
+        switch (event.kind()) {
+            case DM_MESSAGE -> broadcastDispatcher.submit(lane, () -> sendDMMessage(payload, targetId));
+            case FAMILY_MESSAGE -> broadcastDispatcher.submit(lane, () -> sendFamilyMessage(payload, targetId));
+            case NEW_MESSAGE -> broadcastDispatcher.submit(lane, () -> sendNewMessage(payload, targetId));
+            case COMMENT -> broadcastDispatcher.submit(lane, () -> sendComment(payload, messageId, targetId));
+            case INVITATION -> broadcastDispatcher.submit(lane, () -> sendInvitation(payload, targetId));
+            case REACTION -> broadcastDispatcher.submitMergeable(lane,
+                "REACTION:" + payload.get("target_type") + ":" + messageId + ":" + targetId,
+                () -> sendReaction(payload, messageId, targetId));
+            case COMMENT_COUNT -> broadcastDispatcher.submitMergeable(lane,
+                "COMMENT_COUNT:" + messageId + ":" + targetId,
+                () -> sendCommentCount(messageId, event.count(), targetId));
+            case COMMENT_COUNT_EXCLUDING_USER -> broadcastDispatcher.submitMergeable(lane,
+                "COMMENT_COUNT:" + messageId + ":" + targetId + ":" + event.excludeUserId(),
+                () -> sendCommentCountExcludingUser(messageId, event.count(), targetId, event.excludeUserId()));
+            // Cache invalidations, handled by NotificationPreferenceIndex's, SocialGraphIndex's and CacheEvictionService's listeners
+            case PREFERENCES_CHANGED, MEMBERSHIP_CHANGED, MUTES_CHANGED, USER_MESSAGES_CHANGED -> { }
+        }
+    }
+
+    private static long orderingKey(Long id) {
+        return id != null ? id : 0L;
     }
     
     /**
-     * Check if a recipient has muted the sender
+     * Members who haven't muted the sender (memory lookups in the social graph index)
      */
-    private boolean isRecipientMutedBySender(Long recipientId, Long senderId) {
-        if (senderId == null || recipientId == null) {
-            return false; // Can't be muted if we don't have IDs
+    private long[] excludeMutedSender(long[] memberIds, Long senderId) {
+        if (senderId == null) {
+            return memberIds;
         }
-        try {
-            String muteSql = """
-                SELECT COUNT(*) > 0 
-                FROM user_member_message_settings umms 
-                WHERE umms.user_id = ? 
-                AND umms.member_user_id = ? 
-                AND umms.receive_messages = false
-                """;
-            Boolean isMuted = jdbcTemplate.queryForObject(muteSql, Boolean.class, recipientId, senderId);
-            return isMuted != null && isMuted;
-        } catch (Exception e) {
-            logger.error("Error checking mute status for recipient {} and sender {}: {}", recipientId, senderId, e.getMessage());
-            return false; // Default to not muted on error
+        return Arrays.stream(memberIds)
+            .filter(userId -> !socialGraphIndex.hasMuted(userId, senderId))
+            .toArray();
+    }
+
+    /**
+     * Members whose notification preferences allow a websocket event for the family
+     * (memory lookups in the notification preference index)
+     */
+    private long[] excludeFamilyChannelMutes(long[] memberIds, Long familyId, NotificationPreferenceIndex.Event event) {
+        return notificationPreferences.filter(memberIds, familyId, null, event, NotificationPreferenceIndex.Channel.WEBSOCKET);
+    }
+    
+    /**
+     * Serialize a payload once with the template's own converter (same JSON as convertAndSend).
+     * The resulting Message is immutable, so it can be sent to any number of destinations;
+     * each send only copies the headers to set the destination.
+     */
+    private Message<?> encode(Object payload) {
+        Message<?> message = messagingTemplate.getMessageConverter().toMessage(payload, null);
+        if (message == null) {
+            throw new MessageConversionException("No converter for WebSocket payload " + payload.getClass().getName());
         }
+        return message;
     }
     
     /**
@@ -71,21 +180,26 @@ public class WebSocketBroadcastService {
     /**
      * Broadcast DM MESSAGE to a specific recipient
      */
-    public void broadcastDMMessage(Map<String, Object> messageData, Long recipientId) {
+    private void sendDMMessage(Map<String, Object> messageData, Long recipientId) {
         try {
             messageData.put("type", "DM_MESSAGE");
             messageData.put("recipient_id", recipientId);
             
+            if (!presenceRegistry.isOnline(recipientId)) {
+                logger.debug("DM recipient {} is offline, leaving it to push", recipientId);
+                return;
+            }
             logger.debug("Broadcasting DM MESSAGE to recipient {}", recipientId);
+            Message<?> encoded = encode(messageData);
             
             // Send to conversation list topic (for MessagesHomeScreen)
             String listDestination = "/topic/dm-list/" + recipientId;
-            messagingTemplate.convertAndSend(listDestination, messageData);
+            messagingTemplate.send(listDestination, encoded);
             logger.debug("Successfully broadcast DM MESSAGE to conversation list {}", listDestination);
             
             // Send to thread topic (for DMThreadScreen) 
             String threadDestination = "/topic/dm-thread/" + recipientId;
-            messagingTemplate.convertAndSend(threadDestination, messageData);
+            messagingTemplate.send(threadDestination, encoded);
             logger.debug("Successfully broadcast DM MESSAGE to thread {}", threadDestination);
             
         } catch (Exception e) {
@@ -99,7 +213,7 @@ public class WebSocketBroadcastService {
      * This is the new improved architecture that eliminates the need for clients
      * to subscribe to multiple family topics.
      */
-    public void broadcastFamilyMessage(Map<String, Object> messageData, Long familyId) {
+    private void sendFamilyMessage(Map<String, Object> messageData, Long familyId) {
         try {
             // Add family_id to the message data
             messageData.put("family_id", familyId);
@@ -107,32 +221,24 @@ public class WebSocketBroadcastService {
             logger.debug("Broadcasting family message to family {} members", familyId);
             
             // Get all family members
-            List<Long> familyMemberIds = userFamilyMembershipRepository.findByFamilyId(familyId)
-                .stream()
-                .map(membership -> membership.getUserId())
-                .toList();
+            long[] familyMemberIds = socialGraphIndex.membersOf(familyId);
             
-            logger.debug("Found {} members in family {}", familyMemberIds.size(), familyId);
+            logger.debug("Found {} members in family {}", familyMemberIds.length, familyId);
             
             // Broadcast to each family member's individual topic (excluding muted recipients)
             int broadcastCount = 0;
             Long senderId = getSenderIdFromMessage(messageData);
-            logger.debug("🔇 WebSocket: Extracted senderId={} from message data for family {}", senderId, familyId);
+            long[] recipientIds = excludeMutedSender(presenceRegistry.onlineOnly(familyMemberIds), senderId);
+            logger.debug("🔇 WebSocket: {} of {} members in family {} are online and haven't muted sender {}",
+                recipientIds.length, familyMemberIds.length, familyId, senderId);
+            Message<?> encoded = encode(messageData);
             
-            for (Long userId : familyMemberIds) {
+            for (long userId : recipientIds) {
                 try {
-                    // Check if this user has muted the sender
-                    boolean isMuted = isRecipientMutedBySender(userId, senderId);
-                    logger.debug("🔇 WebSocket: User {} mute check for sender {}: isMuted={}", userId, senderId, isMuted);
-                    
-                    if (!isMuted) {
-                        String userDestination = "/user/" + userId + "/family";
-                        messagingTemplate.convertAndSend(userDestination, messageData);
-                        broadcastCount++;
-                        logger.debug("✅ Broadcast family message to user {}", userId);
-                    } else {
-                        logger.debug("🔇 Skipped broadcasting family message to muted user {}", userId);
-                    }
+                    String userDestination = "/user/" + userId + "/family";
+                    messagingTemplate.send(userDestination, encoded);
+                    broadcastCount++;
+                    logger.debug("✅ Broadcast family message to user {}", userId);
                 } catch (Exception e) {
                     logger.error("Failed to broadcast to user {}: {}", userId, e.getMessage());
                     // Continue to other users even if one fails
@@ -140,13 +246,13 @@ public class WebSocketBroadcastService {
             }
             
             logger.debug("Successfully broadcast family message to {}/{} family members", 
-                broadcastCount, familyMemberIds.size());
+                broadcastCount, familyMemberIds.length);
             
             // Also broadcast to the legacy family topic for backward compatibility
             // This can be removed once all clients are updated
             String legacyDestination = "/family/" + familyId;
             try {
-                messagingTemplate.convertAndSend(legacyDestination, messageData);
+                messagingTemplate.send(legacyDestination, encoded);
                 logger.debug("Also broadcast to legacy destination: {}", legacyDestination);
             } catch (Exception e) {
                 logger.warn("Failed to broadcast to legacy destination {}: {}", legacyDestination, e.getMessage());
@@ -182,32 +288,28 @@ public class WebSocketBroadcastService {
     /**
      * Broadcast NEW MESSAGE to family members (main message feed)
      */
-    public void broadcastNewMessage(Map<String, Object> messageData, Long familyId) {
+    private void sendNewMessage(Map<String, Object> messageData, Long familyId) {
         try {
             messageData.put("type", "NEW_MESSAGE");
             messageData.put("family_id", familyId);
             
             logger.debug("Broadcasting NEW MESSAGE to family {} members", familyId);
             
-            // Use native SQL to avoid N+1 Hibernate queries
-            String sql = "SELECT user_id FROM user_family_membership WHERE family_id = ? AND is_active = true";
-            List<Long> familyMemberIds = jdbcTemplate.queryForList(sql, Long.class, familyId);
+            // Active members come from the in-memory social graph index (no SQL per post)
+            long[] familyMemberIds = socialGraphIndex.activeMembersOf(familyId);
+            Long senderId = ((Number) messageData.get("sender_id")).longValue();
             
+            // Only online members who haven't muted the sender (using member message settings)
+            long[] recipientIds = excludeMutedSender(presenceRegistry.onlineOnly(familyMemberIds), senderId);
+            logger.debug("🔇 NEW_MESSAGE: {} of {} members are online and haven't muted sender {}",
+                recipientIds.length, familyMemberIds.length, senderId);
+            
+            Message<?> encoded = encode(messageData);
             int broadcastCount = 0;
-            for (Long userId : familyMemberIds) {
-                // Check if this user has muted the message sender (using member message settings)
-                Long senderId = ((Number) messageData.get("sender_id")).longValue();
-                boolean userHasMutedSender = isRecipientMutedBySender(userId, senderId);
-                logger.debug("🔇 NEW_MESSAGE: User {} mute check for sender {}: isMuted={}", userId, senderId, userHasMutedSender);
-                
-                if (userHasMutedSender) {
-                    logger.debug("🔇 Skipping user {} - has muted sender {}", userId, senderId);
-                    continue;
-                }
-                
+            for (long userId : recipientIds) {
                 try {
                     String destination = "/user/" + userId + "/messages";
-                    messagingTemplate.convertAndSend(destination, messageData);
+                    messagingTemplate.send(destination, encoded);
                     broadcastCount++;
                     logger.debug("Broadcast NEW MESSAGE to user {}", userId);
                 } catch (Exception e) {
@@ -216,7 +318,7 @@ public class WebSocketBroadcastService {
             }
             
             logger.debug("Successfully broadcast NEW MESSAGE to {}/{} family members", 
-                broadcastCount, familyMemberIds.size());
+                broadcastCount, familyMemberIds.length);
             
         } catch (Exception e) {
             logger.error("Failed to broadcast new message to family {}: {}", familyId, e.getMessage(), e);
@@ -226,22 +328,20 @@ public class WebSocketBroadcastService {
     /**
      * Broadcast COMMENT to users viewing a specific thread
      */
-    public void broadcastComment(Map<String, Object> commentData, Long parentMessageId, Long familyId) {
+    private void sendComment(Map<String, Object> commentData, Long parentMessageId, Long familyId) {
         try {
             commentData.put("type", "COMMENT");
             commentData.put("parentMessageId", parentMessageId);
             commentData.put("family_id", familyId);
                         
-            List<Long> familyMemberIds = userFamilyMembershipRepository.findByFamilyId(familyId)
-                .stream()
-                .map(membership -> membership.getUserId())
-                .toList();
+            long[] familyMemberIds = socialGraphIndex.membersOf(familyId);
             
+            Message<?> encoded = encode(commentData);
             int broadcastCount = 0;
-            for (Long userId : familyMemberIds) {
+            for (long userId : presenceRegistry.onlineOnly(familyMemberIds)) {
                 try {
                     String destination = "/user/" + userId + "/comments/" + parentMessageId;
-                    messagingTemplate.convertAndSend(destination, commentData);
+                    messagingTemplate.send(destination, encoded);
                     broadcastCount++;
                     logger.debug("Broadcast COMMENT to user {} for thread {}", userId, parentMessageId);
                 } catch (Exception e) {
@@ -250,7 +350,7 @@ public class WebSocketBroadcastService {
             }
             
             logger.debug("Successfully broadcast COMMENT to {}/{} family members", 
-                broadcastCount, familyMemberIds.size());
+                broadcastCount, familyMemberIds.length);
             
         } catch (Exception e) {
             logger.error("Failed to broadcast comment for thread {}: {}", parentMessageId, e.getMessage(), e);
@@ -260,7 +360,7 @@ public class WebSocketBroadcastService {
     /**
      * Broadcast REACTION (like/love) to family members
      */
-    public void broadcastReaction(Map<String, Object> reactionData, Long messageId, Long familyId) {
+    private void sendReaction(Map<String, Object> reactionData, Long messageId, Long familyId) {
         try {
             reactionData.put("type", "REACTION");
             reactionData.put("messageId", messageId);
@@ -268,32 +368,17 @@ public class WebSocketBroadcastService {
             
             logger.debug("Broadcasting REACTION for message {} to family {} members", messageId, familyId);
             
-            List<Long> familyMemberIds = userFamilyMembershipRepository.findByFamilyId(familyId)
-                .stream()
-                .map(membership -> membership.getUserId())
-                .toList();
+            long[] familyMemberIds = socialGraphIndex.membersOf(familyId);
+            
+            // Online users who haven't muted reactions for this family
+            long[] recipientIds = excludeFamilyChannelMutes(presenceRegistry.onlineOnly(familyMemberIds), familyId, NotificationPreferenceIndex.Event.REACTIONS);
+            Message<?> encoded = encode(reactionData);
             
             int broadcastCount = 0;
-            for (Long userId : familyMemberIds) {
-                // Check if user has muted this family using matrix table
-                String familyMuteSql = """
-                    SELECT COUNT(*) FROM user_notification_matrix 
-                    WHERE user_id = ? 
-                    AND family_id = ? 
-                    AND member_id = 0 
-                    AND reactions_websocket = FALSE
-                """;
-                Integer muteCount = jdbcTemplate.queryForObject(familyMuteSql, Integer.class, userId, familyId);
-                boolean userHasMutedFamily = muteCount != null && muteCount > 0;
-                
-                if (userHasMutedFamily) {
-                    logger.debug("Skipping muted user {} for reaction", userId);
-                    continue;
-                }
-                
+            for (long userId : recipientIds) {
                 try {
                     String destination = "/user/" + userId + "/reactions";
-                    messagingTemplate.convertAndSend(destination, reactionData);
+                    messagingTemplate.send(destination, encoded);
                     broadcastCount++;
                     logger.debug("Broadcast REACTION to user {}", userId);
                 } catch (Exception e) {
@@ -302,7 +387,7 @@ public class WebSocketBroadcastService {
             }
             
             logger.debug("Successfully broadcast REACTION to {}/{} family members", 
-                broadcastCount, familyMemberIds.size());
+                broadcastCount, familyMemberIds.length);
             
         } catch (Exception e) {
             logger.error("Failed to broadcast reaction for message {}: {}", messageId, e.getMessage(), e);
@@ -312,7 +397,7 @@ public class WebSocketBroadcastService {
     /**
      * Broadcast COMMENT COUNT update to family members
      */
-    public void broadcastCommentCount(Long messageId, int commentCount, Long familyId) {
+    private void sendCommentCount(Long messageId, int commentCount, Long familyId) {
         try {
             Map<String, Object> commentCountData = Map.of(
                 "type", "COMMENT_COUNT",
@@ -323,34 +408,19 @@ public class WebSocketBroadcastService {
             
             logger.debug("Broadcasting COMMENT COUNT for message {} to family {} members", messageId, familyId);
             
-            List<Long> familyMemberIds = userFamilyMembershipRepository.findByFamilyId(familyId)
-                .stream()
-                .map(membership -> membership.getUserId())
-                .toList();
+            long[] familyMemberIds = socialGraphIndex.membersOf(familyId);
             
-            logger.debug("Found {} family members for family {}: {}", familyMemberIds.size(), familyId, familyMemberIds);
+            logger.debug("Found {} family members for family {}", familyMemberIds.length, familyId);
+            
+            // Online users who haven't muted comments for this family
+            long[] recipientIds = excludeFamilyChannelMutes(presenceRegistry.onlineOnly(familyMemberIds), familyId, NotificationPreferenceIndex.Event.COMMENTS);
+            Message<?> encoded = encode(commentCountData);
             
             int broadcastCount = 0;
-            for (Long userId : familyMemberIds) {
-                // Check if user has muted this family using matrix table
-                String familyMuteSql = """
-                    SELECT COUNT(*) FROM user_notification_matrix 
-                    WHERE user_id = ? 
-                    AND family_id = ? 
-                    AND member_id = 0 
-                    AND comments_websocket = FALSE
-                """;
-                Integer muteCount = jdbcTemplate.queryForObject(familyMuteSql, Integer.class, userId, familyId);
-                boolean userHasMutedFamily = muteCount != null && muteCount > 0;
-                
-                if (userHasMutedFamily) {
-                    logger.debug("Skipping muted user {} for comment count", userId);
-                    continue;
-                }
-                
+            for (long userId : recipientIds) {
                 try {
                     String destination = "/user/" + userId + "/comment-counts";
-                    messagingTemplate.convertAndSend(destination, commentCountData);
+                    messagingTemplate.send(destination, encoded);
                     broadcastCount++;
                     logger.debug("Broadcast COMMENT COUNT to user {} at destination {}", userId, destination);
                 } catch (Exception e) {
@@ -359,7 +429,7 @@ public class WebSocketBroadcastService {
             }
             
             logger.debug("Successfully broadcast COMMENT COUNT to {}/{} family members for family {}", 
-                broadcastCount, familyMemberIds.size(), familyId);
+                broadcastCount, familyMemberIds.length, familyId);
             
         } catch (Exception e) {
             logger.error("Failed to broadcast comment count for message {}: {}", messageId, e.getMessage(), e);
@@ -369,69 +439,61 @@ public class WebSocketBroadcastService {
     /**
      * Broadcast COMMENT COUNT update to family members excluding a specific user
      */
-    public void broadcastCommentCountExcludingUser(Long messageId, int commentCount, Long familyId, Long excludeUserId) {
+    private void sendCommentCountExcludingUser(Long messageId, int commentCount, Long familyId, Long excludeUserId) {
         try {
              
-            List<Long> familyMemberIds = userFamilyMembershipRepository.findByFamilyId(familyId)
-                .stream()
-                .map(membership -> membership.getUserId())
-                .filter(userId -> !userId.equals(excludeUserId))  // Exclude the specified user
-                .toList();
+            long[] familyMemberIds = Arrays.stream(socialGraphIndex.membersOf(familyId))
+                .filter(userId -> excludeUserId == null || userId != excludeUserId)  // Exclude the specified user
+                .toArray();
+            
+            logger.debug("Found {} family members for family {} (excluding user {})", 
+                familyMemberIds.length, familyId, excludeUserId);
+            
+            // Online users who haven't muted comments for this family
+            long[] onlineMemberIds = excludeFamilyChannelMutes(presenceRegistry.onlineOnly(familyMemberIds), familyId, NotificationPreferenceIndex.Event.COMMENTS);
+            if (onlineMemberIds.length == 0) {
+                return;
+            }
             
-            logger.debug("Found {} family members for family {} (excluding user {}): {}", 
-                familyMemberIds.size(), familyId, excludeUserId, familyMemberIds);
+            // Read status for every recipient in one query
+            Map<Long, Boolean> unreadByRecipient = new HashMap<>();
+            jdbcTemplate.query(COMMENT_COUNT_RECIPIENTS_SQL, rs -> {
+                Object hasUnread = rs.getObject("has_unread_comments");
+                // No read record (or no flag) counts as unread, since there are comments
+                unreadByRecipient.put(rs.getLong("user_id"), !Boolean.FALSE.equals(hasUnread));
+            }, Arrays.stream(onlineMemberIds).boxed().toArray(Long[]::new), messageId);
+            
+            // The payload only varies by has_unread_comments, so there are at most two encodings
+            Message<?>[] encodedByUnread = new Message<?>[2];
             
             int broadcastCount = 0;
-            for (Long userId : familyMemberIds) {
-                // Check if user has muted this family using matrix table
-                String familyMuteSql = """
-                    SELECT COUNT(*) FROM user_notification_matrix 
-                    WHERE user_id = ? 
-                    AND family_id = ? 
-                    AND member_id = 0 
-                    AND comments_websocket = FALSE
-                """;
-                Integer muteCount = jdbcTemplate.queryForObject(familyMuteSql, Integer.class, userId, familyId);
-                boolean userHasMutedFamily = muteCount != null && muteCount > 0;
-                
-                if (userHasMutedFamily) {
-                    logger.debug("Skipping muted user {} for comment count", userId);
-                    continue;
-                }
-                
+            for (Map.Entry<Long, Boolean> recipient : unreadByRecipient.entrySet()) {
+                Long userId = recipient.getKey();
+                boolean unread = recipient.getValue();
                 try {
                     String destination = "/user/" + userId + "/comment-counts";
-                    // Query user's read status for this message
-                    String readStatusSql = "SELECT has_unread_comments FROM user_message_read " +
-                                         "WHERE user_id = ? AND message_id = ?";
-                    Boolean hasUnreadComments;
-                    try {
-                        hasUnreadComments = jdbcTemplate.queryForObject(readStatusSql, Boolean.class, userId, messageId);
-                    } catch (Exception e) {
-                        // If no record exists, default to true (unread) since there are comments
-                        hasUnreadComments = true;
+                    int variant = unread ? 1 : 0;
+                    if (encodedByUnread[variant] == null) {
+                        encodedByUnread[variant] = encode(Map.of(
+                            "type", "COMMENT_COUNT",
+                            "messageId", messageId,
+                            "commentCount", commentCount,
+                            "family_id", familyId,
+                            "has_unread_comments", unread
+                        ));
                     }
                     
-                    // Create personalized payload for this user
-                    Map<String, Object> personalizedData = Map.of(
-                        "type", "COMMENT_COUNT",
-                        "messageId", messageId,
-                        "commentCount", commentCount,
-                        "family_id", familyId,
-                        "has_unread_comments", hasUnreadComments
-                    );
-                    
-                    messagingTemplate.convertAndSend(destination, personalizedData);
+                    messagingTemplate.send(destination, encodedByUnread[variant]);
                     broadcastCount++;
                     logger.debug("Broadcast COMMENT COUNT to user {} at destination {} (has_unread_comments: {})", 
-                               userId, destination, hasUnreadComments);
+                               userId, destination, unread);
                 } catch (Exception e) {
                     logger.error("Failed to broadcast comment count to user {}: {}", userId, e.getMessage());
                 }
             }
             
             logger.debug("Successfully broadcast COMMENT COUNT to {}/{} family members for family {} (excluding user {})", 
-                broadcastCount, familyMemberIds.size(), familyId, excludeUserId);
+                broadcastCount, familyMemberIds.length, familyId, excludeUserId);
             
         } catch (Exception e) {
             logger.error("Failed to broadcast comment count for message {}: {}", messageId, e.getMessage(), e);
@@ -441,7 +503,7 @@ public class WebSocketBroadcastService {
     /**
      * Broadcast INVITATION to a specific user
      */
-    public void broadcastInvitation(Map<String, Object> invitationData, Long userId) {
+    private void sendInvitation(Map<String, Object> invitationData, Long userId) {
         try {
             logger.info("*** BROADCAST_INVITATION: Starting broadcast to user {} ***", userId);
             logger.info("*** BROADCAST_INVITATION: Data: {} ***", invitationData);
@@ -0,0 +1,9 @@
+-- Access path for keyset (cursor) pagination of the family feed
+-- The feed walks message_family_link per family in descending message id order,
+-- so "WHERE family_id = ? AND message_id < ? ORDER BY message_id DESC LIMIT n"
+-- becomes a bounded index range scan regardless of how deep the client has scrolled
+
+CREATE INDEX IF NOT EXISTS idx_message_family_link_family_message
+    ON message_family_link (family_id, message_id DESC);
+
+COMMENT ON INDEX idx_message_family_link_family_message IS 'Keyset pagination path for the family feed (before=<messageId>)';
@@ -0,0 +1,16 @@
+-- Maintained per-family message counter
+-- Replaces "SELECT COUNT(*) FROM message WHERE family_id IN (...)" on every paged read.
+-- Incremented in the same transaction that writes message_family_link rows.
+
+ALTER TABLE family
+ADD COLUMN IF NOT EXISTS message_count BIGINT NOT NULL DEFAULT 0;
+
+-- Backfill from the link table (a message posted to several families counts once per family)
+UPDATE family f
+SET message_count = COALESCE((
+    SELECT COUNT(*)
+    FROM message_family_link mfl
+    WHERE mfl.family_id = f.id
+), 0);
+
+COMMENT ON COLUMN family.message_count IS 'Number of messages linked to this family (maintained on write via message_family_link)';
@@ -0,0 +1,54 @@
+-- Denormalized counters maintained on write, like message.like_count / love_count
+-- Replaces the per-request "LEFT JOIN (SELECT parent_message_id, COUNT(*) FROM message_comment GROUP BY ...)"
+-- aggregates and the correlated member COUNT(*) subqueries in family listings.
+-- CounterReconciliationService periodically repairs any drift.
+
+ALTER TABLE message
+ADD COLUMN IF NOT EXISTS comment_count INTEGER NOT NULL DEFAULT 0;
+
+-- parent_comment_id is mapped by MessageComment and read by the replies endpoint,
+-- but V12 recreated message_comment without it
+ALTER TABLE message_comment
+ADD COLUMN IF NOT EXISTS parent_comment_id BIGINT,
+ADD COLUMN IF NOT EXISTS reply_count INTEGER NOT NULL DEFAULT 0;
+
+CREATE INDEX IF NOT EXISTS idx_message_comment_parent_comment ON message_comment (parent_comment_id);
+
+ALTER TABLE family
+ADD COLUMN IF NOT EXISTS member_count INTEGER NOT NULL DEFAULT 0;
+
+-- Backfill comment counts
+UPDATE message m
+SET comment_count = cc.count
+FROM (
+    SELECT parent_message_id, COUNT(*) AS count
+    FROM message_comment
+    WHERE parent_message_id IS NOT NULL
+    GROUP BY parent_message_id
+) cc
+WHERE m.id = cc.parent_message_id;
+
+-- Backfill reply counts
+UPDATE message_comment mc
+SET reply_count = rc.count
+FROM (
+    SELECT parent_comment_id, COUNT(*) AS count
+    FROM message_comment
+    WHERE parent_comment_id IS NOT NULL
+    GROUP BY parent_comment_id
+) rc
+WHERE mc.id = rc.parent_comment_id;
+
+-- Backfill member counts (all membership rows, matching the previous COUNT(*) subqueries)
+UPDATE family f
+SET member_count = mc.count
+FROM (
+    SELECT family_id, COUNT(*) AS count
+    FROM user_family_membership
+    GROUP BY family_id
+) mc
+WHERE f.id = mc.family_id;
+
+COMMENT ON COLUMN message.comment_count IS 'Number of comments on this message (maintained on write)';
+COMMENT ON COLUMN message_comment.reply_count IS 'Number of replies to this comment (maintained on write)';
+COMMENT ON COLUMN family.member_count IS 'Number of user_family_membership rows for this family (maintained on write)';
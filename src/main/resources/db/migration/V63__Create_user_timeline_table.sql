@@ -0,0 +1,35 @@
+-- Per-user timeline for the family feed (fan-out on write)
+-- Rows are written after a message commits, one per member of each target family,
+-- so a feed page is a single (user_id, message_id DESC) range scan.
+-- Families above feed.timeline.fanout-threshold members are flagged fanout_on_read
+-- and read through message_family_link instead.
+-- Mutes are not applied here; the feed filters on sender_id at read time.
+
+CREATE TABLE IF NOT EXISTS user_timeline (
+    user_id BIGINT NOT NULL,
+    message_id BIGINT NOT NULL,
+    family_id BIGINT NOT NULL,
+    sender_id BIGINT,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, message_id),
+    CONSTRAINT fk_user_timeline_user FOREIGN KEY (user_id) REFERENCES app_user(id) ON DELETE CASCADE,
+    CONSTRAINT fk_user_timeline_message FOREIGN KEY (message_id) REFERENCES message(id) ON DELETE CASCADE,
+    CONSTRAINT fk_user_timeline_family FOREIGN KEY (family_id) REFERENCES family(id) ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS idx_user_timeline_message ON user_timeline (message_id);
+
+ALTER TABLE family
+ADD COLUMN IF NOT EXISTS fanout_on_read BOOLEAN NOT NULL DEFAULT false;
+
+-- Backfill timelines from existing links and memberships
+INSERT INTO user_timeline (user_id, message_id, family_id, sender_id, created_at)
+SELECT ufm.user_id, mfl.message_id, mfl.family_id, m.sender_id, COALESCE(m.timestamp, CURRENT_TIMESTAMP)
+FROM message_family_link mfl
+JOIN message m ON m.id = mfl.message_id
+JOIN user_family_membership ufm ON ufm.family_id = mfl.family_id
+ON CONFLICT (user_id, message_id) DO NOTHING;
+
+COMMENT ON TABLE user_timeline IS 'Fan-out-on-write feed entries, one row per (recipient, message)';
+COMMENT ON COLUMN user_timeline.sender_id IS 'Copied from message.sender_id so mute filtering does not need to join message';
+COMMENT ON COLUMN family.fanout_on_read IS 'Large family: messages are not fanned out to user_timeline and are read via message_family_link';
@@ -0,0 +1,11 @@
+-- Change sequence for conditional GETs (ETag / If-None-Match)
+-- family.feed_version is set from a global sequence whenever something visible in the family's
+-- feed changes (new message, reaction, comment), so feed and comment ETags can be derived from
+-- a handful of family rows instead of running the feed query.
+
+CREATE SEQUENCE IF NOT EXISTS family_feed_version_seq;
+
+ALTER TABLE family
+ADD COLUMN IF NOT EXISTS feed_version BIGINT NOT NULL DEFAULT 0;
+
+COMMENT ON COLUMN family.feed_version IS 'Bumped from family_feed_version_seq on message, reaction and comment writes; feeds ETags';
@@ -0,0 +1,21 @@
+-- Change tracking for the incremental /api/sync endpoint
+-- Reactions and comment counts change rows in place, so id watermarks can't see them.
+-- message.change_version and message_comment.change_version are set from the same
+-- family_feed_version_seq that drives feed ETags, so a single client watermark covers both.
+
+ALTER TABLE message
+ADD COLUMN IF NOT EXISTS change_version BIGINT NOT NULL DEFAULT 0;
+
+ALTER TABLE message_comment
+ADD COLUMN IF NOT EXISTS change_version BIGINT NOT NULL DEFAULT 0;
+
+CREATE INDEX IF NOT EXISTS idx_message_change_version ON message (change_version);
+CREATE INDEX IF NOT EXISTS idx_message_comment_change_version ON message_comment (change_version);
+
+-- New-comment and new-DM scans walk ids above the client's watermark
+CREATE INDEX IF NOT EXISTS idx_comment_family_link_family_comment
+    ON message_comment_family_link (family_id, message_comment_id);
+CREATE INDEX IF NOT EXISTS idx_dm_msg_conversation_id ON dm_message (conversation_id, id);
+
+COMMENT ON COLUMN message.change_version IS 'Set from family_feed_version_seq when reactions or comment counts change; /api/sync watermark';
+COMMENT ON COLUMN message_comment.change_version IS 'Set from family_feed_version_seq when reactions or replies change; /api/sync watermark';
@@ -0,0 +1,34 @@
+-- Transactional outbox for push notifications and emails
+-- Rows are inserted in the same transaction as the change that causes them and drained by
+-- NotificationOutbox workers, so a side effect is never lost when a node dies after commit.
+-- idempotency_key identifies the side effect (e.g. push:family-message:<message>:<family>);
+-- enqueuing the same key twice is a no-op.
+
+CREATE TABLE IF NOT EXISTS notification_outbox (
+    id BIGSERIAL PRIMARY KEY,
+    event_type VARCHAR(50) NOT NULL,
+    idempotency_key VARCHAR(255) NOT NULL,
+    payload JSONB NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INT NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    locked_until TIMESTAMP,
+    last_error TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    processed_at TIMESTAMP,
+    CONSTRAINT uq_notification_outbox_key UNIQUE (idempotency_key),
+    CONSTRAINT chk_notification_outbox_status CHECK (status IN ('PENDING', 'PROCESSING', 'DONE', 'DEAD'))
+);
+
+-- Claim scan: due pending rows, and processing rows whose worker lease ran out
+CREATE INDEX IF NOT EXISTS idx_notification_outbox_due
+    ON notification_outbox (next_attempt_at) WHERE status = 'PENDING';
+CREATE INDEX IF NOT EXISTS idx_notification_outbox_leased
+    ON notification_outbox (locked_until) WHERE status = 'PROCESSING';
+
+-- Retention cleanup of delivered rows
+CREATE INDEX IF NOT EXISTS idx_notification_outbox_processed
+    ON notification_outbox (processed_at) WHERE status = 'DONE';
+
+COMMENT ON TABLE notification_outbox IS 'Pending push/email side effects, written in the originating transaction';
+COMMENT ON COLUMN notification_outbox.status IS 'PENDING (waiting or retrying), PROCESSING (leased by a worker), DONE, DEAD (retries exhausted)';
@@ -0,0 +1,5 @@
+-- Cursor-mode feed pages count each message's reactions by target_message_id;
+-- the only existing reaction index is on the legacy message_id column.
+CREATE INDEX IF NOT EXISTS idx_message_reaction_target_message
+    ON message_reaction (target_message_id)
+    WHERE target_type = 'MESSAGE';
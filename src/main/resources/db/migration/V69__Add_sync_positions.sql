@@ -0,0 +1,33 @@
+-- Commit-safe watermarks for the incremental /api/sync endpoint
+-- A message id says nothing about when its timeline rows appeared: fan-out runs after commit,
+-- the repair job and member backfill write rows later still, and messages commit out of id order.
+-- Each user_timeline and message_family_link row now takes a sync_version from the shared feed
+-- sequence when it is written, and /api/sync walks that instead of message ids.
+--
+-- A sequence value is taken before its transaction commits, so a higher value can be visible
+-- while a lower one is not yet. sync_sequence_checkpoint samples the sync sequences every few
+-- seconds; sync never hands out a watermark past the values sampled sync.settle-margin-ms ago,
+-- by which time the transactions holding lower values have finished.
+--
+-- The columns are added nullable and without a default, which only touches the catalog; a volatile
+-- default would rewrite both tables under an ACCESS EXCLUSIVE lock. V72 sets the default and
+-- backfills in batches, V73 makes the columns NOT NULL. Rows still NULL in between are not synced.
+
+ALTER TABLE user_timeline
+ADD COLUMN IF NOT EXISTS sync_version BIGINT;
+
+ALTER TABLE message_family_link
+ADD COLUMN IF NOT EXISTS sync_version BIGINT;
+
+CREATE TABLE IF NOT EXISTS sync_sequence_checkpoint (
+    taken_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    feed_version BIGINT NOT NULL,
+    comment_id BIGINT NOT NULL,
+    dm_message_id BIGINT NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_sync_sequence_checkpoint_taken_at ON sync_sequence_checkpoint (taken_at);
+
+COMMENT ON COLUMN user_timeline.sync_version IS 'Taken from family_feed_version_seq when the row is written; /api/sync new-message watermark';
+COMMENT ON COLUMN message_family_link.sync_version IS 'Taken from family_feed_version_seq when the link is written; /api/sync watermark for read-time fan-out families';
+COMMENT ON TABLE sync_sequence_checkpoint IS 'Periodic samples of the sync sequences; caps /api/sync watermarks at values whose transactions have finished';
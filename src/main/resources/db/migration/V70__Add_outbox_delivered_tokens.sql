@@ -0,0 +1,8 @@
+-- Per-token progress for push events in the notification outbox
+-- A failed attempt records the device tokens it already delivered to (or found stale), and the
+-- retry sends only to the rest instead of repeating the push for every recipient.
+
+ALTER TABLE notification_outbox
+    ADD COLUMN IF NOT EXISTS delivered_tokens TEXT[] NOT NULL DEFAULT '{}';
+
+COMMENT ON COLUMN notification_outbox.delivered_tokens IS 'Push tokens already delivered (or cleared as stale) by earlier attempts; skipped on retry';
@@ -0,0 +1,46 @@
+-- Fill in the sync_version columns V69 added, without locking user_timeline or message_family_link
+-- Runs outside a transaction (V72__Backfill_sync_positions.sql.conf): each batch commits on its
+-- own, so no row lock is held longer than one batch, and the indexes are built CONCURRENTLY.
+
+-- New rows take their position as they are written; only the catalog changes
+ALTER TABLE user_timeline ALTER COLUMN sync_version SET DEFAULT nextval('family_feed_version_seq');
+ALTER TABLE message_family_link ALTER COLUMN sync_version SET DEFAULT nextval('family_feed_version_seq');
+
+-- Existing rows, a range of the primary key at a time
+DO $$
+DECLARE
+    next_user BIGINT := 0;
+    max_user BIGINT;
+BEGIN
+    SELECT COALESCE(MAX(user_id), 0) INTO max_user FROM user_timeline;
+    WHILE next_user <= max_user LOOP
+        UPDATE user_timeline SET sync_version = nextval('family_feed_version_seq')
+        WHERE user_id >= next_user AND user_id < next_user + 100 AND sync_version IS NULL;
+        COMMIT;
+        next_user := next_user + 100;
+    END LOOP;
+END $$;
+
+DO $$
+DECLARE
+    next_id BIGINT := 0;
+    max_id BIGINT;
+BEGIN
+    SELECT COALESCE(MAX(id), 0) INTO max_id FROM message_family_link;
+    WHILE next_id <= max_id LOOP
+        UPDATE message_family_link SET sync_version = nextval('family_feed_version_seq')
+        WHERE id >= next_id AND id < next_id + 10000 AND sync_version IS NULL;
+        COMMIT;
+        next_id := next_id + 10000;
+    END LOOP;
+END $$;
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_user_timeline_user_sync_version ON user_timeline (user_id, sync_version);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_message_family_link_family_sync_version ON message_family_link (family_id, sync_version);
+
+-- Everything written before the backfill finished has committed
+INSERT INTO sync_sequence_checkpoint (taken_at, feed_version, comment_id, dm_message_id)
+SELECT CURRENT_TIMESTAMP - INTERVAL '1 day',
+       (SELECT last_value FROM family_feed_version_seq),
+       (SELECT last_value FROM message_comment_id_seq),
+       (SELECT last_value FROM dm_message_id_seq);
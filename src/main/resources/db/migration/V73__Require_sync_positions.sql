@@ -0,0 +1,16 @@
+-- sync_version is set on every row since V72; make the columns NOT NULL
+-- SET NOT NULL on its own scans the table under ACCESS EXCLUSIVE. Validating a NOT VALID check
+-- first scans under SHARE UPDATE EXCLUSIVE (reads and writes continue), and SET NOT NULL then
+-- uses the validated check instead of scanning.
+
+ALTER TABLE user_timeline
+ADD CONSTRAINT user_timeline_sync_version_not_null CHECK (sync_version IS NOT NULL) NOT VALID;
+ALTER TABLE user_timeline VALIDATE CONSTRAINT user_timeline_sync_version_not_null;
+ALTER TABLE user_timeline ALTER COLUMN sync_version SET NOT NULL;
+ALTER TABLE user_timeline DROP CONSTRAINT user_timeline_sync_version_not_null;
+
+ALTER TABLE message_family_link
+ADD CONSTRAINT message_family_link_sync_version_not_null CHECK (sync_version IS NOT NULL) NOT VALID;
+ALTER TABLE message_family_link VALIDATE CONSTRAINT message_family_link_sync_version_not_null;
+ALTER TABLE message_family_link ALTER COLUMN sync_version SET NOT NULL;
+ALTER TABLE message_family_link DROP CONSTRAINT message_family_link_sync_version_not_null;
@@ -0,0 +1,201 @@
+package com.familynest.benchmark;
+
+import com.familynest.FamilynestBackendApplication;
+import com.familynest.service.NotificationOutbox;
+import com.familynest.service.NotificationPreferenceIndex;
+import com.familynest.service.PushDelivery;
+import com.familynest.service.PushNotificationService;
+import com.familynest.service.PushTransport;
+import com.familynest.service.SocialGraphIndex;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Push notification throughput versus family size, with FCM replaced by LocalPushTransport.
+ *
+ * Boots the application (dev profile, push.transport=local) against a local PostgreSQL database
+ * and seeds one family each of 10, 100 and 1000 members, every member with an FCM token and push
+ * enabled. For each family it measures:
+ * - recipient resolution: sendFamilyMessageNotification called directly, one message at a time;
+ *   the cost is PushNotificationService's own timing of the recipient lookup (social graph,
+ *   presence and preference indexes plus the token query)
+ * - end to end: pushbench.events family-message pushes enqueued on the NotificationOutbox at once,
+ *   timed until the workers have delivered (or dead-lettered) all of them
+ *
+ * The stub sleeps pushbench.latency-ms per FCM request, so outbox.workers and
+ * push.multicast.concurrency can be sized against a realistic round trip; pass them as extra
+ * arguments, e.g. --outbox.workers=16 --push.multicast.concurrency=8. Seeded rows use ids from
+ * 900000000 up and are reused across runs, so point it at a scratch database. Run with:
+ *   java -Dloadtest.db.url=jdbc:postgresql://localhost:5432/familynest_loadtest \
+ *        -cp target/test-classes:target/classes:<dependency classpath> com.familynest.benchmark.PushThroughputBenchmark
+ *
+ * Settings (system properties): loadtest.db.url, loadtest.db.user, loadtest.db.password,
+ * pushbench.latency-ms, pushbench.resolve-iterations, pushbench.events, pushbench.timeout-ms,
+ * pushbench.coalesce-window-ms (0 by default, so every message is sent; with a window the
+ * pushes/s column shows what coalescing leaves).
+ */
+public class PushThroughputBenchmark {
+
+    private static final int[] FAMILY_SIZES = {10, 100, 1000};
+
+    private static final String DB_URL = System.getProperty("loadtest.db.url", "jdbc:postgresql://localhost:5432/familynest_loadtest");
+    private static final String DB_USER = System.getProperty("loadtest.db.user", "postgres");
+    private static final String DB_PASSWORD = System.getProperty("loadtest.db.password", "postgres");
+    private static final long LATENCY_MS = Long.getLong("pushbench.latency-ms", 40L);
+    private static final int RESOLVE_ITERATIONS = Integer.getInteger("pushbench.resolve-iterations", 200);
+    private static final int EVENTS = Integer.getInteger("pushbench.events", 500);
+    private static final long TIMEOUT_MS = Long.getLong("pushbench.timeout-ms", 300_000L);
+    // Coalescing is off by default so every message is a send; set it to see the reduction
+    private static final long COALESCE_WINDOW_MS = Long.getLong("pushbench.coalesce-window-ms", 0L);
+
+    private static final long ID_BASE = 900_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        List<String> appArgs = new ArrayList<>(List.of(
+            "--server.port=0",
+            "--spring.datasource.url=" + DB_URL,
+            "--spring.datasource.driverClassName=org.postgresql.Driver",
+            "--spring.datasource.username=" + DB_USER,
+            "--spring.datasource.password=" + DB_PASSWORD,
+            "--spring.jpa.database-platform=org.hibernate.dialect.PostgreSQLDialect",
+            "--websocket.relay.mode=local",
+            "--push.transport=local",
+            "--push.local.latency-ms=" + LATENCY_MS,
+            "--push.coalesce.window-ms=" + COALESCE_WINDOW_MS,
+            "--logging.level.com.familynest=WARN"));
+        appArgs.addAll(Arrays.asList(args));
+
+        SpringApplication application = new SpringApplication(FamilynestBackendApplication.class);
+        application.setAdditionalProfiles("dev");
+        try (ConfigurableApplicationContext context = application.run(appArgs.toArray(new String[0]))) {
+            run(context);
+        }
+    }
+
+    private static void run(ConfigurableApplicationContext context) throws Exception {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        PushNotificationService pushNotificationService = context.getBean(PushNotificationService.class);
+        NotificationOutbox notificationOutbox = context.getBean(NotificationOutbox.class);
+        PushTransport pushTransport = context.getBean(PushTransport.class);
+
+        for (int members : FAMILY_SIZES) {
+            seedFamily(jdbcTemplate, members);
+        }
+        context.getBean(SocialGraphIndex.class).reload();
+        context.getBean(NotificationPreferenceIndex.class).reload();
+
+        // Warm up the lookup path (JIT, connection pool) on the middle family
+        for (Long messageId : newMessages(jdbcTemplate, 100, 50)) {
+            pushNotificationService.sendFamilyMessageNotification(messageId, familyId(100), "Bench", "warmup", PushDelivery.first());
+        }
+
+        System.out.printf("%nTransport latency %dms, %s outbox workers, %s multicast threads%n", LATENCY_MS,
+            context.getEnvironment().getProperty("outbox.workers", "4"),
+            context.getEnvironment().getProperty("push.multicast.concurrency", "4"));
+        System.out.printf("%-8s %14s %14s %12s %14s %12s %12s%n",
+            "members", "resolve us", "direct ms/msg", "events/s", "pushes/s", "requests", "maxInFlight");
+        for (int members : FAMILY_SIZES) {
+            Long familyId = familyId(members);
+
+            // Recipient resolution and the synchronous send path, one message at a time
+            Map<String, Object> before = pushNotificationService.getStats();
+            long directStartedAt = System.nanoTime();
+            for (Long messageId : newMessages(jdbcTemplate, members, RESOLVE_ITERATIONS)) {
+                pushNotificationService.sendFamilyMessageNotification(messageId, familyId, "Bench", "resolve", PushDelivery.first());
+            }
+            double directMs = (System.nanoTime() - directStartedAt) / 1e6 / RESOLVE_ITERATIONS;
+            Map<String, Object> after = pushNotificationService.getStats();
+            long resolutions = delta(before, after, "recipientResolutions");
+            double resolveMicros = resolutions == 0 ? 0 : (double) delta(before, after, "totalResolveMicros") / resolutions;
+
+            // End to end through the outbox workers
+            List<Long> messageIds = newMessages(jdbcTemplate, members, EVENTS);
+            Map<String, Object> outboxBefore = notificationOutbox.getStats();
+            Map<String, Object> transportBefore = pushTransport.getStats();
+            long startedAt = System.nanoTime();
+            for (Long messageId : messageIds) {
+                notificationOutbox.enqueueFamilyMessagePush(messageId, familyId, "Bench", "throughput");
+            }
+            boolean drained = waitForOutbox(notificationOutbox, outboxBefore, EVENTS);
+            double seconds = (System.nanoTime() - startedAt) / 1e9;
+            Map<String, Object> transportAfter = pushTransport.getStats();
+
+            System.out.printf("%-8d %14.1f %14.2f %12.1f %14.1f %12d %12s%s%n", members, resolveMicros, directMs,
+                EVENTS / seconds, delta(transportBefore, transportAfter, "tokensDelivered") / seconds,
+                delta(transportBefore, transportAfter, "requests"), transportAfter.get("maxInFlight"),
+                drained ? "" : "  (timed out)");
+        }
+
+        System.out.printf("%nPush stats: %s%nOutbox stats: %s%n", pushNotificationService.getStats(), notificationOutbox.getStats());
+    }
+
+    private static Long familyId(int members) {
+        return ID_BASE + members;
+    }
+
+    private static long firstUserId(int members) {
+        return ID_BASE + members * 10_000L + 1;
+    }
+
+    /**
+     * One family of the given size; every member has a token and a global matrix row with push on
+     */
+    private static void seedFamily(JdbcTemplate jdbcTemplate, int members) {
+        long firstUserId = firstUserId(members);
+        long lastUserId = firstUserId + members - 1;
+        jdbcTemplate.update("""
+            INSERT INTO app_user (id, username, password, email, first_name, last_name, role, fcm_token)
+            SELECT id, 'pushbench_' || id, 'x', 'pushbench_' || id || '@example.com', 'Push', 'Bench', 'USER', 'bench-token-' || id
+            FROM generate_series(?::bigint, ?::bigint) AS id
+            ON CONFLICT (id) DO UPDATE SET fcm_token = EXCLUDED.fcm_token
+            """, firstUserId, lastUserId);
+        jdbcTemplate.update("INSERT INTO family (id, name, created_by) VALUES (?, ?, ?) ON CONFLICT (id) DO NOTHING",
+            familyId(members), "Push bench " + members, firstUserId);
+        jdbcTemplate.update("""
+            INSERT INTO user_family_membership (family_id, user_id, role, is_active, joined_at)
+            SELECT ?, id, 'MEMBER', true, NOW()
+            FROM generate_series(?::bigint, ?::bigint) AS id
+            ON CONFLICT (user_id, family_id) DO NOTHING
+            """, familyId(members), firstUserId, lastUserId);
+        jdbcTemplate.update("""
+            INSERT INTO user_notification_matrix (user_id, family_id, member_id, push_enabled, device_permission_granted)
+            SELECT id, 0, 0, TRUE, TRUE
+            FROM generate_series(?::bigint, ?::bigint) AS id
+            ON CONFLICT (user_id, family_id, member_id) DO UPDATE SET push_enabled = TRUE, device_permission_granted = TRUE
+            """, firstUserId, lastUserId);
+    }
+
+    /**
+     * Fresh messages from the family's first member, so outbox idempotency keys don't collide with earlier runs
+     */
+    private static List<Long> newMessages(JdbcTemplate jdbcTemplate, int members, int count) {
+        long senderId = firstUserId(members);
+        return jdbcTemplate.queryForList("""
+            INSERT INTO message (content, user_id, sender_id, sender_username, like_count, love_count)
+            SELECT 'push bench', ?, ?, ?, 0, 0 FROM generate_series(1, ?)
+            RETURNING id
+            """, Long.class, senderId, senderId, "pushbench_" + senderId, count);
+    }
+
+    private static boolean waitForOutbox(NotificationOutbox outbox, Map<String, Object> before, int events) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            Map<String, Object> now = outbox.getStats();
+            if (delta(before, now, "delivered") + delta(before, now, "deadLettered") >= events) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    private static long delta(Map<String, Object> before, Map<String, Object> after, String key) {
+        return ((Number) after.get(key)).longValue() - ((Number) before.get(key)).longValue();
+    }
+}
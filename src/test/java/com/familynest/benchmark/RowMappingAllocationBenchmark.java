@@ -0,0 +1,187 @@
+package com.familynest.benchmark;
+
+import com.familynest.dto.FeedMessageDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Allocation-per-row benchmark for the family feed mapping: queryForList + HashMap copy (old path)
+ * versus FeedMessageDTO.ROW_MAPPER (new path), with and without JSON serialization.
+ *
+ * JMH is not on this project's classpath, so this measures allocated bytes per thread with
+ * com.sun.management.ThreadMXBean after a warm-up. Run from the IDE or with:
+ *   java -cp target/test-classes:target/classes:<dependency classpath> com.familynest.benchmark.RowMappingAllocationBenchmark
+ */
+public class RowMappingAllocationBenchmark {
+
+    private static final int ROWS_PER_PAGE = 100;
+    private static final int WARMUP_PAGES = 20_000;
+    private static final int MEASURED_PAGES = 20_000;
+
+    // Keeps results reachable so the JIT cannot drop the work
+    private static volatile Object blackhole;
+
+    private static final Map<String, Object> ROW = new LinkedHashMap<>();
+    static {
+        ROW.put("id", 123456L);
+        ROW.put("content", "Dinner at grandma's on Sunday, bring the kids!");
+        ROW.put("sender_username", "jdoe");
+        ROW.put("sender_id", 42L);
+        ROW.put("timestamp", new Timestamp(1_700_000_000_000L));
+        ROW.put("media_type", "photo");
+        ROW.put("media_url", "/uploads/images/1700000000000_photo.jpg");
+        ROW.put("thumbnail_url", null);
+        ROW.put("local_media_path", null);
+        ROW.put("sender_photo", "/uploads/photos/42.jpg");
+        ROW.put("sender_first_name", "Jane");
+        ROW.put("sender_last_name", "Doe");
+        ROW.put("like_count", 3);
+        ROW.put("love_count", 1);
+        ROW.put("comment_count", 5);
+        ROW.put("has_unread_comments", true);
+        ROW.put("is_liked", false);
+        ROW.put("is_loved", true);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ResultSet rs = fakeResultSet();
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        Scenario mapPath = () -> mapPage(rs);
+        Scenario recordPath = () -> recordPage(rs);
+        Scenario mapPathJson = () -> objectMapper.writeValueAsBytes(mapPage(rs));
+        Scenario recordPathJson = () -> objectMapper.writeValueAsBytes(recordPage(rs));
+
+        System.out.printf("%-28s %14s %12s%n", "scenario", "bytes/row", "ns/row");
+        run("queryForList + HashMap", mapPath);
+        run("RowMapper -> record", recordPath);
+        run("queryForList + HashMap + JSON", mapPathJson);
+        run("RowMapper -> record + JSON", recordPathJson);
+    }
+
+    /**
+     * What getMessages did before: ColumnMapRowMapper per row, then a HashMap copy with renamed keys
+     */
+    private static List<Map<String, Object>> mapPage(ResultSet rs) throws Exception {
+        ColumnMapRowMapper columnMapRowMapper = new ColumnMapRowMapper();
+        List<Map<String, Object>> results = new ArrayList<>(ROWS_PER_PAGE);
+        for (int i = 0; i < ROWS_PER_PAGE; i++) {
+            results.add(columnMapRowMapper.mapRow(rs, i));
+        }
+
+        List<Map<String, Object>> response = new ArrayList<>(ROWS_PER_PAGE);
+        for (Map<String, Object> message : results) {
+            Map<String, Object> messageMap = new HashMap<>();
+            messageMap.put("id", message.get("id"));
+            messageMap.put("content", message.get("content"));
+            messageMap.put("senderUsername", message.get("sender_username"));
+            messageMap.put("senderId", message.get("sender_id"));
+            messageMap.put("senderPhoto", message.get("sender_photo"));
+            messageMap.put("senderFirstName", message.get("sender_first_name"));
+            messageMap.put("senderLastName", message.get("sender_last_name"));
+            messageMap.put("familyId", message.get("family_id"));
+            messageMap.put("familyName", message.get("family_name"));
+            messageMap.put("timestamp", message.get("timestamp").toString());
+            messageMap.put("mediaType", message.get("media_type"));
+            messageMap.put("mediaUrl", message.get("media_url"));
+            messageMap.put("localMediaPath", message.get("local_media_path"));
+            messageMap.put("likeCount", message.get("like_count"));
+            messageMap.put("loveCount", message.get("love_count"));
+            messageMap.put("commentCount", message.get("comment_count"));
+            messageMap.put("has_unread_comments", message.get("has_unread_comments"));
+            messageMap.put("isLiked", message.get("is_liked"));
+            messageMap.put("isLoved", message.get("is_loved"));
+            messageMap.put("thumbnailUrl", message.get("thumbnail_url"));
+            response.add(messageMap);
+        }
+        return response;
+    }
+
+    private static List<FeedMessageDTO> recordPage(ResultSet rs) throws Exception {
+        List<FeedMessageDTO> response = new ArrayList<>(ROWS_PER_PAGE);
+        for (int i = 0; i < ROWS_PER_PAGE; i++) {
+            response.add(FeedMessageDTO.ROW_MAPPER.mapRow(rs, i));
+        }
+        return response;
+    }
+
+    private static void run(String name, Scenario scenario) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_PAGES; i++) {
+            blackhole = scenario.runPage();
+        }
+
+        long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_PAGES; i++) {
+            blackhole = scenario.runPage();
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+        long rows = (long) MEASURED_PAGES * ROWS_PER_PAGE;
+        System.out.printf("%-28s %14.1f %12.1f%n", name, (double) bytes / rows, (double) elapsed / rows);
+    }
+
+    @FunctionalInterface
+    private interface Scenario {
+        Object runPage() throws Exception;
+    }
+
+    /**
+     * A single-row ResultSet that always returns the same values, enough for ColumnMapRowMapper and the record mappers
+     */
+    private static ResultSet fakeResultSet() {
+        List<String> columns = new ArrayList<>(ROW.keySet());
+        boolean[] lastWasNull = new boolean[1];
+
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+            RowMappingAllocationBenchmark.class.getClassLoader(),
+            new Class<?>[] { ResultSetMetaData.class },
+            (proxy, method, args) -> switch (method.getName()) {
+                case "getColumnCount" -> columns.size();
+                case "getColumnLabel", "getColumnName" -> columns.get((Integer) args[0] - 1);
+                case "getColumnType" -> Types.OTHER;
+                case "getColumnClassName" -> Object.class.getName();
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+
+        return (ResultSet) Proxy.newProxyInstance(
+            RowMappingAllocationBenchmark.class.getClassLoader(),
+            new Class<?>[] { ResultSet.class },
+            (proxy, method, args) -> {
+                String name = method.getName();
+                if (name.equals("getMetaData")) {
+                    return metaData;
+                }
+                if (name.equals("wasNull")) {
+                    return lastWasNull[0];
+                }
+                Object value = args != null && args.length == 1
+                    ? (args[0] instanceof Integer index ? ROW.get(columns.get(index - 1)) : ROW.get((String) args[0]))
+                    : null;
+                lastWasNull[0] = value == null;
+                return switch (name) {
+                    case "getObject", "getString", "getTimestamp" -> value;
+                    case "getLong" -> value == null ? 0L : ((Number) value).longValue();
+                    case "getInt" -> value == null ? 0 : ((Number) value).intValue();
+                    case "getBoolean" -> value != null && (Boolean) value;
+                    default -> throw new UnsupportedOperationException(name);
+                };
+            });
+    }
+}
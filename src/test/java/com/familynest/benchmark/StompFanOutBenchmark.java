@@ -0,0 +1,106 @@
+package com.familynest.benchmark;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.ByteArrayMessageConverter;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cost of one family broadcast versus family size: convertAndSend per recipient (old path, Jackson
+ * runs once per member) versus encoding the payload once and sending the shared Message to every
+ * member destination (WebSocketBroadcastService.encode).
+ *
+ * The template writes to a channel that only counts messages, so this isolates conversion and
+ * header work from the broker. Converters match what the STOMP broker configuration registers.
+ * Run from the IDE or with:
+ *   java -cp target/test-classes:target/classes:<dependency classpath> com.familynest.benchmark.StompFanOutBenchmark
+ */
+public class StompFanOutBenchmark {
+
+    private static final int[] FAMILY_SIZES = {10, 100, 1000};
+    private static final int WARMUP_RECIPIENTS = 2_000_000;
+    private static final int MEASURED_RECIPIENTS = 2_000_000;
+
+    private static long delivered;
+
+    public static void main(String[] args) {
+        MessageChannel countingChannel = (message, timeout) -> {
+            delivered++;
+            return true;
+        };
+        SimpMessagingTemplate template = new SimpMessagingTemplate(countingChannel);
+        template.setMessageConverter(new CompositeMessageConverter(List.of(
+            new StringMessageConverter(), new ByteArrayMessageConverter(), new MappingJackson2MessageConverter())));
+
+        Map<String, Object> payload = newMessagePayload();
+
+        System.out.printf("%-8s %-22s %14s %14s%n", "members", "path", "ns/recipient", "bytes/recipient");
+        for (int members : FAMILY_SIZES) {
+            run(members, "convertAndSend each", () -> {
+                for (int userId = 1; userId <= members; userId++) {
+                    template.convertAndSend("/user/" + userId + "/messages", payload);
+                }
+            });
+            run(members, "encode once + send", () -> {
+                Message<?> encoded = template.getMessageConverter().toMessage(payload, null);
+                for (int userId = 1; userId <= members; userId++) {
+                    template.send("/user/" + userId + "/messages", encoded);
+                }
+            });
+        }
+        System.out.println("(" + delivered + " messages delivered)");
+    }
+
+    private static void run(int members, String name, Runnable fanOut) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int iterations = Math.max(1, MEASURED_RECIPIENTS / members);
+
+        for (int i = 0; i < Math.max(1, WARMUP_RECIPIENTS / members); i++) {
+            fanOut.run();
+        }
+
+        long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            fanOut.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+        long recipients = (long) iterations * members;
+        System.out.printf("%-8d %-22s %14.1f %14.1f%n", members, name, (double) elapsed / recipients, (double) bytes / recipients);
+    }
+
+    /**
+     * Roughly what UserController.postMessage broadcasts as NEW_MESSAGE
+     */
+    private static Map<String, Object> newMessagePayload() {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("type", "NEW_MESSAGE");
+        payload.put("id", 123456L);
+        payload.put("content", "Dinner at grandma's on Sunday, bring the kids!");
+        payload.put("sender_id", 42L);
+        payload.put("sender_username", "jdoe");
+        payload.put("sender_first_name", "Jane");
+        payload.put("sender_last_name", "Doe");
+        payload.put("sender_photo", "/uploads/photos/42.jpg");
+        payload.put("timestamp", "2024-11-14T18:30:00");
+        payload.put("media_type", "photo");
+        payload.put("media_url", "/uploads/images/1700000000000_photo.jpg");
+        payload.put("thumbnail_url", null);
+        payload.put("like_count", 0);
+        payload.put("love_count", 0);
+        payload.put("comment_count", 0);
+        payload.put("family_id", 7L);
+        return payload;
+    }
+}
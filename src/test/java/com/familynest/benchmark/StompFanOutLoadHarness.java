@@ -0,0 +1,325 @@
+package com.familynest.benchmark;
+
+import com.familynest.FamilynestBackendApplication;
+import com.familynest.auth.JwtUtil;
+import com.familynest.config.SlowConsumerGuard;
+import com.familynest.service.BroadcastDispatcher;
+import com.familynest.service.PresenceRegistry;
+import com.familynest.util.LargeDatasetLoader;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End-to-end WebSocket delivery under load: post-to-delivery latency and throughput for the
+ * broadcasts in WebSocketBroadcastService, so changes to the fan-out path can be compared.
+ *
+ * Boots the application (dev profile) on a random port against a local PostgreSQL database,
+ * seeds it with LargeDatasetLoader, then picks the family with the most members and connects one
+ * STOMP client per member (up to loadtest.clients) to /ws, subscribed to /user/{id}/messages,
+ * /reactions and /comment-counts. Posts are sent through POST /api/users/{id}/messages at a fixed
+ * rate from rotating members; every loadtest.like-every'th post is also liked by another member
+ * to exercise /reactions. Each post carries a sequence tag in its content, so a delivered frame is
+ * matched to the moment its request was sent.
+ *
+ * Clients and server share the JVM (and its CPU), so absolute numbers are pessimistic; compare
+ * runs on the same machine. The database is rewritten by the loader, so point it at a scratch
+ * database. Run with:
+ *   java -Dloadtest.db.url=jdbc:postgresql://localhost:5432/familynest_loadtest \
+ *        -cp target/test-classes:target/classes:<dependency classpath> com.familynest.benchmark.StompFanOutLoadHarness
+ * Extra arguments are passed to the application, e.g. --websocket.coalesce.window-ms=0
+ *
+ * Settings (system properties): loadtest.db.url, loadtest.db.user, loadtest.db.password,
+ * loadtest.dataset (large | ui), loadtest.clients, loadtest.posts, loadtest.rate (posts/second),
+ * loadtest.like-every (0 disables likes), loadtest.drain-ms (how long to wait for late frames).
+ */
+public class StompFanOutLoadHarness {
+
+    private static final String DB_URL = System.getProperty("loadtest.db.url", "jdbc:postgresql://localhost:5432/familynest_loadtest");
+    private static final String DB_USER = System.getProperty("loadtest.db.user", "postgres");
+    private static final String DB_PASSWORD = System.getProperty("loadtest.db.password", "postgres");
+    private static final String DATASET = System.getProperty("loadtest.dataset", "ui");
+    private static final int CLIENTS = Integer.getInteger("loadtest.clients", 200);
+    private static final int POSTS = Integer.getInteger("loadtest.posts", 500);
+    private static final int RATE = Integer.getInteger("loadtest.rate", 20);
+    private static final int LIKE_EVERY = Integer.getInteger("loadtest.like-every", 5);
+    private static final long DRAIN_MS = Long.getLong("loadtest.drain-ms", 5000L);
+
+    private static final Pattern SEQUENCE_TAG = Pattern.compile("\\[lt:(\\d+)]");
+
+    // Request send times (System.nanoTime) by post sequence and by liked message id
+    private static final Map<Long, Long> postSentAt = new ConcurrentHashMap<>();
+    private static final Map<Long, Long> likeSentAt = new ConcurrentHashMap<>();
+
+    private static final Channel messages = new Channel("messages");
+    private static final Channel reactions = new Channel("reactions");
+    private static final Channel commentCounts = new Channel("comment-counts");
+    private static final ConcurrentLinkedQueue<Long> postRequestMicros = new ConcurrentLinkedQueue<>();
+    private static final AtomicLong postFailures = new AtomicLong();
+    private static final AtomicLong likeFailures = new AtomicLong();
+
+    /**
+     * Frames received on one subscription type across all clients
+     */
+    private static final class Channel {
+        final String name;
+        final AtomicLong frames = new AtomicLong();
+        final AtomicLong unmatched = new AtomicLong();
+        final ConcurrentLinkedQueue<Long> latencyMicros = new ConcurrentLinkedQueue<>();
+        final AtomicLong lastReceivedAt = new AtomicLong();
+
+        Channel(String name) {
+            this.name = name;
+        }
+
+        void record(Long sentAt) {
+            long now = System.nanoTime();
+            frames.incrementAndGet();
+            lastReceivedAt.accumulateAndGet(now, Math::max);
+            if (sentAt == null) {
+                unmatched.incrementAndGet();
+            } else {
+                latencyMicros.add((now - sentAt) / 1000);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> appArgs = new ArrayList<>(List.of(
+            "--server.port=0",
+            "--spring.datasource.url=" + DB_URL,
+            "--spring.datasource.driverClassName=org.postgresql.Driver",
+            "--spring.datasource.username=" + DB_USER,
+            "--spring.datasource.password=" + DB_PASSWORD,
+            "--spring.jpa.database-platform=org.hibernate.dialect.PostgreSQLDialect",
+            "--websocket.relay.mode=local",
+            "--logging.level.com.familynest=WARN"));
+        appArgs.addAll(Arrays.asList(args));
+
+        SpringApplication application = new SpringApplication(FamilynestBackendApplication.class);
+        application.setAdditionalProfiles("dev");
+        try (ConfigurableApplicationContext context = application.run(appArgs.toArray(new String[0]))) {
+            int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            run(context, port);
+        }
+    }
+
+    private static void run(ConfigurableApplicationContext context, int port) throws Exception {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        JwtUtil jwtUtil = context.getBean(JwtUtil.class);
+        PresenceRegistry presenceRegistry = context.getBean(PresenceRegistry.class);
+
+        LargeDatasetLoader loader = context.getBean(LargeDatasetLoader.class);
+        if ("large".equals(DATASET)) {
+            loader.loadLargeTestData();
+        } else {
+            loader.loadUiTestData();
+        }
+        loader.printDatasetStats();
+
+        Long familyId = jdbcTemplate.queryForObject(
+            "SELECT family_id FROM user_family_membership GROUP BY family_id ORDER BY COUNT(*) DESC, family_id LIMIT 1",
+            Long.class);
+        List<Long> memberIds = jdbcTemplate.queryForList(
+            "SELECT user_id FROM user_family_membership WHERE family_id = ? ORDER BY user_id LIMIT ?",
+            Long.class, familyId, CLIENTS);
+
+        // Tokens need a session id that matches app_user.current_session_id (single-device check)
+        Map<Long, String> tokens = new ConcurrentHashMap<>();
+        for (Long userId : memberIds) {
+            String sessionId = UUID.randomUUID().toString();
+            jdbcTemplate.update("UPDATE app_user SET current_session_id = ? WHERE id = ?", sessionId, userId);
+            tokens.put(userId, jwtUtil.generateTokenPair(userId, "USER", sessionId).getAccessToken());
+        }
+
+        System.out.printf("%nFamily %d: connecting %d STOMP clients to ws://localhost:%d/ws%n", familyId, memberIds.size(), port);
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        List<StompSession> sessions = new ArrayList<>();
+        for (Long userId : memberIds) {
+            StompSession session = stompClient.connectAsync("ws://localhost:" + port + "/ws", new StompSessionHandlerAdapter() { })
+                .get(10, TimeUnit.SECONDS);
+            session.subscribe("/user/" + userId + "/messages", handler(payload -> messages.record(postSentAtFor(payload))));
+            session.subscribe("/user/" + userId + "/reactions", handler(payload -> reactions.record(likeSentAt.get(messageIdOf(payload)))));
+            session.subscribe("/user/" + userId + "/comment-counts", handler(payload -> commentCounts.record(null)));
+            sessions.add(session);
+        }
+        waitFor(() -> presenceRegistry.getOnlineUserCount() >= memberIds.size(), 10_000);
+        System.out.printf("%d users online, %d sessions%n", presenceRegistry.getOnlineUserCount(), presenceRegistry.getSessionCount());
+
+        RestTemplate restTemplate = new RestTemplate();
+        String baseUrl = "http://localhost:" + port;
+        ExecutorService requestPool = Executors.newFixedThreadPool(Math.max(4, Math.min(64, RATE)));
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, RATE);
+        long startedAt = System.nanoTime();
+
+        System.out.printf("Posting %d messages at %d/s%n", POSTS, RATE);
+        for (int i = 0; i < POSTS; i++) {
+            long due = startedAt + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            long sequence = i;
+            Long posterId = memberIds.get(i % memberIds.size());
+            requestPool.execute(() -> post(restTemplate, baseUrl, tokens, memberIds, sequence, posterId, familyId));
+        }
+        requestPool.shutdown();
+        requestPool.awaitTermination(5, TimeUnit.MINUTES);
+        long postsDoneAt = System.nanoTime();
+
+        // Wait for late frames: stop once nothing has arrived for a while, or at the drain limit
+        long drainDeadline = postsDoneAt + TimeUnit.MILLISECONDS.toNanos(DRAIN_MS);
+        long lastTotal = -1;
+        while (System.nanoTime() < drainDeadline) {
+            long total = messages.frames.get() + reactions.frames.get() + commentCounts.frames.get();
+            if (total == lastTotal) {
+                break;
+            }
+            lastTotal = total;
+            Thread.sleep(500);
+        }
+
+        report(startedAt, postsDoneAt, memberIds.size());
+        System.out.println("Dispatcher:     " + context.getBean(BroadcastDispatcher.class).getStats());
+        System.out.println("Slow consumers: " + context.getBean(SlowConsumerGuard.class).getStats());
+
+        sessions.forEach(StompSession::disconnect);
+        stompClient.stop();
+    }
+
+    private static void post(RestTemplate restTemplate, String baseUrl, Map<Long, String> tokens, List<Long> memberIds,
+                             long sequence, Long posterId, Long familyId) {
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        form.add("content", "Load test message [lt:" + sequence + "]");
+        form.add("familyId", familyId.toString());
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        headers.setBearerAuth(tokens.get(posterId));
+
+        long sentAt = System.nanoTime();
+        postSentAt.put(sequence, sentAt);
+        Map<?, ?> created;
+        try {
+            created = restTemplate.postForObject(baseUrl + "/api/users/" + posterId + "/messages", new HttpEntity<>(form, headers), Map.class);
+            postRequestMicros.add((System.nanoTime() - sentAt) / 1000);
+        } catch (Exception e) {
+            postFailures.incrementAndGet();
+            return;
+        }
+
+        if (LIKE_EVERY <= 0 || sequence % LIKE_EVERY != 0 || memberIds.size() < 2 || created == null || !(created.get("id") instanceof Number)) {
+            return;
+        }
+        long messageId = ((Number) created.get("id")).longValue();
+        Long likerId = posterId;
+        while (likerId.equals(posterId)) {
+            likerId = memberIds.get(ThreadLocalRandom.current().nextInt(memberIds.size()));
+        }
+        HttpHeaders likeHeaders = new HttpHeaders();
+        likeHeaders.setBearerAuth(tokens.get(likerId));
+        likeSentAt.put(messageId, System.nanoTime());
+        try {
+            restTemplate.postForObject(baseUrl + "/api/messages/" + messageId + "/message_like", new HttpEntity<>(likeHeaders), Map.class);
+        } catch (Exception e) {
+            likeFailures.incrementAndGet();
+        }
+    }
+
+    private static StompFrameHandler handler(Consumer<Map<?, ?>> onFrame) {
+        return new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                onFrame.accept((Map<?, ?>) payload);
+            }
+        };
+    }
+
+    private static Long postSentAtFor(Map<?, ?> payload) {
+        Object content = payload.get("content");
+        if (content == null) {
+            return null;
+        }
+        Matcher matcher = SEQUENCE_TAG.matcher(content.toString());
+        return matcher.find() ? postSentAt.get(Long.parseLong(matcher.group(1))) : null;
+    }
+
+    private static Long messageIdOf(Map<?, ?> payload) {
+        Object messageId = payload.get("messageId");
+        return messageId instanceof Number number ? number.longValue() : -1L;
+    }
+
+    private static void waitFor(BooleanSupplier condition, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static void report(long startedAt, long postsDoneAt, int clients) {
+        double postSeconds = (postsDoneAt - startedAt) / 1e9;
+        System.out.printf("%n===== STOMP fan-out load test =====%n");
+        System.out.printf("Clients: %d, posts: %d (%d failed) in %.1fs = %.1f posts/s, likes failed: %d%n",
+            clients, POSTS, postFailures.get(), postSeconds, (POSTS - postFailures.get()) / postSeconds, likeFailures.get());
+        printLatency("POST request", postRequestMicros, -1, -1);
+        for (Channel channel : List.of(messages, reactions, commentCounts)) {
+            printLatency(channel.name, channel.latencyMicros, channel.frames.get(), channel.unmatched.get());
+            if (channel.lastReceivedAt.get() > startedAt) {
+                double seconds = (channel.lastReceivedAt.get() - startedAt) / 1e9;
+                System.out.printf("    throughput: %.0f frames/s%n", channel.frames.get() / seconds);
+            }
+        }
+    }
+
+    private static void printLatency(String name, ConcurrentLinkedQueue<Long> samples, long frames, long unmatched) {
+        long[] sorted = samples.stream().mapToLong(Long::longValue).sorted().toArray();
+        String counts = frames < 0 ? sorted.length + " requests" : frames + " frames, " + unmatched + " unmatched";
+        if (sorted.length == 0) {
+            System.out.printf("%-15s %s%n", name, counts);
+            return;
+        }
+        System.out.printf("%-15s %s, p50 %.2fms, p99 %.2fms, max %.2fms%n", name, counts,
+            percentile(sorted, 0.50) / 1000.0, percentile(sorted, 0.99) / 1000.0, sorted[sorted.length - 1] / 1000.0);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
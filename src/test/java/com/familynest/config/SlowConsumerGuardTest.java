@@ -0,0 +1,74 @@
+package com.familynest.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Dropping of count frames based on a session's write backlog
+ */
+public class SlowConsumerGuardTest {
+
+    private SlowConsumerGuard guard;
+    private ConcurrentWebSocketSessionDecorator session;
+
+    @BeforeEach
+    void setUp() {
+        guard = new SlowConsumerGuard();
+        ReflectionTestUtils.setField(guard, "maxBufferedBytes", 1000);
+        session = mock(ConcurrentWebSocketSessionDecorator.class);
+        when(session.getId()).thenReturn("s1");
+        guard.onSessionStarted(session);
+    }
+
+    private static Message<byte[]> frame(String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId("s1");
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    @Test
+    @DisplayName("Count frames go through while the backlog is under the limit")
+    void underLimitPassesEverything() {
+        when(session.getBufferSize()).thenReturn(999);
+
+        assertNotNull(guard.preSend(frame("/family/1/reactions"), null));
+        assertEquals(0L, guard.getStats().get("droppedFrames"));
+    }
+
+    @Test
+    @DisplayName("Count frames are dropped once the backlog reaches the limit; messages are not")
+    void overLimitDropsOnlyCountFrames() {
+        when(session.getBufferSize()).thenReturn(1000);
+
+        assertNull(guard.preSend(frame("/family/1/reactions"), null));
+        assertNull(guard.preSend(frame("/family/1/comment-counts"), null));
+        assertNotNull(guard.preSend(frame("/family/1"), null));
+        assertNotNull(guard.preSend(frame("/user/5/dm"), null));
+        assertEquals(2L, guard.getStats().get("droppedFrames"));
+        assertEquals(1L, guard.getStats().get("laggingSessions"));
+    }
+
+    @Test
+    @DisplayName("Closed sessions are forgotten and send-limit closes count as forced disconnects")
+    void closeForgetsSession() {
+        when(session.getBufferSize()).thenReturn(5000);
+
+        guard.onSessionClosed("s1", CloseStatus.SESSION_NOT_RELIABLE);
+
+        assertNotNull(guard.preSend(frame("/family/1/reactions"), null));
+        assertEquals(1L, guard.getStats().get("forcedDisconnects"));
+        assertEquals(0L, guard.getStats().get("laggingSessions"));
+    }
+}
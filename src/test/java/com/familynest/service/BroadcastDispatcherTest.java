@@ -0,0 +1,191 @@
+package com.familynest.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Lane ordering, back-pressure on full lanes and coalescing of mergeable events
+ */
+public class BroadcastDispatcherTest {
+
+    private BroadcastDispatcher dispatcher;
+
+    private final List<String> ran = new CopyOnWriteArrayList<>();
+    private final List<String> threads = new CopyOnWriteArrayList<>();
+
+    private void start(int queueCapacity, long submitTimeoutMs, long coalesceWindowMs) {
+        dispatcher = new BroadcastDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "workers", 1);
+        ReflectionTestUtils.setField(dispatcher, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(dispatcher, "shutdownTimeoutSeconds", 5L);
+        ReflectionTestUtils.setField(dispatcher, "submitTimeoutMs", submitTimeoutMs);
+        ReflectionTestUtils.setField(dispatcher, "coalesceWindowMs", coalesceWindowMs);
+        dispatcher.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    private Runnable record(String name) {
+        return () -> {
+            ran.add(name);
+            threads.add(Thread.currentThread().getName());
+        };
+    }
+
+    /**
+     * Occupy the lane's worker until the returned latch is released
+     */
+    private CountDownLatch blockLane() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.submit(1L, () -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private void awaitExecuted(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (((Number) dispatcher.getStats().get("executed")).longValue() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, ((Number) dispatcher.getStats().get("executed")).longValue());
+    }
+
+    private long stat(String key) {
+        return ((Number) dispatcher.getStats().get(key)).longValue();
+    }
+
+    @Test
+    @DisplayName("Events for one key run on the lane thread in submission order")
+    void submitPreservesOrder() throws Exception {
+        start(100, 100, 0);
+
+        for (int i = 0; i < 20; i++) {
+            dispatcher.submit(7L, record("e" + i));
+        }
+        awaitExecuted(20);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("e" + i, ran.get(i));
+        }
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("ws-dispatch-")));
+    }
+
+    @Test
+    @DisplayName("A full lane makes the caller wait for room instead of running the event itself")
+    void fullLaneBlocksCaller() throws Exception {
+        start(1, 5000, 0);
+        CountDownLatch release = blockLane();
+        dispatcher.submit(1L, record("queued"));
+
+        new Thread(() -> {
+            sleep(100);
+            release.countDown();
+        }).start();
+        dispatcher.submit(1L, record("waited"));
+        awaitExecuted(3);
+
+        assertEquals(List.of("queued", "waited"), ran);
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("ws-dispatch-")));
+        assertEquals(1, stat("blocked"));
+        assertEquals(0, stat("deferred"));
+        assertEquals(0, stat("ranInline"));
+    }
+
+    @Test
+    @DisplayName("An event still without room after the timeout is deferred to the lane, not run inline")
+    void fullLaneDefersAfterTimeout() throws Exception {
+        start(1, 10, 20);
+        CountDownLatch release = blockLane();
+        dispatcher.submit(1L, record("queued"));
+
+        dispatcher.submit(1L, record("deferred"));
+        assertTrue(ran.isEmpty(), "the caller must not run the event");
+        assertTrue(stat("deferred") > 0);
+
+        sleep(60);
+        release.countDown();
+        awaitExecuted(3);
+
+        assertEquals(List.of("queued", "deferred"), ran);
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("ws-dispatch-")));
+        assertEquals(0, stat("ranInline"));
+    }
+
+    @Test
+    @DisplayName("Mergeable events within a window collapse into one run of the latest")
+    void mergeableEventsCoalesce() throws Exception {
+        start(100, 100, 100);
+
+        dispatcher.submitMergeable(3L, "reaction:3", record("v1"));
+        dispatcher.submitMergeable(3L, "reaction:3", record("v2"));
+        dispatcher.submitMergeable(3L, "reaction:3", record("v3"));
+        dispatcher.submitMergeable(3L, "reaction:4", record("other"));
+        awaitExecuted(2);
+
+        assertEquals(List.of("v3", "other"), ran);
+        assertEquals(2, stat("coalesced"));
+    }
+
+    @Test
+    @DisplayName("A mergeable event arriving after its fan-out started opens a new window")
+    void mergeableAfterStartIsSentAgain() throws Exception {
+        start(100, 100, 20);
+
+        dispatcher.submitMergeable(3L, "reaction:3", record("v1"));
+        awaitExecuted(1);
+        dispatcher.submitMergeable(3L, "reaction:3", record("v2"));
+        awaitExecuted(2);
+
+        assertEquals(List.of("v1", "v2"), ran);
+        assertEquals(0, stat("coalesced"));
+    }
+
+    @Test
+    @DisplayName("A mergeable event whose lane is full is deferred and keeps absorbing newer state")
+    void mergeableDeferredWhileLaneFull() throws Exception {
+        start(1, 100, 20);
+        CountDownLatch release = blockLane();
+        dispatcher.submit(1L, record("queued"));
+
+        dispatcher.submitMergeable(1L, "reaction:1", record("v1"));
+        sleep(60);
+        assertTrue(stat("deferred") > 0);
+        dispatcher.submitMergeable(1L, "reaction:1", record("v2"));
+
+        release.countDown();
+        awaitExecuted(3);
+
+        assertEquals(List.of("queued", "v2"), ran);
+        assertEquals(0, stat("dropped"));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.familynest.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * userMessages generations: bumped after commit, relayed to every node, bounded by striping
+ */
+@ExtendWith(MockitoExtension.class)
+public class CacheEvictionServiceTest {
+
+    private static final long USER_ID = 1L;
+    private static final long OTHER_USER_ID = 2L;
+
+    @Mock
+    private CacheManager cacheManager;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private EngagementLoader engagementLoader;
+
+    @Spy
+    private LocalBroadcastRelay broadcastRelay = new LocalBroadcastRelay();
+
+    @InjectMocks
+    private CacheEvictionService service;
+
+    @BeforeEach
+    void setUp() {
+        service.subscribe();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @DisplayName("A user's generation moves after commit and is published on the relay")
+    void generationBumpedAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        service.evictUserMessages(List.of(USER_ID));
+        assertEquals(0, service.userMessagesGeneration(USER_ID));
+        verify(broadcastRelay, never()).publish(any());
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertEquals(1, service.userMessagesGeneration(USER_ID));
+        assertEquals(0, service.userMessagesGeneration(OTHER_USER_ID));
+        verify(broadcastRelay).publish(argThat(event -> event.kind() == RelayedBroadcast.Kind.USER_MESSAGES_CHANGED));
+    }
+
+    @Test
+    @DisplayName("A bump published by another node moves the generation here")
+    void remoteBumpApplied() {
+        // Ids arrive as JSON numbers, not necessarily Longs
+        broadcastRelay.publish(new RelayedBroadcast(RelayedBroadcast.Kind.USER_MESSAGES_CHANGED, Map.of("userIds", List.of(1, 2)), null,
+            null, null, null, "other-node", System.currentTimeMillis()));
+
+        assertEquals(1, service.userMessagesGeneration(USER_ID));
+        assertEquals(1, service.userMessagesGeneration(OTHER_USER_ID));
+    }
+
+    @Test
+    @DisplayName("Users sharing a stripe share a generation, so memory doesn't grow with users")
+    void generationsAreStriped() {
+        service.evictUserMessages(List.of(USER_ID));
+
+        assertEquals(1, service.userMessagesGeneration(USER_ID + 4096));
+    }
+}
@@ -0,0 +1,196 @@
+package com.familynest.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Batching of engagement lookups and invalidation against the transaction-aware cache
+ */
+@ExtendWith(MockitoExtension.class)
+public class EngagementLoaderTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @InjectMocks
+    private EngagementLoader loader;
+
+    private Cache cache;
+
+    // Comment count the stubbed query reports for every message
+    private long commentCount = 3;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        TransactionAwareCacheManagerProxy cacheManager = new TransactionAwareCacheManagerProxy(new ConcurrentMapCacheManager("messageEngagement"));
+        cacheManager.afterPropertiesSet();
+        cache = cacheManager.getCache("messageEngagement");
+        ReflectionTestUtils.setField(loader, "cacheManager", cacheManager);
+        ReflectionTestUtils.setField(loader, "windowMs", 50L);
+        ReflectionTestUtils.setField(loader, "maxBatch", 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        loader.shutdown();
+    }
+
+    /**
+     * Answer the engagement query with one row per requested id; duringQuery runs before the rows are returned
+     */
+    private void stubQuery(Runnable duringQuery) {
+        doAnswer(invocation -> {
+            duringQuery.run();
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (Long messageId : (Long[]) invocation.getArgument(2)) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getLong("message_id")).thenReturn(messageId);
+                when(rs.getLong("comment_count")).thenReturn(commentCount);
+                when(rs.getLong("share_count")).thenReturn(0L);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class), any(Object[].class));
+    }
+
+    private List<Long[]> queriedIds(int times) {
+        ArgumentCaptor<Object> ids = ArgumentCaptor.forClass(Object.class);
+        verify(jdbcTemplate, times(times)).query(anyString(), any(RowCallbackHandler.class), ids.capture());
+        return ids.getAllValues().stream().map(value -> (Long[]) value).toList();
+    }
+
+    private static void commit() {
+        TransactionSynchronizationUtils.invokeAfterCommit(TransactionSynchronizationManager.getSynchronizations());
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    @DisplayName("Single loads within the window share one query")
+    void loadsWithinWindowAreCoalesced() throws Exception {
+        stubQuery(() -> { });
+
+        CompletableFuture<Map<String, Object>> first = loader.load(1L);
+        CompletableFuture<Map<String, Object>> second = loader.load(2L);
+        CompletableFuture<Map<String, Object>> again = loader.load(1L);
+
+        assertEquals(3L, first.get(1, TimeUnit.SECONDS).get("commentCount"));
+        assertEquals(3L, second.get(1, TimeUnit.SECONDS).get("commentCount"));
+        assertSame(first, again);
+        assertArrayEquals(new Long[] {1L, 2L}, queriedIds(1).get(0));
+    }
+
+    @Test
+    @DisplayName("A full batch is flushed without waiting for the window")
+    void fullBatchFlushesImmediately() {
+        ReflectionTestUtils.setField(loader, "windowMs", 60_000L);
+        ReflectionTestUtils.setField(loader, "maxBatch", 2);
+        stubQuery(() -> { });
+
+        CompletableFuture<Map<String, Object>> first = loader.load(1L);
+        CompletableFuture<Map<String, Object>> second = loader.load(2L);
+
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertArrayEquals(new Long[] {1L, 2L}, queriedIds(1).get(0));
+    }
+
+    @Test
+    @DisplayName("loadMany queries only the misses, in one batch, and caches the results")
+    void loadManyQueriesMissesOnce() {
+        stubQuery(() -> { });
+        cache.put(1L, Map.of("commentCount", 9L));
+
+        Map<Long, Map<String, Object>> result = loader.loadMany(List.of(1L, 2L, 3L));
+
+        assertEquals(9L, result.get(1L).get("commentCount"));
+        assertEquals(3L, result.get(2L).get("commentCount"));
+        assertArrayEquals(new Long[] {2L, 3L}, queriedIds(1).get(0));
+        assertNotNull(cache.get(3L));
+
+        loader.loadMany(List.of(2L, 3L));
+        queriedIds(1);
+    }
+
+    @Test
+    @DisplayName("Messages missing from the result get zero counts")
+    void missingMessagesGetEmptyEngagement() {
+        doNothing().when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class), any(Object[].class));
+
+        Map<String, Object> data = loader.loadMany(List.of(7L)).get(7L);
+
+        assertEquals(0L, data.get("commentCount"));
+        assertEquals(Map.of(), data.get("reactions"));
+    }
+
+    @Test
+    @DisplayName("Outside a transaction invalidate evicts right away")
+    void invalidateWithoutTransaction() {
+        stubQuery(() -> { });
+        loader.loadMany(List.of(1L));
+
+        commentCount = 4;
+        loader.invalidate(1L);
+
+        assertNull(cache.get(1L));
+        assertEquals(4L, loader.loadMany(List.of(1L)).get(1L).get("commentCount"));
+        queriedIds(2);
+    }
+
+    @Test
+    @DisplayName("Inside a transaction the evict and the generation bump both wait for commit")
+    void invalidateInsideTransactionAppliesAtCommit() {
+        stubQuery(() -> { });
+        loader.loadMany(List.of(1L));
+
+        TransactionSynchronizationManager.initSynchronization();
+        loader.invalidate(1L);
+        assertNotNull(cache.get(1L), "evict is deferred until commit");
+
+        commit();
+        assertNull(cache.get(1L));
+    }
+
+    @Test
+    @DisplayName("A batch that read before commit and finishes after it isn't cached")
+    void batchOverlappingCommitIsNotCached() {
+        TransactionSynchronizationManager.initSynchronization();
+        loader.invalidate(1L);
+
+        // The query runs before the writer commits; the writer commits while the rows are in flight
+        stubQuery(EngagementLoaderTest::commit);
+        Map<String, Object> data = loader.loadMany(List.of(1L)).get(1L);
+
+        assertEquals(3L, data.get("commentCount"));
+        assertNull(cache.get(1L), "pre-commit counts must not be cached after the commit's evict");
+        assertEquals(1, Arrays.asList(queriedIds(1).get(0)).size());
+    }
+}
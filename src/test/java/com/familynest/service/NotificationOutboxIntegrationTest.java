@@ -0,0 +1,236 @@
+package com.familynest.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * NotificationOutbox against PostgreSQL (testdb profile): claiming, lease expiry, backoff,
+ * dead-lettering, idempotent enqueue and per-token retry. Pushes go to a mocked
+ * PushNotificationService; each test's behaviour is keyed by the invitee email in the payload.
+ */
+@SpringBootTest(properties = {
+    "outbox.poll-interval-ms=50",
+    "outbox.backoff-base-ms=60000",
+    "outbox.max-attempts=3"
+})
+@ActiveProfiles("testdb")
+public class NotificationOutboxIntegrationTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    @Autowired
+    private NotificationOutbox outbox;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockBean
+    private PushNotificationService pushNotificationService;
+
+    @MockBean
+    private EmailProviderService emailProviderService;
+
+    @BeforeEach
+    void setUp() {
+        cleanUp();
+        doAnswer(invocation -> {
+            String email = invocation.getArgument(0);
+            if (email.startsWith("fail")) {
+                throw new IllegalStateException("FCM unavailable");
+            }
+            return null;
+        }).when(pushNotificationService).sendInvitationNotification(anyString(), anyString(), anyString(), any(PushDelivery.class));
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM notification_outbox WHERE idempotency_key LIKE 'outbox-test:%'");
+    }
+
+    private static Map<String, Object> payload(String inviteeEmail) {
+        return Map.of("inviteeEmail", inviteeEmail, "familyName", "Outbox test", "inviterName", "Sam");
+    }
+
+    private void enqueue(String key, String inviteeEmail) {
+        outbox.enqueue(NotificationOutbox.INVITATION_PUSH, key, payload(inviteeEmail));
+    }
+
+    private void insertRow(String key, String inviteeEmail, String status, int attempts, String lockedUntil) {
+        jdbcTemplate.update("INSERT INTO notification_outbox (event_type, idempotency_key, payload, status, attempts, locked_until) " +
+                            "VALUES (?, ?, ?::jsonb, ?, ?, " + lockedUntil + ")",
+                            NotificationOutbox.INVITATION_PUSH, key,
+                            "{\"inviteeEmail\":\"" + inviteeEmail + "\",\"familyName\":\"Outbox test\",\"inviterName\":\"Sam\"}",
+                            status, attempts);
+    }
+
+    private Map<String, Object> row(String key) {
+        return jdbcTemplate.queryForMap("SELECT status, attempts, last_error, array_to_string(delivered_tokens, ',') AS delivered_tokens, " +
+                                        "EXTRACT(EPOCH FROM (next_attempt_at - CURRENT_TIMESTAMP)) * 1000 AS next_attempt_in_ms " +
+                                        "FROM notification_outbox WHERE idempotency_key = ?", key);
+    }
+
+    private static void await(String what, Supplier<Boolean> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.get()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for " + what);
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private void awaitStatus(String key, String status) throws InterruptedException {
+        await(key + " to be " + status, () -> status.equals(row(key).get("status")));
+    }
+
+    @Test
+    @DisplayName("An enqueued event is claimed, handled and marked DONE")
+    void claimAndDeliver() throws InterruptedException {
+        enqueue("outbox-test:claim", "ok@example.com");
+
+        awaitStatus("outbox-test:claim", "DONE");
+
+        assertEquals(1, ((Number) row("outbox-test:claim").get("attempts")).intValue());
+        verify(pushNotificationService).sendInvitationNotification(eq("ok@example.com"), eq("Outbox test"), eq("Sam"), any(PushDelivery.class));
+    }
+
+    @Test
+    @DisplayName("A row whose lease ran out is claimed again")
+    void expiredLeaseIsReclaimed() throws InterruptedException {
+        insertRow("outbox-test:lease", "ok@example.com", "PROCESSING", 1, "CURRENT_TIMESTAMP - INTERVAL '1 second'");
+
+        awaitStatus("outbox-test:lease", "DONE");
+
+        assertEquals(2, ((Number) row("outbox-test:lease").get("attempts")).intValue());
+    }
+
+    @Test
+    @DisplayName("A row still under lease is left alone")
+    void liveLeaseIsNotReclaimed() throws InterruptedException {
+        insertRow("outbox-test:leased", "ok@example.com", "PROCESSING", 1, "CURRENT_TIMESTAMP + INTERVAL '1 hour'");
+
+        Thread.sleep(500);
+
+        assertEquals("PROCESSING", row("outbox-test:leased").get("status"));
+        verify(pushNotificationService, never()).sendInvitationNotification(anyString(), anyString(), anyString(), any(PushDelivery.class));
+    }
+
+    @Test
+    @DisplayName("A failed attempt goes back to PENDING with a backoff delay and the error")
+    void failureBacksOff() throws InterruptedException {
+        enqueue("outbox-test:backoff", "fail@example.com");
+
+        await("a failed attempt", () -> {
+            Map<String, Object> row = row("outbox-test:backoff");
+            return "PENDING".equals(row.get("status")) && row.get("last_error") != null;
+        });
+
+        Map<String, Object> row = row("outbox-test:backoff");
+        assertEquals(1, ((Number) row.get("attempts")).intValue());
+        assertTrue(((String) row.get("last_error")).contains("FCM unavailable"));
+        // outbox.backoff-base-ms is the minimum delay
+        assertTrue(((Number) row.get("next_attempt_in_ms")).doubleValue() > 55_000);
+    }
+
+    @Test
+    @DisplayName("The last allowed attempt failing dead-letters the row")
+    void exhaustedRetriesDeadLetter() throws InterruptedException {
+        insertRow("outbox-test:dead", "fail@example.com", "PENDING", 2, "NULL");
+
+        awaitStatus("outbox-test:dead", "DEAD");
+
+        Map<String, Object> row = row("outbox-test:dead");
+        assertEquals(3, ((Number) row.get("attempts")).intValue());
+        assertNotNull(row.get("last_error"));
+    }
+
+    @Test
+    @DisplayName("Enqueuing the same idempotency key twice keeps one row")
+    void duplicateEnqueueIsNoOp() throws InterruptedException {
+        long duplicatesBefore = (Long) outbox.getStats().get("duplicates");
+
+        enqueue("outbox-test:dup", "ok@example.com");
+        enqueue("outbox-test:dup", "ok@example.com");
+        awaitStatus("outbox-test:dup", "DONE");
+        enqueue("outbox-test:dup", "ok@example.com");
+
+        assertEquals(1, jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM notification_outbox WHERE idempotency_key = 'outbox-test:dup'", Integer.class));
+        assertEquals(duplicatesBefore + 2, (Long) outbox.getStats().get("duplicates"));
+        verify(pushNotificationService, times(1)).sendInvitationNotification(anyString(), anyString(), anyString(), any(PushDelivery.class));
+    }
+
+    @Test
+    @DisplayName("Tokens a failed attempt reached are recorded and skipped by the retry")
+    void retrySkipsDeliveredTokens() throws InterruptedException {
+        List<Boolean> retrySawDelivered = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            PushDelivery delivery = invocation.getArgument(3);
+            if (delivery.completedTokens().isEmpty()) {
+                delivery.complete("token-a");
+                throw new IllegalStateException("1 of 2 pushes in the batch failed");
+            }
+            retrySawDelivered.add(delivery.isCompleted("token-a") && !delivery.isCompleted("token-b"));
+            delivery.complete("token-b");
+            return null;
+        }).when(pushNotificationService).sendInvitationNotification(eq("partial@example.com"), anyString(), anyString(), any(PushDelivery.class));
+
+        enqueue("outbox-test:tokens", "partial@example.com");
+        await("a failed attempt", () -> "PENDING".equals(row("outbox-test:tokens").get("status"))
+                                        && row("outbox-test:tokens").get("last_error") != null);
+        assertEquals("token-a", row("outbox-test:tokens").get("delivered_tokens"));
+
+        // Skip the backoff
+        jdbcTemplate.update("UPDATE notification_outbox SET next_attempt_at = CURRENT_TIMESTAMP WHERE idempotency_key = 'outbox-test:tokens'");
+        awaitStatus("outbox-test:tokens", "DONE");
+
+        assertEquals(List.of(true), retrySawDelivered);
+    }
+
+    @Test
+    @DisplayName("A push held for a coalesced summary keeps the row pending, without using an attempt, until the recheck")
+    void heldPushStaysPending() throws InterruptedException {
+        List<Boolean> recheckSawHeld = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            PushDelivery delivery = invocation.getArgument(3);
+            if (delivery.completedTokens().isEmpty()) {
+                delivery.complete("token-a");
+                delivery.hold("token-b", System.currentTimeMillis() + 60_000);
+                return null;
+            }
+            recheckSawHeld.add(delivery.isCompleted("token-a") && !delivery.isCompleted("token-b"));
+            delivery.complete("token-b");
+            return null;
+        }).when(pushNotificationService).sendInvitationNotification(eq("held@example.com"), anyString(), anyString(), any(PushDelivery.class));
+
+        enqueue("outbox-test:held", "held@example.com");
+        await("the held attempt", () -> "token-a".equals(row("outbox-test:held").get("delivered_tokens")));
+
+        Map<String, Object> row = row("outbox-test:held");
+        assertEquals("PENDING", row.get("status"));
+        assertEquals(0, ((Number) row.get("attempts")).intValue());
+        assertTrue(((Number) row.get("next_attempt_in_ms")).doubleValue() > 55_000);
+
+        // Skip to the recheck
+        jdbcTemplate.update("UPDATE notification_outbox SET next_attempt_at = CURRENT_TIMESTAMP WHERE idempotency_key = 'outbox-test:held'");
+        awaitStatus("outbox-test:held", "DONE");
+
+        assertEquals(List.of(true), recheckSawHeld);
+    }
+}
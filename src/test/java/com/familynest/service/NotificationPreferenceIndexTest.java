@@ -0,0 +1,200 @@
+package com.familynest.service;
+
+import com.familynest.service.NotificationPreferenceIndex.Channel;
+import com.familynest.service.NotificationPreferenceIndex.Event;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Resolution order of global, family and member rows, and invalidation through the relay
+ */
+@ExtendWith(MockitoExtension.class)
+public class NotificationPreferenceIndexTest {
+
+    private static final long USER_ID = 1L;
+    private static final long FAMILY_ID = 10L;
+    private static final long OTHER_FAMILY_ID = 20L;
+    private static final long SENDER_ID = 7L;
+
+    private static final Set<String> EVERY_EVENT = Set.of(
+        "family_messages_push", "dm_messages_push", "invitations_push", "reactions_push", "comments_push", "new_member_push",
+        "family_messages_websocket", "dm_messages_websocket", "invitations_websocket", "reactions_websocket",
+        "comments_websocket", "new_member_websocket");
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Spy
+    private LocalBroadcastRelay broadcastRelay = new LocalBroadcastRelay();
+
+    @InjectMocks
+    private NotificationPreferenceIndex index;
+
+    private record MatrixRow(long userId, long familyId, long memberId, Set<String> enabledColumns) { }
+
+    // user_notification_matrix as the index sees it
+    private final List<MatrixRow> matrix = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (MatrixRow row : List.copyOf(matrix)) {
+                handler.processRow(resultSet(row));
+            }
+            return null;
+        }).when(jdbcTemplate).query(endsWith("FROM user_notification_matrix"), any(RowCallbackHandler.class));
+        lenient().doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            long userId = invocation.getArgument(2);
+            for (MatrixRow row : List.copyOf(matrix)) {
+                if (row.userId() == userId) {
+                    handler.processRow(resultSet(row));
+                }
+            }
+            return null;
+        }).when(jdbcTemplate).query(endsWith("WHERE user_id = ?"), any(RowCallbackHandler.class), anyLong());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static ResultSet resultSet(MatrixRow row) throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getLong("user_id")).thenReturn(row.userId());
+        when(rs.getLong("family_id")).thenReturn(row.familyId());
+        when(rs.getLong("member_id")).thenReturn(row.memberId());
+        when(rs.getBoolean(anyString())).thenAnswer(invocation -> row.enabledColumns().contains(invocation.<String>getArgument(0)));
+        return rs;
+    }
+
+    private static Set<String> columns(Set<String> events, String... switches) {
+        Set<String> enabled = new HashSet<>(events);
+        enabled.addAll(List.of(switches));
+        return enabled;
+    }
+
+    private static Set<String> everyEventExcept(String... columns) {
+        Set<String> enabled = new HashSet<>(EVERY_EVENT);
+        List.of(columns).forEach(enabled::remove);
+        return enabled;
+    }
+
+    private void row(long familyId, long memberId, Set<String> enabledColumns) {
+        matrix.add(new MatrixRow(USER_ID, familyId, memberId, enabledColumns));
+    }
+
+    @Test
+    @DisplayName("A family override replaces the global row for that family only")
+    void familyOverrideReplacesGlobal() {
+        row(0, 0, columns(everyEventExcept("family_messages_push"), "push_enabled", "device_permission_granted"));
+        // The override turns family pushes on and reactions off; it isn't combined with the global row
+        row(FAMILY_ID, 0, everyEventExcept("reactions_websocket"));
+        index.load();
+
+        assertTrue(index.allows(USER_ID, FAMILY_ID, null, Event.FAMILY_MESSAGES, Channel.PUSH));
+        assertFalse(index.allows(USER_ID, OTHER_FAMILY_ID, null, Event.FAMILY_MESSAGES, Channel.PUSH));
+        assertFalse(index.allows(USER_ID, FAMILY_ID, null, Event.REACTIONS, Channel.WEBSOCKET));
+        assertTrue(index.allows(USER_ID, OTHER_FAMILY_ID, null, Event.REACTIONS, Channel.WEBSOCKET));
+    }
+
+    @Test
+    @DisplayName("A member override is ANDed in: it can take channels away but not add them")
+    void memberOverrideIsAnded() {
+        row(0, 0, columns(everyEventExcept("comments_websocket"), "push_enabled", "device_permission_granted"));
+        row(FAMILY_ID, 0, EVERY_EVENT);
+        row(0, SENDER_ID, everyEventExcept("reactions_websocket"));
+        index.load();
+
+        assertFalse(index.allows(USER_ID, FAMILY_ID, SENDER_ID, Event.REACTIONS, Channel.WEBSOCKET));
+        assertTrue(index.allows(USER_ID, FAMILY_ID, null, Event.REACTIONS, Channel.WEBSOCKET));
+        // Off globally, on in the member row: still off outside the family that turns it back on
+        assertFalse(index.allows(USER_ID, OTHER_FAMILY_ID, SENDER_ID, Event.COMMENTS, Channel.WEBSOCKET));
+        assertTrue(index.allows(USER_ID, FAMILY_ID, SENDER_ID, Event.COMMENTS, Channel.WEBSOCKET));
+        assertArrayEquals(new long[0], index.filter(new long[] {USER_ID}, FAMILY_ID, SENDER_ID, Event.REACTIONS, Channel.WEBSOCKET));
+    }
+
+    @Test
+    @DisplayName("Push needs push_enabled and device permission on the global row, whatever the overrides say")
+    void pushNeedsGlobalSwitches() {
+        row(0, 0, columns(EVERY_EVENT, "push_enabled"));
+        row(FAMILY_ID, 0, columns(EVERY_EVENT, "push_enabled", "device_permission_granted"));
+        index.load();
+
+        assertFalse(index.pushEnabled(USER_ID));
+        assertFalse(index.allows(USER_ID, FAMILY_ID, null, Event.FAMILY_MESSAGES, Channel.PUSH));
+        assertTrue(index.allows(USER_ID, FAMILY_ID, null, Event.FAMILY_MESSAGES, Channel.WEBSOCKET));
+
+        matrix.set(0, new MatrixRow(USER_ID, 0, 0, columns(EVERY_EVENT, "push_enabled", "device_permission_granted")));
+        index.reload();
+
+        assertTrue(index.pushEnabled(USER_ID));
+        assertTrue(index.allows(USER_ID, FAMILY_ID, null, Event.FAMILY_MESSAGES, Channel.PUSH));
+    }
+
+    @Test
+    @DisplayName("A user without matrix rows gets WebSocket events but no push")
+    void noRowsMeansWebSocketOnly() {
+        index.load();
+
+        assertTrue(index.allows(USER_ID, FAMILY_ID, SENDER_ID, Event.COMMENTS, Channel.WEBSOCKET));
+        assertFalse(index.allows(USER_ID, FAMILY_ID, SENDER_ID, Event.COMMENTS, Channel.PUSH));
+    }
+
+    @Test
+    @DisplayName("A change is published on the relay after commit and reloads the user")
+    void changeIsRelayedAfterCommit() {
+        row(0, 0, EVERY_EVENT);
+        index.load();
+        matrix.set(0, new MatrixRow(USER_ID, 0, 0, everyEventExcept("dm_messages_websocket")));
+        TransactionSynchronizationManager.initSynchronization();
+
+        index.onPreferencesChanged(USER_ID);
+        verify(broadcastRelay, never()).publish(any());
+        assertTrue(index.allows(USER_ID, null, null, Event.DM_MESSAGES, Channel.WEBSOCKET));
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        verify(broadcastRelay).publish(argThat(event ->
+            event.kind() == RelayedBroadcast.Kind.PREFERENCES_CHANGED && event.targetId() == USER_ID));
+        assertFalse(index.allows(USER_ID, null, null, Event.DM_MESSAGES, Channel.WEBSOCKET));
+    }
+
+    @Test
+    @DisplayName("A change published by another node reloads the user here")
+    void remoteChangeReloadsUser() {
+        row(0, 0, EVERY_EVENT);
+        index.load();
+        matrix.clear();
+
+        broadcastRelay.publish(new RelayedBroadcast(RelayedBroadcast.Kind.PREFERENCES_CHANGED, null, USER_ID,
+            null, null, null, "other-node", System.currentTimeMillis()));
+
+        assertFalse(index.allows(USER_ID, null, null, Event.DM_MESSAGES, Channel.PUSH));
+        assertEquals(0, index.getStats().get("users"));
+    }
+}
@@ -0,0 +1,86 @@
+package com.familynest.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Session lifecycle, identity checks and the sweep of presence sessions
+ */
+public class PresenceRegistryTest {
+
+    private final PresenceRegistry registry = new PresenceRegistry();
+
+    private void open(String sessionId, Long authenticatedUserId) {
+        registry.onTransportOpened(sessionId);
+        registry.onConnect(sessionId, authenticatedUserId);
+    }
+
+    @Test
+    @DisplayName("A per-user subscription makes the user online until the session disconnects")
+    void subscribeAndDisconnect() {
+        open("s1", 5L);
+        registry.onSubscribe("s1", "sub-0", "/user/5/queue/messages");
+
+        assertTrue(registry.isOnline(5L));
+        assertEquals(Set.of("/user/5/queue/messages"), registry.destinationsOf(5L));
+
+        registry.onDisconnect("s1");
+        assertFalse(registry.isOnline(5L));
+        assertEquals(0, registry.getSessionCount());
+    }
+
+    @Test
+    @DisplayName("A SUBSCRIBE handled after its session's DISCONNECT doesn't bring the session back")
+    void subscribeAfterDisconnectIsIgnored() {
+        open("s1", null);
+        registry.onDisconnect("s1");
+
+        registry.onSubscribe("s1", "sub-0", "/topic/dm-list/5");
+
+        assertFalse(registry.isOnline(5L));
+        assertEquals(0, registry.getSessionCount());
+        assertEquals(1L, registry.getStats().get("unknownSessionSubscribes"));
+    }
+
+    @Test
+    @DisplayName("An authenticated session can't make another user look online")
+    void foreignSubscriptionIsNotPresence() {
+        open("s1", 5L);
+        registry.onSubscribe("s1", "sub-0", "/user/6/queue/messages");
+        registry.onSubscribe("s1", "sub-1", "/topic/dm-thread/5");
+
+        assertFalse(registry.isOnline(6L));
+        assertTrue(registry.isOnline(5L));
+        assertEquals(1L, registry.getStats().get("foreignSubscribes"));
+    }
+
+    @Test
+    @DisplayName("Sessions without a token are attributed by destination")
+    void unauthenticatedSessionUsesDestination() {
+        open("s1", null);
+        registry.onSubscribe("s1", "sub-0", "/user/6/queue/messages");
+
+        assertTrue(registry.isOnline(6L));
+    }
+
+    @Test
+    @DisplayName("The sweep drops sessions whose transport closed without a DISCONNECT")
+    void sweepDropsClosedTransports() {
+        open("s1", 5L);
+        open("s2", 6L);
+        registry.onSubscribe("s1", "sub-0", "/user/5/queue/messages");
+        registry.onSubscribe("s2", "sub-0", "/user/6/queue/messages");
+
+        registry.onTransportClosed("s1");
+        registry.sweep();
+
+        assertFalse(registry.isOnline(5L));
+        assertTrue(registry.isOnline(6L));
+        assertEquals(1, registry.getSessionCount());
+        assertEquals(1L, registry.getStats().get("sweptSessions"));
+    }
+}
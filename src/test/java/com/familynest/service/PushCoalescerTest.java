@@ -0,0 +1,229 @@
+package com.familynest.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Coalescing windows: what is sent at once, what is held, and the summaries sent when a window closes
+ */
+public class PushCoalescerTest {
+
+    private static final String KEY = "family-7";
+    private static final IntFunction<String> TITLE = count -> count + " new messages";
+
+    private record Flush(String collapseKey, List<String> tokens, PushCoalescer.Notification summary,
+                         Consumer<Collection<String>> onDelivered) { }
+
+    private final PushCoalescer coalescer = new PushCoalescer();
+    private final List<Flush> flushes = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(coalescer, "windowMs", 60_000L);
+        coalescer.start();
+        coalescer.setFlushHandler((collapseKey, tokens, summary, onDelivered) ->
+            flushes.add(new Flush(collapseKey, List.copyOf(tokens), summary, onDelivered)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        coalescer.stop();
+    }
+
+    private static PushCoalescer.Notification notification(String messageId) {
+        return new PushCoalescer.Notification("New message", "body " + messageId, Map.of("messageId", messageId));
+    }
+
+    private List<String> offer(String messageId, String... tokens) {
+        return offerOf(messageId, tokens).sendNow();
+    }
+
+    private PushCoalescer.Offer offerOf(String messageId, String... tokens) {
+        return coalescer.offer(KEY, messageId, List.of(tokens), notification(messageId), TITLE);
+    }
+
+    private Flush flushOf(String token) {
+        return flushes.stream().filter(flush -> flush.tokens().contains(token)).findFirst().orElseThrow();
+    }
+
+    @Test
+    @DisplayName("The first push in a window goes out; later ones to a device that got it are held")
+    void firstPushSentLaterHeld() {
+        assertEquals(List.of("a", "b"), offer("1", "a", "b"));
+        coalescer.sent(KEY, List.of("a", "b"));
+
+        assertEquals(List.of("c"), offer("2", "a", "b", "c"));
+        assertEquals(2L, coalescer.getStats().get("held"));
+        assertTrue(flushes.isEmpty());
+    }
+
+    @Test
+    @DisplayName("A device whose first push failed isn't held; the next offer sends at once")
+    void unsentTokenIsSentAgain() {
+        offer("1", "a", "b");
+        coalescer.sent(KEY, List.of("a"));
+        coalescer.unsent(KEY, List.of("b"));
+
+        assertEquals(List.of("b"), offer("1", "a", "b"));
+        coalescer.sent(KEY, List.of("b"));
+        coalescer.flushAll();
+
+        // "a" had message 1 held by the retry; "b" got it as its first push
+        assertEquals(1, flushes.size());
+        assertEquals(List.of("a"), flushes.get(0).tokens());
+    }
+
+    @Test
+    @DisplayName("While the first push is in flight, further pushes are held rather than sent twice")
+    void inFlightTokenIsHeld() {
+        offer("1", "a");
+
+        assertEquals(List.of(), offer("2", "a"));
+    }
+
+    @Test
+    @DisplayName("Held pushes are counted by message id, so a retried event counts once")
+    void heldMessagesCountedById() {
+        offer("1", "a");
+        coalescer.sent(KEY, List.of("a"));
+        offer("2", "a");
+        offer("3", "a");
+        offer("3", "a");
+
+        coalescer.flushAll();
+
+        Flush flush = flushOf("a");
+        assertEquals("2 new messages", flush.summary().title());
+        assertEquals("2", flush.summary().data().get("coalescedCount"));
+        assertEquals("3", flush.summary().data().get("messageId"));
+        assertEquals(2L, coalescer.getStats().get("held"));
+    }
+
+    @Test
+    @DisplayName("Devices with the same latest message and count share one summary")
+    void summariesGroupedByLatestAndCount() {
+        offer("1", "a", "b", "c", "d");
+        coalescer.sent(KEY, List.of("a", "b", "c", "d"));
+        offer("2", "a", "b", "c");
+        offer("3", "a", "b");
+        offer("3", "d");
+
+        coalescer.flushAll();
+        flushes.forEach(flush -> flush.onDelivered().accept(flush.tokens()));
+
+        assertEquals(3, flushes.size());
+        assertEquals(List.of("a", "b"), flushOf("a").tokens().stream().sorted().toList());
+        assertEquals("2 new messages", flushOf("a").summary().title());
+        // One held message: the message itself is sent, not a summary
+        assertEquals(notification("2"), flushOf("c").summary());
+        assertEquals(notification("3"), flushOf("d").summary());
+        assertEquals(4L, coalescer.getStats().get("summariesSent"));
+    }
+
+    @Test
+    @DisplayName("Closing a window sends nothing to devices without held pushes, and starts afresh")
+    void flushClosesWindow() {
+        offer("1", "a", "b");
+        coalescer.sent(KEY, List.of("a", "b"));
+        offer("2", "a");
+
+        coalescer.flushAll();
+
+        assertEquals(1, flushes.size());
+        assertEquals(KEY, flushes.get(0).collapseKey());
+        assertEquals(List.of("a"), flushes.get(0).tokens());
+        assertEquals(0, coalescer.getStats().get("openWindows"));
+        assertEquals(List.of("a", "b"), offer("3", "a", "b"));
+    }
+
+    @Test
+    @DisplayName("The window closes by itself after push.coalesce.window-ms")
+    void windowClosesOnTimer() throws InterruptedException {
+        coalescer.stop();
+        ReflectionTestUtils.setField(coalescer, "windowMs", 50L);
+        coalescer.start();
+        offer("1", "a");
+        coalescer.sent(KEY, List.of("a"));
+        offer("2", "a");
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (flushes.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of("a"), flushOf("a").tokens());
+        assertEquals(List.of("a"), offer("3", "a"));
+    }
+
+    @Test
+    @DisplayName("Held tokens are reported with a recheck time a window after the window closes")
+    void heldTokensReported() {
+        long before = System.currentTimeMillis();
+        offer("1", "a", "b");
+        coalescer.sent(KEY, List.of("a"));
+
+        PushCoalescer.Offer offer = offerOf("2", "a", "c");
+
+        assertEquals(List.of("c"), offer.sendNow());
+        assertEquals(List.of("a"), offer.held());
+        assertTrue(offer.recheckAt() >= before + 120_000);
+    }
+
+    @Test
+    @DisplayName("The recheck of a held push finds it covered once the summary reached the device")
+    void deliveredSummaryCoversHeldMessages() {
+        offer("1", "a", "b");
+        coalescer.sent(KEY, List.of("a", "b"));
+        offer("2", "a", "b");
+        coalescer.flushAll();
+        // The summary reached "a" but not "b"
+        flushOf("a").onDelivered().accept(List.of("a"));
+
+        PushCoalescer.Offer recheck = offerOf("2", "a", "b");
+
+        assertEquals(List.of("a"), recheck.coveredBySummary());
+        assertEquals(List.of("b"), recheck.sendNow());
+        assertEquals(1L, coalescer.getStats().get("summariesSent"));
+        assertEquals(1L, coalescer.getStats().get("summariesFailed"));
+    }
+
+    @Test
+    @DisplayName("A summary that failed to send leaves the held push to its recheck")
+    void failedSummaryIsNotCovered() {
+        coalescer.setFlushHandler((collapseKey, tokens, summary, onDelivered) -> {
+            throw new IllegalStateException("FCM unavailable");
+        });
+        offer("1", "a");
+        coalescer.sent(KEY, List.of("a"));
+        offer("2", "a");
+        coalescer.flushAll();
+
+        PushCoalescer.Offer recheck = offerOf("2", "a");
+
+        assertEquals(List.of("a"), recheck.sendNow());
+        assertEquals(List.of(), recheck.coveredBySummary());
+        assertEquals(1L, coalescer.getStats().get("summariesFailed"));
+    }
+
+    @Test
+    @DisplayName("A zero window sends everything at once")
+    void zeroWindowDisablesCoalescing() {
+        ReflectionTestUtils.setField(coalescer, "windowMs", 0L);
+
+        assertEquals(List.of("a"), offer("1", "a"));
+        assertEquals(List.of("a"), offer("2", "a"));
+        assertEquals(0, coalescer.getStats().get("openWindows"));
+    }
+}
@@ -0,0 +1,183 @@
+package com.familynest.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Per-token progress of family-message pushes across outbox attempts
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PushNotificationServiceTest {
+
+    private static final long MESSAGE_ID = 100L;
+    private static final long FAMILY_ID = 7L;
+    private static final long SENDER_ID = 9L;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private SocialGraphIndex socialGraphIndex;
+
+    @Mock
+    private PresenceRegistry presenceRegistry;
+
+    @Mock
+    private NotificationPreferenceIndex notificationPreferences;
+
+    @Mock
+    private PushTransport pushTransport;
+
+    @Mock
+    private PushCoalescer pushCoalescer;
+
+    @InjectMocks
+    private PushNotificationService service;
+
+    // Tokens the transport fails with a transient error
+    private final Set<String> failing = new HashSet<>();
+    private final List<List<String>> requests = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "pushOfflineOnly", true);
+        ReflectionTestUtils.setField(service, "multicastBatchSize", 2);
+        ReflectionTestUtils.setField(service, "multicastConcurrency", 1);
+        ReflectionTestUtils.setField(service, "multicastQueueCapacity", 10);
+        service.startMulticastExecutor();
+
+        when(jdbcTemplate.queryForObject("SELECT sender_id FROM message WHERE id = ?", Long.class, MESSAGE_ID)).thenReturn(SENDER_ID);
+        when(socialGraphIndex.membersOf(FAMILY_ID)).thenReturn(new long[] {1, 2, 3, SENDER_ID});
+        when(notificationPreferences.allows(anyLong(), any(), any(), any(), any())).thenReturn(true);
+        when(jdbcTemplate.queryForList(startsWith("SELECT id AS user_id, fcm_token"), any(Object[].class))).thenReturn(List.of(
+            Map.of("user_id", 1L, "fcm_token", "token-a"),
+            Map.of("user_id", 2L, "fcm_token", "token-b"),
+            Map.of("user_id", 3L, "fcm_token", "token-c")));
+        when(pushTransport.isAvailable()).thenReturn(true);
+        when(pushCoalescer.offer(anyString(), anyString(), anyList(), any(), any()))
+            .thenAnswer(invocation -> new PushCoalescer.Offer(invocation.getArgument(2), List.of(), List.of(), 0));
+        when(pushTransport.sendMulticast(anyList(), anyMap(), any())).thenAnswer(invocation -> {
+            List<String> tokens = new ArrayList<>(invocation.getArgument(0));
+            synchronized (requests) {
+                requests.add(tokens);
+            }
+            return tokens.stream()
+                .map(token -> failing.contains(token) ? PushTransport.Result.failed("UNAVAILABLE") : PushTransport.Result.DELIVERED)
+                .toList();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.stopMulticastExecutor();
+    }
+
+    private List<String> sentTokens() {
+        return requests.stream().flatMap(List::stream).sorted().toList();
+    }
+
+    @Test
+    @DisplayName("A failed token fails the attempt, and the retry sends only to that token")
+    void retrySendsOnlyToFailedTokens() {
+        failing.add("token-c");
+        PushDelivery first = PushDelivery.first();
+
+        assertThrows(IllegalStateException.class,
+            () -> service.sendFamilyMessageNotification(MESSAGE_ID, FAMILY_ID, "Sam", "hello", first));
+        assertEquals(Set.of("token-a", "token-b"), first.completedTokens());
+
+        failing.clear();
+        requests.clear();
+        PushDelivery retry = new PushDelivery(first.completedTokens());
+        service.sendFamilyMessageNotification(MESSAGE_ID, FAMILY_ID, "Sam", "hello", retry);
+
+        assertEquals(List.of("token-c"), sentTokens());
+        assertEquals(Set.of("token-a", "token-b", "token-c"), retry.completedTokens());
+    }
+
+    @Test
+    @DisplayName("The coalescer hears which tokens got their push and which didn't")
+    void coalescerToldWhichTokensWereSent() {
+        failing.add("token-c");
+
+        assertThrows(IllegalStateException.class,
+            () -> service.sendFamilyMessageNotification(MESSAGE_ID, FAMILY_ID, "Sam", "hello", PushDelivery.first()));
+
+        verify(pushCoalescer).offer(eq("family-" + FAMILY_ID), eq(String.valueOf(MESSAGE_ID)), anyList(), any(), any());
+        verify(pushCoalescer).sent("family-" + FAMILY_ID, List.of("token-a", "token-b"));
+        verify(pushCoalescer).unsent("family-" + FAMILY_ID, List.of("token-c"));
+    }
+
+    @Test
+    @DisplayName("A whole failed request leaves its tokens for the retry and keeps the other batch's")
+    void failedRequestKeepsOtherBatches() {
+        when(pushTransport.sendMulticast(eq(List.of("token-c")), anyMap(), any())).thenThrow(new IllegalStateException("FCM multicast failed"));
+        PushDelivery first = PushDelivery.first();
+
+        assertThrows(IllegalStateException.class,
+            () -> service.sendFamilyMessageNotification(MESSAGE_ID, FAMILY_ID, "Sam", "hello", first));
+
+        assertEquals(Set.of("token-a", "token-b"), first.completedTokens());
+    }
+
+    @Test
+    @DisplayName("Stale tokens are cleared and count as done")
+    void staleTokensAreCompleted() {
+        when(pushTransport.sendMulticast(eq(List.of("token-c")), anyMap(), any())).thenReturn(List.of(PushTransport.Result.staleToken("UNREGISTERED")));
+        PushDelivery delivery = PushDelivery.first();
+
+        service.sendFamilyMessageNotification(MESSAGE_ID, FAMILY_ID, "Sam", "hello", delivery);
+
+        assertEquals(Set.of("token-a", "token-b", "token-c"), delivery.completedTokens());
+        ArgumentCaptor<Object> stale = ArgumentCaptor.forClass(Object.class);
+        verify(jdbcTemplate).update(startsWith("UPDATE app_user SET fcm_token = NULL"), stale.capture());
+        assertArrayEquals(new String[] {"token-c"}, (String[]) stale.getValue());
+    }
+
+    @Test
+    @DisplayName("Held tokens are marked on the delivery and tokens a summary covered are completed")
+    void coalescerDecisionsRecordedOnDelivery() {
+        when(pushCoalescer.offer(anyString(), anyString(), anyList(), any(), any()))
+            .thenReturn(new PushCoalescer.Offer(List.of("token-a"), List.of("token-b"), List.of("token-c"), 42_000L));
+        PushDelivery delivery = PushDelivery.first();
+
+        service.sendFamilyMessageNotification(MESSAGE_ID, FAMILY_ID, "Sam", "hello", delivery);
+
+        assertEquals(List.of("token-a"), sentTokens());
+        assertEquals(Set.of("token-a", "token-c"), delivery.completedTokens());
+        assertEquals(Set.of("token-b"), delivery.heldTokens());
+        assertEquals(42_000L, delivery.recheckAt());
+    }
+
+    @Test
+    @DisplayName("Nothing is sent when every token was delivered by an earlier attempt")
+    void nothingLeftToSend() {
+        service.sendFamilyMessageNotification(MESSAGE_ID, FAMILY_ID, "Sam", "hello",
+            new PushDelivery(List.of("token-a", "token-b", "token-c")));
+
+        assertTrue(requests.isEmpty());
+        verify(pushCoalescer, never()).offer(anyString(), anyString(), anyList(), any(), any());
+    }
+}
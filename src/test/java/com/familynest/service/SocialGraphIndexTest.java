@@ -0,0 +1,180 @@
+package com.familynest.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Full load and per-user refreshes of the in-memory social graph
+ */
+@ExtendWith(MockitoExtension.class)
+public class SocialGraphIndexTest {
+
+    private static final String USER_MEMBERSHIPS_SQL = "SELECT family_id, is_active FROM user_family_membership WHERE user_id = ?";
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Spy
+    private LocalBroadcastRelay broadcastRelay = new LocalBroadcastRelay();
+
+    @InjectMocks
+    private SocialGraphIndex index;
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    /**
+     * Load memberships (user, family, active) and mutes (recipient, sender)
+     */
+    private void load(long[][] memberships, long[][] mutes) {
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (long[] row : memberships) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getLong("user_id")).thenReturn(row[0]);
+                when(rs.getLong("family_id")).thenReturn(row[1]);
+                when(rs.getBoolean("is_active")).thenReturn(row[2] == 1);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(startsWith("SELECT user_id, family_id, is_active"), any(RowCallbackHandler.class));
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (long[] row : mutes) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getLong("user_id")).thenReturn(row[0]);
+                when(rs.getLong("member_user_id")).thenReturn(row[1]);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(startsWith("SELECT DISTINCT user_id, member_user_id"), any(RowCallbackHandler.class));
+        index.load();
+    }
+
+    @SafeVarargs
+    private void membershipsInDatabase(long userId, Map<String, Object>... rows) {
+        when(jdbcTemplate.queryForList(USER_MEMBERSHIPS_SQL, userId)).thenReturn(List.of(rows));
+    }
+
+    private static Map<String, Object> membership(long familyId, boolean active) {
+        return Map.of("family_id", familyId, "is_active", active);
+    }
+
+    @Test
+    @DisplayName("A full load indexes members, active members, families and mutes as sorted arrays")
+    void reloadBuildsIndex() {
+        load(new long[][] {{3, 10, 1}, {1, 10, 0}, {2, 10, 1}, {1, 20, 1}}, new long[][] {{1, 3}});
+
+        assertArrayEquals(new long[] {1, 2, 3}, index.membersOf(10L));
+        assertArrayEquals(new long[] {2, 3}, index.activeMembersOf(10L));
+        assertArrayEquals(new long[] {10, 20}, index.familiesOf(1L));
+        assertTrue(index.hasMuted(1L, 3L));
+        assertFalse(index.hasMuted(3L, 1L));
+        assertArrayEquals(new long[0], index.membersOf(99L));
+    }
+
+    @Test
+    @DisplayName("Before the first load lookups fall back to SQL")
+    void lookupsFallBackToSqlBeforeLoad() {
+        when(jdbcTemplate.queryForList("SELECT user_id FROM user_family_membership WHERE family_id = ?", Long.class, 10L))
+            .thenReturn(List.of(5L, 4L));
+
+        assertArrayEquals(new long[] {4, 5}, index.membersOf(10L));
+    }
+
+    @Test
+    @DisplayName("Joining one family and leaving another updates both member lists")
+    void membershipChangeMovesUser() {
+        load(new long[][] {{1, 10, 1}, {2, 10, 1}}, new long[0][]);
+        membershipsInDatabase(1L, membership(20L, true));
+
+        index.onMembershipChanged(1L);
+
+        assertArrayEquals(new long[] {2}, index.membersOf(10L));
+        assertArrayEquals(new long[] {1}, index.membersOf(20L));
+        assertArrayEquals(new long[] {1}, index.activeMembersOf(20L));
+        assertArrayEquals(new long[] {20}, index.familiesOf(1L));
+    }
+
+    @Test
+    @DisplayName("Reactivating a membership adds the user back to the active members")
+    void reactivationUpdatesActiveMembers() {
+        load(new long[][] {{1, 10, 0}}, new long[0][]);
+        membershipsInDatabase(1L, membership(10L, true));
+
+        index.onMembershipChanged(1L);
+
+        assertArrayEquals(new long[] {1}, index.activeMembersOf(10L));
+    }
+
+    @Test
+    @DisplayName("Inside a transaction the refresh waits for the commit")
+    void refreshWaitsForCommit() {
+        load(new long[][] {{2, 10, 1}}, new long[0][]);
+        membershipsInDatabase(1L, membership(10L, true));
+        TransactionSynchronizationManager.initSynchronization();
+
+        index.onMembershipChanged(1L);
+        assertArrayEquals(new long[] {2}, index.membersOf(10L));
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertArrayEquals(new long[] {1, 2}, index.membersOf(10L));
+    }
+
+    @Test
+    @DisplayName("Mute changes replace the user's muted senders")
+    void muteRefresh() {
+        load(new long[][] {{1, 10, 1}}, new long[][] {{1, 3}});
+        when(jdbcTemplate.queryForList(startsWith("SELECT DISTINCT member_user_id"), eq(Long.class), eq(1L)))
+            .thenReturn(List.of(4L));
+
+        index.onMutesChanged(1L);
+
+        assertFalse(index.hasMuted(1L, 3L));
+        assertTrue(index.hasMuted(1L, 4L));
+    }
+
+    @Test
+    @DisplayName("A change is published on the relay after commit, and one from another node refreshes the user here")
+    void changesTravelThroughRelay() {
+        load(new long[][] {{1, 10, 1}}, new long[0][]);
+        when(jdbcTemplate.queryForList(startsWith("SELECT DISTINCT member_user_id"), eq(Long.class), eq(1L)))
+            .thenReturn(List.of(4L));
+        TransactionSynchronizationManager.initSynchronization();
+
+        index.onMutesChanged(1L);
+        verify(broadcastRelay, never()).publish(any());
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        verify(broadcastRelay).publish(argThat(event ->
+            event.kind() == RelayedBroadcast.Kind.MUTES_CHANGED && event.targetId() == 1L));
+        assertTrue(index.hasMuted(1L, 4L));
+
+        membershipsInDatabase(2L, membership(10L, true));
+        broadcastRelay.publish(new RelayedBroadcast(RelayedBroadcast.Kind.MEMBERSHIP_CHANGED, null, 2L,
+            null, null, null, "other-node", System.currentTimeMillis()));
+        assertArrayEquals(new long[] {1, 2}, index.membersOf(10L));
+    }
+}
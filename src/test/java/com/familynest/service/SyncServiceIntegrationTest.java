@@ -0,0 +1,140 @@
+package com.familynest.service;
+
+import com.familynest.dto.FeedMessageDTO;
+import com.familynest.dto.SyncRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * /api/sync against PostgreSQL (testdb profile) with timeline rows written out of message id order:
+ * rows backfilled after newer messages, and a row whose transaction commits after a later one
+ * has already been synced
+ */
+@SpringBootTest
+@ActiveProfiles("testdb")
+public class SyncServiceIntegrationTest {
+
+    private static final long USER_ID = 910_000_001L;
+    private static final long SENDER_ID = 910_000_002L;
+    private static final long FAMILY_ID = 910_000_001L;
+
+    @Autowired
+    private SyncService syncService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @BeforeEach
+    void seed() {
+        cleanUp();
+        for (long id : new long[] {USER_ID, SENDER_ID}) {
+            jdbcTemplate.update("INSERT INTO app_user (id, username, password, email, first_name, last_name, role) " +
+                                "VALUES (?, ?, 'x', ?, 'Sync', 'Test', 'USER')", id, "synctest_" + id, "synctest_" + id + "@example.com");
+        }
+        jdbcTemplate.update("INSERT INTO family (id, name, created_by) VALUES (?, 'Sync test', ?)", FAMILY_ID, SENDER_ID);
+        jdbcTemplate.update("INSERT INTO user_family_membership (family_id, user_id, role, is_active, joined_at) " +
+                            "VALUES (?, ?, 'MEMBER', true, NOW())", FAMILY_ID, USER_ID);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM message WHERE sender_id = ?", SENDER_ID);
+        jdbcTemplate.update("DELETE FROM user_family_membership WHERE family_id = ?", FAMILY_ID);
+        jdbcTemplate.update("DELETE FROM family WHERE id = ?", FAMILY_ID);
+        jdbcTemplate.update("DELETE FROM app_user WHERE id IN (?, ?)", USER_ID, SENDER_ID);
+    }
+
+    private long newMessage() {
+        return jdbcTemplate.queryForObject("INSERT INTO message (content, user_id, sender_id, sender_username, family_id) " +
+                                           "VALUES ('sync test', ?, ?, 'synctest', ?) RETURNING id",
+                                           Long.class, SENDER_ID, SENDER_ID, FAMILY_ID);
+    }
+
+    private long timelineRow(long messageId) {
+        return jdbcTemplate.queryForObject("INSERT INTO user_timeline (user_id, message_id, family_id, sender_id) " +
+                                           "VALUES (?, ?, ?, ?) RETURNING sync_version",
+                                           Long.class, USER_ID, messageId, FAMILY_ID, SENDER_ID);
+    }
+
+    private long currentVersion() {
+        return jdbcTemplate.queryForObject("SELECT nextval('family_feed_version_seq')", Long.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> syncedMessageIds(Map<String, Object> response) {
+        return ((List<FeedMessageDTO>) response.get("messages")).stream().map(FeedMessageDTO::id).toList();
+    }
+
+    private long messageVersion(Map<String, Object> response) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> watermarks = (Map<String, Object>) response.get("watermarks");
+        return ((Number) watermarks.get("messageVersion")).longValue();
+    }
+
+    @Test
+    @DisplayName("A timeline row written after a newer message's row is still past the client's watermark")
+    void backfilledOlderMessageIsSynced() {
+        long olderMessage = newMessage();
+        long newerMessage = newMessage();
+        assertTrue(olderMessage < newerMessage);
+
+        // The newer message is fanned out first; the older one only arrives later (repair job / backfill)
+        long newerVersion = timelineRow(newerMessage);
+        long olderVersion = timelineRow(olderMessage);
+        assertTrue(olderVersion > newerVersion);
+
+        // Client already has everything up to the newer message's row
+        Map<String, Object> response = syncService.sync(USER_ID, new SyncRequest(newerVersion, null, null, Map.of()));
+
+        assertEquals(List.of(olderMessage), syncedMessageIds(response));
+    }
+
+    @Test
+    @DisplayName("A row committed after a later row was synced is returned by the next sync")
+    void rowCommittedOutOfOrderIsNotSkipped() throws Exception {
+        long start = currentVersion();
+        long lateMessage = newMessage();
+        long earlyMessage = newMessage();
+
+        try (Connection slowWriter = dataSource.getConnection()) {
+            // The slow transaction takes its sync_version first but commits last
+            slowWriter.setAutoCommit(false);
+            try (PreparedStatement insert = slowWriter.prepareStatement(
+                    "INSERT INTO user_timeline (user_id, message_id, family_id, sender_id) VALUES (?, ?, ?, ?)")) {
+                insert.setLong(1, USER_ID);
+                insert.setLong(2, lateMessage);
+                insert.setLong(3, FAMILY_ID);
+                insert.setLong(4, SENDER_ID);
+                insert.executeUpdate();
+            }
+            timelineRow(earlyMessage);
+
+            Map<String, Object> first = syncService.sync(USER_ID, new SyncRequest(start, null, null, Map.of()));
+            assertEquals(List.of(earlyMessage), syncedMessageIds(first));
+            // Nothing written in the last settle margin is behind the watermark yet
+            assertEquals(start, messageVersion(first));
+
+            slowWriter.commit();
+
+            Map<String, Object> second = syncService.sync(USER_ID, new SyncRequest(messageVersion(first), null, null, Map.of()));
+            assertTrue(syncedMessageIds(second).contains(lateMessage));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.familynest.service;
+
+import com.familynest.dto.FeedMessageDTO;
+import com.familynest.dto.SyncRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Watermark arithmetic of /api/sync: watermarks follow the rows sent but never pass the settled
+ * sequence values, so rows whose transactions commit late are picked up by the next sync
+ */
+@ExtendWith(MockitoExtension.class)
+public class SyncServiceTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @InjectMocks
+    private SyncService syncService;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(syncService, "maxRowsPerSection", 3);
+        ReflectionTestUtils.setField(syncService, "settleMarginMs", 30000L);
+    }
+
+    private static SyncService.Page<Object> page(boolean truncated, long... keys) {
+        SyncService.Page<Object> page = new SyncService.Page<>();
+        for (long key : keys) {
+            page.keys.add(key);
+            page.rows.add(key);
+        }
+        page.truncated = truncated;
+        return page;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void settledAt(long feedVersion, long commentId, long dmMessageId) {
+        when(jdbcTemplate.query(contains("FROM sync_sequence_checkpoint"), any(RowMapper.class), eq(30000L)))
+            .thenReturn(List.of(new SyncService.Settled(feedVersion, commentId, dmMessageId)));
+    }
+
+    /**
+     * Feed the new-messages query one row per sync_version
+     */
+    private void newMessageRows(long... syncVersions) {
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (long syncVersion : syncVersions) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getLong("sync_version")).thenReturn(syncVersion);
+                when(rs.getLong("id")).thenReturn(syncVersion * 10);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(contains("timeline_new"), any(RowCallbackHandler.class), any(Object[].class));
+    }
+
+    @Test
+    @DisplayName("The watermark follows the last row when everything sent has settled")
+    void advanceToLastSettledRow() {
+        assertEquals(15, SyncService.advance(10, page(false, 12, 15), 20));
+    }
+
+    @Test
+    @DisplayName("Rows past the settled value are sent, but the watermark stops at it")
+    void advanceStopsAtSettledValue() {
+        assertEquals(13, SyncService.advance(10, page(false, 12, 15), 13));
+    }
+
+    @Test
+    @DisplayName("The watermark never moves backwards")
+    void advanceNeverGoesBack() {
+        assertEquals(10, SyncService.advance(10, page(false, 12, 15), 8));
+        assertEquals(10, SyncService.advance(10, page(false), 20));
+    }
+
+    @Test
+    @DisplayName("A cut-off section reports more rows only when its watermark reached the last row")
+    void hasMoreOnlyBelowSettledValue() {
+        assertTrue(SyncService.hasMore(page(true, 12, 15), 20));
+        assertFalse(SyncService.hasMore(page(true, 12, 15), 13));
+        assertFalse(SyncService.hasMore(page(false, 12, 15), 20));
+    }
+
+    @Test
+    @DisplayName("The shared change version is capped by a cut-off section and by the settled value")
+    void changeVersionCaps() {
+        assertEquals(14, SyncService.nextChangeVersion(10, page(true, 12, 14), page(false, 11, 18), 30));
+        assertEquals(18, SyncService.nextChangeVersion(10, page(false, 12, 14), page(false, 11, 18), 30));
+        assertEquals(16, SyncService.nextChangeVersion(10, page(false, 12, 14), page(false, 11, 18), 16));
+    }
+
+    @Test
+    @DisplayName("A first sync starts from the settled values, not from the current maximum ids")
+    void initialWatermarksComeFromCheckpoint() {
+        settledAt(500, 40, 70);
+
+        Map<String, Object> response = syncService.sync(7L, new SyncRequest(null, null, null, null));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> watermarks = (Map<String, Object>) response.get("watermarks");
+        assertEquals(500L, watermarks.get("messageVersion"));
+        assertEquals(40L, watermarks.get("lastCommentId"));
+        assertEquals(500L, watermarks.get("changeVersion"));
+        verify(jdbcTemplate, never()).queryForObject(contains("MAX("), eq(Long.class));
+    }
+
+    @Test
+    @DisplayName("New messages past the settled version are returned without moving the watermark past it")
+    void newMessagesAboveSettledVersionAreSentAgain() {
+        settledAt(105, 0, 0);
+        newMessageRows(103, 107);
+
+        Map<String, Object> response = syncService.sync(7L, new SyncRequest(100L, null, null, null));
+
+        @SuppressWarnings("unchecked")
+        List<FeedMessageDTO> messages = (List<FeedMessageDTO>) response.get("messages");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> watermarks = (Map<String, Object>) response.get("watermarks");
+        assertEquals(List.of(1030L, 1070L), messages.stream().map(FeedMessageDTO::id).toList());
+        assertEquals(105L, watermarks.get("messageVersion"));
+        assertEquals(false, response.get("hasMore"));
+    }
+
+    @Test
+    @DisplayName("A full page of settled rows sets hasMore and moves the watermark to the last row sent")
+    void truncatedPageOfSettledRows() {
+        settledAt(1000, 0, 0);
+        newMessageRows(101, 102, 103, 104);
+
+        Map<String, Object> response = syncService.sync(7L, new SyncRequest(100L, null, null, null));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> watermarks = (Map<String, Object>) response.get("watermarks");
+        assertEquals(3, ((List<?>) response.get("messages")).size());
+        assertEquals(103L, watermarks.get("messageVersion"));
+        assertEquals(true, response.get("hasMore"));
+    }
+}
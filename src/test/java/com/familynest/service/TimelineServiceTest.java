@@ -0,0 +1,156 @@
+package com.familynest.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Fan-out on write versus read-time fan-out, and the post-commit hand-off to the dispatcher lanes
+ */
+@ExtendWith(MockitoExtension.class)
+public class TimelineServiceTest {
+
+    private static final String FAMILY_SQL = "SELECT member_count, fanout_on_read FROM family WHERE id = ?";
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private BroadcastDispatcher broadcastDispatcher;
+
+    @Mock
+    private ETagService etagService;
+
+    @InjectMocks
+    private TimelineService timelineService;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(timelineService, "fanoutThreshold", 500);
+    }
+
+    private void family(long familyId, int memberCount, boolean fanoutOnRead) {
+        when(jdbcTemplate.queryForList(FAMILY_SQL, familyId))
+            .thenReturn(List.of(Map.of("member_count", memberCount, "fanout_on_read", fanoutOnRead)));
+    }
+
+    @Test
+    @DisplayName("Fan-out is queued per family on the family's lane, not run on the caller")
+    void scheduleFanOutQueuesEachFamilyOnItsLane() {
+        family(10L, 3, false);
+        family(20L, 4, false);
+
+        timelineService.scheduleFanOut(99L, 7L, List.of(10L, 20L));
+
+        ArgumentCaptor<Runnable> work = ArgumentCaptor.forClass(Runnable.class);
+        verify(broadcastDispatcher).submit(eq(10L), work.capture());
+        verify(broadcastDispatcher).submit(eq(20L), work.capture());
+        verifyNoInteractions(jdbcTemplate);
+
+        work.getAllValues().forEach(Runnable::run);
+        verify(jdbcTemplate).update(startsWith("INSERT INTO user_timeline"), eq(99L), eq(10L), eq(7L), eq(10L));
+        verify(jdbcTemplate).update(startsWith("INSERT INTO user_timeline"), eq(99L), eq(20L), eq(7L), eq(20L));
+    }
+
+    @Test
+    @DisplayName("The feed version is bumped on the lane only after the timeline rows are written")
+    void feedVersionBumpedAfterFanOut() {
+        family(10L, 3, false);
+
+        timelineService.scheduleFanOut(99L, 7L, List.of(10L));
+
+        ArgumentCaptor<Runnable> work = ArgumentCaptor.forClass(Runnable.class);
+        verify(broadcastDispatcher).submit(eq(10L), work.capture());
+        verifyNoInteractions(etagService);
+
+        work.getValue().run();
+        InOrder order = inOrder(jdbcTemplate, etagService);
+        order.verify(jdbcTemplate).update(startsWith("INSERT INTO user_timeline"), eq(99L), eq(10L), eq(7L), eq(10L));
+        order.verify(etagService).bumpFamily(10L);
+    }
+
+    @Test
+    @DisplayName("The repair job bumps the feed version of every family it filled rows in")
+    void repairBumpsRepairedFamilies() {
+        when(jdbcTemplate.queryForList(startsWith("WITH repaired AS"))).thenReturn(List.of(
+            Map.of("family_id", 10L, "row_count", 3L),
+            Map.of("family_id", 20L, "row_count", 1L)));
+
+        timelineService.repairRecentTimelines();
+
+        verify(etagService).bumpFamily(10L);
+        verify(etagService).bumpFamily(20L);
+    }
+
+    @Test
+    @DisplayName("Families already on read-time fan-out get no timeline rows")
+    void fanOutSkipsReadTimeFamilies() {
+        family(10L, 800, true);
+
+        timelineService.fanOutMessage(99L, 7L, List.of(10L));
+
+        verify(jdbcTemplate, never()).update(startsWith("INSERT INTO user_timeline"), any(Object[].class));
+    }
+
+    @Test
+    @DisplayName("A family over the threshold is flagged read-time and skipped")
+    void fanOutFlagsFamilyOverThreshold() {
+        family(10L, 501, false);
+
+        timelineService.fanOutMessage(99L, 7L, List.of(10L));
+
+        verify(jdbcTemplate).update("UPDATE family SET fanout_on_read = true WHERE id = ?", 10L);
+        verify(jdbcTemplate, never()).update(startsWith("INSERT INTO user_timeline"), any(Object[].class));
+    }
+
+    @Test
+    @DisplayName("A failed insert for one family doesn't stop the others")
+    void fanOutContinuesAfterFailure() {
+        family(10L, 3, false);
+        family(20L, 3, false);
+        when(jdbcTemplate.update(startsWith("INSERT INTO user_timeline"), eq(99L), eq(10L), eq(7L), eq(10L)))
+            .thenThrow(new IllegalStateException("boom"));
+
+        timelineService.fanOutMessage(99L, 7L, List.of(10L, 20L));
+
+        verify(jdbcTemplate).update(startsWith("INSERT INTO user_timeline"), eq(99L), eq(20L), eq(7L), eq(20L));
+    }
+
+    @Test
+    @DisplayName("A joining member is backfilled from the family's linked messages")
+    void backfillCopiesFamilyHistory() {
+        family(10L, 3, false);
+
+        timelineService.backfillMember(42L, 10L);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate).update(sql.capture(), eq(42L), eq(10L));
+        assertTrue(sql.getValue().contains("FROM message_family_link mfl"));
+        assertTrue(sql.getValue().contains("ON CONFLICT (user_id, message_id) DO NOTHING"));
+    }
+
+    @Test
+    @DisplayName("Read-time families are not backfilled")
+    void backfillSkipsReadTimeFamilies() {
+        family(10L, 800, true);
+
+        timelineService.backfillMember(42L, 10L);
+
+        verify(jdbcTemplate, never()).update(anyString(), eq(42L), eq(10L));
+    }
+}